@@ -71,8 +71,9 @@ function build_jar() {
 
     fi
 
-    # ARCH needed for maven-surefire-plugin
-    export ARCH
+    # ARCH and VTK_ARCH needed for maven-surefire-plugin
+    VTK_ARCH=$(uname -s)-$(uname -m)
+    export ARCH VTK_ARCH
     mvn clean install
 
     # restore the old pom file
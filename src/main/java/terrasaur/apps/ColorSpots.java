@@ -27,15 +27,18 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-import org.apache.commons.math3.util.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.spi.StandardLevel;
@@ -43,10 +46,8 @@ import picante.math.vectorspace.VectorIJK;
 import terrasaur.smallBodyModel.SmallBodyModel;
 import terrasaur.templates.TerrasaurTool;
 import terrasaur.utils.*;
-import terrasaur.utils.math.MathConversions;
 import terrasaur.utils.mesh.TriangularFacet;
 import vtk.vtkCell;
-import vtk.vtkIdList;
 import vtk.vtkObject;
 import vtk.vtkPoints;
 import vtk.vtkPolyData;
@@ -100,12 +101,19 @@ public class ColorSpots implements TerrasaurTool {
     VARIANCE
   }
 
-  private vtkPolyData polyData;
+  /** number of input points processed together by each task */
+  private static final int CHUNK_SIZE = 4096;
+
+  /** number of CSV records read before they are handed off for projection and accumulation */
+  private static final int BATCH_SIZE = 64 * CHUNK_SIZE;
+
   private SmallBodyModel smallBodyModel;
+  private double[] vertices;
 
   public ColorSpots(vtkPolyData polyData) {
-    this.polyData = polyData;
-    this.smallBodyModel = new SmallBodyModel(polyData);
+    // the Java search structures may be queried from multiple threads
+    this.smallBodyModel = new SmallBodyModel(polyData, SmallBodyModel.QueryEngine.BVH);
+    this.vertices = PolyDataUtil.getPackedVertices(polyData);
   }
 
   private long getXYZ(double lat, double lon, double[] pt) {
@@ -115,201 +123,255 @@ public class ColorSpots implements TerrasaurTool {
     return smallBodyModel.computeRayIntersection(origin, lookDir.toArray(), pt);
   }
 
-  private ArrayList<double[]> readCSV(String filename, FORMAT format) {
-
-    ArrayList<double[]> returnArray = new ArrayList<>();
-
-    try (Reader in = new FileReader(filename)) {
-      Iterable<CSVRecord> records = CSVFormat.DEFAULT.parse(in);
-      for (CSVRecord record : records) {
-        double[] values = new double[4];
-        values[3] = Double.NaN;
-        if (format == FORMAT.LL) {
-          double lon = Math.toRadians(Double.parseDouble(record.get(0).trim()));
-          double lat = Math.toRadians(Double.parseDouble(record.get(1).trim()));
-
-          if (getXYZ(lat, lon, values) < 0) continue;
-          try {
-            values[3] = Double.parseDouble(record.get(2));
-          } catch (NumberFormatException e) {
-            continue;
-          }
-        } else {
-          if (format == FORMAT.LLR) {
-            double lon = Math.toRadians(Double.parseDouble(record.get(0).trim()));
-            double lat = Math.toRadians(Double.parseDouble(record.get(1).trim()));
-            double rad = Double.parseDouble(record.get(2).trim());
-            Vector3D xyz = new Vector3D(lon, lat).scalarMultiply(rad);
-            values[0] = xyz.getX();
-            values[1] = xyz.getY();
-            values[2] = xyz.getZ();
-          } else if (format == FORMAT.XYZ) {
-            values[0] = Double.parseDouble(record.get(0).trim());
-            values[1] = Double.parseDouble(record.get(1).trim());
-            values[2] = Double.parseDouble(record.get(2).trim());
-          }
-          smallBodyModel.findClosestCell(values);
-          try {
-            values[3] = Double.parseDouble(record.get(3).trim());
-          } catch (NumberFormatException e) {
-            continue;
-          }
-        }
-        returnArray.add(values);
+  /**
+   * Convert one CSV record to (x, y, z, value). With {@link FORMAT#LL} the surface point is found
+   * by casting a ray from the origin.
+   *
+   * @param record CSV record
+   * @param format record format
+   * @return (x, y, z, value), or null if the value is not a number or the ray misses the shape
+   */
+  private double[] parseRecord(CSVRecord record, FORMAT format) {
+    double[] values = new double[4];
+    values[3] = Double.NaN;
+    if (format == FORMAT.LL) {
+      double lon = Math.toRadians(Double.parseDouble(record.get(0).trim()));
+      double lat = Math.toRadians(Double.parseDouble(record.get(1).trim()));
+
+      if (getXYZ(lat, lon, values) < 0) return null;
+      try {
+        values[3] = Double.parseDouble(record.get(2));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    } else {
+      if (format == FORMAT.LLR) {
+        double lon = Math.toRadians(Double.parseDouble(record.get(0).trim()));
+        double lat = Math.toRadians(Double.parseDouble(record.get(1).trim()));
+        double rad = Double.parseDouble(record.get(2).trim());
+        Vector3D xyz = new Vector3D(lon, lat).scalarMultiply(rad);
+        values[0] = xyz.getX();
+        values[1] = xyz.getY();
+        values[2] = xyz.getZ();
+      } else if (format == FORMAT.XYZ) {
+        values[0] = Double.parseDouble(record.get(0).trim());
+        values[1] = Double.parseDouble(record.get(1).trim());
+        values[2] = Double.parseDouble(record.get(2).trim());
+      }
+      try {
+        values[3] = Double.parseDouble(record.get(3).trim());
+      } catch (NumberFormatException e) {
+        return null;
       }
-    } catch (IOException e) {
-      logger.error(e.getLocalizedMessage(), e);
     }
-
-    return returnArray;
+    return values;
   }
 
-  public TreeMap<Long, DescriptiveStatistics> getStatsFast(
-      ArrayList<double[]> valuesList, double radius, boolean weight, boolean atVertices) {
-    return atVertices
-        ? getStatsVertex(valuesList, radius, weight)
-        : getStatsFacet(valuesList, radius, weight);
-  }
-
-  private TreeMap<Long, DescriptiveStatistics> getStatsVertex(
-      ArrayList<double[]> valuesList, double radius, boolean weight) {
-
-    TreeMap<Long, DescriptiveStatistics> statMap = new TreeMap<>();
-    for (long i = 0; i < smallBodyModel.getSmallBodyPolyData().GetNumberOfPoints(); i++) {
-      DescriptiveStatistics stats = new DescriptiveStatistics();
-      statMap.put(i, stats);
+  /**
+   * Stream a CSV file and accumulate statistics for each facet or vertex within radius of an
+   * input point. Records are read in batches. The next batch is read while the previous one is
+   * projected onto the surface and accumulated in parallel, so no more than two batches are held
+   * in memory regardless of the size of the file.
+   *
+   * @param filename CSV file
+   * @param format record format
+   * @param radius search radius
+   * @param weight if true, weight each value by (1 - distance/radius)
+   * @param atVertices if true, accumulate at vertices, otherwise at facet centers
+   * @param trackMedian if true, estimate the median of each facet or vertex
+   * @return statistics for each facet or vertex with at least one contribution
+   * @throws IOException
+   */
+  private TreeMap<Long, StreamingStatistics> getStatsFast(
+      String filename,
+      FORMAT format,
+      double radius,
+      boolean weight,
+      boolean atVertices,
+      boolean trackMedian)
+      throws IOException {
+    BiConsumer<double[], StatMap> contribution = getContribution(radius, weight, atVertices);
+    HashMap<Long, StreamingStatistics> statMap = new HashMap<>();
+
+    long numRecords = 0;
+    long numValues = 0;
+    CompletableFuture<Integer> pending = CompletableFuture.completedFuture(0);
+    try (Reader in = new FileReader(filename);
+        CSVParser parser = CSVFormat.DEFAULT.parse(in)) {
+      Iterator<CSVRecord> records = parser.iterator();
+      while (records.hasNext()) {
+        List<CSVRecord> batch = new ArrayList<>(BATCH_SIZE);
+        while (batch.size() < BATCH_SIZE && records.hasNext()) batch.add(records.next());
+        numRecords += batch.size();
+
+        // wait for the previous batch before handing this one off
+        numValues += pending.join();
+        pending =
+            CompletableFuture.supplyAsync(
+                () -> {
+                  List<double[]> valuesList =
+                      batch.parallelStream()
+                          .map(record -> parseRecord(record, format))
+                          .filter(Objects::nonNull)
+                          .collect(Collectors.toList());
+                  accumulate(valuesList, trackMedian, contribution, statMap);
+                  return valuesList.size();
+                });
+      }
+      numValues += pending.join();
     }
-    // double[] xyz = new double[3];
-
-    for (double[] values : valuesList) {
-      Vector3D xyz = new Vector3D(values[0], values[1], values[2]);
-      double value = values[3];
+    logger.info("Read {} values from {} records in {}", numValues, numRecords, filename);
 
-      vtkIdList pointIDs = new vtkIdList();
-      smallBodyModel.getPointLocator().FindPointsWithinRadius(radius, xyz.toArray(), pointIDs);
-      // pointIDs.InsertNextId(smallBodyModel.getPointLocator().FindClosestPoint(xyz));
+    return new TreeMap<>(statMap);
+  }
 
-      for (int i = 0; i < pointIDs.GetNumberOfIds(); i++) {
-        long pointID = pointIDs.GetId(i);
-        DescriptiveStatistics stats = statMap.get(pointID);
+  /**
+   * Accumulate statistics for each facet or vertex within radius of an input point.
+   *
+   * @param valuesList list of (x, y, z, value)
+   * @param radius search radius
+   * @param weight if true, weight each value by (1 - distance/radius)
+   * @param atVertices if true, accumulate at vertices, otherwise at facet centers
+   * @param trackMedian if true, estimate the median of each facet or vertex
+   * @return statistics for each facet or vertex with at least one contribution
+   */
+  public TreeMap<Long, StreamingStatistics> getStatsFast(
+      List<double[]> valuesList,
+      double radius,
+      boolean weight,
+      boolean atVertices,
+      boolean trackMedian) {
+    HashMap<Long, StreamingStatistics> statMap = new HashMap<>();
+    accumulate(valuesList, trackMedian, getContribution(radius, weight, atVertices), statMap);
+    return new TreeMap<>(statMap);
+  }
 
-        Vector3D p = new Vector3D(smallBodyModel.getSmallBodyPolyData().GetPoint(pointID));
-        double dist = p.distance(xyz);
+  private BiConsumer<double[], StatMap> getContribution(
+      double radius, boolean weight, boolean atVertices) {
+    return atVertices
+        ? getVertexContribution(radius, weight)
+        : getFacetContribution(radius, weight);
+  }
 
-        // cell center can be farther than radius as long as one point is closer than //
-        // radius
+  private BiConsumer<double[], StatMap> getVertexContribution(double radius, boolean weight) {
+    return (values, statMap) -> {
+      for (long pointID : smallBodyModel.findClosestVerticesWithinRadius(values, radius)) {
+        int i = 3 * (int) pointID;
+        double dist = distance(values, vertices[i], vertices[i + 1], vertices[i + 2]);
         if (dist < radius) {
-          double thisValue = value;
+          double thisValue = values[3];
           if (weight) thisValue *= (1 - dist / radius);
-          stats.addValue(thisValue);
-
-          // if (thisValue < 0)
-          // System.out.printf("Cell %d dist %f radius %f xyz %f %f %f value %f thisValue %e\n",
-          // cellID, dist, radius,
-          // xyz[0], xyz[1], xyz[2],
-          // value, thisValue);
+          statMap.add(pointID, thisValue);
         }
-      } // point loop
-    } // values loop
-
-    return statMap;
+      }
+    };
   }
 
-  private TreeMap<Long, DescriptiveStatistics> getStatsFacet(
-      ArrayList<double[]> valuesList, double radius, boolean weight) {
-
-    TreeMap<Long, DescriptiveStatistics> statMap = new TreeMap<>();
-    for (long i = 0; i < smallBodyModel.getSmallBodyPolyData().GetNumberOfCells(); i++) {
-      DescriptiveStatistics stats = new DescriptiveStatistics();
-      statMap.put(i, stats);
-    }
-
-    for (double[] values : valuesList) {
-      Vector3D xyz = new Vector3D(values[0], values[1], values[2]);
-      double value = values[3];
-
-      Set<Long> cellIDs = smallBodyModel.findClosestCellsWithinRadius(xyz.toArray(), radius);
-      // cellIDs.add(smallBodyModel.findClosestCell(xyz));
+  private BiConsumer<double[], StatMap> getFacetContribution(double radius, boolean weight) {
+    FacetAttributes facetAttributes = smallBodyModel.getFacetAttributes();
+    return (values, statMap) -> {
+      double[] center = new double[3];
+      for (long cellID : smallBodyModel.findClosestCellsWithinRadius(values, radius)) {
+        facetAttributes.getCenter(cellID, center);
+        double dist = distance(values, center[0], center[1], center[2]);
 
-      for (Long cellID : cellIDs) {
-        DescriptiveStatistics stats = statMap.get(cellID);
-
-        TriangularFacet tf = PolyDataUtil.getFacet(polyData, cellID);
-        Vector3D p = MathConversions.toVector3D(tf.getCenter());
-        double dist = p.distance(xyz);
-
-        // cell center can be farther than radius as long as one point is closer than //
+        // cell center can be farther than radius as long as one point is closer than
         // radius
         if (dist < radius) {
-          double thisValue = value;
+          double thisValue = values[3];
           if (weight) thisValue *= (1 - dist / radius);
-          stats.addValue(thisValue);
-
-          // if (thisValue < 0)
-          // System.out.printf("Cell %d dist %f radius %f xyz %f %f %f value %f thisValue %e\n",
-          // cellID, dist, radius,
-          // xyz[0], xyz[1], xyz[2],
-          // value, thisValue);
+          statMap.add(cellID, thisValue);
         }
-      } // cell loop
-    } // values loop
-
-    return statMap;
-  }
-
-  public TreeMap<Integer, DescriptiveStatistics> getStats(
-      ArrayList<double[]> valuesList, double radius) {
-
-    // for each value, store indices of closest cells and distances
-    TreeMap<Integer, ArrayList<Pair<Long, Double>>> closestCells = new TreeMap<>();
-    for (int i = 0; i < valuesList.size(); i++) {
-      double[] values = valuesList.get(i);
-      Vector3D xyz = new Vector3D(values);
-
-      TreeSet<Long> sortedCellIDs =
-          new TreeSet<>(smallBodyModel.findClosestCellsWithinRadius(values, radius));
-      sortedCellIDs.add(smallBodyModel.findClosestCell(values));
-
-      ArrayList<Pair<Long, Double>> distances = new ArrayList<>();
-      for (long cellID : sortedCellIDs) {
-        TriangularFacet tf = PolyDataUtil.getFacet(polyData, cellID);
-        Vector3D p = MathConversions.toVector3D(tf.getCenter());
-        double dist = p.distance(xyz);
-        distances.add(Pair.create(cellID, dist));
       }
-      closestCells.put(i, distances);
-    }
+    };
+  }
 
-    TreeMap<Integer, DescriptiveStatistics> statMap = new TreeMap<>();
-    for (int cellID = 0; cellID < polyData.GetNumberOfCells(); cellID++) {
-      DescriptiveStatistics stats = statMap.get(cellID);
-      if (stats == null) {
-        stats = new DescriptiveStatistics();
-        statMap.put(cellID, stats);
-      }
+  /**
+   * Same as {@link #getStatsFast(List, double, boolean, boolean, boolean)} for facets with
+   * weighting, except that the facet closest to each input point is always considered.
+   *
+   * @param valuesList list of (x, y, z, value)
+   * @param radius search radius
+   * @return statistics for each facet with at least one contribution
+   */
+  public TreeMap<Long, StreamingStatistics> getStats(List<double[]> valuesList, double radius) {
+
+    FacetAttributes facetAttributes = smallBodyModel.getFacetAttributes();
+    HashMap<Long, StreamingStatistics> statMap = new HashMap<>();
+    accumulate(
+        valuesList,
+        false,
+        (values, chunkMap) -> {
+          Set<Long> cellIDs = smallBodyModel.findClosestCellsWithinRadius(values, radius);
+          cellIDs.add(smallBodyModel.findClosestCell(values));
+
+          double[] center = new double[3];
+          for (long cellID : cellIDs) {
+            facetAttributes.getCenter(cellID, center);
+            double dist = distance(values, center[0], center[1], center[2]);
+            if (dist < radius) chunkMap.add(cellID, (1 - dist / radius) * values[3]);
+          }
+        },
+        statMap);
+    return new TreeMap<>(statMap);
+  }
 
-      for (int i = 0; i < valuesList.size(); i++) {
-        double[] values = valuesList.get(i);
+  private static double distance(double[] values, double x, double y, double z) {
+    double dx = values[0] - x;
+    double dy = values[1] - y;
+    double dz = values[2] - z;
+    return Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
 
-        ArrayList<Pair<Long, Double>> distances = closestCells.get(i);
-        for (Pair<Long, Double> pair : distances) {
+  /** Statistics for the facets or vertices touched by one chunk of input points */
+  private static class StatMap {
+    private final boolean trackMedian;
+    private final HashMap<Long, StreamingStatistics> map = new HashMap<>();
 
-          if (pair.getFirst().intValue() < cellID) continue;
+    private StatMap(boolean trackMedian) {
+      this.trackMedian = trackMedian;
+    }
 
-          if (pair.getFirst().intValue() > cellID) break;
+    private void add(long index, double value) {
+      map.computeIfAbsent(index, k -> new StreamingStatistics(trackMedian)).addValue(value);
+    }
+  }
 
-          if (pair.getFirst().intValue() == cellID) {
-            double dist = pair.getSecond();
-            if (dist < radius) {
-              double thisValue = (1 - dist / radius) * values[3];
-              stats.addValue(thisValue);
-            }
-          }
-        }
+  /**
+   * Split the input points into chunks which are processed in parallel, each into its own map.
+   * Only facets or vertices which receive a value get an entry. The chunk maps are then merged in
+   * order, so the result does not depend on the number of threads.
+   *
+   * @param valuesList list of (x, y, z, value)
+   * @param trackMedian if true, estimate the median of each facet or vertex
+   * @param contribution adds the contributions of one input point to a map
+   * @param merged statistics for each facet or vertex, updated with the new values
+   */
+  private static void accumulate(
+      List<double[]> valuesList,
+      boolean trackMedian,
+      BiConsumer<double[], StatMap> contribution,
+      Map<Long, StreamingStatistics> merged) {
+    int numChunks = (valuesList.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    List<StatMap> chunks =
+        IntStream.range(0, numChunks)
+            .parallel()
+            .mapToObj(
+                chunk -> {
+                  StatMap statMap = new StatMap(trackMedian);
+                  int end = Math.min(valuesList.size(), (chunk + 1) * CHUNK_SIZE);
+                  for (int i = chunk * CHUNK_SIZE; i < end; i++)
+                    contribution.accept(valuesList.get(i), statMap);
+                  return statMap;
+                })
+            .collect(Collectors.toList());
+
+    for (StatMap statMap : chunks) {
+      for (Map.Entry<Long, StreamingStatistics> entry : statMap.map.entrySet()) {
+        StreamingStatistics stats = merged.putIfAbsent(entry.getKey(), entry.getValue());
+        if (stats != null) stats.merge(entry.getValue());
       }
-    } // cell loop
-
-    return statMap;
+    }
   }
 
   public static void main(String[] args) {
@@ -447,10 +509,24 @@ public class ColorSpots implements TerrasaurTool {
       logger.info("Using search radius of " + radius);
     }
 
+    ArrayList<FIELD> fields = new ArrayList<>();
+    if (cl.hasOption("additionalFields")) {
+      for (String s : cl.getOptionValue("additionalFields").trim().toUpperCase().split(",")) {
+        for (FIELD f : FIELD.values()) {
+          if (f.name().equalsIgnoreCase(s)) fields.add(f);
+        }
+      }
+    }
+
     ColorSpots cs = new ColorSpots(polyData);
-    ArrayList<double[]> infoValues = cs.readCSV(cl.getOptionValue("info"), format);
-    TreeMap<Long, DescriptiveStatistics> statMap =
-        cs.getStatsFast(infoValues, radius, weight, writeVerts);
+    TreeMap<Long, StreamingStatistics> statMap =
+        cs.getStatsFast(
+            cl.getOptionValue("info"),
+            format,
+            radius,
+            weight,
+            writeVerts,
+            fields.contains(FIELD.MEDIAN));
 
     double totalArea = 0;
     if (normalize) {
@@ -471,46 +547,24 @@ public class ColorSpots implements TerrasaurTool {
       }
     }
 
-    ArrayList<FIELD> fields = new ArrayList<>();
-    if (cl.hasOption("additionalFields")) {
-      for (String s : cl.getOptionValue("additionalFields").trim().toUpperCase().split(",")) {
-        for (FIELD f : FIELD.values()) {
-          if (f.name().equalsIgnoreCase(s)) fields.add(f);
-        }
-      }
-    }
-
     TreeMap<Long, ArrayList<Double>> map = new TreeMap<>();
+    StreamingStatistics empty = new StreamingStatistics(true);
     long numPoints = (writeVerts ? polyData.GetNumberOfPoints() : polyData.GetNumberOfCells());
     for (long index = 0; index < numPoints; index++) {
-      DescriptiveStatistics stats = statMap.get(index);
+      // facets or vertices with no contributions report N = 0 and NaN for everything else
+      StreamingStatistics stats = statMap.getOrDefault(index, empty);
       ArrayList<Double> values = new ArrayList<>();
-      if (stats != null) {
-        values.add(stats.getMean());
-        values.add(stats.getStandardDeviation());
-        for (FIELD f : fields) {
-          if (f == FIELD.MIN) values.add(stats.getMin());
-          if (f == FIELD.MAX) values.add(stats.getMax());
-          if (f == FIELD.MEDIAN) values.add(stats.getPercentile(50));
-          if (f == FIELD.N) values.add((double) stats.getN());
-          if (f == FIELD.RMS) values.add(Math.sqrt(stats.getSumsq() / stats.getN()));
-          if (f == FIELD.STD) values.add(stats.getStandardDeviation());
-          if (f == FIELD.SUM) values.add(stats.getSum());
-          if (f == FIELD.VARIANCE) values.add(stats.getVariance());
-        }
-      } else {
-        values.add(Double.NaN);
-        values.add(Double.NaN);
-        for (FIELD f : fields) {
-          if (f == FIELD.MIN) values.add(Double.NaN);
-          if (f == FIELD.MAX) values.add(Double.NaN);
-          if (f == FIELD.MEDIAN) values.add(Double.NaN);
-          if (f == FIELD.N) values.add(Double.NaN);
-          if (f == FIELD.RMS) values.add(Double.NaN);
-          if (f == FIELD.STD) values.add(Double.NaN);
-          if (f == FIELD.SUM) values.add(Double.NaN);
-          if (f == FIELD.VARIANCE) values.add(Double.NaN);
-        }
+      values.add(stats.getMean());
+      values.add(stats.getStandardDeviation());
+      for (FIELD f : fields) {
+        if (f == FIELD.MIN) values.add(stats.getMin());
+        if (f == FIELD.MAX) values.add(stats.getMax());
+        if (f == FIELD.MEDIAN) values.add(stats.getMedian());
+        if (f == FIELD.N) values.add((double) stats.getN());
+        if (f == FIELD.RMS) values.add(Math.sqrt(stats.getSumsq() / stats.getN()));
+        if (f == FIELD.STD) values.add(stats.getStandardDeviation());
+        if (f == FIELD.SUM) values.add(stats.getSum());
+        if (f == FIELD.VARIANCE) values.add(stats.getVariance());
       }
       map.put(index, values);
     }
@@ -23,13 +23,15 @@
 package terrasaur.apps;
 
 import java.io.*;
-import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.math3.complex.Quaternion;
 import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
 import org.apache.commons.math3.geometry.euclidean.threed.RotationConvention;
@@ -47,10 +49,7 @@ import terrasaur.smallBodyModel.SmallBodyModel;
 import terrasaur.templates.TerrasaurTool;
 import terrasaur.utils.*;
 import terrasaur.utils.lidar.LidarTransformation;
-import terrasaur.utils.math.MathConversions;
-import terrasaur.utils.mesh.TriangularFacet;
-import vtk.vtkIdList;
-import vtk.vtkOctreePointLocator;
+import terrasaur.utils.lidar.PointCloudRegistration;
 import vtk.vtkPoints;
 import vtk.vtkPolyData;
 import vtk.vtkUnstructuredGrid;
@@ -97,36 +96,159 @@ public class CompareOBJ implements TerrasaurTool {
 
   private LidarTransformation transform = LidarTransformation.defaultTransform();
 
-  private String tmpdir;
+  /**
+   * Accumulates distance statistics as points are added. Sums over all points are kept as running
+   * totals. Individual distances are only retained when a closest fraction is requested, in which
+   * case the cutoff is found by selection rather than sorting.
+   */
+  private static class DistanceStatistics {
+    private final double limitClosestPoints;
+    private final boolean retain;
+
+    private long count;
+    private double minDist = Double.POSITIVE_INFINITY;
+    private double maxDist = Double.NEGATIVE_INFINITY;
+    private double sumClosest;
+    private double sumClosest2;
+    private double sumNormal;
+    private double sumNormal2;
+
+    private double[] closest;
+    private double[] normal;
+
+    private DistanceStatistics(double limitClosestPoints) {
+      this.limitClosestPoints = limitClosestPoints;
+      this.retain = limitClosestPoints < 1;
+      if (retain) {
+        closest = new double[1024];
+        normal = new double[1024];
+      }
+    }
 
-  private static class DistanceContainer implements Comparable<DistanceContainer> {
-    double closestDistance;
-    double normalDistance;
+    /**
+     * @param closestDistance unsigned distance to the closest point
+     * @param normalDistance unsigned distance along the normal
+     */
+    private void add(double closestDistance, double normalDistance) {
+      if (retain) {
+        if (count == closest.length) {
+          int newLength = (int) Math.min(Integer.MAX_VALUE - 8, 2L * closest.length);
+          closest = Arrays.copyOf(closest, newLength);
+          normal = Arrays.copyOf(normal, newLength);
+        }
+        closest[(int) count] = closestDistance;
+        normal[(int) count] = normalDistance;
+      }
+      count++;
+      minDist = Math.min(minDist, closestDistance);
+      maxDist = Math.max(maxDist, closestDistance);
+      sumClosest += closestDistance;
+      sumClosest2 += closestDistance * closestDistance;
+      sumNormal += normalDistance;
+      sumNormal2 += normalDistance * normalDistance;
+    }
 
-    public DistanceContainer(double closestDistance) {
-      super();
-      this.closestDistance = closestDistance;
-      this.normalDistance = -1;
+    /** @return number of points added */
+    private long size() {
+      return count;
     }
 
-    public void setNormalDistance(double normalDistance) {
-      this.normalDistance = normalDistance;
+    /** @return number of points used in the limited statistics */
+    private long numUsed() {
+      return (long) (limitClosestPoints * count + 0.5);
     }
 
-    public double getClosestDistance() {
-      return closestDistance;
+    /**
+     * @return mean distance, mean square distance, mean vertical distance and mean square vertical
+     *     distance over the {@link #numUsed()} points with the smallest closest distance
+     */
+    private double[] limitedMeans() {
+      long numUsed = numUsed();
+      if (!retain || numUsed == count) {
+        return new double[] {
+          sumClosest / numUsed, sumClosest2 / numUsed, sumNormal / numUsed, sumNormal2 / numUsed
+        };
+      }
+
+      double[] sums = new double[4];
+      if (numUsed > 0) {
+        int n = (int) count;
+        double cutoff = select(Arrays.copyOf(closest, n), (int) numUsed - 1);
+
+        // points tied with the cutoff are taken in the order they were added
+        long numBelow = 0;
+        for (int i = 0; i < n; i++) if (closest[i] < cutoff) numBelow++;
+        long numTies = numUsed - numBelow;
+        for (int i = 0; i < n; i++) {
+          if (closest[i] > cutoff || (closest[i] == cutoff && numTies-- <= 0)) continue;
+          sums[0] += closest[i];
+          sums[1] += closest[i] * closest[i];
+          sums[2] += normal[i];
+          sums[3] += normal[i] * normal[i];
+        }
+      }
+      for (int i = 0; i < sums.length; i++) sums[i] /= numUsed;
+      return sums;
     }
 
-    public double getNormalDistance() {
-      return normalDistance;
+    /**
+     * Quickselect. The array is partially reordered.
+     *
+     * @param a values
+     * @param k rank, starting at 0
+     * @return the k-th smallest value in a
+     */
+    private static double select(double[] a, int k) {
+      int lo = 0;
+      int hi = a.length - 1;
+      while (lo < hi) {
+        // median of three pivot
+        int mid = (lo + hi) >>> 1;
+        if (a[mid] < a[lo]) swap(a, lo, mid);
+        if (a[hi] < a[lo]) swap(a, lo, hi);
+        if (a[hi] < a[mid]) swap(a, mid, hi);
+        double pivot = a[mid];
+
+        int i = lo;
+        int j = hi;
+        while (i <= j) {
+          while (a[i] < pivot) i++;
+          while (a[j] > pivot) j--;
+          if (i <= j) swap(a, i++, j--);
+        }
+        if (k <= j) hi = j;
+        else if (k >= i) lo = i;
+        else return a[k];
+      }
+      return a[k];
     }
 
-    @Override
-    public int compareTo(DistanceContainer o) {
-      return Double.compare(closestDistance, o.closestDistance);
+    private static void swap(double[] a, int i, int j) {
+      double tmp = a[i];
+      a[i] = a[j];
+      a[j] = tmp;
+    }
+  }
+
+  /** Results for a contiguous range of points, formatted for the output files */
+  private static class ChunkResult {
+    private final StringBuilder closestLines = new StringBuilder();
+    private final StringBuilder indexLines = new StringBuilder();
+    private final StringBuilder verticalLines = new StringBuilder();
+    private final double[] closestDistances;
+    private final double[] normalDistances;
+    private final boolean[] used;
+
+    private ChunkResult(int size) {
+      closestDistances = new double[size];
+      normalDistances = new double[size];
+      used = new boolean[size];
     }
   }
 
+  /** Number of points in each unit of work when computing differences */
+  private static final int CHUNK_SIZE = 4096;
+
   public CompareOBJ(String modelName, String referenceModelName) {
     this.referenceModelName = referenceModelName;
     try {
@@ -141,123 +263,81 @@ public class CompareOBJ implements TerrasaurTool {
       logger.error(e.getLocalizedMessage(), e);
       System.exit(0);
     }
-
-    this.tmpdir = ".";
-  }
-
-  public void setTmpdir(String tmpdir) {
-    this.tmpdir = tmpdir;
   }
 
   /**
-   * Save out polydata to track format for use as input to lidar-optimize.
+   * Compute and store the transformation which best aligns the model with the reference using
+   * point to plane ICP on all available processors.
    *
-   * @param polydata polydata to convert
-   * @param filename filename to write
-   * @param useOverlappingPoints if true, only points overlapping the reference model will be added
-   *     to the track file.
+   * @param computeOptimalTranslation true if translation should be computed
+   * @param computeOptimalRotation true if rotation should be computed
+   * @param maxNumberOfControlPoints maximum number of control points
+   * @param useOverlappingPoints if true, only points overlapping the reference model will be used
+   * @param transformationFile JSON file to write
    */
-  private void convertPolyDataToTrackFormat(
-      vtkPolyData polydata, String filename, boolean useOverlappingPoints) {
-    vtkPoints polyDataPoints = polydata.GetPoints();
-    vtkPoints points = polyDataPoints;
-
-    if (useOverlappingPoints) {
-      vtkPoints modelPoints = polyDataTruth.GetPoints();
-      vtkUnstructuredGrid overlap = PolyDataUtil.intersectingPoints(modelPoints, polyDataPoints);
-      points = overlap.GetPoints();
-    }
-
-    try (PrintWriter pw = new PrintWriter(filename)) {
-      double[] p = new double[3];
-      for (int i = 0; i < points.GetNumberOfPoints(); ++i) {
-        points.GetPoint(i, p);
-        pw.write(
-            String.format(
-                "2010-11-11T00:00:00.000 "
-                    + p[0]
-                    + " "
-                    + p[1]
-                    + " "
-                    + p[2]
-                    + " "
-                    + p[0]
-                    + " "
-                    + p[1]
-                    + " "
-                    + p[2]
-                    + "\n"));
-      }
-    } catch (FileNotFoundException e) {
-      logger.error(e.getLocalizedMessage(), e);
-    }
+  public void computeOptimalTransformationToTarget(
+      boolean computeOptimalTranslation,
+      boolean computeOptimalRotation,
+      int maxNumberOfControlPoints,
+      boolean useOverlappingPoints,
+      String transformationFile) {
+    computeOptimalTransformationToTarget(
+        computeOptimalTranslation,
+        computeOptimalRotation,
+        maxNumberOfControlPoints,
+        useOverlappingPoints,
+        transformationFile,
+        PointCloudRegistration.Metric.POINT_TO_PLANE,
+        Runtime.getRuntime().availableProcessors());
   }
 
   /**
-   * Run the C++ lidar-optimize code and store the derived transformation.
+   * Compute and store the transformation which best aligns the model with the reference.
    *
    * @param computeOptimalTranslation true if translation should be computed
    * @param computeOptimalRotation true if rotation should be computed
    * @param maxNumberOfControlPoints maximum number of control points
    * @param useOverlappingPoints if true, only points overlapping the reference model will be used
    * @param transformationFile JSON file to write
+   * @param metric distance to minimize
+   * @param numThreads number of threads
    */
   public void computeOptimalTransformationToTarget(
       boolean computeOptimalTranslation,
       boolean computeOptimalRotation,
       int maxNumberOfControlPoints,
       boolean useOverlappingPoints,
-      String transformationFile) {
-    File tmpDir =
-        new File(
-            String.format("%s%sCompareOBJ-%d", tmpdir, File.separator, System.currentTimeMillis()));
-    if (!tmpDir.exists()) tmpDir.mkdirs();
-
-    String trackFile = tmpDir + File.separator + "shapemodel-as-track.txt";
-    convertPolyDataToTrackFormat(polyDataModel, trackFile, useOverlappingPoints);
-
-    String tmpTransformationFile = tmpDir + File.separator + "transformationfile.txt";
-    String transformationType = null;
-    if (computeOptimalTranslation && computeOptimalRotation) transformationType = "";
-    else if (computeOptimalTranslation) transformationType = "--translation-only ";
-    else if (computeOptimalRotation) transformationType = "--rotation-only ";
-
-    File lsk = ResourceUtils.writeResourceToFile("/resources/kernels/lsk/naif0012.tls");
-    String command =
-        "lidar-optimize --max-number-control-points "
-            + maxNumberOfControlPoints
-            + " "
-            + transformationType
-            + "--load-from-file "
-            + lsk.getPath()
-            + " "
-            + referenceModelName
-            + " "
-            + trackFile
-            + " 0 0 "
-            + tmpTransformationFile;
+      String transformationFile,
+      PointCloudRegistration.Metric metric,
+      int numThreads) {
 
-    long startTime = System.currentTimeMillis();
-    try {
-      ProcessUtils.runProgramAndWait(command, null, false);
-    } catch (IOException | InterruptedException e) {
-      logger.error(e.getLocalizedMessage(), e);
+    vtkPoints points = polyDataModel.GetPoints();
+    if (useOverlappingPoints) {
+      vtkUnstructuredGrid overlap =
+          PolyDataUtil.intersectingPoints(polyDataTruth.GetPoints(), points);
+      points = overlap.GetPoints();
     }
+
+    long startTime = System.currentTimeMillis();
+    PointCloudRegistration icp =
+        new PointCloudRegistration(
+            new SmallBodyModel(polyDataTruth, SmallBodyModel.QueryEngine.BVH));
+    icp.setMetric(metric);
+    icp.setNumThreads(numThreads);
+    transform =
+        icp.register(
+            points, computeOptimalTranslation, computeOptimalRotation, maxNumberOfControlPoints);
     long duration = System.currentTimeMillis() - startTime;
     logger.info(String.format("Execution time %.3f seconds", duration / 1e3));
 
     // save a copy of the JSON transformation file
     if (transformationFile != null) {
       try (PrintWriter pw = new PrintWriter(transformationFile)) {
-        List<String> lines =
-            FileUtils.readLines(new File(tmpTransformationFile), Charset.defaultCharset());
-        for (String line : lines) pw.println(line);
+        pw.println(transform.toJSON());
       } catch (IOException e) {
         logger.error(e.getLocalizedMessage(), e);
       }
     }
-
-    transform = LidarTransformation.fromJSON(new File(tmpTransformationFile));
   }
 
   /**
@@ -441,122 +521,101 @@ public class CompareOBJ implements TerrasaurTool {
   }
 
   /**
-   * Write out difference files.
+   * Compute the distances from a range of points in the model to the reference model.
    *
-   * @param closestDiffFile argument to -savePlateDiff
-   * @param closestIndexFile argument to -savePlateIndex
-   * @param verticalDiffFile argument to -computeVerticalError
-   * @param limitClosestPoints argument to -limitClosestPoints
+   * @param from first point
+   * @param to one past the last point
+   * @param vertices packed model vertices if the model is a point cloud, otherwise null
+   * @param vertexTree search tree over vertices, only needed to fit local planes to a point cloud
+   * @param facets model facets if the model is a shape model, otherwise null
+   * @param smallBodyModel model, only needed to fit local planes to a shape model
+   * @param smallBodyTruth reference model
+   * @param planeNormal normal to a plane fit to the reference model
    * @param radius argument to -fitPlaneRadius
+   * @param saveDiff true if closest distances should be formatted
+   * @param saveIndex true if closest facet indices should be formatted
+   * @param computeVerticalError true if vertical distances should be computed
+   * @return results for this range
    */
-  private void computeDifferences(
-      String closestDiffFile,
-      String closestIndexFile,
-      String verticalDiffFile,
-      double limitClosestPoints,
-      double radius)
-      throws IOException {
-    final boolean saveDiff = (closestDiffFile != null);
-    // only valid for shape models with facet information
-    final boolean saveIndex = !inputFormat.pointsOnly && (closestIndexFile != null);
-    final boolean computeVerticalError = (verticalDiffFile != null);
+  private static ChunkResult computeDifferences(
+      int from,
+      int to,
+      double[] vertices,
+      KdTree vertexTree,
+      FacetAttributes facets,
+      SmallBodyModel smallBodyModel,
+      SmallBodyModel smallBodyTruth,
+      Vector3D planeNormal,
+      double radius,
+      boolean saveDiff,
+      boolean saveIndex,
+      boolean computeVerticalError) {
     final boolean fitLocalPlane = (radius > 0);
+    ChunkResult result = new ChunkResult(to - from);
+    double[] closestArray = new double[3];
 
-    BufferedWriter outClosest = null;
-    if (saveDiff) {
-      FileWriter fstream = new FileWriter(closestDiffFile);
-      outClosest = new BufferedWriter(fstream);
-    }
-    BufferedWriter outClosestIndices = null;
-    if (saveIndex) {
-      FileWriter fstream = new FileWriter(closestIndexFile);
-      outClosestIndices = new BufferedWriter(fstream);
-      outClosestIndices.write("# plate index, closest reference plate index, distance\n");
-    }
-    BufferedWriter outVertical = null;
-    if (computeVerticalError) {
-      FileWriter fstream = new FileWriter(verticalDiffFile);
-      outVertical = new BufferedWriter(fstream);
-    }
-
-    // fit a plane to the entire shape model - no good for global shape models
-    Pair<Rotation, Vector3D> pair = PolyDataUtil.findLocalFrame(polyDataTruth);
-    Vector3D normal = pair.getKey().applyInverseTo(Vector3D.PLUS_K);
-
-    SmallBodyModel smallBodyModel = null;
-    SmallBodyModel smallBodyTruth = new SmallBodyModel(polyDataTruth);
-
-    long numPoints;
-    vtkIdList idList = new vtkIdList();
-    vtkOctreePointLocator pointLocator = new vtkOctreePointLocator();
-    if (inputFormat.pointsOnly) {
-      if (fitLocalPlane) {
-        pointLocator.FreeSearchStructure();
-        vtkPolyData pointSet = new vtkPolyData();
-        pointSet.SetPoints(polyDataModel.GetPoints());
-        pointLocator.SetDataSet(pointSet);
-        pointLocator.BuildLocator();
-      }
-      numPoints = polyDataModel.GetNumberOfPoints();
-    } else {
-      smallBodyModel = new SmallBodyModel(polyDataModel);
-      numPoints = polyDataModel.GetNumberOfCells();
-    }
-
-    List<DistanceContainer> distanceContainerVector = new ArrayList<>();
-    int numPlatesActuallyUsed = 0;
-
-    // loop through each cell in the model and find the closest point in the reference model
-    for (int i = 0; i < numPoints; ++i) {
+    for (int i = from; i < to; ++i) {
 
       Vector3D p;
-      if (inputFormat.pointsOnly) {
+      Vector3D normal = planeNormal;
+      if (vertices != null) {
 
-        p = new Vector3D(polyDataModel.GetPoint(i));
+        p = new Vector3D(vertices[3 * i], vertices[3 * i + 1], vertices[3 * i + 2]);
 
         if (fitLocalPlane) {
 
           // fit a plane to all point cloud points within radius of p
-          pointLocator.FindPointsWithinRadius(radius, p.toArray(), idList);
+          List<Integer> ids = new ArrayList<>();
+          vertexTree.findWithinRadius(p.getX(), p.getY(), p.getZ(), radius, ids::add);
 
-          if (idList.GetNumberOfIds() < 3) {
+          if (ids.size() < 3) {
             logger.error(
                 String.format(
                     "point %d (%f %f %f): %d points within %f, using radial vector to find intersection",
-                    i, p.getX(), p.getY(), p.getZ(), idList.GetNumberOfIds(), radius));
+                    i, p.getX(), p.getY(), p.getZ(), ids.size(), radius));
             normal = p.normalize();
           } else {
-            vtkPoints tmpPoints = new vtkPoints();
-            for (int j = 0; j < idList.GetNumberOfIds(); j++) {
-              tmpPoints.InsertNextPoint(polyDataModel.GetPoint(idList.GetId(j)));
+            double[] x = new double[ids.size()];
+            double[] y = new double[ids.size()];
+            double[] z = new double[ids.size()];
+            for (int j = 0; j < ids.size(); j++) {
+              int id = ids.get(j);
+              x[j] = vertices[3 * id];
+              y[j] = vertices[3 * id + 1];
+              z[j] = vertices[3 * id + 2];
             }
 
-            PointCloudToPlane pctp = new PointCloudToPlane(tmpPoints);
-            normal = new Vector3D(pctp.getGMU().getPlaneNormal());
+            GMTGridUtil gmu = new GMTGridUtil(0, 0.);
+            gmu.setXYZ(x, y, z);
+            normal = new Vector3D(gmu.getPlaneNormal());
           }
         }
 
       } else {
 
-        TriangularFacet facet = PolyDataUtil.getFacet(polyDataModel, i);
-        p = MathConversions.toVector3D(facet.getCenter());
+        p = facets.getCenter(i);
         if (fitLocalPlane) {
           normal = new Vector3D(smallBodyModel.getNormalAtPoint(p.toArray(), radius));
         } else {
-          normal = MathConversions.toVector3D(facet.getNormal());
+          normal = facets.getNormal(i);
         }
       }
 
       Optional<Vector3D> normalPoint =
           findIntersectPointInNormalDirection(p, normal, smallBodyTruth);
-      DistanceContainer dc = null;
 
       // Skip this plate in the error calculation if there is no intersection
       if (normalPoint.isPresent()) {
-        Vector3D closestPoint = new Vector3D(smallBodyTruth.findClosestPoint(p.toArray()));
+        long closestFacet = -1;
+        if (saveIndex) {
+          closestFacet = smallBodyTruth.findClosestCell(p.toArray(), closestArray);
+        } else {
+          closestArray = smallBodyTruth.findClosestPoint(p.toArray());
+        }
+        Vector3D closestPoint = new Vector3D(closestArray);
         double closestDistance = p.distance(closestPoint);
-        dc = new DistanceContainer(closestDistance);
-        distanceContainerVector.add(dc);
+        result.closestDistances[i - from] = closestDistance;
+        result.used[i - from] = true;
 
         if (saveDiff || saveIndex) {
           // Determining if p from model 1 is inside or outside of ref surface
@@ -565,35 +624,157 @@ public class CompareOBJ implements TerrasaurTool {
           Vector3D pdiff = closestPoint.subtract(p);
           if (pdiff.dotProduct(p) > 0) closestDistance *= -1.0;
 
-          if (saveDiff) outClosest.write(closestDistance + "\n");
+          if (saveDiff) result.closestLines.append(closestDistance).append("\n");
 
           if (saveIndex) {
-            long closestFacet = smallBodyTruth.findClosestCell(p.toArray());
-            outClosestIndices.write(
+            result.indexLines.append(
                 String.format("%d, %d, %f\n", i, closestFacet, closestDistance));
           }
         }
 
       } else {
-        if (saveDiff) outClosest.write("no-intersection\n");
+        if (saveDiff) result.closestLines.append("no-intersection\n");
       }
 
       if (computeVerticalError) {
         if (normalPoint.isPresent()) {
           double normalDistance = p.distance(normalPoint.get());
-          dc.setNormalDistance(normalDistance);
+          result.normalDistances[i - from] = normalDistance;
 
           Vector3D pdiff = normalPoint.get().subtract(p);
           if (pdiff.dotProduct(p) > 0) normalDistance *= -1.0;
 
-          outVertical.write(normalDistance + "\n");
+          result.verticalLines.append(normalDistance).append("\n");
         } else {
-          outVertical.write("no-intersection\n");
+          result.verticalLines.append("no-intersection\n");
         }
       }
+    }
 
-      if (normalPoint.isPresent()) ++numPlatesActuallyUsed;
-    } // for (int i = 0; i < numPlates; ++i)
+    return result;
+  }
+
+  /**
+   * Write out difference files. Points are processed in chunks by a pool of threads sharing
+   * thread-safe search structures. Chunks are written in order as they complete, so the output
+   * files are identical to a serial run and only a few chunks are held in memory at a time.
+   *
+   * @param closestDiffFile argument to -savePlateDiff
+   * @param closestIndexFile argument to -savePlateIndex
+   * @param verticalDiffFile argument to -computeVerticalError
+   * @param limitClosestPoints argument to -limitClosestPoints
+   * @param radius argument to -fitPlaneRadius
+   * @param numThreads number of threads
+   */
+  private void computeDifferences(
+      String closestDiffFile,
+      String closestIndexFile,
+      String verticalDiffFile,
+      double limitClosestPoints,
+      double radius,
+      int numThreads)
+      throws IOException {
+    final boolean saveDiff = (closestDiffFile != null);
+    // only valid for shape models with facet information
+    final boolean saveIndex = !inputFormat.pointsOnly && (closestIndexFile != null);
+    final boolean computeVerticalError = (verticalDiffFile != null);
+    final boolean fitLocalPlane = (radius > 0);
+
+    BufferedWriter outClosest = null;
+    if (saveDiff) {
+      FileWriter fstream = new FileWriter(closestDiffFile);
+      outClosest = new BufferedWriter(fstream);
+    }
+    BufferedWriter outClosestIndices = null;
+    if (saveIndex) {
+      FileWriter fstream = new FileWriter(closestIndexFile);
+      outClosestIndices = new BufferedWriter(fstream);
+      outClosestIndices.write("# plate index, closest reference plate index, distance\n");
+    }
+    BufferedWriter outVertical = null;
+    if (computeVerticalError) {
+      FileWriter fstream = new FileWriter(verticalDiffFile);
+      outVertical = new BufferedWriter(fstream);
+    }
+
+    // fit a plane to the entire shape model - no good for global shape models
+    Pair<Rotation, Vector3D> pair = PolyDataUtil.findLocalFrame(polyDataTruth);
+    final Vector3D normal = pair.getKey().applyInverseTo(Vector3D.PLUS_K);
+
+    SmallBodyModel smallBodyTruth =
+        new SmallBodyModel(polyDataTruth, SmallBodyModel.QueryEngine.BVH);
+
+    // everything the workers read is built here so no VTK objects are touched concurrently
+    final int numPoints;
+    final double[] vertices;
+    final KdTree vertexTree;
+    final FacetAttributes facets;
+    final SmallBodyModel smallBodyModel;
+    if (inputFormat.pointsOnly) {
+      vertices = PolyDataUtil.getPackedVertices(polyDataModel);
+      vertexTree = fitLocalPlane ? new KdTree(vertices) : null;
+      facets = null;
+      smallBodyModel = null;
+      numPoints = (int) polyDataModel.GetNumberOfPoints();
+    } else {
+      vertices = null;
+      vertexTree = null;
+      smallBodyModel = new SmallBodyModel(polyDataModel, SmallBodyModel.QueryEngine.BVH);
+      facets = smallBodyModel.getFacetAttributes();
+      numPoints = (int) polyDataModel.GetNumberOfCells();
+    }
+
+    DistanceStatistics stats = new DistanceStatistics(limitClosestPoints);
+
+    // loop through each cell in the model and find the closest point in the reference model
+    long startTime = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      Deque<Future<ChunkResult>> pending = new ArrayDeque<>();
+      for (int from = 0; from < numPoints || !pending.isEmpty(); ) {
+        // keep a bounded number of chunks in flight
+        while (from < numPoints && pending.size() < 4 * numThreads) {
+          final int first = from;
+          final int last = Math.min(numPoints, from + CHUNK_SIZE);
+          pending.add(
+              executor.submit(
+                  () ->
+                      computeDifferences(
+                          first,
+                          last,
+                          vertices,
+                          vertexTree,
+                          facets,
+                          smallBodyModel,
+                          smallBodyTruth,
+                          normal,
+                          radius,
+                          saveDiff,
+                          saveIndex,
+                          computeVerticalError)));
+          from = last;
+        }
+
+        ChunkResult result;
+        try {
+          result = pending.poll().get();
+        } catch (InterruptedException | ExecutionException e) {
+          throw new IOException(e);
+        }
+        if (saveDiff) outClosest.append(result.closestLines);
+        if (saveIndex) outClosestIndices.append(result.indexLines);
+        if (computeVerticalError) outVertical.append(result.verticalLines);
+        for (int i = 0; i < result.used.length; i++) {
+          if (result.used[i]) stats.add(result.closestDistances[i], result.normalDistances[i]);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    logger.info(
+        String.format(
+            "Computed differences for %d points in %.3f seconds using %d threads",
+            numPoints, (System.currentTimeMillis() - startTime) / 1e3, numThreads));
 
     if (computeVerticalError) outVertical.close();
 
@@ -601,37 +782,24 @@ public class CompareOBJ implements TerrasaurTool {
 
     if (saveIndex) outClosestIndices.close();
 
-    numPoints = (int) (limitClosestPoints * distanceContainerVector.size() + 0.5);
+    long numUsed = stats.numUsed();
     double closestDistanceError = 0.0;
     double closestDistance2Error = 0.0;
     double normalDistanceError = 0.0;
     double normalDistance2Error = 0.0;
     double minDist = 0.0;
     double maxDist = 0.0;
-    if (!distanceContainerVector.isEmpty()) {
-      Collections.sort(distanceContainerVector);
-      closestDistanceError = 0;
-      closestDistance2Error = 0;
-      for (int i = 0; i < numPoints; i++) {
-        double distance = distanceContainerVector.get(i).getClosestDistance();
-        closestDistanceError += distance;
-        closestDistance2Error += distance * distance;
-      }
-      closestDistanceError /= numPoints;
-      closestDistance2Error /= numPoints;
+    if (stats.size() > 0) {
+      double[] means = stats.limitedMeans();
+      closestDistanceError = means[0];
+      closestDistance2Error = means[1];
       if (computeVerticalError) {
-        for (int i = 0; i < numPoints; i++) {
-          double distance = distanceContainerVector.get(i).getNormalDistance();
-          normalDistanceError += distance;
-          normalDistance2Error += distance * distance;
-        }
-        normalDistanceError /= numPoints;
-        normalDistance2Error /= numPoints;
+        normalDistanceError = means[2];
+        normalDistance2Error = means[3];
       }
 
-      minDist = distanceContainerVector.get(0).getClosestDistance();
-      maxDist =
-          distanceContainerVector.get(distanceContainerVector.size() - 1).getClosestDistance();
+      minDist = stats.minDist;
+      maxDist = stats.maxDist;
     }
 
     Vector3D translation = transform.getTranslation();
@@ -680,9 +848,7 @@ public class CompareOBJ implements TerrasaurTool {
 
     System.out.printf(
         "Using %d of %d points (excluding %.1f%% largest distances)\n",
-        numPoints,
-        distanceContainerVector.size(),
-        100 * (1 - ((double) numPoints) / distanceContainerVector.size()));
+        numUsed, stats.size(), 100 * (1 - ((double) numUsed) / stats.size()));
     System.out.println("Min Distance:              " + minDist);
     System.out.println("Max Distance:              " + maxDist);
     System.out.println("Mean Distance:             " + closestDistanceError);
@@ -753,7 +919,7 @@ public class CompareOBJ implements TerrasaurTool {
       }
 
       System.out.println(
-          numPlatesActuallyUsed
+          stats.size()
               + " plates used in error calculation out of "
               + polyDataModel.GetNumberOfCells()
               + " total in the shape model");
@@ -876,6 +1042,11 @@ public class CompareOBJ implements TerrasaurTool {
     sb.append("distance and RMS distance to the closest fraction of all distances.");
     options.addOption(Option.builder("limitClosestPoints").hasArg().desc(sb.toString()).build());
 
+    sb = new StringBuilder();
+    sb.append("Minimize point to point distances when computing the optimal transformation.  ");
+    sb.append("Default is to minimize point to plane distances.");
+    options.addOption(Option.builder("pointToPoint").desc(sb.toString()).build());
+
     sb = new StringBuilder();
     sb.append("Max number of control points to use in optimization. Default is 2000.");
     options.addOption(
@@ -890,6 +1061,11 @@ public class CompareOBJ implements TerrasaurTool {
                 "Required.  Point cloud/shape file to compare to reference shape.  Valid formats are "
                     + "anything that can be read by the PointCloudFormatConverter.")
             .build());
+    options.addOption(
+        Option.builder("numThreads")
+            .hasArg()
+            .desc("Number of threads to use.  Default is 1.")
+            .build());
     options.addOption(
         Option.builder("reference")
             .required()
@@ -925,7 +1101,7 @@ public class CompareOBJ implements TerrasaurTool {
         Option.builder("savePlateIndex").hasArg().argName("path").desc(sb.toString()).build());
 
     sb = new StringBuilder();
-    sb.append("Save output of lidar-optimize to <path> (JSON format file)");
+    sb.append("Save the optimal transformation to <path> (JSON format file)");
     options.addOption(
         Option.builder("saveTransformationFile")
             .hasArg()
@@ -934,8 +1110,8 @@ public class CompareOBJ implements TerrasaurTool {
             .build());
 
     sb = new StringBuilder();
-    sb.append("Directory to store temporary files.  It will be created if it does not exist.  ");
-    sb.append("Default is the current working directory.");
+    sb.append("Deprecated and ignored.  The optimal transformation is computed in memory ");
+    sb.append("and no temporary files are written.");
     options.addOption(
         Option.builder("tmpDir").hasArg().argName("path").desc(sb.toString()).build());
 
@@ -993,7 +1169,9 @@ public class CompareOBJ implements TerrasaurTool {
         cl.hasOption("computeVerticalError") ? cl.getOptionValue("computeVerticalError") : null;
     String transformationFile =
         cl.hasOption("saveTransformationFile") ? cl.getOptionValue("saveTransformationFile") : null;
-    String tmpdir = cl.hasOption("tmpDir") ? cl.getOptionValue("tmpDir") : ".";
+    if (cl.hasOption("tmpDir")) logger.warn("-tmpDir is deprecated and ignored");
+    int numThreads =
+        cl.hasOption("numThreads") ? Integer.parseInt(cl.getOptionValue("numThreads")) : 1;
 
     String infile1 = cl.getOptionValue("model");
     String infile2 = cl.getOptionValue("reference");
@@ -1002,7 +1180,6 @@ public class CompareOBJ implements TerrasaurTool {
     NativeLibraryLoader.loadVtkLibraries();
 
     CompareOBJ compareOBJ = new CompareOBJ(infile1, infile2);
-    compareOBJ.setTmpdir(tmpdir);
 
     if (computeOptimalTranslation || computeOptimalRotation) {
       compareOBJ.computeOptimalTransformationToTarget(
@@ -1010,7 +1187,11 @@ public class CompareOBJ implements TerrasaurTool {
           computeOptimalRotation,
           maxNumberOfControlPoints,
           useOverlappingPoints,
-          transformationFile);
+          transformationFile,
+          cl.hasOption("pointToPoint")
+              ? PointCloudRegistration.Metric.POINT_TO_POINT
+              : PointCloudRegistration.Metric.POINT_TO_PLANE,
+          numThreads);
 
       compareOBJ.transformPolyData(saveOptimalShape, optimalShapeFile);
     }
@@ -1026,7 +1207,12 @@ public class CompareOBJ implements TerrasaurTool {
 
     try {
       compareOBJ.computeDifferences(
-          closestDiffFile, closestIndexFile, verticalDiffFile, limitClosestPoints, planeRadius);
+          closestDiffFile,
+          closestIndexFile,
+          verticalDiffFile,
+          limitClosestPoints,
+          planeRadius,
+          numThreads);
     } catch (IOException e) {
       logger.error(e.getLocalizedMessage(), e);
     }
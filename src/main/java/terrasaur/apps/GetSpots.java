@@ -22,40 +22,38 @@
  */
 package terrasaur.apps;
 
+import java.awt.geom.Path2D;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import spice.basic.AberrationCorrection;
-import spice.basic.Body;
 import spice.basic.CSPICE;
 import spice.basic.FOV;
 import spice.basic.Instrument;
 import spice.basic.LatitudinalCoordinates;
 import spice.basic.Matrix33;
-import spice.basic.Plane;
-import spice.basic.PositionVector;
 import spice.basic.ReferenceFrame;
-import spice.basic.SCLK;
-import spice.basic.SCLKTime;
 import spice.basic.SpiceException;
-import spice.basic.StateRecord;
-import spice.basic.TDBTime;
 import spice.basic.Vector3;
 import terrasaur.smallBodyModel.SmallBodyModel;
 import terrasaur.templates.TerrasaurTool;
-import terrasaur.utils.CellInfo;
+import terrasaur.utils.FacetAttributes;
+import terrasaur.utils.FacetRecordCollector;
+import terrasaur.utils.KdTree;
 import terrasaur.utils.NativeLibraryLoader;
 import terrasaur.utils.PolyDataUtil;
-import terrasaur.utils.SPICEUtil;
-import terrasaur.utils.math.MathConversions;
-import vtk.vtkIdList;
+import terrasaur.utils.spice.ObservationSampler;
 import vtk.vtkPolyData;
 
 /**
@@ -236,14 +234,22 @@ public class GetSpots implements TerrasaurTool {
   private double maxdist;
   private vtkPolyData polydata;
   private SmallBodyModel smallBodyModel;
-  private HashMap<Integer, String> coverageMap;
+  private FacetRecordCollector coverageMap;
+  private long coverageBufferBytes;
 
   private int SC_ID;
   private String SC_ID_String;
   private ReferenceFrame BodyFixed;
   private String TARGET;
-  private final Vector3 NORTH = new Vector3(0, 0, 1e6);
+  private final Vector3D NORTH = new Vector3D(0, 0, 1e6);
   private int instID;
+  private FieldOfView fov;
+
+  private FacetAttributes facets;
+  private KdTree centerTree;
+  private double[] vertices;
+  private int[] triangles;
+  private int numThreads;
 
   private PrintStream outputStream;
 
@@ -261,54 +267,177 @@ public class GetSpots implements TerrasaurTool {
     this.maxdist = maxdist;
     this.debugLevel = debugLevel;
 
-    coverageMap = new HashMap<>();
+    coverageBufferBytes = 256L << 20;
 
     outputStream = System.out;
+    numThreads = 1;
   }
 
   /**
-   * Find facets covered by the FOV of the instrument. For each facet, find the distance and
-   * position angle of the instrument boresight and the fraction of the facet covered by the FOV.
+   * @param bytes approximate size of results to hold in memory before writing them to temporary
+   *     files
+   */
+  public void setCoverageBufferBytes(long bytes) {
+    this.coverageBufferBytes = bytes;
+  }
+
+  /**
+   * @param numThreads number of threads used to find facet coverage
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * Instrument field of view in the instrument frame. This holds everything needed from the SPICE
+   * {@link FOV} so that points can be tested without calling into SPICE, which is not thread safe.
+   */
+  private static class FieldOfView {
+    private final String shape;
+    private final Vector3D boresight;
+
+    /** boundary vectors used to check for surface intersections */
+    private final List<Vector3D> boundary;
+
+    /** polygon for RECTANGLE and POLYGON shapes, in the plane one unit along the boresight */
+    private final Path2D.Double polygon;
+    private final Vector3D xAxis;
+    private final Vector3D yAxis;
+
+    /** angular radius for CIRCLE shapes */
+    private final double radius;
+
+    private FieldOfView(Instrument instrument) throws SpiceException {
+      FOV fov = ObservationSampler.getFOV(instrument.getIDCode());
+      shape = fov.getShape();
+      boresight = new Vector3D(fov.getBoresight().toArray()).normalize();
+      xAxis = boresight.orthogonal();
+      yAxis = Vector3D.crossProduct(boresight, xAxis);
+      boundary = new ArrayList<>();
+      if (shape.equals("RECTANGLE") || shape.equals("POLYGON")) {
+        polygon = new Path2D.Double();
+        for (Vector3 b : fov.getBoundary()) {
+          Vector3D v = new Vector3D(b.toArray());
+          boundary.add(v);
+          double[] xy = toPlane(v);
+          if (boundary.size() == 1) polygon.moveTo(xy[0], xy[1]);
+          else polygon.lineTo(xy[0], xy[1]);
+        }
+        polygon.closePath();
+        radius = Double.NaN;
+      } else if (shape.equals("CIRCLE")) {
+        // bounds contains a single vector parallel to a ray that lies in the cone
+        // that makes up the boundary of the FOV
+        Vector3[] bounds = fov.getBoundary();
+        for (int i = 0; i < 8; i++) {
+          // not ideal, but check every 45 degrees along the perimeter of the circle for
+          // intersection with the surface
+          Matrix33 rotateAlongPerimeter = new Matrix33(fov.getBoresight(), i * Math.toRadians(45));
+          boundary.add(new Vector3D(rotateAlongPerimeter.mxv(bounds[0]).toArray()));
+        }
+        polygon = null;
+        radius = Vector3D.angle(boresight, new Vector3D(bounds[0].toArray()));
+      } else {
+        // TODO: add ELLIPSE
+        System.err.printf("Instrument %s: Unsupported FOV shape %s\n", instrument.getName(), shape);
+        System.exit(0);
+        throw new IllegalStateException();
+      }
+    }
+
+    /**
+     * @param v direction in the instrument frame
+     * @return coordinates of the intersection of v with the plane one unit along the boresight, or
+     *     null if v points away from the plane
+     */
+    private double[] toPlane(Vector3D v) {
+      double along = v.dotProduct(boresight);
+      if (along <= 0) return null;
+      Vector3D onPlane = v.scalarMultiply(1 / along);
+      return new double[] {onPlane.dotProduct(xAxis), onPlane.dotProduct(yAxis)};
+    }
+
+    /**
+     * @param direction direction in the instrument frame
+     * @return true if direction is inside the field of view
+     */
+    private boolean contains(Vector3D direction) {
+      if (polygon != null) {
+        double[] xy = toPlane(direction);
+        return xy != null && polygon.contains(xy[0], xy[1]);
+      }
+      return Vector3D.angle(boresight, direction) < radius;
+    }
+  }
+
+  /** Geometry at one observation time, computed serially since SPICE is not thread safe */
+  private static class Observation {
+    private final String sclkTime;
+    private final String[] parts;
+    private final Vector3D scPos;
+    private final Vector3D sunPos;
+    private final Vector3D bsightIntersect;
+
+    /** row major instrument to body fixed rotation */
+    private final double[][] instrToBodyFixed;
+
+    private Observation(
+        String sclkTime,
+        String[] parts,
+        Vector3D scPos,
+        Vector3D sunPos,
+        Vector3D bsightIntersect,
+        double[][] instrToBodyFixed) {
+      this.sclkTime = sclkTime;
+      this.parts = parts;
+      this.scPos = scPos;
+      this.sunPos = sunPos;
+      this.bsightIntersect = bsightIntersect;
+      this.instrToBodyFixed = instrToBodyFixed;
+    }
+
+    private Vector3D toBodyFixed(Vector3D v) {
+      double[][] m = instrToBodyFixed;
+      return new Vector3D(
+          m[0][0] * v.getX() + m[0][1] * v.getY() + m[0][2] * v.getZ(),
+          m[1][0] * v.getX() + m[1][1] * v.getY() + m[1][2] * v.getZ(),
+          m[2][0] * v.getX() + m[2][1] * v.getY() + m[2][2] * v.getZ());
+    }
+
+    private Vector3D toInstrument(Vector3D v) {
+      double[][] m = instrToBodyFixed;
+      return new Vector3D(
+          m[0][0] * v.getX() + m[1][0] * v.getY() + m[2][0] * v.getZ(),
+          m[0][1] * v.getX() + m[1][1] * v.getY() + m[2][1] * v.getZ(),
+          m[0][2] * v.getX() + m[1][2] * v.getY() + m[2][2] * v.getZ());
+    }
+  }
+
+  /**
+   * Find the boresight intersection with the surface for an observation.
    *
-   * @param line String where the first "word" is an sclk time
-   * @throws SpiceException
+   * @param parts line from the sclk file split on spaces, where the first "word" is an sclk time
+   * @param sample SPICE geometry at this time
+   * @return observation, or null if the boresight does not intersect the surface
    */
-  private void findCoverage(String line) throws SpiceException {
-    String[] parts = line.split(" ");
-    if (parts.length == 0) return;
-
-    SCLKTime sclkTime = new SCLKTime(new SCLK(SC_ID), parts[0]);
-    TDBTime tdbTime = new TDBTime(sclkTime.getTDBSeconds());
-
-    Instrument instrument = new Instrument(instID);
-    FOV fov = new FOV(instrument);
-    Matrix33 instrToBodyFixed =
-        fov.getReferenceFrame().getPositionTransformation(BodyFixed, tdbTime);
-    Vector3 bsightBodyFixed = instrToBodyFixed.mxv(fov.getBoresight());
-
-    StateRecord sr =
-        new StateRecord(
-            new Body(SC_ID_String),
-            tdbTime,
-            BodyFixed,
-            new AberrationCorrection("LT+S"),
-            new Body(TARGET));
-    Vector3 scposBodyFixed = sr.getPosition();
-
-    PositionVector sunPos =
-        new StateRecord(
-                new Body("SUN"),
-                tdbTime,
-                BodyFixed,
-                new AberrationCorrection("LT+S"),
-                new Body(TARGET))
-            .getPosition();
+  private Observation observe(String[] parts, ObservationSampler.Sample sample) {
+    double[][] instrToBodyFixed = sample.getInstrumentToBodyFixed();
+    Vector3D scPos = new Vector3D(sample.getObserverPosition());
+    Observation obs =
+        new Observation(
+            sample.getSclk(),
+            parts,
+            scPos,
+            new Vector3D(sample.getSunPosition()),
+            null,
+            instrToBodyFixed);
+    Vector3D bsightBodyFixed = obs.toBodyFixed(fov.boresight);
 
     double[] double3 = new double[3];
     long cellID =
         smallBodyModel.computeRayIntersection(
-            scposBodyFixed.toArray(), bsightBodyFixed.hat().toArray(), double3);
-    if (cellID == -1) return; // no boresight intersection
+            scPos.toArray(), bsightBodyFixed.normalize().toArray(), double3);
+    if (cellID == -1) return null; // no boresight intersection
 
     Vector3 bsightIntersectVector = new Vector3(double3);
 
@@ -316,152 +445,161 @@ public class GetSpots implements TerrasaurTool {
       LatitudinalCoordinates lc = new LatitudinalCoordinates(bsightIntersectVector);
       System.out.printf(
           "# %s %f %f %s\n",
-          sclkTime,
+          sample.getSclk(),
           Math.toDegrees(lc.getLatitude()),
           Math.toDegrees(lc.getLongitude()),
           bsightIntersectVector);
     }
 
+    return new Observation(
+        obs.sclkTime, parts, obs.scPos, obs.sunPos, new Vector3D(double3), instrToBodyFixed);
+  }
+
+  /**
+   * Find facets covered by the FOV of the instrument. For each facet, find the distance and
+   * position angle of the instrument boresight and the fraction of the facet covered by the FOV.
+   * Only facets whose centers lie within maxdist of the boresight intersection are examined. This
+   * does not call SPICE and may be run on multiple threads.
+   *
+   * @param obs observation geometry
+   * @return map of facet index to output line, sorted by facet
+   */
+  private SortedMap<Integer, String> findCoverage(Observation obs) {
+    SortedMap<Integer, String> coverage = new TreeMap<>();
+
+    Vector3D scPos = obs.scPos;
+    double[] scPosArray = scPos.toArray();
+
     // flag is 1 if any portion of the spot does not intersect the surface
     int flag = 0;
-    Vector<Vector3> boundaryBodyFixed = new Vector<>();
-    if (fov.getShape().equals("RECTANGLE") || fov.getShape().equals("POLYGON")) {
-      for (Vector3 boundary : fov.getBoundary()) {
-        boundaryBodyFixed.add(instrToBodyFixed.mxv(boundary));
-      }
-    } else if (fov.getShape().equals("CIRCLE")) {
-      // bounds contains a single vector parallel to a ray that lies in the cone
-      // that makes up the boundary of the FOV
-      Vector3[] bounds = fov.getBoundary();
-
-      for (int i = 0; i < 8; i++) {
-        // not ideal, but check every 45 degrees along the perimeter of the circle for intersection
-        // with the
-        // surface
-        Matrix33 rotateAlongPerimeter = new Matrix33(fov.getBoresight(), i * Math.toRadians(45));
-        Vector3 perimeterVector = rotateAlongPerimeter.mxv(bounds[0]);
-        boundaryBodyFixed.add(instrToBodyFixed.mxv(perimeterVector));
-      }
-    } else {
-      // TODO: add ELLIPSE
-      System.err.printf(
-          "Instrument %s: Unsupported FOV shape %s\n", instrument.getName(), fov.getShape());
-      System.exit(0);
-    }
-
-    // check all of the boundary vectors for surface intersections
-    for (Vector3 vector : boundaryBodyFixed) {
-      cellID =
-          smallBodyModel.computeRayIntersection(
-              scposBodyFixed.toArray(), vector.hat().toArray(), double3);
+    double[] double3 = new double[3];
+    for (Vector3D boundary : fov.boundary) {
+      Vector3D vector = obs.toBodyFixed(boundary).normalize();
+      long cellID = smallBodyModel.computeRayIntersection(scPosArray, vector.toArray(), double3);
       if (cellID == -1) {
         flag = 1;
         break;
       }
     }
 
-    vtkIdList idList = new vtkIdList();
-    for (int i = 0; i < polydata.GetNumberOfCells(); ++i) {
-
-      polydata.GetCellPoints(i, idList);
-      double[] pt0 = polydata.GetPoint(idList.GetId(0));
-      double[] pt1 = polydata.GetPoint(idList.GetId(1));
-      double[] pt2 = polydata.GetPoint(idList.GetId(2));
+    // the tree test is slightly more generous than findDist so no facet is missed
+    List<Integer> candidates = new ArrayList<>();
+    centerTree.findWithinCone(
+        scPosArray,
+        obs.bsightIntersect.subtract(scPos).toArray(),
+        Math.min(Math.PI / 2, maxdist * 1e-3 * (1 + 1e-6) + 1e-12),
+        candidates::add);
 
-      CellInfo ci = CellInfo.getCellInfo(polydata, i, idList);
-      Vector3 facetNormal = MathConversions.toVector3(ci.normal());
-      Vector3 facetCenter = MathConversions.toVector3(ci.center());
+    for (int i : candidates) {
+      Vector3D facetNormal = facets.getNormal(i);
+      Vector3D facetCenter = facets.getCenter(i);
 
       // check that facet faces the observer
-      Vector3 facetToSC = scposBodyFixed.sub(facetCenter);
-      double emission = facetToSC.sep(facetNormal);
+      Vector3D facetToSC = scPos.subtract(facetCenter);
+      double emission = sep(facetToSC, facetNormal);
       if (emission > Math.PI / 2) continue;
 
-      double dist =
-          findDist(scposBodyFixed, bsightIntersectVector, facetCenter) * 1e3; // milliradians
-      if (dist < maxdist) {
-
-        Vector3 facetToSun = sunPos.sub(facetCenter);
-        double incidence = facetToSun.sep(facetNormal);
-        double phase = facetToSun.sep(facetToSC);
-
-        Vector3 pt0v = new Vector3(pt0);
-        Vector3 pt1v = new Vector3(pt1);
-        Vector3 pt2v = new Vector3(pt2);
-
-        Vector3 span1 = pt1v.sub(pt0v);
-        Vector3 span2 = pt2v.sub(pt0v);
-
-        Plane facetPlane = new Plane(pt0v, span1, span2);
-        Vector3 localNorth = facetPlane.project(NORTH).sub(facetCenter);
-        Vector3 bsightIntersectProjection =
-            facetPlane.project(bsightIntersectVector).sub(facetCenter);
-
-        // 0 = North, 90 = East
-        double pos =
-            Math.toDegrees(Math.acos(localNorth.hat().dot(bsightIntersectProjection.hat())));
-        if (localNorth.cross(bsightIntersectProjection).dot(facetNormal) > 0) pos = 360 - pos;
-
-        int nCovered = 0;
-        if (SPICEUtil.isInFOV(fov, instrToBodyFixed.mtxv(pt0v.sub(scposBodyFixed)))) nCovered++;
-        if (SPICEUtil.isInFOV(fov, instrToBodyFixed.mtxv(pt1v.sub(scposBodyFixed)))) nCovered++;
-        if (SPICEUtil.isInFOV(fov, instrToBodyFixed.mtxv(pt2v.sub(scposBodyFixed)))) nCovered++;
-        double frac;
-        if (nCovered == 3) {
-          frac = 1;
-        } else {
-          final double sep012 = span1.negate().sep(pt2v.sub(pt1v)); // angle at vertex 1
-          final double sep021 = span2.negate().sep(pt1v.sub(pt2v)); // angle at vertex 2
-
-          // check 0.5*nPts^2 points if they fall in FOV
-          int nPts = 50;
-          Vector<Vector3> pointsInFacet = new Vector<>();
-          for (int ii = 0; ii < nPts; ii++) {
-            Vector3 x = pt0v.add(span1.scale(ii / (nPts - 1.)));
-            for (int jj = 0; jj < nPts; jj++) {
-              Vector3 y = x.add(span2.scale(jj / (nPts - 1.)));
-
-              // if outside the facet, angle 01y will be larger than angle 012
-              if (span1.negate().sep(y.sub(pt1v)) > sep012) continue;
-              // if outside the facet, angle 02y will be larger than angle 021
-              if (span2.negate().sep(y.sub(pt2v)) > sep021) continue;
-              pointsInFacet.add(instrToBodyFixed.mtxv(y.sub(scposBodyFixed)));
-            }
-          }
-
-          if (pointsInFacet.isEmpty()) {
-            frac = 0;
-          } else {
-            List<Boolean> isInFOV = SPICEUtil.isInFOV(fov, pointsInFacet);
-            nCovered = 0;
-            for (boolean b : isInFOV) if (b) nCovered++;
-            frac = ((double) nCovered) / pointsInFacet.size();
+      double dist = findDist(scPos, obs.bsightIntersect, facetCenter) * 1e3; // milliradians
+      if (dist >= maxdist) continue;
+
+      Vector3D facetToSun = obs.sunPos.subtract(facetCenter);
+      double incidence = sep(facetToSun, facetNormal);
+      double phase = sep(facetToSun, facetToSC);
+
+      Vector3D pt0v = vertex(i, 0);
+      Vector3D pt1v = vertex(i, 1);
+      Vector3D pt2v = vertex(i, 2);
+
+      Vector3D span1 = pt1v.subtract(pt0v);
+      Vector3D span2 = pt2v.subtract(pt0v);
+
+      Vector3D planeNormal = hat(span1.crossProduct(span2));
+      Vector3D localNorth = project(NORTH, pt0v, planeNormal).subtract(facetCenter);
+      Vector3D bsightIntersectProjection =
+          project(obs.bsightIntersect, pt0v, planeNormal).subtract(facetCenter);
+
+      // 0 = North, 90 = East
+      double pos =
+          Math.toDegrees(Math.acos(hat(localNorth).dotProduct(hat(bsightIntersectProjection))));
+      if (localNorth.crossProduct(bsightIntersectProjection).dotProduct(facetNormal) > 0)
+        pos = 360 - pos;
+
+      int nCovered = 0;
+      if (fov.contains(obs.toInstrument(pt0v.subtract(scPos)))) nCovered++;
+      if (fov.contains(obs.toInstrument(pt1v.subtract(scPos)))) nCovered++;
+      if (fov.contains(obs.toInstrument(pt2v.subtract(scPos)))) nCovered++;
+      double frac;
+      if (nCovered == 3) {
+        frac = 1;
+      } else {
+        final double sep012 = sep(span1.negate(), pt2v.subtract(pt1v)); // angle at vertex 1
+        final double sep021 = sep(span2.negate(), pt1v.subtract(pt2v)); // angle at vertex 2
+
+        // check 0.5*nPts^2 points if they fall in FOV
+        int nPts = 50;
+        int nInFacet = 0;
+        nCovered = 0;
+        for (int ii = 0; ii < nPts; ii++) {
+          Vector3D x = pt0v.add(span1.scalarMultiply(ii / (nPts - 1.)));
+          for (int jj = 0; jj < nPts; jj++) {
+            Vector3D y = x.add(span2.scalarMultiply(jj / (nPts - 1.)));
+
+            // if outside the facet, angle 01y will be larger than angle 012
+            if (sep(span1.negate(), y.subtract(pt1v)) > sep012) continue;
+            // if outside the facet, angle 02y will be larger than angle 021
+            if (sep(span2.negate(), y.subtract(pt2v)) > sep021) continue;
+            nInFacet++;
+            if (fov.contains(obs.toInstrument(y.subtract(scPos)))) nCovered++;
           }
         }
 
-        StringBuilder output =
-            new StringBuilder(
-                String.format(
-                    "%s %.4f %5.1f %.1f %d %.1f %.1f %.1f",
-                    sclkTime,
-                    dist,
-                    pos,
-                    frac * 100,
-                    flag,
-                    Math.toDegrees(incidence),
-                    Math.toDegrees(emission),
-                    Math.toDegrees(phase)));
-        for (int j = 1; j < parts.length; j++) output.append(String.format(" %s", parts[j]));
-        output.append("\n");
-        String coverage = coverageMap.get(i);
-        if (coverage == null) {
-          coverageMap.put(i, output.toString());
-        } else {
-          coverage += output;
-          coverageMap.put(i, coverage);
-        }
+        frac = nInFacet == 0 ? 0 : ((double) nCovered) / nInFacet;
       }
+
+      StringBuilder output =
+          new StringBuilder(
+              String.format(
+                  "%s %.4f %5.1f %.1f %d %.1f %.1f %.1f",
+                  obs.sclkTime,
+                  dist,
+                  pos,
+                  frac * 100,
+                  flag,
+                  Math.toDegrees(incidence),
+                  Math.toDegrees(emission),
+                  Math.toDegrees(phase)));
+      for (int j = 1; j < obs.parts.length; j++) output.append(String.format(" %s", obs.parts[j]));
+      output.append("\n");
+      coverage.put(i, output.toString());
     }
+    return coverage;
+  }
+
+  /**
+   * @param facet facet index
+   * @param corner 0, 1, or 2
+   * @return vertex of facet
+   */
+  private Vector3D vertex(int facet, int corner) {
+    int id = 3 * triangles[3 * facet + corner];
+    return new Vector3D(vertices[id], vertices[id + 1], vertices[id + 2]);
+  }
+
+  /** @return unit vector along v, or the zero vector if v is zero */
+  private static Vector3D hat(Vector3D v) {
+    double norm = v.getNorm();
+    return norm == 0 ? Vector3D.ZERO : v.scalarMultiply(1 / norm);
+  }
+
+  /** @return angle between a and b in radians, or 0 if either is the zero vector */
+  private static double sep(Vector3D a, Vector3D b) {
+    if (a.getNorm() == 0 || b.getNorm() == 0) return 0;
+    return Vector3D.angle(a, b);
+  }
+
+  /** @return projection of point onto the plane containing origin with unit normal */
+  private static Vector3D project(Vector3D point, Vector3D origin, Vector3D normal) {
+    return point.subtract(normal.scalarMultiply(point.subtract(origin).dotProduct(normal)));
   }
 
   /**
@@ -473,27 +611,42 @@ public class GetSpots implements TerrasaurTool {
    * @param pt2 Point 2
    * @return distance between pt1 and pt2 in radians.
    */
-  private double findDist(Vector3 scPos, Vector3 pt1, Vector3 pt2) {
-    Vector3 scToPt1 = pt1.sub(scPos).hat();
-    Vector3 scToPt2 = pt2.sub(scPos).hat();
+  private double findDist(Vector3D scPos, Vector3D pt1, Vector3D pt2) {
+    Vector3D scToPt1 = pt1.subtract(scPos).normalize();
+    Vector3D scToPt2 = pt2.subtract(scPos).normalize();
 
-    return Math.acos(scToPt1.dot(scToPt2));
+    return Math.acos(scToPt1.dotProduct(scToPt2));
   }
 
-  public void printMap() {
-    if (debugLevel > 0) {
-      for (int i = 0; i < polydata.GetNumberOfCells(); ++i) {
-        outputStream.printf("F%d\n", i + 1);
-        String output = coverageMap.get(i);
-        if (output != null) outputStream.print(coverageMap.get(i));
-      }
-    } else {
-      List<Integer> list = new ArrayList<>(coverageMap.keySet());
-      Collections.sort(list);
-      for (Integer i : list) {
-        outputStream.printf("F%d\n", i + 1);
-        outputStream.print(coverageMap.get(i));
-      }
+  /**
+   * Write the coverage of each facet to the output stream. Results are merged in facet order from
+   * the temporary files written during {@link #process()}, which are deleted afterwards.
+   *
+   * @throws IOException if the temporary files cannot be read
+   */
+  public void printMap() throws IOException {
+    final boolean allFacets = debugLevel > 0;
+
+    // next facet to print and last facet printed
+    int[] next = {0};
+    int[] last = {-1};
+    try (FacetRecordCollector collector = coverageMap) {
+      collector.merge(
+          (facet, record) -> {
+            if (facet != last[0]) {
+              if (allFacets) {
+                for (; next[0] < facet; next[0]++) outputStream.printf("F%d\n", next[0] + 1);
+              }
+              outputStream.printf("F%d\n", facet + 1);
+              last[0] = facet;
+              next[0] = facet + 1;
+            }
+            outputStream.print(record);
+          });
+    }
+    if (allFacets) {
+      for (; next[0] < polydata.GetNumberOfCells(); next[0]++)
+        outputStream.printf("F%d\n", next[0] + 1);
     }
     outputStream.println("END");
   }
@@ -539,7 +692,19 @@ public class GetSpots implements TerrasaurTool {
 
     NativeLibraryLoader.loadVtkLibraries();
     polydata = PolyDataUtil.loadShapeModelAndComputeNormals(objfile);
-    smallBodyModel = new SmallBodyModel(polydata);
+    smallBodyModel = new SmallBodyModel(polydata, SmallBodyModel.QueryEngine.BVH);
+
+    // facet center index, built once and shared by all observations
+    facets = smallBodyModel.getFacetAttributes();
+    double[] centers = new double[3 * facets.size()];
+    double[] center = new double[3];
+    for (int i = 0; i < facets.size(); i++) {
+      facets.getCenter(i, center);
+      System.arraycopy(center, 0, centers, 3 * i, 3);
+    }
+    centerTree = new KdTree(centers);
+    vertices = PolyDataUtil.getPackedVertices(polydata);
+    triangles = PolyDataUtil.getPackedTriangles(polydata);
 
     NativeLibraryLoader.loadSpiceLibraries();
     CSPICE.furnsh(spicemetakernel);
@@ -556,6 +721,14 @@ public class GetSpots implements TerrasaurTool {
       BodyFixed = new ReferenceFrame("IAU_BENNU");
     }
 
+    fov = new FieldOfView(new Instrument(instID));
+
+    coverageMap = new FacetRecordCollector(coverageBufferBytes, null);
+
+    // Read all observation times up front and evaluate the SPICE geometry in a single serial
+    // pass. The facet search for each observation runs on the pool and results are merged in
+    // input order so the output does not depend on numThreads.
+    List<String[]> observationLines = new ArrayList<>();
     List<String> sclkLines = FileUtils.readLines(new File(sclkfile), Charset.defaultCharset());
     boolean foundBegin = false;
     for (String line : sclkLines) {
@@ -566,13 +739,44 @@ public class GetSpots implements TerrasaurTool {
         continue;
       }
       if (foundBegin && !trimLine.startsWith("END")) {
-        if (trimLine.startsWith("#")) continue;
+        String[] parts = trimLine.split(" ");
+        if (parts.length == 0) continue;
+        observationLines.add(parts);
+      }
+    }
+
+    List<String> sclkStrings = new ArrayList<>(observationLines.size());
+    for (String[] parts : observationLines) sclkStrings.add(parts[0]);
+    ObservationSampler sampler =
+        new ObservationSampler(SC_ID, SC_ID_String, TARGET, BodyFixed.getName(), instID, "LT+S");
+    List<ObservationSampler.Sample> samples = sampler.sample(sclkStrings);
 
-        findCoverage(trimLine);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      Deque<Future<SortedMap<Integer, String>>> pending = new ArrayDeque<>();
+      for (int i = 0; i < observationLines.size(); i++) {
+        Observation obs = observe(observationLines.get(i), samples.get(i));
+        if (obs == null) continue;
+        pending.add(executor.submit(() -> findCoverage(obs)));
+        while (pending.size() > 4 * numThreads) addCoverage(pending.poll().get());
       }
+      while (!pending.isEmpty()) addCoverage(pending.poll().get());
+    } finally {
+      executor.shutdownNow();
     }
   }
 
+  /**
+   * Append the results for one observation to the coverage map.
+   *
+   * @param coverage map of facet index to output line
+   * @throws IOException if the coverage map cannot write to disk
+   */
+  private void addCoverage(SortedMap<Integer, String> coverage) throws IOException {
+    for (Map.Entry<Integer, String> entry : coverage.entrySet())
+      coverageMap.add(entry.getKey(), entry.getValue());
+  }
+
   private static Options defineOptions() {
     Options options = TerrasaurTool.defineOptions();
     options.addOption(Option.builder("spice").required().hasArg().desc("SPICE metakernel").build());
@@ -607,6 +811,17 @@ file containing sclk values for instrument observation times.  All values betwee
             .desc(
                 "Optional.  If present, entries for all facets will be output, even if there is no intersection.")
             .build());
+    options.addOption(
+        Option.builder("bufferMB")
+            .hasArg()
+            .desc(
+                "Optional.  Megabytes of results to hold in memory before writing them to temporary files.  Default is 256, maximum is 2047.")
+            .build());
+    options.addOption(
+        Option.builder("numThreads")
+            .hasArg()
+            .desc("Optional.  Number of threads used to search for facets.  Default is 1.")
+            .build());
     options.addOption(
         Option.builder("verbose")
             .hasArg()
@@ -638,6 +853,10 @@ file containing sclk values for instrument observation times.  All values betwee
 
     GetSpots gs =
         new GetSpots(spicemetakernel, objfile, instrumenttype, sclkfile, distance, debugLevel);
+    if (cl.hasOption("bufferMB"))
+      gs.setCoverageBufferBytes(Long.parseLong(cl.getOptionValue("bufferMB")) << 20);
+    if (cl.hasOption("numThreads"))
+      gs.setNumThreads(Integer.parseInt(cl.getOptionValue("numThreads")));
     try {
       gs.process();
       gs.printMap();
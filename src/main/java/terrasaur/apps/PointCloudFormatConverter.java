@@ -454,7 +454,7 @@ public class PointCloudFormatConverter implements TerrasaurTool {
             .hasArg()
             .longOpt("gmt-args")
             .desc(
-                "Only used to generate OBJ output.  Pass additional options to GMTSurface.  May be used multiple times, use once per additional argument.")
+                "Only used to generate OBJ output.  Options formerly passed to GMTSurface.  Only tension (e.g. -T0.25) is supported.  May be used multiple times, use once per additional argument.")
             .build());
     options.addOption(
         Option.builder("clip")
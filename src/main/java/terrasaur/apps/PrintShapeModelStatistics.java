@@ -90,5 +90,8 @@ public class PrintShapeModelStatistics implements TerrasaurTool {
     for (String line : stats) {
       logger.info(line);
     }
+    Map<String, Long> timings = stat.getTimings();
+    for (String key : timings.keySet())
+      logger.debug("{}: {} ms", key, timings.get(key));
   }
 }
@@ -113,7 +113,7 @@ public class RangeFromSumFile implements TerrasaurTool {
 
     this.polyData = polyData;
 
-    smallBodyModel = new SmallBodyModel(polyData);
+    smallBodyModel = new SmallBodyModel(polyData, SmallBodyModel.QueryEngine.BVH);
 
     scPos = sumFile.scobj().negate();
     sunXYZ = sumFile.sunDirection();
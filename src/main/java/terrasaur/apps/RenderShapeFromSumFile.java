@@ -35,11 +35,9 @@ import java.nio.charset.Charset;
 import java.time.Instant;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.stream.IntStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
 import net.jafama.FastMath;
 import nom.tam.fits.Fits;
@@ -53,17 +51,19 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.spi.StandardLevel;
+import terrasaur.smallBodyModel.LocalModelCache;
 import terrasaur.smallBodyModel.LocalModelCollection;
 import terrasaur.smallBodyModel.SmallBodyModel;
 import terrasaur.templates.TerrasaurTool;
 import terrasaur.utils.*;
 import terrasaur.utils.math.RotationUtils;
 import terrasaur.utils.saaPlotLib.util.StringFunctions;
-import vtk.vtkIdList;
+import vtk.vtkObject;
 import vtk.vtkPoints;
 import vtk.vtkPolyData;
 
@@ -104,11 +104,14 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
   private double centerX, centerY;
   private int subPixel;
 
-  private ThreadLocal<SmallBodyModel> sbm;
+  // shared by all rendering threads
+  private SmallBodyModel sbm;
   // key is cell index, value is albedo
   private Map<Long, Double> albedoMap;
   // key is resolution, value is local shape model
   private NavigableMap<Double, LocalModelCollection> lmcMap;
+  // loaded local models, shared by all collections
+  private LocalModelCache localModelCache;
 
   // key is field name, value is pair of comment and metadata value
   private NavigableMap<String, Map.Entry<String, String>> metadata;
@@ -120,9 +123,9 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
 
     subPixel = 2;
 
-    sbm = new ThreadLocal<>();
     albedoMap = new HashMap<>();
     lmcMap = new TreeMap<>();
+    localModelCache = LocalModelCache.withDefaultBudget();
 
     metadata = new TreeMap<>();
   }
@@ -143,8 +146,8 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
     }
   }
 
-  private SmallBodyModel getGlobalModel() {
-    if (sbm.get() == null) {
+  private synchronized SmallBodyModel getGlobalModel() {
+    if (sbm == null) {
       try {
         vtkPolyData model = PolyDataUtil.loadShapeModel(globalOBJname);
         if (scale != null || rotation != null) {
@@ -161,12 +164,21 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
             points.SetPoint(i, thisPoint.toArray());
           }
         }
-        sbm.set(new SmallBodyModel(model));
+        sbm = new SmallBodyModel(model, SmallBodyModel.QueryEngine.BVH);
       } catch (Exception e) {
         logger.error(e.getLocalizedMessage());
       }
     }
-    return sbm.get();
+    return sbm;
+  }
+
+  /**
+   * Set the memory budget for loaded local models. Call before {@link #loadLocalModels(String)}.
+   *
+   * @param maxBytes memory budget in bytes
+   */
+  public void setLocalModelCacheSize(long maxBytes) {
+    localModelCache = new LocalModelCache(maxBytes);
   }
 
   public void addMetaData(String key, String comment, String value) {
@@ -262,8 +274,8 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
 
     Vector3D facetToCamera = cameraXYZ.subtract(intersectPoint);
 
-    CellInfo ci = CellInfo.getCellInfo(sbm.getSmallBodyPolyData(), intersect, new vtkIdList());
-    Vector3D normal = ci.normal();
+    FacetAttributes facets = sbm.getFacetAttributes();
+    Vector3D normal = facets.getNormal(intersect);
 
     double emission = Vector3D.angle(facetToCamera, normal);
     double distFromCamera = facetToCamera.getNorm();
@@ -280,9 +292,9 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
     double phase = 0;
     for (long cell : cells) {
 
-      ci = CellInfo.getCellInfo(sbm.getSmallBodyPolyData(), cell, new vtkIdList(), true);
-      facetToCamera = cameraXYZ.subtract(ci.center());
-      normal = new Vector3D(sbm.getCellNormals().GetTuple3(cell));
+      Vector3D center = facets.getCenter(cell);
+      facetToCamera = cameraXYZ.subtract(center);
+      normal = new Vector3D(sbm.getCellNormal(cell));
       emission = Vector3D.angle(facetToCamera, normal);
       incidence = 0;
       phase = 0;
@@ -291,7 +303,7 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
         incidence = Vector3D.angle(sunXYZ, normal);
         phase = Vector3D.angle(facetToCamera, sunXYZ);
 
-        Vector3D sunToFacet = ci.center().subtract(sunXYZ);
+        Vector3D sunToFacet = center.subtract(sunXYZ);
 
         // check for shadowing
         double[] sunIntersectPoint = new double[3];
@@ -325,128 +337,192 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
         incidence, emission, phase, sum / cells.size(), distFromCamera, facetToCamera, normal);
   }
 
-  class BrightnessCalculator implements Callable<Map<Integer, Brightness>> {
+  /** Edge length in pixels of the square tiles which are rendered as individual tasks */
+  private static final int TILE_SIZE = 16;
 
-    Collection<Integer> pixelIndices;
-    PhotometricFunction pf;
+  /**
+   * Brightness planes in the order of {@link Brightness#values()} and a mask of the pixels which
+   * intersect the model. Both are indexed [row][column] with rows increasing down.
+   */
+  private static class RenderedPlanes {
+    private final double[][][] planes;
+    private final boolean[][] hit;
+
+    private RenderedPlanes(int xPixels, int yPixels) {
+      planes = new double[11][yPixels][xPixels];
+      hit = new boolean[yPixels][xPixels];
+    }
+  }
 
-    private BrightnessCalculator(Collection<Integer> pixelIndices, PhotometricFunction pf) {
-      this.pixelIndices = pixelIndices;
+  /**
+   * Render a range of tiles, splitting the range in half until each task is a single tile so idle
+   * threads can steal work from busy ones.
+   */
+  private class TileTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int firstTile;
+    private final int lastTile;
+    private final PhotometricFunction pf;
+    private final RenderedPlanes result;
+    private final long[] tileNanos;
+
+    private TileTask(
+        int firstTile, int lastTile, PhotometricFunction pf, RenderedPlanes result, long[] tileNanos) {
+      this.firstTile = firstTile;
+      this.lastTile = lastTile;
       this.pf = pf;
+      this.result = result;
+      this.tileNanos = tileNanos;
     }
 
     @Override
-    public Map<Integer, Brightness> call() throws Exception {
+    protected void compute() {
+      if (lastTile - firstTile > 1) {
+        int mid = (firstTile + lastTile) >>> 1;
+        invokeAll(
+            new TileTask(firstTile, mid, pf, result, tileNanos),
+            new TileTask(mid, lastTile, pf, result, tileNanos));
+        return;
+      }
 
-      logger.info("Thread {}: starting", Thread.currentThread().getId());
+      long start = System.nanoTime();
 
       int xPixels = subPixel * nPixelsX;
+      int yPixels = subPixel * nPixelsY;
+      int tilesX = (xPixels + TILE_SIZE - 1) / TILE_SIZE;
+      int x0 = (firstTile % tilesX) * TILE_SIZE;
+      int y0 = (firstTile / tilesX) * TILE_SIZE;
+      int x1 = Math.min(xPixels, x0 + TILE_SIZE);
+      int y1 = Math.min(yPixels, y0 + TILE_SIZE);
 
       SmallBodyModel globalModel = getGlobalModel();
-
-      Map<Integer, Brightness> brightness = new HashMap<>();
       double[] intersectPoint = new double[3];
-      double[] cameraXYZArray = cameraXYZ.toArray();
-      for (Integer index : pixelIndices) {
-        int j = index / xPixels;
-        int i = index % xPixels;
-        Vector3D pixelDir = pixelToBodyFixed(((double) i) / subPixel, ((double) j) / subPixel);
-
-        long intersect =
-            globalModel.computeRayIntersection(cameraXYZArray, pixelDir.toArray(), intersectPoint);
-
-        if (intersect > -1) {
-
-          Vector3D intersectPt3D = new Vector3D(intersectPoint);
-
-          // resolution in m/pixel
-          double resolution = ifov * intersectPt3D.distance(cameraXYZ) * 1e3;
-
-          // if no ceiling entry exists, stick with the global model
-          Entry<Double, LocalModelCollection> lmcEntry = lmcMap.ceilingEntry(resolution);
-          if (lmcEntry != null) {
-
-            LocalModelCollection lmc = lmcEntry.getValue();
-            double[] localIntersectPoint = new double[3];
-
-            SmallBodyModel localModel = lmc.get(intersectPt3D);
-            if (localModel != null) {
-              long localIntersect =
-                  localModel.computeRayIntersection(
-                      cameraXYZArray, pixelDir.toArray(), localIntersectPoint);
-              if (localIntersect != -1) {
-                break;
-              } else {
-                logger.debug(
-                    String.format(
-                        "Thread %d: No intersection with local model for pixel (%d,%d): lat/lon %.2f/%.2f, using global intersection %d %s",
-                        Thread.currentThread().getId(),
-                        i,
-                        j,
-                        Math.toDegrees(intersectPt3D.getDelta()),
-                        Math.toDegrees(intersectPt3D.getAlpha()),
-                        intersect,
-                        intersectPt3D));
-              }
-            }
-          }
-
-          boolean isDefault = lmcEntry == null;
-          Brightness b = getBrightness(pf, globalModel, intersect, intersectPt3D, isDefault);
-          brightness.put(j * xPixels + i, b);
+      for (int j = y0; j < y1; j++) {
+        for (int i = x0; i < x1; i++) {
+          Brightness b = renderPixel(pf, globalModel, i, j, intersectPoint);
+          if (b == null) continue;
+          double[] values = b.values();
+          for (int k = 0; k < values.length; k++) result.planes[k][j][i] = values[k];
+          result.hit[j][i] = true;
         }
       }
 
-      logger.info("Thread {}: finished", Thread.currentThread().getId());
-
-      return brightness;
+      tileNanos[firstTile] = System.nanoTime() - start;
     }
   }
 
-  public double[][][] getFits(PhotometricFunction pf, int numThreads) {
+  /**
+   * @param pf Photometric function
+   * @param globalModel default shape model
+   * @param i pixel column in the subpixel image
+   * @param j pixel row in the subpixel image
+   * @param intersectPoint scratch array
+   * @return brightness at this pixel, or null if it does not intersect the model
+   */
+  private Brightness renderPixel(
+      PhotometricFunction pf, SmallBodyModel globalModel, int i, int j, double[] intersectPoint) {
+    double[] cameraXYZArray = cameraXYZ.toArray();
+    Vector3D pixelDir = pixelToBodyFixed(((double) i) / subPixel, ((double) j) / subPixel);
 
-    int xPixels = subPixel * nPixelsX;
-    int yPixels = subPixel * nPixelsY;
+    long intersect =
+        globalModel.computeRayIntersection(cameraXYZArray, pixelDir.toArray(), intersectPoint);
 
-    Map<Integer, Brightness> brightness = new HashMap<>();
-    try (ExecutorService executor = Executors.newFixedThreadPool(numThreads)) {
+    if (intersect < 0) return null;
 
-      List<Integer> indices = IntStream.range(0, yPixels * xPixels).boxed().toList();
+    Vector3D intersectPt3D = new Vector3D(intersectPoint);
 
-      int numPixels = indices.size();
+    // resolution in m/pixel
+    double resolution = ifov * intersectPt3D.distance(cameraXYZ) * 1e3;
 
-      Set<BrightnessCalculator> callables = new HashSet<>();
-      for (int i = 0; i < numThreads; i++) {
-        int fromIndex = i * numPixels / numThreads;
-        int toIndex = Math.min(numPixels, fromIndex + numPixels / numThreads);
-        callables.add(new BrightnessCalculator(indices.subList(fromIndex, toIndex), pf));
-      }
+    // if no ceiling entry exists, stick with the global model
+    Entry<Double, LocalModelCollection> lmcEntry = lmcMap.ceilingEntry(resolution);
+    if (lmcEntry != null) {
 
-      Set<Future<Map<Integer, Brightness>>> futures = new HashSet<>();
-      for (BrightnessCalculator callable : callables) futures.add(executor.submit(callable));
+      LocalModelCollection lmc = lmcEntry.getValue();
+      double[] localIntersectPoint = new double[3];
 
-      for (Future<Map<Integer, Brightness>> future : futures) {
-        try {
-          Map<Integer, Brightness> values = future.get();
-          brightness.putAll(values);
-        } catch (Exception e) {
-          logger.error(e.getLocalizedMessage(), e);
+      SmallBodyModel localModel = lmc.get(intersectPt3D);
+      if (localModel != null) {
+        long localIntersect =
+            localModel.computeRayIntersection(
+                cameraXYZArray, pixelDir.toArray(), localIntersectPoint);
+        if (localIntersect != -1) {
+          return getBrightness(
+              pf, localModel, localIntersect, new Vector3D(localIntersectPoint), false);
+        } else {
+          logger.debug(
+              String.format(
+                  "Thread %d: No intersection with local model for pixel (%d,%d): lat/lon %.2f/%.2f, using global intersection %d %s",
+                  Thread.currentThread().getId(),
+                  i,
+                  j,
+                  Math.toDegrees(intersectPt3D.getDelta()),
+                  Math.toDegrees(intersectPt3D.getAlpha()),
+                  intersect,
+                  intersectPt3D));
         }
       }
-      executor.shutdown();
     }
 
-    double[][][] img = new double[11][yPixels][xPixels];
-    for (int i = 0; i < xPixels; i++) {
-      for (int j = 0; j < yPixels; j++) {
-        Brightness pixel = brightness.get(j * xPixels + i);
-        if (pixel == null) continue;
-        double[] pixels = pixel.values();
-        for (int k = 0; k < img.length; k++) {
-          img[k][yPixels - j - 1][i] = pixels[k];
-        }
-      }
+    boolean isDefault = lmcEntry == null;
+    return getBrightness(pf, globalModel, intersect, intersectPt3D, isDefault);
+  }
+
+  /**
+   * Render the subpixel image. The image is divided into tiles of {@link #TILE_SIZE} pixels on a
+   * side which are scheduled on a work stealing pool.
+   *
+   * @param pf Photometric function
+   * @param numThreads number of threads
+   * @return rendered planes
+   */
+  private RenderedPlanes render(PhotometricFunction pf, int numThreads) {
+    int xPixels = subPixel * nPixelsX;
+    int yPixels = subPixel * nPixelsY;
+    int tilesX = (xPixels + TILE_SIZE - 1) / TILE_SIZE;
+    int tilesY = (yPixels + TILE_SIZE - 1) / TILE_SIZE;
+    int numTiles = tilesX * tilesY;
+
+    RenderedPlanes result = new RenderedPlanes(xPixels, yPixels);
+    long[] tileNanos = new long[numTiles];
+
+    // build the shared model before any tasks start
+    getGlobalModel();
+
+    long start = System.nanoTime();
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      pool.invoke(new TileTask(0, numTiles, pf, result, tileNanos));
+    } finally {
+      pool.shutdown();
     }
+    double elapsed = (System.nanoTime() - start) / 1e9;
+
+    DescriptiveStatistics stats = new DescriptiveStatistics();
+    for (long nanos : tileNanos) stats.addValue(nanos / 1e6);
+    logger.info(
+        String.format(
+            "Rendered %d tiles of %dx%d pixels in %.2f s using %d threads; ms per tile: min %.2f, median %.2f, mean %.2f, max %.2f, total %.2f",
+            numTiles,
+            TILE_SIZE,
+            TILE_SIZE,
+            elapsed,
+            numThreads,
+            stats.getMin(),
+            stats.getPercentile(50),
+            stats.getMean(),
+            stats.getMax(),
+            stats.getSum()));
+
+    return result;
+  }
+
+  public double[][][] getFits(PhotometricFunction pf, int numThreads) {
+    double[][][] img = render(pf, numThreads).planes;
+
+    // FITS rows increase up
+    for (double[][] plane : img) Collections.reverse(Arrays.asList(plane));
     return img;
   }
 
@@ -462,64 +538,27 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
     g.setColor(Color.BLACK);
     g.fillRect(0, 0, image.getWidth(), image.getHeight());
 
-    Map<Integer, Brightness> brightness = new HashMap<>();
-    double maxBrightness = -Double.MAX_VALUE;
-
-    try (ExecutorService executor = Executors.newFixedThreadPool(numThreads)) {
+    RenderedPlanes rendered = render(pf, numThreads);
+    double[][] brightness = rendered.planes[0];
+    boolean[][] hit = rendered.hit;
 
-      List<Integer> indices = IntStream.range(0, yPixels * xPixels).boxed().toList();
-
-      int numPixels = indices.size();
-
-      Set<BrightnessCalculator> callables = new HashSet<>();
-      for (int i = 0; i < numThreads; i++) {
-        int fromIndex = i * numPixels / numThreads;
-        int toIndex = Math.min(numPixels, fromIndex + numPixels / numThreads);
-        callables.add(new BrightnessCalculator(indices.subList(fromIndex, toIndex), pf));
-      }
-
-      Set<Future<Map<Integer, Brightness>>> futures = new HashSet<>();
-      for (BrightnessCalculator callable : callables) futures.add(executor.submit(callable));
-
-      for (Future<Map<Integer, Brightness>> future : futures) {
-        try {
-          Map<Integer, Brightness> brightnessMap = future.get();
-          for (Brightness b : brightnessMap.values())
-            if (maxBrightness < b.brightness) maxBrightness = b.brightness;
-          brightness.putAll(future.get());
-        } catch (Exception e) {
-          logger.error(e.getLocalizedMessage(), e);
-        }
+    boolean anyHit = false;
+    double maxBrightness = -Double.MAX_VALUE;
+    for (int j = 0; j < yPixels; j++) {
+      for (int i = 0; i < xPixels; i++) {
+        if (!hit[j][i]) continue;
+        anyHit = true;
+        if (maxBrightness < brightness[j][i]) maxBrightness = brightness[j][i];
       }
-      executor.shutdown();
     }
 
-    /*-
-    double[] intersectPoint = new double[3];
-
-    Map<Integer, Double> brightness = new HashMap<>();
-
-    double[] cameraXYZArray = cameraXYZ.toArray();
-    for (int i = 0; i < xPixels; i++) {
-      for (int j = 0; j < yPixels; j++) {
-        Vector3D pixelDir = pixelToBodyFixed(((double) i) / scale, ((double) j) / scale);
-
-        int intersect =
-            sbm.computeRayIntersection(cameraXYZArray, pixelDir.toArray(), intersectPoint);
-        if (intersect > 0) {
-          brightness.put(i * xPixels + j,
-              getBrightness(pf, intersect, new Vector3D(intersectPoint)));
-        }
-      }
-    }
-    */
-    if (brightness.isEmpty()) {
+    if (!anyHit) {
       logger.info("No intersections with shape model found!");
     } else {
       for (int j = 0; j < yPixels; j++) {
         for (int i = 0; i < xPixels; i++) {
-          if (!brightness.containsKey(j * xPixels + i)) continue;
-          double value = brightness.get(j * xPixels + i).brightness;
+          if (!hit[j][i]) continue;
+          double value = brightness[j][i];
 
           int grey = value < 0.01 ? 1 : (int) (255 * value / maxBrightness);
 
@@ -565,7 +604,7 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
       Vector3D nadirPt = new Vector3D(intersectPoint);
       double lat = nadirPt.getDelta();
       double lon = nadirPt.getAlpha();
-      Vector3D normal = new Vector3D(getGlobalModel().getCellNormals().GetTuple3(intersect));
+      Vector3D normal = new Vector3D(getGlobalModel().getCellNormal(intersect));
       double inc = Vector3D.angle(sunXYZ, normal);
       Vector3D toCamera = cameraXYZ.subtract(nadirPt);
       double ems = Vector3D.angle(toCamera, normal);
@@ -599,7 +638,7 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
    * @param lmcName local model filename
    */
   public void loadLocalModels(String lmcName) {
-    LocalModelCollection lmc = new LocalModelCollection(128, scale, rotation);
+    LocalModelCollection lmc = new LocalModelCollection(128, scale, rotation, localModelCache);
     try {
       List<String> lines = FileUtils.readLines(new File(lmcName), Charset.defaultCharset());
 
@@ -695,6 +734,18 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
                     .replaceAll("\\s+", " ")
                     .strip())
             .build());
+    options.addOption(
+        Option.builder("localModelCacheMB")
+            .hasArg()
+            .desc(
+                """
+                    Memory budget in MB for local shape models.  When
+                    the estimated size of the loaded models exceeds
+                    this, the least recently used models are released.
+                    Default is one quarter of the maximum heap size."""
+                    .replaceAll("\\s+", " ")
+                    .strip())
+            .build());
     options.addOption(
         Option.builder("logFile")
             .hasArg()
@@ -786,6 +837,12 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
 
     NativeLibraryLoader.loadVtkLibraries();
 
+    if (cl.hasOption("localModels")) {
+      // run the VTK garbage collector every 30 seconds to release evicted local models
+      vtkObject.JAVA_OBJECT_MANAGER.getAutoGarbageCollector().SetScheduleTime(30, TimeUnit.SECONDS);
+      vtkObject.JAVA_OBJECT_MANAGER.getAutoGarbageCollector().SetAutoGarbageCollection(true);
+    }
+
     Double scale =
         cl.hasOption("scaleModel") ? Double.parseDouble(cl.getOptionValue("scaleModel")) : null;
     Rotation rotation =
@@ -799,6 +856,10 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
 
     if (cl.hasOption("albedoFile")) app.loadAlbedoFile(cl.getOptionValue("albedoFile"));
 
+    if (cl.hasOption("localModelCacheMB"))
+      app.setLocalModelCacheSize(
+          (long) (Double.parseDouble(cl.getOptionValue("localModelCacheMB")) * 1024 * 1024));
+
     if (cl.hasOption("localModels"))
       for (String localModel : cl.getOptionValues("localModels")) app.loadLocalModels(localModel);
 
@@ -860,5 +921,10 @@ public class RenderShapeFromSumFile implements TerrasaurTool {
     } else {
       logger.error("Unsupported output file type: {}", outputFilename);
     }
+
+    if (cl.hasOption("localModels")) {
+      app.localModelCache.logStatistics();
+      vtkObject.JAVA_OBJECT_MANAGER.getAutoGarbageCollector().SetAutoGarbageCollection(false);
+    }
   }
 }
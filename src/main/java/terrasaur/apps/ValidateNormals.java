@@ -26,10 +26,9 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
@@ -37,11 +36,11 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.text.WordUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import terrasaur.smallBodyModel.BoundingVolumeHierarchy;
 import terrasaur.templates.TerrasaurTool;
 import terrasaur.utils.*;
 import vtk.vtkCellArray;
 import vtk.vtkIdList;
-import vtk.vtkOBBTree;
 import vtk.vtkOBJReader;
 import vtk.vtkPolyData;
 
@@ -65,6 +64,13 @@ public class ValidateNormals implements TerrasaurTool {
 
   static Options defineOptions() {
     Options options = TerrasaurTool.defineOptions();
+    options.addOption(
+        Option.builder("closed")
+            .desc(
+                "If present, the shape model is closed.  Make facet orientations consistent across "
+                    + "shared edges and turn each connected piece outward using its signed volume "
+                    + "instead of counting surface crossings.  This is much faster.")
+            .build());
     options.addOption(
         Option.builder("origin")
             .hasArg()
@@ -88,99 +94,277 @@ public class ValidateNormals implements TerrasaurTool {
     return options;
   }
 
+  /** number of facets checked by each task */
+  private static final int CHUNK_SIZE = 1024;
+
   private vtkPolyData polyData;
-  private ThreadLocal<vtkOBBTree> threadLocalsearchTree;
+  private double[] vertices;
+  private int[] triangles;
+  private BoundingVolumeHierarchy bvh;
   private double[] origin;
 
   public ValidateNormals(vtkPolyData polyData) {
     this.polyData = polyData;
+    this.vertices = PolyDataUtil.getPackedVertices(polyData);
+    this.triangles = PolyDataUtil.getPackedTriangles(polyData);
 
     PolyDataStatistics stats = new PolyDataStatistics(polyData);
     origin = stats.getCentroid();
-
-    threadLocalsearchTree = new ThreadLocal<>();
   }
 
-  public vtkOBBTree getOBBTree() {
-    vtkOBBTree searchTree = threadLocalsearchTree.get();
-    if (searchTree == null) {
-      searchTree = new vtkOBBTree();
-      searchTree.SetDataSet(polyData);
-      searchTree.SetTolerance(1e-12);
-      searchTree.BuildLocator();
-      threadLocalsearchTree.set(searchTree);
-    }
-    return searchTree;
+  /**
+   * @return bounding volume hierarchy over the facets, built on first use. It is immutable and
+   *     shared by all threads.
+   */
+  public synchronized BoundingVolumeHierarchy getBoundingVolumeHierarchy() {
+    if (bvh == null) bvh = new BoundingVolumeHierarchy(vertices, triangles);
+    return bvh;
   }
 
   public void setOrigin(double[] origin) {
     this.origin = origin;
   }
 
-  private class FlippedNormalFinder implements Callable<List<Long>> {
+  /**
+   * Check each facet by counting the crossings of the surface between the origin and the facet
+   * center. Facets are checked in small chunks on a work stealing pool.
+   *
+   * @param numThreads number of threads
+   * @return indices of facets with inward pointing normals
+   */
+  public Set<Long> findFlippedNormals(int numThreads) {
+    getBoundingVolumeHierarchy();
+    FlippedNormalFinder fnf = new FlippedNormalFinder(0, triangles.length / 3, new Progress());
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      return new HashSet<>(pool.invoke(fnf));
+    } finally {
+      pool.shutdown();
+    }
+  }
 
+  /** Log the fraction of facets checked every 10% */
+  private class Progress {
     private static final DateTimeFormatter defaultFormatter =
         DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss z")
             .withLocale(Locale.getDefault())
             .withZone(ZoneId.systemDefault());
 
-    private final long index0;
-    private final long index1;
+    private final long startTime = Instant.now().getEpochSecond();
+    private final AtomicLong numChecked = new AtomicLong();
+
+    private void add(int n) {
+      if (n == 0) return;
+      final long numFacets = triangles.length / 3;
+      long done = numChecked.addAndGet(n);
+      if (done * 10 / numFacets == (done - n) * 10 / numFacets || done == numFacets) return;
+
+      double pctDone = done / (numFacets * .01);
+      long elapsed = Instant.now().getEpochSecond() - startTime;
+      long estimatedFinish = (long) (elapsed / (pctDone / 100) + startTime);
+      String finish = defaultFormatter.format(Instant.ofEpochSecond(estimatedFinish));
+      logger.info(
+          String.format(
+              "Checked %d of %d facets. %.0f%% complete, projected finish %s",
+              done, numFacets, pctDone, finish));
+    }
+  }
+
+  private class FlippedNormalFinder extends RecursiveTask<List<Long>> {
+    private static final long serialVersionUID = 1L;
+
+    private final int index0;
+    private final int index1;
+    private final Progress progress;
 
-    public FlippedNormalFinder(long index0, long index1) {
+    public FlippedNormalFinder(int index0, int index1, Progress progress) {
       this.index0 = index0;
       this.index1 = index1;
+      this.progress = progress;
     }
 
     @Override
-    public List<Long> call() {
+    protected List<Long> compute() {
+      if (index1 - index0 > CHUNK_SIZE) {
+        int mid = (index0 + index1) >>> 1;
+        FlippedNormalFinder left = new FlippedNormalFinder(index0, mid, progress);
+        left.fork();
+        List<Long> flippedNormals = new FlippedNormalFinder(mid, index1, progress).compute();
+        flippedNormals.addAll(left.join());
+        return flippedNormals;
+      }
 
-      logger.info("Thread {}: indices {} to {}", Thread.currentThread().threadId(), index0, index1);
-      vtkIdList idList = new vtkIdList();
-      vtkIdList cellIds = new vtkIdList();
+      BoundingVolumeHierarchy bvh = getBoundingVolumeHierarchy();
+      int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+      double[] center = new double[3];
+      double[] normal = new double[3];
       List<Long> flippedNormals = new ArrayList<>();
-
-      final long startTime = Instant.now().getEpochSecond();
-      final long numFacets = index1 - index0;
-      for (int i = 0; i < numFacets; ++i) {
-
-        if (i > 0 && i % (numFacets / 10) == 0) {
-          double pctDone = i / (numFacets * .01);
-          long elapsed = Instant.now().getEpochSecond() - startTime;
-          long estimatedFinish = (long) (elapsed / (pctDone / 100) + startTime);
-          String finish = defaultFormatter.format(Instant.ofEpochSecond(estimatedFinish));
-          logger.info(
-              String.format(
-                  "Thread %d: read %d of %d facets. %.0f%% complete, projected finish %s",
-                  Thread.currentThread().threadId(), index0 + i, index1, pctDone, finish));
-        }
-
-        long index = index0 + i;
-
-        CellInfo ci = CellInfo.getCellInfo(polyData, index, idList);
-        getOBBTree().IntersectWithLine(origin, ci.center().toArray(), null, cellIds);
+      for (int index = index0; index < index1; index++) {
+        getCenterAndNormal(index, center, normal);
+        double dx = center[0] - origin[0];
+        double dy = center[1] - origin[1];
+        double dz = center[2] - origin[2];
 
         // count up all crossings of the surface between the origin and the facet.
-        int numCrossings = 0;
-        for (int j = 0; j < cellIds.GetNumberOfIds(); j++) {
-          if (cellIds.GetId(j) == index) break;
-          numCrossings++;
-        }
+        final int facet = index;
+        int[] numCrossings = new int[1];
+        bvh.intersectAll(
+            origin[0],
+            origin[1],
+            origin[2],
+            dx,
+            dy,
+            dz,
+            1,
+            stack,
+            (triangle, t) -> {
+              if (triangle != facet) numCrossings[0]++;
+            });
 
         // if numCrossings is even, the radial and normal should point in the same direction. If it
-        // is odd, the
-        // radial and normal should point in opposite directions.
-        boolean shouldBeOpposite = (numCrossings % 2 == 1);
-        boolean isOpposite = (ci.center().dotProduct(ci.normal()) < 0);
+        // is odd, the radial and normal should point in opposite directions.
+        boolean shouldBeOpposite = (numCrossings[0] % 2 == 1);
+        boolean isOpposite = (dx * normal[0] + dy * normal[1] + dz * normal[2] < 0);
 
         // XOR operator - true if both conditions are different
-        if (isOpposite ^ shouldBeOpposite) flippedNormals.add(index);
+        if (isOpposite ^ shouldBeOpposite) flippedNormals.add((long) index);
       }
+      progress.add(index1 - index0);
 
       return flippedNormals;
     }
   }
 
+  /**
+   * Check a closed model without casting any rays. Starting from an arbitrary facet, orientations
+   * are propagated across shared edges so that neighboring facets traverse their common edge in
+   * opposite directions. Each connected piece of the model is then turned outward if its signed
+   * volume is negative.
+   *
+   * @return indices of facets with inward pointing normals
+   */
+  public Set<Long> findFlippedNormalsClosed() {
+    final int numFacets = triangles.length / 3;
+    final int numVertices = vertices.length / 3;
+
+    // facets with a repeated vertex have no orientation and are skipped
+    boolean[] degenerate = new boolean[numFacets];
+    for (int i = 0; i < numFacets; i++) {
+      int a = triangles[3 * i];
+      int b = triangles[3 * i + 1];
+      int c = triangles[3 * i + 2];
+      degenerate[i] = a == b || b == c || c == a;
+    }
+
+    // facets which use each vertex
+    int[] offsets = new int[numVertices + 1];
+    for (int i = 0; i < triangles.length; i++) if (!degenerate[i / 3]) offsets[triangles[i] + 1]++;
+    for (int i = 0; i < numVertices; i++) offsets[i + 1] += offsets[i];
+    int[] vertexFacets = new int[offsets[numVertices]];
+    int[] next = Arrays.copyOf(offsets, numVertices);
+    for (int i = 0; i < triangles.length; i++)
+      if (!degenerate[i / 3]) vertexFacets[next[triangles[i]]++] = i / 3;
+
+    // 1 to keep the vertex order, -1 to reverse it, 0 if not yet visited
+    byte[] sign = new byte[numFacets];
+    int[] queue = new int[numFacets];
+    int numConflicts = 0;
+    int numPieces = 0;
+    for (int seed = 0; seed < numFacets; seed++) {
+      if (sign[seed] != 0 || degenerate[seed]) continue;
+      numPieces++;
+
+      int head = 0;
+      int tail = 0;
+      queue[tail++] = seed;
+      sign[seed] = 1;
+      double volume = 0;
+      while (head < tail) {
+        int facet = queue[head++];
+        volume += sign[facet] * getSignedVolume(facet);
+        for (int k = 0; k < 3; k++) {
+          int a = triangles[3 * facet + k];
+          int b = triangles[3 * facet + (k + 1) % 3];
+          for (int j = offsets[a]; j < offsets[a + 1]; j++) {
+            int neighbor = vertexFacets[j];
+            if (neighbor == facet) continue;
+            int direction = getEdgeDirection(neighbor, a, b);
+            if (direction == 0) continue;
+
+            // a consistent neighbor traverses the shared edge in the opposite direction
+            byte expected = (byte) (direction > 0 ? -sign[facet] : sign[facet]);
+            if (sign[neighbor] == 0) {
+              sign[neighbor] = expected;
+              queue[tail++] = neighbor;
+            } else if (sign[neighbor] != expected && neighbor > facet) {
+              numConflicts++;
+            }
+          }
+        }
+      }
+
+      if (volume < 0) {
+        for (int i = 0; i < tail; i++) sign[queue[i]] *= -1;
+      }
+    }
+
+    logger.info("Found {} connected pieces", numPieces);
+    if (numConflicts > 0)
+      logger.warn(
+          "{} edges could not be oriented consistently. The model may not be closed or manifold.",
+          numConflicts);
+
+    Set<Long> flippedNormals = new HashSet<>();
+    for (int i = 0; i < numFacets; i++) if (sign[i] < 0) flippedNormals.add((long) i);
+    return flippedNormals;
+  }
+
+  /**
+   * @return 1 if the facet traverses the edge from a to b, -1 if from b to a, 0 if it does not
+   *     contain the edge
+   */
+  private int getEdgeDirection(int facet, int a, int b) {
+    for (int k = 0; k < 3; k++) {
+      if (triangles[3 * facet + k] != a) continue;
+      if (triangles[3 * facet + (k + 1) % 3] == b) return 1;
+      if (triangles[3 * facet + (k + 2) % 3] == b) return -1;
+    }
+    return 0;
+  }
+
+  /** @return six times the signed volume of the tetrahedron formed by the origin and the facet */
+  private double getSignedVolume(int facet) {
+    double[] p = new double[9];
+    for (int k = 0; k < 3; k++) {
+      int v = 3 * triangles[3 * facet + k];
+      for (int j = 0; j < 3; j++) p[3 * k + j] = vertices[v + j] - origin[j];
+    }
+    return p[0] * (p[4] * p[8] - p[5] * p[7])
+        - p[1] * (p[3] * p[8] - p[5] * p[6])
+        + p[2] * (p[3] * p[7] - p[4] * p[6]);
+  }
+
+  /**
+   * @param facet facet index
+   * @param center average of the facet vertices on return
+   * @param normal (v1-v0)x(v2-v0) on return, not unitized
+   */
+  private void getCenterAndNormal(int facet, double[] center, double[] normal) {
+    int a = 3 * triangles[3 * facet];
+    int b = 3 * triangles[3 * facet + 1];
+    int c = 3 * triangles[3 * facet + 2];
+    double[] e1 = new double[3];
+    double[] e2 = new double[3];
+    for (int k = 0; k < 3; k++) {
+      center[k] = (vertices[a + k] + vertices[b + k] + vertices[c + k]) / 3;
+      e1[k] = vertices[b + k] - vertices[a + k];
+      e2[k] = vertices[c + k] - vertices[a + k];
+    }
+    normal[0] = e1[1] * e2[2] - e1[2] * e2[1];
+    normal[1] = e1[2] * e2[0] - e1[0] * e2[2];
+    normal[2] = e1[0] * e2[1] - e1[1] * e2[0];
+  }
+
   public void flipNormals(Collection<Long> facets) {
     vtkCellArray cells = new vtkCellArray();
     for (long i = 0; i < polyData.GetNumberOfCells(); ++i) {
@@ -232,25 +416,13 @@ public class ValidateNormals implements TerrasaurTool {
       app.setOrigin(origin);
     }
 
-    Set<Long> flippedNormals = new HashSet<>();
-
-    int numThreads =
-        cl.hasOption("numThreads") ? Integer.parseInt(cl.getOptionValue("numThreads")) : 1;
-    try (ExecutorService executor = Executors.newFixedThreadPool(numThreads)) {
-      List<Future<List<Long>>> futures = new ArrayList<>();
-
-      long numFacets = polyData.GetNumberOfCells() / numThreads;
-      for (int i = 0; i < numThreads; i++) {
-        long fromIndex = i * numFacets;
-        long toIndex = Math.min(polyData.GetNumberOfCells(), fromIndex + numFacets);
-
-        FlippedNormalFinder fnf = app.new FlippedNormalFinder(fromIndex, toIndex);
-        futures.add(executor.submit(fnf));
-      }
-
-      for (Future<List<Long>> future : futures) flippedNormals.addAll(future.get());
-
-      executor.shutdown();
+    Set<Long> flippedNormals;
+    if (cl.hasOption("closed")) {
+      flippedNormals = app.findFlippedNormalsClosed();
+    } else {
+      int numThreads =
+          cl.hasOption("numThreads") ? Integer.parseInt(cl.getOptionValue("numThreads")) : 1;
+      flippedNormals = app.findFlippedNormals(numThreads);
     }
 
     logger.info(
@@ -23,6 +23,9 @@
 package terrasaur.apps;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
@@ -32,12 +35,8 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.spi.StandardLevel;
-import picante.math.vectorspace.VectorIJK;
-import terrasaur.smallBodyModel.SmallBodyModel;
 import terrasaur.templates.TerrasaurTool;
 import terrasaur.utils.*;
-import terrasaur.utils.mesh.TriangularFacet;
-import vtk.vtkIdList;
 import vtk.vtkPolyData;
 
 /**
@@ -69,8 +68,15 @@ public class ValidateOBJ implements TerrasaurTool {
     return TerrasaurTool.super.fullDescription(options, header, footer);
   }
 
+  /** vertices closer than this are duplicates */
+  private static final double DUPLICATE_TOLERANCE = 1e-10;
+
+  /** number of cells or vertices handled by each parallel task */
+  private static final int CHUNK_SIZE = 1 << 16;
+
   private vtkPolyData polyData;
   private String validationMsg;
+  private Checks checks;
 
   private ValidateOBJ() {}
 
@@ -78,6 +84,219 @@ public class ValidateOBJ implements TerrasaurTool {
     this.polyData = polyData;
   }
 
+  /** Facet checks accumulated over a range of cells */
+  private static class FacetChecks {
+    private final List<Integer> zeroAreaFacets = new ArrayList<>();
+    private final double[] centerSum = new double[3];
+    private final double[] normalSum = new double[3];
+  }
+
+  /**
+   * Results of the facet and vertex checks, computed together in one parallel pass over the cells
+   * and one over the vertices.
+   */
+  private static class Checks {
+    private final double[] vertices;
+    private final int[] triangles;
+    private final List<Integer> zeroAreaFacets = new ArrayList<>();
+
+    /** dot product of each facet's center and unit normal, NaN for zero area or malformed facets */
+    private final double[] radialDotNormal;
+    private final double[] centerSum = new double[3];
+    private final double[] normalSum = new double[3];
+    private final List<Long> unreferencedVertices = new ArrayList<>();
+    private final List<Integer> malformedVertices = new ArrayList<>();
+    private final NavigableMap<Long, List<Long>> duplicateVertices = new TreeMap<>();
+
+    private Checks(vtkPolyData polyData) {
+      vertices = PolyDataUtil.getPackedVertices(polyData);
+      triangles = PolyDataUtil.getPackedTriangles(polyData);
+      int numVertices = vertices.length / 3;
+      int numFacets = triangles.length / 3;
+      radialDotNormal = new double[numFacets];
+
+      // elements of a byte array may be written concurrently without affecting their neighbors
+      byte[] referenced = new byte[numVertices];
+      List<FacetChecks> facetChecks =
+          IntStream.range(0, numChunks(numFacets))
+              .parallel()
+              .mapToObj(
+                  chunk -> {
+                    FacetChecks fc = new FacetChecks();
+                    int end = Math.min(numFacets, (chunk + 1) * CHUNK_SIZE);
+                    for (int i = chunk * CHUNK_SIZE; i < end; i++) checkFacet(i, referenced, fc);
+                    return fc;
+                  })
+              .collect(Collectors.toList());
+
+      for (FacetChecks fc : facetChecks) {
+        zeroAreaFacets.addAll(fc.zeroAreaFacets);
+        for (int k = 0; k < 3; k++) {
+          centerSum[k] += fc.centerSum[k];
+          normalSum[k] += fc.normalSum[k];
+        }
+      }
+
+      for (int i = 0; i < numVertices; i++) {
+        if (referenced[i] == 0) unreferencedVertices.add((long) i);
+      }
+
+      for (int i = 0; i < vertices.length; i++) {
+        if (!Double.isFinite(vertices[i])) {
+          malformedVertices.add(i / 3);
+          i = 3 * (i / 3) + 2;
+        }
+      }
+
+      findDuplicates();
+    }
+
+    private void checkFacet(int i, byte[] referenced, FacetChecks fc) {
+      int id0 = triangles[3 * i];
+      int id1 = triangles[3 * i + 1];
+      int id2 = triangles[3 * i + 2];
+      referenced[id0] = 1;
+      referenced[id1] = 1;
+      referenced[id2] = 1;
+
+      // would be faster to check if id0==id1||id0==id2||id1==id2 but there may be
+      // duplicate vertices
+      int a = 3 * id0;
+      int b = 3 * id1;
+      int c = 3 * id2;
+      double e1x = vertices[b] - vertices[a];
+      double e1y = vertices[b + 1] - vertices[a + 1];
+      double e1z = vertices[b + 2] - vertices[a + 2];
+      double e2x = vertices[c] - vertices[a];
+      double e2y = vertices[c + 1] - vertices[a + 1];
+      double e2z = vertices[c + 2] - vertices[a + 2];
+      double nx = e1y * e2z - e1z * e2y;
+      double ny = e1z * e2x - e1x * e2z;
+      double nz = e1x * e2y - e1y * e2x;
+      double norm = Math.sqrt(nx * nx + ny * ny + nz * nz);
+      radialDotNormal[i] = Double.NaN;
+      if (norm == 0) {
+        fc.zeroAreaFacets.add(i);
+        return;
+      }
+      // NaN if a vertex is malformed
+      if (!(norm > 0)) return;
+
+      nx /= norm;
+      ny /= norm;
+      nz /= norm;
+      double cx = (vertices[a] + vertices[b] + vertices[c]) / 3;
+      double cy = (vertices[a + 1] + vertices[b + 1] + vertices[c + 1]) / 3;
+      double cz = (vertices[a + 2] + vertices[b + 2] + vertices[c + 2]) / 3;
+      radialDotNormal[i] = cx * nx + cy * ny + cz * nz;
+      fc.centerSum[0] += cx;
+      fc.centerSum[1] += cy;
+      fc.centerSum[2] += cz;
+      fc.normalSum[0] += nx;
+      fc.normalSum[1] += ny;
+      fc.normalSum[2] += nz;
+    }
+
+    /** grid cell containing a coordinate, with cells twice the duplicate tolerance */
+    private static long cellIndex(double x) {
+      return (long) Math.floor(x / (2 * DUPLICATE_TOLERANCE));
+    }
+
+    /**
+     * @return first of the two cells along one axis that may hold points within the duplicate
+     *     tolerance of x
+     */
+    private static long firstNeighborCell(double x) {
+      double c = x / (2 * DUPLICATE_TOLERANCE);
+      long i = (long) Math.floor(c);
+      return c - i < 0.5 ? i - 1 : i;
+    }
+
+    private static int hash(long i, long j, long k) {
+      long h = i * 0x9E3779B97F4A7C15L + j * 0xC2B2AE3D27D4EB4FL + k * 0x165667B19E3779F9L;
+      return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Find vertices within {@link #DUPLICATE_TOLERANCE} of each other. Vertices are placed in a
+     * hash table keyed by the grid cell containing them, stored in compressed sparse row format.
+     * Cells are twice the tolerance wide, so any duplicate of a vertex lies in one of the 2x2x2
+     * block of cells nearest to it.
+     */
+    private void findDuplicates() {
+      int numVertices = vertices.length / 3;
+      int numBuckets = Integer.highestOneBit(Math.max(1, 2 * numVertices - 1)) << 1;
+      int mask = numBuckets - 1;
+
+      int[] bucket = new int[numVertices];
+      IntStream.range(0, numVertices)
+          .parallel()
+          .forEach(
+              v ->
+                  bucket[v] =
+                      hash(
+                              cellIndex(vertices[3 * v]),
+                              cellIndex(vertices[3 * v + 1]),
+                              cellIndex(vertices[3 * v + 2]))
+                          & mask);
+      int[] offsets = new int[numBuckets + 1];
+      for (int v = 0; v < numVertices; v++) offsets[bucket[v] + 1]++;
+      for (int i = 0; i < numBuckets; i++) offsets[i + 1] += offsets[i];
+      int[] entries = new int[numVertices];
+      int[] next = Arrays.copyOf(offsets, numBuckets);
+      for (int v = 0; v < numVertices; v++) entries[next[bucket[v]]++] = v;
+
+      final double tol2 = DUPLICATE_TOLERANCE * DUPLICATE_TOLERANCE;
+      Map<Long, List<Long>> found = new ConcurrentHashMap<>();
+      IntStream.range(0, numVertices)
+          .parallel()
+          .forEach(
+              v -> {
+                double x = vertices[3 * v];
+                double y = vertices[3 * v + 1];
+                double z = vertices[3 * v + 2];
+                long ci = firstNeighborCell(x);
+                long cj = firstNeighborCell(y);
+                long ck = firstNeighborCell(z);
+                List<Long> duplicates = new ArrayList<>();
+                // loop over offsets since the cell index saturates at Long.MAX_VALUE for very
+                // large or infinite coordinates
+                for (int di = 0; di < 2; di++) {
+                  for (int dj = 0; dj < 2; dj++) {
+                    for (int dk = 0; dk < 2; dk++) {
+                      int b = hash(ci + di, cj + dj, ck + dk) & mask;
+                      for (int e = offsets[b]; e < offsets[b + 1]; e++) {
+                        int w = entries[e];
+                        // neighboring cells may share a bucket
+                        if (w <= v || duplicates.contains((long) w)) continue;
+                        double dx = vertices[3 * w] - x;
+                        double dy = vertices[3 * w + 1] - y;
+                        double dz = vertices[3 * w + 2] - z;
+                        if (dx * dx + dy * dy + dz * dz <= tol2) duplicates.add((long) w);
+                      }
+                    }
+                  }
+                }
+                if (!duplicates.isEmpty()) {
+                  Collections.sort(duplicates);
+                  found.put((long) v, duplicates);
+                }
+              });
+      duplicateVertices.putAll(found);
+    }
+  }
+
+  /** @return number of chunks needed to cover n items */
+  private static int numChunks(int n) {
+    return Math.max(1, (n + CHUNK_SIZE - 1) / CHUNK_SIZE);
+  }
+
+  /** @return results of the facet and vertex checks, computed on first use */
+  private Checks getChecks() {
+    if (checks == null) checks = new Checks(polyData);
+    return checks;
+  }
+
   /**
    * @return {@link vtkPolyData#GetNumberOfCells()}
    */
@@ -149,22 +368,9 @@ public class ValidateOBJ implements TerrasaurTool {
    * @return key is vertex id, value is a list of vertices within a hard coded distance of 1e-10.
    */
   public NavigableMap<Long, List<Long>> findDuplicateVertices() {
-
-    SmallBodyModel sbm = new SmallBodyModel(polyData);
-
-    double[] iPt = new double[3];
-
-    NavigableMap<Long, List<Long>> map = new TreeMap<>();
-    double tol = 1e-10;
-    for (long i = 0; i < vertexCount(); i++) {
-      polyData.GetPoint(i, iPt);
-
-      List<Long> closestVertices = new ArrayList<>();
-      for (Long id : sbm.findClosestVerticesWithinRadius(iPt, tol))
-        if (id > i) closestVertices.add(id);
-      if (!closestVertices.isEmpty()) map.put(i, closestVertices);
-
-      if (map.containsKey(i) && !map.get(i).isEmpty()) {
+    NavigableMap<Long, List<Long>> map = new TreeMap<>(getChecks().duplicateVertices);
+    if (logger.isDebugEnabled()) {
+      for (Long i : map.keySet()) {
         StringBuilder sb = new StringBuilder();
         sb.append(String.format("Duplicates for vertex %d: ", i + 1));
         for (Long dupId : map.get(i)) sb.append(String.format("%d ", dupId + 1));
@@ -182,137 +388,78 @@ public class ValidateOBJ implements TerrasaurTool {
    *     Double#isFinite(double)}.
    */
   public List<Integer> findMalformedVertices() {
-    double[] iPt = new double[3];
-    NavigableSet<Integer> vertexIndices = new TreeSet<>();
-    for (int i = 0; i < vertexCount(); i++) {
-      polyData.GetPoint(i, iPt);
-      for (int j = 0; j < 3; j++) {
-        if (!Double.isFinite(iPt[j])) {
-          logger.debug("Vertex {}: {} {} {}", i, iPt[0], iPt[1], iPt[2]);
-          vertexIndices.add(i);
-          break;
-        }
-      }
-    }
-    validationMsg = String.format("%d malformed vertices ", vertexIndices.size());
-    return new ArrayList<>(vertexIndices);
+    Checks c = getChecks();
+    for (int i : c.malformedVertices)
+      logger.debug(
+          "Vertex {}: {} {} {}",
+          i,
+          c.vertices[3 * i],
+          c.vertices[3 * i + 1],
+          c.vertices[3 * i + 2]);
+    validationMsg = String.format("%d malformed vertices ", c.malformedVertices.size());
+    return new ArrayList<>(c.malformedVertices);
   }
 
   /**
    * @return a list of vertex indices that are not referenced by any facet
    */
   public List<Long> findUnreferencedVertices() {
-    NavigableSet<Long> vertexIndices = new TreeSet<>();
-    for (long i = 0; i < polyData.GetNumberOfPoints(); i++) {
-      vertexIndices.add(i);
+    Checks c = getChecks();
+    for (long id : c.unreferencedVertices) {
+      int i = 3 * (int) id;
+      logger.debug(
+          "Unreferenced vertex {} [{}, {}, {}]",
+          id + 1,
+          c.vertices[i],
+          c.vertices[i + 1],
+          c.vertices[i + 2]);
+      // note OBJ vertices are numbered from 1 but VTK uses 0
     }
 
-    vtkIdList idList = new vtkIdList();
-    for (int i = 0; i < facetCount(); ++i) {
-      polyData.GetCellPoints(i, idList);
-      long id0 = idList.GetId(0);
-      long id1 = idList.GetId(1);
-      long id2 = idList.GetId(2);
-
-      vertexIndices.remove(id0);
-      vertexIndices.remove(id1);
-      vertexIndices.remove(id2);
-    }
-
-    if (!vertexIndices.isEmpty()) {
-      double[] pt = new double[3];
-      for (long id : vertexIndices) {
-        polyData.GetPoint(id, pt);
-        logger.debug("Unreferenced vertex {} [{}, {}, {}]", id + 1, pt[0], pt[1], pt[2]);
-        // note OBJ vertices are numbered from 1 but VTK uses 0
-      }
-    }
-
-    validationMsg = String.format("%d unreferenced vertices found", vertexIndices.size());
+    validationMsg =
+        String.format("%d unreferenced vertices found", c.unreferencedVertices.size());
 
-    return new ArrayList<>(vertexIndices);
+    return new ArrayList<>(c.unreferencedVertices);
   }
 
   /**
    * @return a list of facet indices where the facet has zero area
    */
   public List<Integer> findZeroAreaFacets() {
-    List<Integer> zeroAreaFacets = new ArrayList<>();
-    vtkIdList idList = new vtkIdList();
-    double[] pt0 = new double[3];
-    double[] pt1 = new double[3];
-    double[] pt2 = new double[3];
-
-    for (int i = 0; i < facetCount(); ++i) {
-      polyData.GetCellPoints(i, idList);
-      long id0 = idList.GetId(0);
-      long id1 = idList.GetId(1);
-      long id2 = idList.GetId(2);
-      polyData.GetPoint(id0, pt0);
-      polyData.GetPoint(id1, pt1);
-      polyData.GetPoint(id2, pt2);
-
-      // would be faster to check if id0==id1||id0==id2||id1==id2 but there may be
-      // duplicate vertices
-      TriangularFacet facet =
-          new TriangularFacet(new VectorIJK(pt0), new VectorIJK(pt1), new VectorIJK(pt2));
-      double area = facet.getArea();
-      if (area == 0) {
-        zeroAreaFacets.add(i);
-        logger.debug(
-            "Facet {} has zero area.  Vertices are {} [{}, {}, {}], {} [{}, {}, {}],  and {} [{}, {}, {}]",
-            i + 1,
-            id0 + 1,
-            pt0[0],
-            pt0[1],
-            pt0[2],
-            id1 + 1,
-            pt1[0],
-            pt1[1],
-            pt1[2],
-            id2 + 1,
-            pt2[0],
-            pt2[1],
-            pt2[2]);
-      }
+    Checks c = getChecks();
+    for (int i : c.zeroAreaFacets) {
+      int id0 = c.triangles[3 * i];
+      int id1 = c.triangles[3 * i + 1];
+      int id2 = c.triangles[3 * i + 2];
+      logger.debug(
+          "Facet {} has zero area.  Vertices are {} [{}, {}, {}], {} [{}, {}, {}],  and {} [{}, {}, {}]",
+          i + 1,
+          id0 + 1,
+          c.vertices[3 * id0],
+          c.vertices[3 * id0 + 1],
+          c.vertices[3 * id0 + 2],
+          id1 + 1,
+          c.vertices[3 * id1],
+          c.vertices[3 * id1 + 1],
+          c.vertices[3 * id1 + 2],
+          id2 + 1,
+          c.vertices[3 * id2],
+          c.vertices[3 * id2 + 1],
+          c.vertices[3 * id2 + 2]);
     }
 
-    validationMsg = String.format("%d zero area facets found", zeroAreaFacets.size());
-    return zeroAreaFacets;
+    validationMsg = String.format("%d zero area facets found", c.zeroAreaFacets.size());
+    return new ArrayList<>(c.zeroAreaFacets);
   }
 
   /**
-   * @return statistics on the angle between the facet radial and normal vectors
+   * @return statistics on the dot product between the facet radial and normal vectors
    */
   public DescriptiveStatistics normalStats() {
-    DescriptiveStatistics stats = new DescriptiveStatistics();
-
-    VectorStatistics cStats = new VectorStatistics();
-    VectorStatistics nStats = new VectorStatistics();
-
-    vtkIdList idList = new vtkIdList();
-    double[] pt0 = new double[3];
-    double[] pt1 = new double[3];
-    double[] pt2 = new double[3];
-    for (int i = 0; i < facetCount(); ++i) {
-      polyData.GetCellPoints(i, idList);
-      long id0 = idList.GetId(0);
-      long id1 = idList.GetId(1);
-      long id2 = idList.GetId(2);
-      polyData.GetPoint(id0, pt0);
-      polyData.GetPoint(id1, pt1);
-      polyData.GetPoint(id2, pt2);
-
-      // would be faster to check if id0==id1||id0==id2||id1==id2 but there may be
-      // duplicate vertices
-      TriangularFacet facet =
-          new TriangularFacet(new VectorIJK(pt0), new VectorIJK(pt1), new VectorIJK(pt2));
-      if (facet.getArea() > 0) {
-        stats.addValue(facet.getCenter().getDot(facet.getNormal()));
-        cStats.add(facet.getCenter());
-        nStats.add(facet.getNormal());
-      }
-    }
+    Checks c = getChecks();
+    DescriptiveStatistics stats =
+        new DescriptiveStatistics(
+            Arrays.stream(c.radialDotNormal).filter(d -> !Double.isNaN(d)).toArray());
 
     validationMsg =
         String.format(
@@ -320,7 +467,7 @@ public class ValidateOBJ implements TerrasaurTool {
                 + "angle between mean radial and mean normal is %f degrees",
             stats.getN(),
             Math.toDegrees(Math.acos(stats.getMean())),
-            Math.toDegrees(Vector3D.angle(cStats.getMean(), nStats.getMean())));
+            Math.toDegrees(Vector3D.angle(new Vector3D(c.centerSum), new Vector3D(c.normalSum))));
 
     return stats;
   }
@@ -0,0 +1,474 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.fits;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Random access to the planes of a three dimensional image in the primary HDU of a FITS file.
+ * <p>
+ * Nothing is read until it is asked for. Each plane of an uncompressed file is memory mapped the
+ * first time it is used, so reading a few planes of a large cube only touches those planes on disk
+ * and keeps nothing on the heap. Gzip compressed files cannot be mapped, so their data unit is
+ * decompressed into memory in its native type when the file is opened.
+ * <p>
+ * Indexing follows {@link FitsUtil#loadFits(String, int[])}: data[plane][row][col], where col runs
+ * along NAXIS1, row along NAXIS2 and plane along NAXIS3. Views are safe to read from multiple
+ * threads.
+ * 
+ * @author Hari.Nair@jhuapl.edu
+ *
+ */
+public class FitsCube implements Closeable {
+
+  private static final int BLOCK_SIZE = 2880;
+  private static final int CARD_SIZE = 80;
+
+  private final FileChannel channel;
+  private final long dataOffset;
+
+  /** whole data unit, only used for compressed files */
+  private final ByteBuffer data;
+
+  private final Map<String, String> header;
+  private final int bitpix;
+  private final int bytesPerValue;
+  private final int numPlanes;
+  private final int numRows;
+  private final int numCols;
+  private final double bscale;
+  private final double bzero;
+
+  /** mapped planes, created on first use */
+  private final ByteBuffer[] planes;
+
+  private FitsCube(FileChannel channel, long dataOffset, ByteBuffer data,
+      Map<String, String> header) throws IOException {
+    this.channel = channel;
+    this.dataOffset = dataOffset;
+    this.data = data;
+    this.header = header;
+
+    bitpix = getInt("BITPIX");
+    switch (bitpix) {
+      case 8:
+      case 16:
+      case 32:
+      case 64:
+      case -32:
+      case -64:
+        bytesPerValue = Math.abs(bitpix) / 8;
+        break;
+      default:
+        throw new IOException(String.format("FITS file has invalid BITPIX %d", bitpix));
+    }
+
+    if (getInt("NAXIS") != 3)
+      throw new IOException(
+          "FITS file has incorrect dimensions! This was assumed to be 3D fits file!");
+    numCols = getInt("NAXIS1");
+    numRows = getInt("NAXIS2");
+    numPlanes = getInt("NAXIS3");
+
+    bscale = header.containsKey("BSCALE") ? Double.parseDouble(header.get("BSCALE")) : 1;
+    bzero = header.containsKey("BZERO") ? Double.parseDouble(header.get("BZERO")) : 0;
+
+    if ((long) numRows * numCols * bytesPerValue > Integer.MAX_VALUE)
+      throw new IOException(String.format("FITS plane of %d x %d values is too large to map",
+          numRows, numCols));
+    planes = new ByteBuffer[numPlanes];
+  }
+
+  /**
+   * Open the primary HDU of a FITS file. The file may be gzip compressed.
+   * 
+   * @param file
+   * @return cube
+   * @throws IOException if the file cannot be read or the primary HDU is not a three dimensional
+   *         image
+   */
+  public static FitsCube open(File file) throws IOException {
+    boolean compressed;
+    try (InputStream is = new FileInputStream(file)) {
+      compressed = is.read() == 0x1f && is.read() == 0x8b;
+    }
+
+    if (compressed) {
+      try (DataInputStream is = new DataInputStream(
+          new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+        Map<String, String> header = new LinkedHashMap<>();
+        readHeader(is, header);
+        long size = getDataSize(header);
+        if (size > Integer.MAX_VALUE)
+          throw new IOException(String.format(
+              "Compressed FITS file %s is too large to read, decompress it first", file));
+        byte[] bytes = new byte[(int) size];
+        is.readFully(bytes);
+        return new FitsCube(null, 0, ByteBuffer.wrap(bytes), header);
+      }
+    }
+
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      Map<String, String> header = new LinkedHashMap<>();
+      long dataOffset = readHeader(
+          new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))), header);
+      if (dataOffset + getDataSize(header) > channel.size())
+        throw new IOException(String.format("FITS file %s is truncated", file));
+      return new FitsCube(channel, dataOffset, null, header);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Read header cards up to and including END. Only keywords with values are kept. String values
+   * keep their quotes.
+   * 
+   * @param is stream positioned at the start of the header
+   * @param header map of keyword to value on return
+   * @return length of the header in bytes
+   * @throws IOException
+   */
+  private static long readHeader(DataInputStream is, Map<String, String> header)
+      throws IOException {
+    byte[] block = new byte[BLOCK_SIZE];
+    long length = 0;
+    boolean end = false;
+    while (!end) {
+      try {
+        is.readFully(block);
+      } catch (EOFException e) {
+        throw new IOException("FITS header has no END card");
+      }
+      if (length == 0 && !new String(block, 0, 6, StandardCharsets.US_ASCII).equals("SIMPLE"))
+        throw new IOException("Not a FITS file");
+      length += BLOCK_SIZE;
+
+      for (int i = 0; i < BLOCK_SIZE && !end; i += CARD_SIZE) {
+        String card = new String(block, i, CARD_SIZE, StandardCharsets.US_ASCII);
+        String key = card.substring(0, 8).trim();
+        if (key.equals("END")) {
+          end = true;
+        } else if (card.startsWith("= ", 8)) {
+          String value = card.substring(10);
+          if (!value.trim().startsWith("'")) {
+            int comment = value.indexOf('/');
+            if (comment >= 0)
+              value = value.substring(0, comment);
+          }
+          header.putIfAbsent(key, value.trim());
+        }
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @param header
+   * @return size of the data unit in bytes, excluding padding
+   */
+  private static long getDataSize(Map<String, String> header) throws IOException {
+    long size = Math.abs(getInt(header, "BITPIX")) / 8;
+    int naxis = getInt(header, "NAXIS");
+    for (int i = 1; i <= naxis; i++)
+      size *= getInt(header, "NAXIS" + i);
+    return naxis == 0 ? 0 : size;
+  }
+
+  private static int getInt(Map<String, String> header, String key) throws IOException {
+    String value = header.get(key);
+    if (value == null)
+      throw new IOException(String.format("FITS header has no %s keyword", key));
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IOException(String.format("FITS header keyword %s has invalid value %s", key,
+          value));
+    }
+  }
+
+  private int getInt(String key) throws IOException {
+    return getInt(header, key);
+  }
+
+  /**
+   * @param key header keyword
+   * @return value of the keyword in the primary header, or null if not present. String values
+   *         include their quotes.
+   */
+  public String getHeaderValue(String key) {
+    return header.get(key);
+  }
+
+  /**
+   * Return image dimensions in this order: [numPlanes][numRows][numCols], the same as
+   * {@link FitsUtil#getAxes(File)}.
+   * 
+   * @return
+   */
+  public int[] getAxes() {
+    return new int[] {numPlanes, numRows, numCols};
+  }
+
+  public int getNumPlanes() {
+    return numPlanes;
+  }
+
+  public int getNumRows() {
+    return numRows;
+  }
+
+  public int getNumCols() {
+    return numCols;
+  }
+
+  /** @return FITS BITPIX value giving the native data type */
+  public int getBitpix() {
+    return bitpix;
+  }
+
+  /**
+   * @param planeIndex
+   * @return buffer holding one plane in its native type, big endian
+   * @throws IOException
+   */
+  private synchronized ByteBuffer getPlaneBuffer(int planeIndex) throws IOException {
+    if (planeIndex < 0 || planeIndex >= numPlanes)
+      throw new IndexOutOfBoundsException(String.format(
+          "Plane index %d is out of range, file has %d planes", planeIndex, numPlanes));
+    if (planes[planeIndex] == null) {
+      long planeSize = (long) numRows * numCols * bytesPerValue;
+      if (data != null) {
+        ByteBuffer tmp = data.duplicate();
+        tmp.position((int) (planeIndex * planeSize));
+        tmp.limit((int) ((planeIndex + 1) * planeSize));
+        planes[planeIndex] = tmp.slice();
+      } else {
+        planes[planeIndex] = channel.map(FileChannel.MapMode.READ_ONLY,
+            dataOffset + planeIndex * planeSize, planeSize);
+      }
+    }
+    return planes[planeIndex];
+  }
+
+  /**
+   * @param planeIndex
+   * @return view of one plane
+   * @throws IOException
+   */
+  public Tile getPlane(int planeIndex) throws IOException {
+    return new Tile(getPlaneBuffer(planeIndex), 0, 0, numRows, numCols);
+  }
+
+  /**
+   * @param planeIndex
+   * @param row first row of the tile
+   * @param col first column of the tile
+   * @param tileRows number of rows in the tile
+   * @param tileCols number of columns in the tile
+   * @return view of part of one plane
+   * @throws IOException
+   */
+  public Tile getTile(int planeIndex, int row, int col, int tileRows, int tileCols)
+      throws IOException {
+    if (row < 0 || col < 0 || tileRows < 0 || tileCols < 0 || row + tileRows > numRows
+        || col + tileCols > numCols)
+      throw new IndexOutOfBoundsException(String.format(
+          "Tile %d x %d at (%d, %d) is outside the %d x %d plane", tileRows, tileCols, row, col,
+          numRows, numCols));
+    return new Tile(getPlaneBuffer(planeIndex), row, col, tileRows, tileCols);
+  }
+
+  /**
+   * Mapped planes remain readable after the cube is closed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (channel != null)
+      channel.close();
+  }
+
+  /**
+   * Rectangular part of one plane. Values are read from the file on demand.
+   */
+  public class Tile {
+
+    private final ByteBuffer buffer;
+    private final int rowOffset;
+    private final int colOffset;
+    private final int tileRows;
+    private final int tileCols;
+
+    private Tile(ByteBuffer buffer, int rowOffset, int colOffset, int tileRows, int tileCols) {
+      this.buffer = buffer;
+      this.rowOffset = rowOffset;
+      this.colOffset = colOffset;
+      this.tileRows = tileRows;
+      this.tileCols = tileCols;
+    }
+
+    public int getNumRows() {
+      return tileRows;
+    }
+
+    public int getNumCols() {
+      return tileCols;
+    }
+
+    private int index(int row, int col) {
+      if (row < 0 || row >= tileRows || col < 0 || col >= tileCols)
+        throw new IndexOutOfBoundsException(
+            String.format("(%d, %d) is outside the %d x %d tile", row, col, tileRows, tileCols));
+      return ((rowOffset + row) * numCols + colOffset + col) * bytesPerValue;
+    }
+
+    /**
+     * @param row
+     * @param col
+     * @return stored value in the file's native type, without BSCALE or BZERO applied
+     */
+    public Number getRaw(int row, int col) {
+      int index = index(row, col);
+      switch (bitpix) {
+        case 8:
+          return buffer.get(index) & 0xff;
+        case 16:
+          return buffer.getShort(index);
+        case 32:
+          return buffer.getInt(index);
+        case 64:
+          return buffer.getLong(index);
+        case -32:
+          return buffer.getFloat(index);
+        default:
+          return buffer.getDouble(index);
+      }
+    }
+
+    /**
+     * @param row
+     * @param col
+     * @return value as a float. Floating point data is returned as stored; integer data has BSCALE
+     *         and BZERO applied.
+     */
+    public float getFloat(int row, int col) {
+      if (bitpix == -32)
+        return buffer.getFloat(index(row, col));
+      return (float) getDouble(row, col);
+    }
+
+    /**
+     * @param row
+     * @param col
+     * @return value as a double. Floating point data is returned as stored; integer data has BSCALE
+     *         and BZERO applied.
+     */
+    public double getDouble(int row, int col) {
+      int index = index(row, col);
+      switch (bitpix) {
+        case -32:
+          return buffer.getFloat(index);
+        case -64:
+          return buffer.getDouble(index);
+        default:
+          return bzero + bscale * getRaw(row, col).doubleValue();
+      }
+    }
+
+    /**
+     * @param row
+     * @return independent buffer positioned at the first value of this row of the tile
+     */
+    private ByteBuffer rowBuffer(int row) {
+      ByteBuffer rowBuffer = buffer.duplicate();
+      rowBuffer.position(index(row, 0));
+      return rowBuffer;
+    }
+
+    /**
+     * @return copy of the tile as float[row][col]
+     */
+    public float[][] toFloatArray() {
+      float[][] array = new float[tileRows][tileCols];
+      if (tileCols == 0)
+        return array;
+      for (int row = 0; row < tileRows; row++) {
+        if (bitpix == -32) {
+          rowBuffer(row).asFloatBuffer().get(array[row]);
+        } else {
+          for (int col = 0; col < tileCols; col++)
+            array[row][col] = getFloat(row, col);
+        }
+      }
+      return array;
+    }
+
+    /**
+     * @return copy of the tile as double[row][col]
+     */
+    public double[][] toDoubleArray() {
+      double[][] array = new double[tileRows][tileCols];
+      if (tileCols == 0)
+        return array;
+      float[] floats = new float[bitpix == -32 ? tileCols : 0];
+      for (int row = 0; row < tileRows; row++) {
+        if (bitpix == -64) {
+          rowBuffer(row).asDoubleBuffer().get(array[row]);
+        } else if (bitpix == -32) {
+          rowBuffer(row).asFloatBuffer().get(floats);
+          for (int col = 0; col < tileCols; col++)
+            array[row][col] = floats[col];
+        } else {
+          for (int col = 0; col < tileCols; col++)
+            array[row][col] = getDouble(row, col);
+        }
+      }
+      return array;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d x %d tile at (%d, %d) of %s", tileRows, tileCols, rowOffset,
+          colOffset, Arrays.toString(getAxes()));
+    }
+  }
+
+}
@@ -50,26 +50,24 @@ public class FitsUtil {
   // private static final String PLANE = "PLANE";
   // public static final String COMMENT = "COMMENT";
 
+  /**
+   * Load a 3D FITS cube as double[numPlanes][iSize][jSize]. Each plane is converted directly from
+   * the file's native type. Use {@link FitsCube} to read only some planes.
+   * 
+   * @param filename
+   * @param axes image dimensions on return, in the order [numPlanes][iSize][jSize]
+   * @return
+   * @throws FitsException
+   * @throws IOException
+   */
   public static double[][][] loadFits(String filename, int[] axes)
       throws FitsException, IOException {
-    Fits f = new Fits(filename);
-    BasicHDU hdu = f.getHDU(0);
-    int[] axes2 = hdu.getAxes();
-    if (axes2.length != 3) {
-      throw new IOException("FITS file has incorrect dimensions");
-    }
-
-    axes[0] = axes2[0];
-    axes[1] = axes2[1];
-    axes[2] = axes2[2];
-
-    Object data = hdu.getData().getData();
-    f.getStream().close();
-
-    if (data instanceof float[][][]) {
-      return float2double((float[][][]) data);
-    } else {// assume double[][][]
-      return (double[][][]) data;
+    try (FitsCube cube = FitsCube.open(new File(filename))) {
+      System.arraycopy(cube.getAxes(), 0, axes, 0, 3);
+      double[][][] data = new double[cube.getNumPlanes()][][];
+      for (int i = 0; i < data.length; i++)
+        data[i] = cube.getPlane(i).toDoubleArray();
+      return data;
     }
   }
 
@@ -103,40 +101,28 @@ public class FitsUtil {
   public static double[][] getPlaneFromFits(File fitsFile, int planeIndex, int[] axes)
       throws FitsException, IOException {
 
-    Fits f = new Fits(fitsFile);
-    BasicHDU hdu = f.getHDU(0);
-    axes = hdu.getAxes();
-    if (axes.length != 3) {
-      throw new IOException(
-          "FITS file has incorrect dimensions! This was assumed to be 3D fits file!");
-    }
+    // only the requested plane is read from the file
+    try (FitsCube cube = FitsCube.open(fitsFile)) {
 
-    // fits axes specifies image dimensions in this order: [numPlanes][iSize][jSize]
-    // check that planeIndex is valid
-    int numPlanes = axes[0];
-    if ((planeIndex < 0)) {
-      String errMesg = "ERROR! Planeindex cannot be less than 0!";
-      throw new RuntimeException(errMesg);
-    }
+      // fits axes specifies image dimensions in this order: [numPlanes][iSize][jSize]
+      if (axes != null)
+        System.arraycopy(cube.getAxes(), 0, axes, 0, Math.min(axes.length, 3));
 
-    if ((planeIndex > numPlanes)) {
-      String errMesg = "ERROR! desired planeindex:" + planeIndex + " is greater than " + numPlanes
-          + " number of planes in file.";
-      throw new RuntimeException(errMesg);
-    }
+      // check that planeIndex is valid
+      int numPlanes = cube.getNumPlanes();
+      if ((planeIndex < 0)) {
+        String errMesg = "ERROR! Planeindex cannot be less than 0!";
+        throw new RuntimeException(errMesg);
+      }
 
-    Object data = hdu.getData().getData();
-    f.getStream().close();
+      if ((planeIndex >= numPlanes)) {
+        String errMesg = "ERROR! desired planeindex:" + planeIndex + " must be less than the "
+            + numPlanes + " planes in file.";
+        throw new RuntimeException(errMesg);
+      }
 
-    double[][][] dataD = null;
-    if (data instanceof float[][][]) {
-      dataD = float2double((float[][][]) data);
-    } else {// assume double[][][]
-      dataD = (double[][][]) data;
+      return cube.getPlane(planeIndex).toDoubleArray();
     }
-    double[][] planeData = new double[axes[1]][axes[2]];
-    planeData = dataD[planeIndex];
-    return planeData;
   }
 
   /**
@@ -0,0 +1,862 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.smallBodyModel;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * A bounding volume hierarchy over a triangle soup, built using a binned surface area heuristic.
+ * All data are held in primitive arrays: node bounds as floats (rounded outward), node links and
+ * triangle indices as ints, and triangle vertices as doubles in leaf order. Ray queries do not
+ * allocate and do not cross into native code, so a single instance may be queried concurrently
+ * as long as each thread supplies its own traversal stack.
+ * 
+ * @author Hari.Nair@jhuapl.edu
+ *
+ */
+public class BoundingVolumeHierarchy {
+
+  /** number of bins per axis used to evaluate the surface area heuristic */
+  private static final int NUM_BINS = 16;
+
+  /** nodes with this many triangles or fewer are not split */
+  private static final int MAX_LEAF_SIZE = 4;
+
+  /** nodes at this depth are always leaves, which bounds the traversal stack */
+  private static final int MAX_DEPTH = 64;
+
+  /** minimum length of the stack array passed to the ray query methods */
+  public static final int STACK_SIZE = MAX_DEPTH + 2;
+
+  /** tolerance on barycentric coordinates so rays through shared edges are not lost */
+  private static final double EDGE_TOLERANCE = 1e-10;
+
+  /** six values per node: xmin, ymin, zmin, xmax, ymax, zmax */
+  private final float[] nodeBounds;
+
+  /** for a leaf, index of the first triangle in leaf order. Otherwise index of the left child. */
+  private final int[] nodeIndex;
+
+  /** for a leaf, number of triangles. Otherwise -(split axis + 1). */
+  private final int[] nodeCount;
+
+  /** nine values per triangle in leaf order */
+  private final double[] triangleVertices;
+
+  /** original index of each triangle in leaf order */
+  private final int[] triangleIds;
+
+  private final int numNodes;
+
+  /**
+   * Build the hierarchy. Subtrees above a size threshold are built in parallel in the common
+   * {@link ForkJoinPool}.
+   * 
+   * @param vertices packed vertex coordinates, three values per vertex
+   * @param triangles packed vertex indices, three values per triangle
+   */
+  public BoundingVolumeHierarchy(double[] vertices, int[] triangles) {
+    final int numTriangles = triangles.length / 3;
+
+    Builder builder = new Builder(numTriangles);
+
+    // per-triangle bounds and centroids
+    IntStream.range(0, numTriangles).parallel().forEach(i -> {
+      for (int k = 0; k < 3; k++) {
+        double a = vertices[3 * triangles[3 * i] + k];
+        double b = vertices[3 * triangles[3 * i + 1] + k];
+        double c = vertices[3 * triangles[3 * i + 2] + k];
+        double min = Math.min(a, Math.min(b, c));
+        double max = Math.max(a, Math.max(b, c));
+        builder.triBounds[6 * i + k] = min;
+        builder.triBounds[6 * i + 3 + k] = max;
+        builder.centroids[3 * i + k] = 0.5 * (min + max);
+      }
+      builder.order[i] = i;
+    });
+
+    ForkJoinPool.commonPool().invoke(builder.new BuildTask(0, 0, numTriangles, 0));
+
+    int nodesUsed = builder.nodesUsed.get();
+    this.numNodes = nodesUsed;
+    this.nodeBounds = Arrays.copyOf(builder.bounds, 6 * nodesUsed);
+    this.nodeIndex = Arrays.copyOf(builder.index, nodesUsed);
+    this.nodeCount = Arrays.copyOf(builder.count, nodesUsed);
+
+    this.triangleIds = builder.order;
+    this.triangleVertices = gatherTriangleVertices(vertices, triangles, triangleIds);
+  }
+
+  private BoundingVolumeHierarchy(float[] nodeBounds, int[] nodeIndex, int[] nodeCount,
+      int[] triangleIds, double[] vertices, int[] triangles) {
+    this.numNodes = nodeIndex.length;
+    this.nodeBounds = nodeBounds;
+    this.nodeIndex = nodeIndex;
+    this.nodeCount = nodeCount;
+    this.triangleIds = triangleIds;
+    this.triangleVertices = gatherTriangleVertices(vertices, triangles, triangleIds);
+  }
+
+  /** copy the vertices of each triangle in leaf order */
+  private static double[] gatherTriangleVertices(double[] vertices, int[] triangles,
+      int[] triangleIds) {
+    int numTriangles = triangleIds.length;
+    double[] triangleVertices = new double[9 * numTriangles];
+    IntStream.range(0, numTriangles).parallel().forEach(i -> {
+      int t = triangleIds[i];
+      for (int v = 0; v < 3; v++) {
+        int vertex = triangles[3 * t + v];
+        for (int k = 0; k < 3; k++)
+          triangleVertices[9 * i + 3 * v + k] = vertices[3 * vertex + k];
+      }
+    });
+    return triangleVertices;
+  }
+
+  /** @return number of bytes used by {@link #write(ByteBuffer)} */
+  public long getSerializedSize() {
+    return 8 + 32L * numNodes + 4L * triangleIds.length;
+  }
+
+  /**
+   * Store the hierarchy at the current position of the buffer, which is advanced past it. The
+   * triangle vertices are not stored; supply them to {@link #read(ByteBuffer, double[], int[])}.
+   * 
+   * @param buffer buffer with at least {@link #getSerializedSize()} bytes remaining
+   */
+  public void write(ByteBuffer buffer) {
+    buffer.putInt(numNodes);
+    buffer.putInt(triangleIds.length);
+    buffer.asFloatBuffer().put(nodeBounds, 0, 6 * numNodes);
+    buffer.position(buffer.position() + 24 * numNodes);
+    buffer.asIntBuffer().put(nodeIndex, 0, numNodes);
+    buffer.position(buffer.position() + 4 * numNodes);
+    buffer.asIntBuffer().put(nodeCount, 0, numNodes);
+    buffer.position(buffer.position() + 4 * numNodes);
+    buffer.asIntBuffer().put(triangleIds);
+    buffer.position(buffer.position() + 4 * triangleIds.length);
+  }
+
+  /**
+   * Read a hierarchy stored by {@link #write(ByteBuffer)} at the current position of the buffer,
+   * which is advanced past it.
+   * 
+   * @param buffer stored hierarchy
+   * @param vertices packed vertex coordinates used to build the stored hierarchy
+   * @param triangles packed vertex indices used to build the stored hierarchy
+   * @return hierarchy
+   * @throws IllegalArgumentException if the stored hierarchy does not match the triangles
+   */
+  public static BoundingVolumeHierarchy read(ByteBuffer buffer, double[] vertices,
+      int[] triangles) {
+    int numNodes = buffer.getInt();
+    int numTriangles = buffer.getInt();
+    if (numTriangles != triangles.length / 3)
+      throw new IllegalArgumentException(String.format(
+          "Stored hierarchy has %d triangles, expected %d", numTriangles, triangles.length / 3));
+
+    float[] nodeBounds = new float[6 * numNodes];
+    buffer.asFloatBuffer().get(nodeBounds);
+    buffer.position(buffer.position() + 24 * numNodes);
+    int[] nodeIndex = new int[numNodes];
+    buffer.asIntBuffer().get(nodeIndex);
+    buffer.position(buffer.position() + 4 * numNodes);
+    int[] nodeCount = new int[numNodes];
+    buffer.asIntBuffer().get(nodeCount);
+    buffer.position(buffer.position() + 4 * numNodes);
+    int[] triangleIds = new int[numTriangles];
+    buffer.asIntBuffer().get(triangleIds);
+    buffer.position(buffer.position() + 4 * numTriangles);
+
+    return new BoundingVolumeHierarchy(nodeBounds, nodeIndex, nodeCount, triangleIds, vertices,
+        triangles);
+  }
+
+  /** Working storage used while building the hierarchy */
+  private static class Builder {
+
+    /** subtrees with more triangles than this are built as separate tasks */
+    private static final int PARALLEL_THRESHOLD = 1 << 15;
+
+    private final double[] triBounds;
+    private final double[] centroids;
+    private final int[] order;
+
+    private final float[] bounds;
+    private final int[] index;
+    private final int[] count;
+    private final AtomicInteger nodesUsed;
+
+    private Builder(int numTriangles) {
+      triBounds = new double[6 * numTriangles];
+      centroids = new double[3 * numTriangles];
+      order = new int[numTriangles];
+
+      int maxNodes = Math.max(1, 2 * numTriangles - 1);
+      bounds = new float[6 * maxNodes];
+      index = new int[maxNodes];
+      count = new int[maxNodes];
+      nodesUsed = new AtomicInteger(1);
+    }
+
+    /** Per-thread scratch arrays */
+    private static class Scratch {
+      private final double[] nodeBox = new double[6];
+      private final double[] centroidBox = new double[6];
+      private final int[] binCount = new int[3 * NUM_BINS];
+      private final double[] binBounds = new double[18 * NUM_BINS];
+      private final double[] rightArea = new double[NUM_BINS];
+      private final int[] rightCount = new int[NUM_BINS];
+      private final double[] box = new double[6];
+      private final double[] scale = new double[3];
+    }
+
+    private class BuildTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final int node;
+      private final int start;
+      private final int end;
+      private final int depth;
+
+      private BuildTask(int node, int start, int end, int depth) {
+        this.node = node;
+        this.start = start;
+        this.end = end;
+        this.depth = depth;
+      }
+
+      @Override
+      protected void compute() {
+        build(node, start, end, depth, new Scratch());
+      }
+    }
+
+    /**
+     * Build the subtree rooted at node containing the triangles order[start] to order[end-1].
+     */
+    private void build(int node, int start, int end, int depth, Scratch s) {
+      double[] nodeBox = s.nodeBox;
+      double[] centroidBox = s.centroidBox;
+      resetBox(nodeBox, 0);
+      resetBox(centroidBox, 0);
+      for (int i = start; i < end; i++) {
+        int t = order[i];
+        for (int k = 0; k < 3; k++) {
+          nodeBox[k] = Math.min(nodeBox[k], triBounds[6 * t + k]);
+          nodeBox[3 + k] = Math.max(nodeBox[3 + k], triBounds[6 * t + 3 + k]);
+          centroidBox[k] = Math.min(centroidBox[k], centroids[3 * t + k]);
+          centroidBox[3 + k] = Math.max(centroidBox[3 + k], centroids[3 * t + k]);
+        }
+      }
+      storeBounds(bounds, node, nodeBox);
+
+      int n = end - start;
+      if (n <= MAX_LEAF_SIZE || depth >= MAX_DEPTH) {
+        index[node] = start;
+        count[node] = n;
+        return;
+      }
+
+      // bin the triangles along all three axes in a single pass
+      int[] binCount = s.binCount;
+      double[] binBounds = s.binBounds;
+      Arrays.fill(binCount, 0);
+      for (int b = 0; b < 3 * NUM_BINS; b++)
+        resetBox(binBounds, 6 * b);
+      double[] scale = s.scale;
+      for (int axis = 0; axis < 3; axis++) {
+        double extent = centroidBox[3 + axis] - centroidBox[axis];
+        scale[axis] = extent > 0 ? NUM_BINS / extent : 0;
+      }
+      for (int i = start; i < end; i++) {
+        int t = order[i];
+        for (int axis = 0; axis < 3; axis++) {
+          int b = axis * NUM_BINS + Math.min(NUM_BINS - 1,
+              (int) ((centroids[3 * t + axis] - centroidBox[axis]) * scale[axis]));
+          binCount[b]++;
+          for (int k = 0; k < 3; k++) {
+            binBounds[6 * b + k] = Math.min(binBounds[6 * b + k], triBounds[6 * t + k]);
+            binBounds[6 * b + 3 + k] =
+                Math.max(binBounds[6 * b + 3 + k], triBounds[6 * t + 3 + k]);
+          }
+        }
+      }
+
+      // find the lowest cost split over all axes
+      int bestAxis = -1;
+      int bestBin = -1;
+      double bestCost = Double.MAX_VALUE;
+      double[] box = s.box;
+      for (int axis = 0; axis < 3; axis++) {
+        if (scale[axis] == 0)
+          continue;
+        int offset = axis * NUM_BINS;
+
+        // sweep from the right to get the area and count of everything right of each plane
+        resetBox(box, 0);
+        int sum = 0;
+        for (int b = NUM_BINS - 1; b > 0; b--) {
+          sum += binCount[offset + b];
+          growBox(box, binBounds, 6 * (offset + b));
+          s.rightCount[b] = sum;
+          s.rightArea[b] = halfArea(box);
+        }
+
+        // sweep from the left and evaluate the cost of each plane
+        resetBox(box, 0);
+        sum = 0;
+        for (int b = 0; b < NUM_BINS - 1; b++) {
+          sum += binCount[offset + b];
+          growBox(box, binBounds, 6 * (offset + b));
+          if (sum == 0 || s.rightCount[b + 1] == 0)
+            continue;
+          double cost = sum * halfArea(box) + s.rightCount[b + 1] * s.rightArea[b + 1];
+          if (cost < bestCost) {
+            bestCost = cost;
+            bestAxis = axis;
+            bestBin = b;
+          }
+        }
+      }
+
+      int mid;
+      if (bestAxis < 0) {
+        // all centroids coincide, split the range in half
+        mid = start + n / 2;
+        bestAxis = 0;
+      } else {
+        double cmin = centroidBox[bestAxis];
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+          int t = order[i];
+          int b = Math.min(NUM_BINS - 1,
+              (int) ((centroids[3 * t + bestAxis] - cmin) * scale[bestAxis]));
+          if (b <= bestBin) {
+            i++;
+          } else {
+            order[i] = order[j];
+            order[j--] = t;
+          }
+        }
+        mid = i;
+      }
+
+      int left = nodesUsed.getAndAdd(2);
+      index[node] = left;
+      count[node] = -(bestAxis + 1);
+
+      if (n > PARALLEL_THRESHOLD) {
+        ForkJoinTask.invokeAll(new BuildTask(left, start, mid, depth + 1),
+            new BuildTask(left + 1, mid, end, depth + 1));
+      } else {
+        build(left, start, mid, depth + 1, s);
+        build(left + 1, mid, end, depth + 1, s);
+      }
+    }
+  }
+
+  /** @return number of triangles in the hierarchy */
+  public int getNumberOfTriangles() {
+    return triangleIds.length;
+  }
+
+  /** @return number of nodes in the hierarchy */
+  public int getNumberOfNodes() {
+    return numNodes;
+  }
+
+  /**
+   * Find the closest intersection of the segment origin + t * direction, with t in [0, tMax], with
+   * the triangles in this hierarchy.
+   * 
+   * @param ox origin X
+   * @param oy origin Y
+   * @param oz origin Z
+   * @param dx direction X, need not be a unit vector
+   * @param dy direction Y
+   * @param dz direction Z
+   * @param tMax maximum value of the ray parameter
+   * @param stack traversal stack, at least {@link #STACK_SIZE} long
+   * @param tHit if not null, the ray parameter of the intersection is returned in the first element
+   * @return index of the intersected triangle, or -1 if there is no intersection
+   */
+  public int intersect(double ox, double oy, double oz, double dx, double dy, double dz,
+      double tMax, int[] stack, double[] tHit) {
+    return traverse(ox, oy, oz, dx, dy, dz, tMax, stack, tHit, false);
+  }
+
+  /**
+   * Same as {@link #intersect(double, double, double, double, double, double, double, int[], double[])}
+   * but returns as soon as any intersection is found. Use this for occlusion tests.
+   * 
+   * @return index of an intersected triangle, or -1 if there is no intersection
+   */
+  public int intersectAny(double ox, double oy, double oz, double dx, double dy, double dz,
+      double tMax, int[] stack, double[] tHit) {
+    return traverse(ox, oy, oz, dx, dy, dz, tMax, stack, tHit, true);
+  }
+
+  /** Receives each intersection found by {@link BoundingVolumeHierarchy#intersectAll} */
+  @FunctionalInterface
+  public interface HitVisitor {
+    /**
+     * @param triangle index of the intersected triangle
+     * @param t ray parameter of the intersection
+     */
+    void visit(int triangle, double t);
+  }
+
+  /**
+   * Find every intersection of the segment origin + t * direction, with t in [0, tMax), with the
+   * triangles in this hierarchy. Intersections are reported in no particular order. A segment
+   * passing through an edge or vertex shared by several triangles may hit each of them.
+   * 
+   * @param ox origin X
+   * @param oy origin Y
+   * @param oz origin Z
+   * @param dx direction X, need not be a unit vector
+   * @param dy direction Y
+   * @param dz direction Z
+   * @param tMax maximum value of the ray parameter
+   * @param stack traversal stack, at least {@link #STACK_SIZE} long
+   * @param visitor called for each intersection
+   */
+  public void intersectAll(double ox, double oy, double oz, double dx, double dy, double dz,
+      double tMax, int[] stack, HitVisitor visitor) {
+    if (triangleIds.length == 0)
+      return;
+
+    double ix = 1 / dx;
+    double iy = 1 / dy;
+    double iz = 1 / dz;
+
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      if (!hitsBox(node, ox, oy, oz, ix, iy, iz, tMax))
+        continue;
+
+      int count = nodeCount[node];
+      if (count > 0) {
+        int first = nodeIndex[node];
+        for (int i = first; i < first + count; i++) {
+          double t = intersectTriangle(i, ox, oy, oz, dx, dy, dz, tMax);
+          if (t >= 0)
+            visitor.visit(triangleIds[i], t);
+        }
+      } else {
+        int left = nodeIndex[node];
+        stack[top++] = left + 1;
+        stack[top++] = left;
+      }
+    }
+  }
+
+  /**
+   * Find the closest intersection for a batch of rays.
+   * 
+   * @param origins packed ray origins, three values per ray
+   * @param directions packed ray directions, three values per ray
+   * @param tMax maximum value of the ray parameter for each ray
+   * @param hits on return, index of the intersected triangle for each ray or -1
+   * @param tHits on return, ray parameter of each intersection. May be null.
+   */
+  public void intersect(double[] origins, double[] directions, double[] tMax, int[] hits,
+      double[] tHits) {
+    int[] stack = new int[STACK_SIZE];
+    double[] tHit = new double[1];
+    for (int i = 0; i < hits.length; i++) {
+      hits[i] = traverse(origins[3 * i], origins[3 * i + 1], origins[3 * i + 2],
+          directions[3 * i], directions[3 * i + 1], directions[3 * i + 2], tMax[i], stack, tHit,
+          false);
+      if (tHits != null)
+        tHits[i] = hits[i] < 0 ? Double.NaN : tHit[0];
+    }
+  }
+
+  /**
+   * Find the point on the triangles in this hierarchy closest to (x, y, z).
+   * 
+   * @param x
+   * @param y
+   * @param z
+   * @param stack traversal stack, at least {@link #STACK_SIZE} long
+   * @param closest if not null, the closest point is returned in the first three elements
+   * @return index of the closest triangle, or -1 if the hierarchy is empty
+   */
+  public int closestPoint(double x, double y, double z, int[] stack, double[] closest) {
+    if (triangleIds.length == 0)
+      return -1;
+
+    double best2 = Double.MAX_VALUE;
+    int best = -1;
+
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      if (boxDistanceSquared(node, x, y, z) >= best2)
+        continue;
+
+      int count = nodeCount[node];
+      if (count > 0) {
+        int first = nodeIndex[node];
+        for (int i = first; i < first + count; i++) {
+          double d2 = closestPointOnTriangle(i, x, y, z, null);
+          if (d2 < best2) {
+            best2 = d2;
+            best = i;
+          }
+        }
+      } else {
+        // push the far child first so the near child is visited first
+        int left = nodeIndex[node];
+        double dLeft = boxDistanceSquared(left, x, y, z);
+        double dRight = boxDistanceSquared(left + 1, x, y, z);
+        if (dLeft < dRight) {
+          if (dRight < best2)
+            stack[top++] = left + 1;
+          stack[top++] = left;
+        } else {
+          if (dLeft < best2)
+            stack[top++] = left;
+          stack[top++] = left + 1;
+        }
+      }
+    }
+
+    if (closest != null)
+      closestPointOnTriangle(best, x, y, z, closest);
+    return triangleIds[best];
+  }
+
+  /** @return squared distance from the point to the node's box, 0 if inside */
+  private double boxDistanceSquared(int node, double x, double y, double z) {
+    int b = 6 * node;
+    double d2 = 0;
+    double d = nodeBounds[b] - x;
+    if (d > 0)
+      d2 += d * d;
+    d = x - nodeBounds[b + 3];
+    if (d > 0)
+      d2 += d * d;
+    d = nodeBounds[b + 1] - y;
+    if (d > 0)
+      d2 += d * d;
+    d = y - nodeBounds[b + 4];
+    if (d > 0)
+      d2 += d * d;
+    d = nodeBounds[b + 2] - z;
+    if (d > 0)
+      d2 += d * d;
+    d = z - nodeBounds[b + 5];
+    if (d > 0)
+      d2 += d * d;
+    return d2;
+  }
+
+  /**
+   * Closest point on a triangle, from Ericson, Real-Time Collision Detection, section 5.1.5.
+   * 
+   * @param i triangle index in leaf order
+   * @param out if not null, closest point is returned here
+   * @return squared distance from (x, y, z) to the closest point
+   */
+  private double closestPointOnTriangle(int i, double x, double y, double z, double[] out) {
+    int v = 9 * i;
+    double ax = triangleVertices[v];
+    double ay = triangleVertices[v + 1];
+    double az = triangleVertices[v + 2];
+    double abx = triangleVertices[v + 3] - ax;
+    double aby = triangleVertices[v + 4] - ay;
+    double abz = triangleVertices[v + 5] - az;
+    double acx = triangleVertices[v + 6] - ax;
+    double acy = triangleVertices[v + 7] - ay;
+    double acz = triangleVertices[v + 8] - az;
+    double apx = x - ax;
+    double apy = y - ay;
+    double apz = z - az;
+
+    double d1 = abx * apx + aby * apy + abz * apz;
+    double d2 = acx * apx + acy * apy + acz * apz;
+
+    // barycentric weights of b and c
+    double wb;
+    double wc;
+    if (d1 <= 0 && d2 <= 0) {
+      wb = 0;
+      wc = 0;
+    } else {
+      double bpx = apx - abx;
+      double bpy = apy - aby;
+      double bpz = apz - abz;
+      double d3 = abx * bpx + aby * bpy + abz * bpz;
+      double d4 = acx * bpx + acy * bpy + acz * bpz;
+      double cpx = apx - acx;
+      double cpy = apy - acy;
+      double cpz = apz - acz;
+      double d5 = abx * cpx + aby * cpy + abz * cpz;
+      double d6 = acx * cpx + acy * cpy + acz * cpz;
+      double vc = d1 * d4 - d3 * d2;
+      double vb = d5 * d2 - d1 * d6;
+      double va = d3 * d6 - d5 * d4;
+      if (d3 >= 0 && d4 <= d3) {
+        wb = 1;
+        wc = 0;
+      } else if (vc <= 0 && d1 >= 0 && d3 <= 0) {
+        wb = d1 / (d1 - d3);
+        wc = 0;
+      } else if (d6 >= 0 && d5 <= d6) {
+        wb = 0;
+        wc = 1;
+      } else if (vb <= 0 && d2 >= 0 && d6 <= 0) {
+        wb = 0;
+        wc = d2 / (d2 - d6);
+      } else if (va <= 0 && (d4 - d3) >= 0 && (d5 - d6) >= 0) {
+        wc = (d4 - d3) / ((d4 - d3) + (d5 - d6));
+        wb = 1 - wc;
+      } else {
+        double denom = va + vb + vc;
+        if (denom == 0) {
+          // degenerate triangle, use the first vertex
+          wb = 0;
+          wc = 0;
+        } else {
+          wb = vb / denom;
+          wc = vc / denom;
+        }
+      }
+    }
+
+    double px = ax + wb * abx + wc * acx;
+    double py = ay + wb * aby + wc * acy;
+    double pz = az + wb * abz + wc * acz;
+    if (out != null) {
+      out[0] = px;
+      out[1] = py;
+      out[2] = pz;
+    }
+    double dx = px - x;
+    double dy = py - y;
+    double dz = pz - z;
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  private int traverse(double ox, double oy, double oz, double dx, double dy, double dz,
+      double tMax, int[] stack, double[] tHit, boolean anyHit) {
+    if (triangleIds.length == 0)
+      return -1;
+
+    double ix = 1 / dx;
+    double iy = 1 / dy;
+    double iz = 1 / dz;
+    boolean negX = ix < 0;
+    boolean negY = iy < 0;
+    boolean negZ = iz < 0;
+
+    double tBest = tMax;
+    int best = -1;
+
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      if (!hitsBox(node, ox, oy, oz, ix, iy, iz, tBest))
+        continue;
+
+      int count = nodeCount[node];
+      if (count > 0) {
+        int first = nodeIndex[node];
+        for (int i = first; i < first + count; i++) {
+          double t = intersectTriangle(i, ox, oy, oz, dx, dy, dz, tBest);
+          if (t >= 0) {
+            tBest = t;
+            best = i;
+            if (anyHit)
+              break;
+          }
+        }
+        if (anyHit && best >= 0)
+          break;
+      } else {
+        // push the far child first so the near child is visited first
+        int left = nodeIndex[node];
+        int axis = -count - 1;
+        boolean neg = axis == 0 ? negX : (axis == 1 ? negY : negZ);
+        if (neg) {
+          stack[top++] = left;
+          stack[top++] = left + 1;
+        } else {
+          stack[top++] = left + 1;
+          stack[top++] = left;
+        }
+      }
+    }
+
+    if (best < 0)
+      return -1;
+    if (tHit != null)
+      tHit[0] = tBest;
+    return triangleIds[best];
+  }
+
+  /** slab test. NaN values from zero direction components compare false and do not cull. */
+  private boolean hitsBox(int node, double ox, double oy, double oz, double ix, double iy,
+      double iz, double tMax) {
+    int b = 6 * node;
+    double tNear = 0;
+    double tFar = tMax;
+
+    double t0 = (nodeBounds[b] - ox) * ix;
+    double t1 = (nodeBounds[b + 3] - ox) * ix;
+    if (t0 > t1) {
+      double tmp = t0;
+      t0 = t1;
+      t1 = tmp;
+    }
+    if (t0 > tNear)
+      tNear = t0;
+    if (t1 < tFar)
+      tFar = t1;
+
+    t0 = (nodeBounds[b + 1] - oy) * iy;
+    t1 = (nodeBounds[b + 4] - oy) * iy;
+    if (t0 > t1) {
+      double tmp = t0;
+      t0 = t1;
+      t1 = tmp;
+    }
+    if (t0 > tNear)
+      tNear = t0;
+    if (t1 < tFar)
+      tFar = t1;
+
+    t0 = (nodeBounds[b + 2] - oz) * iz;
+    t1 = (nodeBounds[b + 5] - oz) * iz;
+    if (t0 > t1) {
+      double tmp = t0;
+      t0 = t1;
+      t1 = tmp;
+    }
+    if (t0 > tNear)
+      tNear = t0;
+    if (t1 < tFar)
+      tFar = t1;
+
+    return tNear <= tFar;
+  }
+
+  /**
+   * Two sided Möller-Trumbore test.
+   * 
+   * @return ray parameter of the intersection in [0, tMax), or -1 if there is none
+   */
+  private double intersectTriangle(int i, double ox, double oy, double oz, double dx, double dy,
+      double dz, double tMax) {
+    int v = 9 * i;
+    double v0x = triangleVertices[v];
+    double v0y = triangleVertices[v + 1];
+    double v0z = triangleVertices[v + 2];
+    double e1x = triangleVertices[v + 3] - v0x;
+    double e1y = triangleVertices[v + 4] - v0y;
+    double e1z = triangleVertices[v + 5] - v0z;
+    double e2x = triangleVertices[v + 6] - v0x;
+    double e2y = triangleVertices[v + 7] - v0y;
+    double e2z = triangleVertices[v + 8] - v0z;
+
+    double px = dy * e2z - dz * e2y;
+    double py = dz * e2x - dx * e2z;
+    double pz = dx * e2y - dy * e2x;
+    double det = e1x * px + e1y * py + e1z * pz;
+    if (det == 0)
+      return -1;
+    double invDet = 1 / det;
+
+    double sx = ox - v0x;
+    double sy = oy - v0y;
+    double sz = oz - v0z;
+    double u = (sx * px + sy * py + sz * pz) * invDet;
+    if (u < -EDGE_TOLERANCE || u > 1 + EDGE_TOLERANCE)
+      return -1;
+
+    double qx = sy * e1z - sz * e1y;
+    double qy = sz * e1x - sx * e1z;
+    double qz = sx * e1y - sy * e1x;
+    double w = (dx * qx + dy * qy + dz * qz) * invDet;
+    if (w < -EDGE_TOLERANCE || u + w > 1 + EDGE_TOLERANCE)
+      return -1;
+
+    double t = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+    if (t < 0 || t >= tMax)
+      return -1;
+    return t;
+  }
+
+  private static void resetBox(double[] box, int offset) {
+    for (int k = 0; k < 3; k++) {
+      box[offset + k] = Double.MAX_VALUE;
+      box[offset + 3 + k] = -Double.MAX_VALUE;
+    }
+  }
+
+  private static void growBox(double[] box, double[] other, int offset) {
+    for (int k = 0; k < 3; k++) {
+      box[k] = Math.min(box[k], other[offset + k]);
+      box[3 + k] = Math.max(box[3 + k], other[offset + 3 + k]);
+    }
+  }
+
+  /** @return half the surface area of the box, or 0 if it is empty */
+  private static double halfArea(double[] box) {
+    double x = box[3] - box[0];
+    double y = box[4] - box[1];
+    double z = box[5] - box[2];
+    if (x < 0 || y < 0 || z < 0)
+      return 0;
+    return x * y + y * z + z * x;
+  }
+
+  /** store the node bounds as floats, rounding outward */
+  private static void storeBounds(float[] bounds, int node, double[] box) {
+    for (int k = 0; k < 3; k++) {
+      float min = (float) box[k];
+      if (min > box[k])
+        min = Math.nextDown(min);
+      float max = (float) box[3 + k];
+      if (max < box[3 + k])
+        max = Math.nextUp(max);
+      bounds[6 * node + k] = min;
+      bounds[6 * node + 3 + k] = max;
+    }
+  }
+
+}
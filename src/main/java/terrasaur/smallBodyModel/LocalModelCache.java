@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.smallBodyModel;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A least recently used cache of shape models with a memory budget. The memory used by each model
+ * is estimated from its number of points and cells. Concurrent requests for a model which is not
+ * in the cache are served by a single load; other threads wait for it to complete. A single cache
+ * may be shared by multiple {@link LocalModelCollection} objects. The key must identify the model
+ * as loaded, including any transformation applied to it.
+ * 
+ * @author Hari.Nair@jhuapl.edu
+ *
+ */
+public class LocalModelCache {
+
+  private final static Logger logger = LogManager.getLogger();
+
+  /**
+   * Approximate bytes per point: coordinates, cell links, VTK point locator and the pure Java
+   * vertex index.
+   */
+  private static final long BYTES_PER_POINT = 120;
+
+  /**
+   * Approximate bytes per cell: connectivity, normals, VTK cell and BSP locators, and the bounding
+   * volume hierarchy.
+   */
+  private static final long BYTES_PER_CELL = 400;
+
+  private static class Entry {
+    private final SmallBodyModel model;
+    private final long bytes;
+
+    private Entry(SmallBodyModel model, long bytes) {
+      this.model = model;
+      this.bytes = bytes;
+    }
+  }
+
+  private final long maxBytes;
+
+  // guarded by this
+  private final LinkedHashMap<String, Entry> cache;
+  private long currentBytes;
+
+  // models currently being loaded
+  private final ConcurrentHashMap<String, CompletableFuture<SmallBodyModel>> inFlight;
+
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+  private final AtomicLong evictions;
+  private final AtomicLong failures;
+
+  /**
+   * @param maxBytes memory budget in bytes. The most recently loaded model is always kept even if
+   *        it alone exceeds the budget.
+   */
+  public LocalModelCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+    cache = new LinkedHashMap<>(16, 0.75f, true);
+    currentBytes = 0;
+    inFlight = new ConcurrentHashMap<>();
+    hits = new AtomicLong();
+    misses = new AtomicLong();
+    evictions = new AtomicLong();
+    failures = new AtomicLong();
+  }
+
+  /** @return a cache with a budget of one quarter of the maximum heap size */
+  public static LocalModelCache withDefaultBudget() {
+    return new LocalModelCache(Runtime.getRuntime().maxMemory() / 4);
+  }
+
+  /**
+   * @param sbm shape model
+   * @return estimated memory used by this model, including its search structures
+   */
+  public static long estimateBytes(SmallBodyModel sbm) {
+    return BYTES_PER_POINT * sbm.getSmallBodyPolyData().GetNumberOfPoints()
+        + BYTES_PER_CELL * sbm.getSmallBodyPolyData().GetNumberOfCells();
+  }
+
+  /**
+   * Return the model for this key, loading it if necessary.
+   * 
+   * @param key cache key, usually the filename followed by any transformation applied on loading
+   * @param loader called with the key to load the model if it is not in the cache. May return
+   *        null on failure, in which case nothing is cached.
+   * @return model, or null if it could not be loaded
+   */
+  public SmallBodyModel get(String key, Function<String, SmallBodyModel> loader) {
+    SmallBodyModel sbm = lookup(key);
+    if (sbm != null) {
+      hits.incrementAndGet();
+      return sbm;
+    }
+
+    CompletableFuture<SmallBodyModel> future = new CompletableFuture<>();
+    CompletableFuture<SmallBodyModel> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      // another thread is loading this model
+      hits.incrementAndGet();
+      return existing.join();
+    }
+
+    try {
+      // it may have been loaded between the lookup and claiming the load
+      sbm = lookup(key);
+      if (sbm != null) {
+        hits.incrementAndGet();
+      } else {
+        misses.incrementAndGet();
+        sbm = loader.apply(key);
+        if (sbm == null)
+          failures.incrementAndGet();
+        else
+          insert(key, sbm);
+      }
+    } catch (RuntimeException e) {
+      failures.incrementAndGet();
+      logger.error("Failed to load {}: {}", key, e.getLocalizedMessage());
+      sbm = null;
+    } finally {
+      inFlight.remove(key);
+      future.complete(sbm);
+    }
+    return sbm;
+  }
+
+  private synchronized SmallBodyModel lookup(String key) {
+    Entry entry = cache.get(key);
+    return entry == null ? null : entry.model;
+  }
+
+  private synchronized void insert(String key, SmallBodyModel sbm) {
+    long bytes = estimateBytes(sbm);
+    cache.put(key, new Entry(sbm, bytes));
+    currentBytes += bytes;
+
+    // evict least recently used models, but keep the one just added. Threads still holding a
+    // reference to an evicted model may continue to use it.
+    Iterator<Map.Entry<String, Entry>> iter = cache.entrySet().iterator();
+    while (currentBytes > maxBytes && iter.hasNext()) {
+      Map.Entry<String, Entry> eldest = iter.next();
+      if (eldest.getKey().equals(key))
+        continue;
+      currentBytes -= eldest.getValue().bytes;
+      iter.remove();
+      evictions.incrementAndGet();
+      logger.debug("Evicted {} ({} MB in cache)", eldest.getKey(), currentBytes >> 20);
+    }
+  }
+
+  /** @return number of requests served from the cache, including those which waited for a load */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** @return number of requests which loaded a model */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** @return number of models evicted */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /** @return number of loads which failed */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /** @return estimated memory used by the cached models */
+  public synchronized long getCurrentBytes() {
+    return currentBytes;
+  }
+
+  /** @return number of models in the cache */
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  /** Log the cache statistics at INFO level */
+  public void logStatistics() {
+    logger.info(
+        "Local model cache: {} hits, {} misses, {} evictions, {} failures, {} models using {} of {} MB",
+        getHits(), getMisses(), getEvictions(), getFailures(), size(), getCurrentBytes() >> 20,
+        maxBytes >> 20);
+  }
+
+}
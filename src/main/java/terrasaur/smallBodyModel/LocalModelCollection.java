@@ -23,9 +23,7 @@
 package terrasaur.smallBodyModel;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
@@ -67,22 +65,47 @@ public class LocalModelCollection {
   // key is tile index, value is collection of localModels
   private HashMultimap<Long, LocalModel> localModelMap;
   private FibonacciSphere tessellation;
-  // key is filename, value is shape model
-  private ThreadLocal<Map<String, SmallBodyModel>> localModels;
+  // largest distance in radians between a local model center and the center of its tile
+  private double maxTileOffset;
+  // key is filename and transform, value is shape model. Shared by all threads.
+  private final LocalModelCache localModels;
 
   private Double scale;
   private Rotation rotation;
+  // appended to the filename to form the cache key
+  private final String transformKey;
 
   /**
+   * Create a collection with its own {@link LocalModelCache} using the default memory budget.
    * 
    * @param numTiles total number of tiles to use for sorting local models
    */
   public LocalModelCollection(int numTiles, Double scale, Rotation rotation) {
+    this(numTiles, scale, rotation, LocalModelCache.withDefaultBudget());
+  }
+
+  /**
+   * 
+   * @param numTiles total number of tiles to use for sorting local models
+   * @param cache cache for loaded models, may be shared with other collections. Models are cached
+   *        by filename, scale, and rotation, so collections with different transforms do not see
+   *        each other's models.
+   */
+  public LocalModelCollection(int numTiles, Double scale, Rotation rotation,
+      LocalModelCache cache) {
     localModelMap = HashMultimap.create();
     tessellation = new FibonacciSphere(numTiles);
-    localModels = new ThreadLocal<>();
+    localModels = cache;
     this.scale = scale;
     this.rotation = rotation;
+
+    StringBuilder sb = new StringBuilder();
+    if (scale != null)
+      sb.append(" scale ").append(scale);
+    if (rotation != null)
+      sb.append(" rotation ").append(rotation.getQ0()).append(' ').append(rotation.getQ1())
+          .append(' ').append(rotation.getQ2()).append(' ').append(rotation.getQ3());
+    transformKey = sb.toString();
   }
 
   /**
@@ -95,7 +118,10 @@ public class LocalModelCollection {
    */
   public void addModel(double latInRadians, double lonInRadians, String filename) {
     Vector3D center = new Vector3D(lonInRadians, latInRadians);
-    long tileIndex = tessellation.getTileIndex(MathConversions.toVectorIJK(center));
+    VectorIJK ijk = MathConversions.toVectorIJK(center);
+    long tileIndex = tessellation.getTileIndex(ijk);
+    maxTileOffset =
+        Math.max(maxTileOffset, tessellation.getTileCenterIJK(tileIndex).getSeparation(ijk));
     LocalModel lm = new LocalModel(center, filename);
     localModelMap.put(tileIndex, lm);
   }
@@ -133,41 +159,48 @@ public class LocalModelCollection {
    * @return
    */
   private SmallBodyModel load(String filename) {
-    Map<String, SmallBodyModel> map = localModels.get();
-    if (map == null) {
-      map = new HashMap<>();
-      localModels.set(map);
-    }
-    SmallBodyModel sbm = map.get(filename);
-    if (sbm == null) {
-
-      logger.debug("Thread {}: Loading {}", Thread.currentThread().getId(),
-          FilenameUtils.getBaseName(filename));
-      try {
-        vtkPolyData model = PolyDataUtil.loadShapeModel(filename);
-        if (scale != null || rotation != null) {
-          PolyDataStatistics stats = new PolyDataStatistics(model);
-          Vector3D center = new Vector3D(stats.getCentroid());
-
-          vtkPoints points = model.GetPoints();
-          for (int i = 0; i < points.GetNumberOfPoints(); i++) {
-            Vector3D thisPoint = new Vector3D(points.GetPoint(i));
-            if (scale != null)
-              thisPoint = thisPoint.subtract(center).scalarMultiply(scale).add(center);
-            if (rotation != null)
-              thisPoint = rotation.applyTo(thisPoint.subtract(center)).add(center);
-            points.SetPoint(i, thisPoint.toArray());
-          }
-        }
+    // other threads asking for the same file wait for the first one to finish loading
+    return localModels.get(filename + transformKey, key -> read(filename));
+  }
 
-        sbm = new SmallBodyModel(model);
-      } catch (Exception e) {
-        logger.error(e.getLocalizedMessage());
+  /**
+   * Read a shape model and apply any rotation or scaling. The returned model may be shared between
+   * threads.
+   * 
+   * @param filename
+   * @return null if the model could not be read
+   */
+  private SmallBodyModel read(String filename) {
+    logger.debug("Thread {}: Loading {}", Thread.currentThread().getId(),
+        FilenameUtils.getBaseName(filename));
+    SmallBodyModel sbm = null;
+    try {
+      vtkPolyData model = PolyDataUtil.loadShapeModel(filename);
+      if (scale != null || rotation != null) {
+        PolyDataStatistics stats = new PolyDataStatistics(model);
+        Vector3D center = new Vector3D(stats.getCentroid());
+
+        vtkPoints points = model.GetPoints();
+        for (int i = 0; i < points.GetNumberOfPoints(); i++) {
+          Vector3D thisPoint = new Vector3D(points.GetPoint(i));
+          if (scale != null)
+            thisPoint = thisPoint.subtract(center).scalarMultiply(scale).add(center);
+          if (rotation != null)
+            thisPoint = rotation.applyTo(thisPoint.subtract(center)).add(center);
+          points.SetPoint(i, thisPoint.toArray());
+        }
       }
 
-      map.put(filename, sbm);
+      sbm = new SmallBodyModel(model, SmallBodyModel.QueryEngine.BVH);
+    } catch (Exception e) {
+      logger.error(e.getLocalizedMessage());
     }
-    return map.get(filename);
+    return sbm;
+  }
+
+  /** @return cache holding the loaded models */
+  public LocalModelCache getCache() {
+    return localModels;
   }
 
   /**
@@ -179,8 +212,10 @@ public class LocalModelCollection {
   private List<String> getFilenames(Vector3D point) {
     VectorIJK ijk = MathConversions.toVectorIJK(point);
 
-    // A sorted map of tiles by distance
-    NavigableMap<Double, Integer> distanceMap = tessellation.getDistanceMap(ijk);
+    // A sorted map of tiles by distance. A model center within PI/4 of point is in a tile whose
+    // center is within PI/4 + maxTileOffset of point.
+    NavigableMap<Double, Integer> distanceMap =
+        tessellation.getDistanceMap(ijk, Math.PI / 4 + maxTileOffset);
 
     List<String> smallBodyModels = new ArrayList<>();
     for (Double dist : distanceMap.keySet()) {
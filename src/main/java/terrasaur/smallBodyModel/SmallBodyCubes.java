@@ -22,16 +22,21 @@
  */
 package terrasaur.smallBodyModel;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.TreeSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import picante.math.intervals.Interval;
+import terrasaur.utils.PolyDataUtil;
 import vtk.vtkPolyData;
 
 /**
  * This class is used to subdivide the bounding box of a shape model into a contiguous grid of 3D
  * cubes (sort of like voxels).
+ * <p>
+ * The grid is a uniform index: the cubes containing a point or overlapping a box are found
+ * arithmetically from the grid origin and cube size rather than by searching a list of cubes.
+ * Cubes are numbered in grid order (x fastest, then y, then z) after empty cubes are removed.
  * 
  * @author kahneg1
  * @version 1.0
@@ -42,10 +47,21 @@ public class SmallBodyCubes {
   private final static Logger logger = LogManager.getLogger(SmallBodyCubes.class);
 
   private BoundingBox boundingBox;
-  private ArrayList<BoundingBox> allCubes = new ArrayList<BoundingBox>();
   private final double cubeSize;
   private final double buffer;
 
+  /** minimum corner of the grid */
+  private double[] gridOrigin;
+
+  /** number of cubes along each axis */
+  private int[] numCubes;
+
+  /** cube id for each grid index, or -1 if the cube was removed */
+  private int[] gridToCube;
+
+  /** grid index for each cube id */
+  private int[] cubeToGrid;
+
   /**
    * Create a cube set structure for the given model, where each cube has side <tt>cubeSize</tt> and
    * <tt>buffer</tt> is added to all sides of the bounding box of the model. Cubes that do not
@@ -73,91 +89,165 @@ public class SmallBodyCubes {
         new Interval(bounds[2] - buffer, bounds[3] + buffer),
         new Interval(bounds[4] - buffer, bounds[5] + buffer));
 
-    int numCubesX = (int) Math.ceil(boundingBox.getXRange().getLength() / cubeSize);
-    int numCubesY = (int) Math.ceil(boundingBox.getYRange().getLength() / cubeSize);
-    int numCubesZ = (int) Math.ceil(boundingBox.getZRange().getLength() / cubeSize);
-
-    for (int k = 0; k < numCubesZ; ++k) {
-      double zmin = boundingBox.getZRange().getBegin() + k * cubeSize;
-      double zmax = boundingBox.getZRange().getBegin() + (k + 1) * cubeSize;
-      for (int j = 0; j < numCubesY; ++j) {
-        double ymin = boundingBox.getYRange().getBegin() + j * cubeSize;
-        double ymax = boundingBox.getYRange().getBegin() + (j + 1) * cubeSize;
-        for (int i = 0; i < numCubesX; ++i) {
-          double xmin = boundingBox.getXRange().getBegin() + i * cubeSize;
-          double xmax = boundingBox.getXRange().getBegin() + (i + 1) * cubeSize;
-          BoundingBox bb = new BoundingBox(new Interval(xmin, xmax), new Interval(ymin, ymax),
-              new Interval(zmin, zmax));
-          allCubes.add(bb);
-        }
-      }
+    gridOrigin = new double[] {boundingBox.getXRange().getBegin(),
+        boundingBox.getYRange().getBegin(), boundingBox.getZRange().getBegin()};
+    numCubes = new int[] {(int) Math.ceil(boundingBox.getXRange().getLength() / cubeSize),
+        (int) Math.ceil(boundingBox.getYRange().getLength() / cubeSize),
+        (int) Math.ceil(boundingBox.getZRange().getLength() / cubeSize)};
+
+    int numberCubes = numCubes[0] * numCubes[1] * numCubes[2];
+    gridToCube = new int[numberCubes];
+    cubeToGrid = new int[numberCubes];
+    for (int i = 0; i < numberCubes; ++i) {
+      gridToCube[i] = i;
+      cubeToGrid[i] = i;
     }
   }
 
   private void removeEmptyCubes(vtkPolyData smallBodyPolyData) {
-    logger.info("total cubes before reduction = {}", allCubes.size());
+    logger.info("total cubes before reduction = {}", cubeToGrid.length);
 
-    // Remove from allCubes all cubes that do not intersect the asteroid
-    // long t0 = System.currentTimeMillis();
-    TreeSet<Integer> intersectingCubes = getIntersectingCubes(smallBodyPolyData);
-    // System.out.println("Time elapsed: " +
-    // ((double)System.currentTimeMillis()-t0)/1000.0);
+    // Remove all cubes that do not intersect the asteroid
+    boolean[] occupied = getOccupiedCubes(smallBodyPolyData);
 
-    ArrayList<BoundingBox> tmpCubes = new ArrayList<BoundingBox>();
-    for (Integer i : intersectingCubes) {
-      tmpCubes.add(allCubes.get(i));
+    int numberCubes = 0;
+    for (int i = 0; i < gridToCube.length; ++i) {
+      if (occupied[i]) {
+        gridToCube[i] = numberCubes;
+        cubeToGrid[numberCubes++] = i;
+      } else {
+        gridToCube[i] = -1;
+      }
     }
+    cubeToGrid = Arrays.copyOf(cubeToGrid, numberCubes);
 
-    allCubes = tmpCubes;
-
-    logger.info("finished initializing cubes, total = {}", allCubes.size());
+    logger.info("finished initializing cubes, total = {}", cubeToGrid.length);
   }
 
   public BoundingBox getCube(int cubeId) {
-    return allCubes.get(cubeId);
+    int index = cubeToGrid[cubeId];
+    int i = index % numCubes[0];
+    int j = (index / numCubes[0]) % numCubes[1];
+    int k = index / (numCubes[0] * numCubes[1]);
+    return new BoundingBox(new Interval(cubeMin(0, i), cubeMin(0, i + 1)),
+        new Interval(cubeMin(1, j), cubeMin(1, j + 1)),
+        new Interval(cubeMin(2, k), cubeMin(2, k + 1)));
+  }
+
+  /** @return lower edge of cube i along axis, which is also the upper edge of cube i - 1 */
+  private double cubeMin(int axis, int i) {
+    return gridOrigin[axis] + i * cubeSize;
   }
 
   /**
-   * Get all the cubes that intersect with <tt>polydata</tt>
+   * Find the grid indices along one axis of the cubes whose closed extent intersects [lo, hi].
    * 
-   * @param polydata
-   * @return
+   * @param axis 0, 1, or 2 for X, Y, or Z
+   * @param lo
+   * @param hi
+   * @param range first and last grid index on return. The range is empty if first is greater than
+   *        last.
    */
-  public TreeSet<Integer> getIntersectingCubes(vtkPolyData polydata) {
-    TreeSet<Integer> cubeIds = new TreeSet<Integer>();
+  private void getRange(int axis, double lo, double hi, int[] range) {
+    // start one cube outside the estimate so rounding can't lose a cube sharing a face
+    int first = (int) Math.max(0, Math.floor((lo - gridOrigin[axis]) / cubeSize) - 1);
+    while (first < numCubes[axis] && cubeMin(axis, first + 1) < lo)
+      first++;
+    int last = (int) Math.min(numCubes[axis] - 1,
+        Math.floor((hi - gridOrigin[axis]) / cubeSize) + 1);
+    while (last >= 0 && cubeMin(axis, last) > hi)
+      last--;
+    range[0] = first;
+    range[1] = last;
+  }
 
-    // Iterate through each cube and check if it intersects
-    // with the bounding box of any of the polygons of the polydata
-    BoundingBox polydataBB = new BoundingBox(polydata.GetBounds());
+  /**
+   * Find the bounding box of each cell. Triangles are read from the packed connectivity; any other
+   * cell type falls back to {@code GetCellBounds} so all of its points
+   * are included.
+   * 
+   * @param polydata
+   * @return bounds of each cell packed as xmin, xmax, ymin, ymax, zmin, zmax
+   */
+  private static double[] getCellBounds(vtkPolyData polydata) {
+    int numCells = (int) polydata.GetNumberOfCells();
+    double[] bounds = new double[6 * numCells];
 
-    long numberPolygons = polydata.GetNumberOfCells();
+    // every cell is a triangle if all cells are polygons with 3 * numCells points and none has
+    // more than 3
+    if (numCells != polydata.GetNumberOfPolys()
+        || polydata.GetPolys().GetNumberOfConnectivityIds() != 3L * numCells
+        || polydata.GetPolys().GetMaxCellSize() != 3) {
+      double[] cellBounds = new double[6];
+      for (int cell = 0; cell < numCells; ++cell) {
+        polydata.GetCellBounds(cell, cellBounds);
+        System.arraycopy(cellBounds, 0, bounds, 6 * cell, 6);
+      }
+      return bounds;
+    }
 
-    // Store all the bounding boxes of all the individual polygons in an
-    // array first
-    // since the call to GetCellBounds is very slow.
-    double[] cellBounds = new double[6];
-    ArrayList<BoundingBox> polyCellsBB = new ArrayList<BoundingBox>();
-    for (int j = 0; j < numberPolygons; ++j) {
-      polydata.GetCellBounds(j, cellBounds);
-      polyCellsBB.add(new BoundingBox(cellBounds));
+    double[] vertices = PolyDataUtil.getPackedVertices(polydata);
+    int[] triangles = PolyDataUtil.getPackedTriangles(polydata);
+    for (int cell = 0; cell < numCells; ++cell) {
+      for (int axis = 0; axis < 3; ++axis) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int v = 0; v < 3; ++v) {
+          double x = vertices[3 * triangles[3 * cell + v] + axis];
+          min = Math.min(min, x);
+          max = Math.max(max, x);
+        }
+        bounds[6 * cell + 2 * axis] = min;
+        bounds[6 * cell + 2 * axis + 1] = max;
+      }
     }
+    return bounds;
+  }
 
-    int numberCubes = allCubes.size();
-    for (int i = 0; i < numberCubes; ++i) {
-      // Before checking each polygon individually, first see if the
-      // polydata as a whole intersects the cube
-      BoundingBox cube = getCube(i);
-      if (cube.intersects(polydataBB)) {
-        for (int j = 0; j < numberPolygons; ++j) {
-          BoundingBox bb = polyCellsBB.get(j);
-          if (cube.intersects(bb)) {
-            cubeIds.add(i);
-            break;
-          }
+  /**
+   * Mark each cube intersecting the bounding box of any cell of polydata. The cells are binned in
+   * one pass over the cells.
+   * 
+   * @param polydata
+   * @return true for each grid index whose cube intersects a cell
+   */
+  private boolean[] getOccupiedCubes(vtkPolyData polydata) {
+    double[] cellBounds = getCellBounds(polydata);
+
+    boolean[] occupied = new boolean[numCubes[0] * numCubes[1] * numCubes[2]];
+    int[][] ranges = new int[3][2];
+    for (int cell = 0; cell < cellBounds.length / 6; ++cell) {
+      for (int axis = 0; axis < 3; ++axis)
+        getRange(axis, cellBounds[6 * cell + 2 * axis], cellBounds[6 * cell + 2 * axis + 1],
+            ranges[axis]);
+      for (int k = ranges[2][0]; k <= ranges[2][1]; ++k) {
+        for (int j = ranges[1][0]; j <= ranges[1][1]; ++j) {
+          int index = numCubes[0] * (j + numCubes[1] * k);
+          for (int i = ranges[0][0]; i <= ranges[0][1]; ++i)
+            occupied[index + i] = true;
         }
       }
     }
 
+    return occupied;
+  }
+
+  /**
+   * Get all the cubes that intersect with <tt>polydata</tt>
+   * 
+   * @param polydata
+   * @return
+   */
+  public TreeSet<Integer> getIntersectingCubes(vtkPolyData polydata) {
+    TreeSet<Integer> cubeIds = new TreeSet<Integer>();
+
+    // a cube intersects the polydata if it intersects the bounding box of any of its polygons
+    boolean[] occupied = getOccupiedCubes(polydata);
+    for (int i = 0; i < occupied.length; ++i) {
+      if (occupied[i] && gridToCube[i] >= 0)
+        cubeIds.add(gridToCube[i]);
+    }
+
     return cubeIds;
   }
 
@@ -170,11 +260,17 @@ public class SmallBodyCubes {
   public TreeSet<Integer> getIntersectingCubes(BoundingBox bb) {
     TreeSet<Integer> cubeIds = new TreeSet<Integer>();
 
-    int numberCubes = allCubes.size();
-    for (int i = 0; i < numberCubes; ++i) {
-      BoundingBox cube = getCube(i);
-      if (cube.intersects(bb)) {
-        cubeIds.add(i);
+    int[][] ranges = new int[3][2];
+    getRange(0, bb.getXRange().getBegin(), bb.getXRange().getEnd(), ranges[0]);
+    getRange(1, bb.getYRange().getBegin(), bb.getYRange().getEnd(), ranges[1]);
+    getRange(2, bb.getZRange().getBegin(), bb.getZRange().getEnd(), ranges[2]);
+    for (int k = ranges[2][0]; k <= ranges[2][1]; ++k) {
+      for (int j = ranges[1][0]; j <= ranges[1][1]; ++j) {
+        int index = numCubes[0] * (j + numCubes[1] * k);
+        for (int i = ranges[0][0]; i <= ranges[0][1]; ++i) {
+          if (gridToCube[index + i] >= 0)
+            cubeIds.add(gridToCube[index + i]);
+        }
       }
     }
 
@@ -182,7 +278,8 @@ public class SmallBodyCubes {
   }
 
   /**
-   * Get the id of the cube containing <tt>point</tt>
+   * Get the id of the cube containing <tt>point</tt>. A point on a face shared by two cubes
+   * belongs to the cube with the lower id.
    * 
    * @param point
    * @return
@@ -191,11 +288,17 @@ public class SmallBodyCubes {
     if (!boundingBox.contains(point))
       return -1;
 
-    int numberCubes = allCubes.size();
-    for (int i = 0; i < numberCubes; ++i) {
-      BoundingBox cube = getCube(i);
-      if (cube.contains(point))
-        return i;
+    int[][] ranges = new int[3][2];
+    for (int axis = 0; axis < 3; ++axis)
+      getRange(axis, point[axis], point[axis], ranges[axis]);
+    for (int k = ranges[2][0]; k <= ranges[2][1]; ++k) {
+      for (int j = ranges[1][0]; j <= ranges[1][1]; ++j) {
+        int index = numCubes[0] * (j + numCubes[1] * k);
+        for (int i = ranges[0][0]; i <= ranges[0][1]; ++i) {
+          if (gridToCube[index + i] >= 0)
+            return gridToCube[index + i];
+        }
+      }
     }
 
     // If we reach here something is wrong
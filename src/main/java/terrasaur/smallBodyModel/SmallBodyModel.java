@@ -25,7 +25,9 @@ package terrasaur.smallBodyModel;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -38,19 +40,21 @@ import picante.math.coords.CoordConverters;
 import picante.math.coords.LatitudinalVector;
 import picante.math.vectorspace.UnwritableVectorIJK;
 import picante.math.vectorspace.VectorIJK;
+import terrasaur.utils.FacetAttributes;
+import terrasaur.utils.KdTree;
 import terrasaur.utils.PolyDataUtil;
+import terrasaur.utils.ShapeModelCache;
 import terrasaur.utils.math.RotationUtils;
 import terrasaur.utils.mesh.TriangularFacet;
 import vtk.vtkAbstractPointLocator;
 import vtk.vtkCell;
-import vtk.vtkCellData;
+import vtk.vtkDataArray;
 import vtk.vtkFloatArray;
 import vtk.vtkGenericCell;
 import vtk.vtkIdList;
 import vtk.vtkOctreePointLocator;
 import vtk.vtkPoints;
 import vtk.vtkPolyData;
-import vtk.vtkPolyDataNormals;
 import vtk.vtksbCellLocator;
 import vtk.vtksbModifiedBSPTree;
 
@@ -58,6 +62,11 @@ import vtk.vtksbModifiedBSPTree;
  * The SmallBodyModel class represents a shape model of a small body such as Bennu or Eros. It
  * contains methods for common operations on a shape model such as searching for closest points or
  * cells, cutting out an elliptical region or boundary, or exporting to different formats.
+ * <p>
+ * With {@link QueryEngine#BVH}, ray, closest point, radius and normal queries are answered by
+ * immutable pure Java search structures using per-thread scratch storage, so a single instance may
+ * be shared by many threads. With {@link QueryEngine#VTK} the VTK locators keep internal state
+ * between calls and an instance must not be queried concurrently.
  * 
  * @author kahneg1
  * @version 1.0
@@ -71,20 +80,47 @@ public class SmallBodyModel {
     POINT_DATA, CELLDATA
   }
 
+  /** Search structures used for ray, closest point and radius queries */
+  public enum QueryEngine {
+    /** JNI calls to {@link vtksbCellLocator} and {@link vtkOctreePointLocator} */
+    VTK,
+    /** pure Java {@link BoundingVolumeHierarchy} and {@link KdTree}, safe for concurrent use */
+    BVH
+  }
+
+  /** Per-thread scratch storage for the pure Java queries */
+  private static class QueryScratch {
+    private final int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+    private final double[] t = new double[1];
+  }
+
   private vtkPolyData smallBodyPolyData;
   private vtkPolyData lowResSmallBodyPolyData;
   private vtksbCellLocator cellLocator;
   private vtksbModifiedBSPTree bspLocator;
   private vtkOctreePointLocator pointLocator;
   private vtkOctreePointLocator lowResPointLocator;
+  private volatile boolean locatorsBuilt;
   private SmallBodyCubes smallBodyCubes;
   private File defaultModelFile;
   private int resolutionLevel = 0;
   private vtkGenericCell genericCell;
   private String[] modelNames;
-  private BoundingBox boundingBox = null;
-
-  private vtkFloatArray cellNormals;
+  private volatile BoundingBox boundingBox = null;
+
+  private QueryEngine queryEngine = QueryEngine.VTK;
+  private volatile BoundingVolumeHierarchy bvh;
+  private volatile KdTree vertexTree;
+  // cells using each vertex, compressed sparse row format
+  private int[] vertexCellOffsets;
+  private int[] vertexCells;
+  private final ThreadLocal<QueryScratch> queryScratch =
+      ThreadLocal.withInitial(QueryScratch::new);
+
+  private volatile vtkFloatArray cellNormals;
+  private volatile double[] cellNormalArray;
+  private volatile double[] pointNormalArray;
+  private volatile FacetAttributes facetAttributes;
   private vtkIdList idList; // to avoid repeated allocations
   private vtkIdList idList2; // to avoid repeated allocations
 
@@ -114,14 +150,43 @@ public class SmallBodyModel {
     setSmallBodyPolyData(polyData, coloringValues, coloringNames, coloringUnits, coloringValueType);
   }
 
+  /**
+   * Initialize a SmallBodyModel with a vtkPolyData, using the specified engine for queries.
+   * 
+   * @param polyData
+   * @param queryEngine
+   */
+  public SmallBodyModel(vtkPolyData polyData, QueryEngine queryEngine) {
+    this(polyData);
+    setQueryEngine(queryEngine);
+  }
+
   public void setSmallBodyPolyData(vtkPolyData polydata, vtkFloatArray[] coloringValues,
       String[] coloringNames, String[] coloringUnits, ColoringValueType coloringValueType) {
+    ShapeModelCache cache = ShapeModelCache.get(polydata);
+    if (cache != null && !cache.matches(polydata))
+      cache = null;
     smallBodyPolyData.DeepCopy(polydata);
 
     smallBodyPolyData.BuildLinks(0);
 
     initializeLocators();
 
+    bvh = null;
+    vertexTree = null;
+    cellNormals = null;
+    cellNormalArray = null;
+    pointNormalArray = null;
+    facetAttributes = null;
+    boundingBox = null;
+    if (cache != null) {
+      // search structures read with the shape model
+      bvh = cache.getBoundingVolumeHierarchy();
+      cellNormalArray = cache.getCellNormals();
+    }
+    if (queryEngine == QueryEngine.BVH)
+      initializeJavaSearchStructures();
+
     lowResSmallBodyPolyData = smallBodyPolyData;
     lowResPointLocator = pointLocator;
   }
@@ -130,6 +195,10 @@ public class SmallBodyModel {
     return true;
   }
 
+  /**
+   * Point the VTK locators at the current shape model. The search structures are not built until
+   * the first query that uses them, so models using {@link QueryEngine#BVH} never build them.
+   */
   private void initializeLocators() {
     if (cellLocator == null) {
       cellLocator = new vtksbCellLocator();
@@ -137,27 +206,41 @@ public class SmallBodyModel {
       pointLocator = new vtkOctreePointLocator();
     }
 
-    // Initialize the cell locator
     cellLocator.FreeSearchStructure();
-    cellLocator.SetDataSet(smallBodyPolyData);
-    cellLocator.CacheCellBoundsOn();
-    cellLocator.AutomaticOn();
-    // cellLocator.SetMaxLevel(10);
-    // cellLocator.SetNumberOfCellsPerNode(5);
-    cellLocator.BuildLocator();
-
-    // Initialize the BSP locator
     bspLocator.FreeSearchStructure();
-    bspLocator.SetDataSet(smallBodyPolyData);
-    bspLocator.CacheCellBoundsOn();
-    bspLocator.AutomaticOn();
-    // bspLocator.SetMaxLevel(10);
-    // bspLocator.SetNumberOfCellsPerNode(5);
-    bspLocator.BuildLocator();
-
     pointLocator.FreeSearchStructure();
-    pointLocator.SetDataSet(smallBodyPolyData);
-    pointLocator.BuildLocator();
+    locatorsBuilt = false;
+  }
+
+  /** build the VTK locators if they have not been built for the current shape model */
+  private void buildLocators() {
+    if (locatorsBuilt)
+      return;
+    synchronized (this) {
+      if (locatorsBuilt)
+        return;
+
+      // Initialize the cell locator
+      cellLocator.SetDataSet(smallBodyPolyData);
+      cellLocator.CacheCellBoundsOn();
+      cellLocator.AutomaticOn();
+      // cellLocator.SetMaxLevel(10);
+      // cellLocator.SetNumberOfCellsPerNode(5);
+      cellLocator.BuildLocator();
+
+      // Initialize the BSP locator
+      bspLocator.SetDataSet(smallBodyPolyData);
+      bspLocator.CacheCellBoundsOn();
+      bspLocator.AutomaticOn();
+      // bspLocator.SetMaxLevel(10);
+      // bspLocator.SetNumberOfCellsPerNode(5);
+      bspLocator.BuildLocator();
+
+      pointLocator.SetDataSet(smallBodyPolyData);
+      pointLocator.BuildLocator();
+
+      locatorsBuilt = true;
+    }
   }
 
   private void initializeLowResData() {
@@ -188,10 +271,101 @@ public class SmallBodyModel {
   }
 
   public vtksbCellLocator getCellLocator() {
+    buildLocators();
     return cellLocator;
   }
 
+  /** @return engine used for ray, closest point and radius queries */
+  public QueryEngine getQueryEngine() {
+    return queryEngine;
+  }
+
+  /**
+   * Select the engine used for ray, closest point and radius queries. Selecting
+   * {@link QueryEngine#BVH} builds all of the pure Java search structures, after which the model
+   * may be shared between threads.
+   * 
+   * @param queryEngine
+   */
+  public void setQueryEngine(QueryEngine queryEngine) {
+    this.queryEngine = queryEngine;
+    if (queryEngine == QueryEngine.BVH)
+      initializeJavaSearchStructures();
+  }
+
+  /** build everything the {@link QueryEngine#BVH} queries need so later reads are lock free */
+  private void initializeJavaSearchStructures() {
+    getBoundingBox();
+    getCellNormalArray();
+    getPointNormalArray();
+    getBoundingVolumeHierarchy();
+    getVertexTree();
+  }
+
+  /** @return bounding volume hierarchy over the cells of this model, built on first use */
+  public BoundingVolumeHierarchy getBoundingVolumeHierarchy() {
+    BoundingVolumeHierarchy result = bvh;
+    if (result == null) {
+      synchronized (this) {
+        result = bvh;
+        if (result == null) {
+          long start = System.currentTimeMillis();
+          result = new BoundingVolumeHierarchy(PolyDataUtil.getPackedVertices(smallBodyPolyData),
+              PolyDataUtil.getPackedTriangles(smallBodyPolyData));
+          logger.debug("Built BVH with {} nodes over {} cells in {} ms",
+              result.getNumberOfNodes(), result.getNumberOfTriangles(),
+              System.currentTimeMillis() - start);
+          bvh = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return {@link KdTree} over the vertices of this model, built on first use along with the
+   *         vertex to cell map
+   */
+  private KdTree getVertexTree() {
+    KdTree result = vertexTree;
+    if (result == null) {
+      synchronized (this) {
+        result = vertexTree;
+        if (result == null) {
+          int[] triangles = PolyDataUtil.getPackedTriangles(smallBodyPolyData);
+          int numPoints = (int) smallBodyPolyData.GetNumberOfPoints();
+          int[] offsets = new int[numPoints + 1];
+          for (int id : triangles)
+            offsets[id + 1]++;
+          for (int i = 0; i < numPoints; i++)
+            offsets[i + 1] += offsets[i];
+          int[] cells = new int[triangles.length];
+          int[] next = Arrays.copyOf(offsets, numPoints);
+          for (int i = 0; i < triangles.length; i++) {
+            // don't list a cell twice for a vertex it uses more than once
+            int cell = i / 3;
+            int id = triangles[i];
+            if (next[id] > offsets[id] && cells[next[id] - 1] == cell)
+              continue;
+            cells[next[id]++] = cell;
+          }
+          // mark unused slots left by repeated vertices
+          for (int i = 0; i < numPoints; i++)
+            for (int j = next[i]; j < offsets[i + 1]; j++)
+              cells[j] = -1;
+          vertexCellOffsets = offsets;
+          vertexCells = cells;
+
+          result = new KdTree(PolyDataUtil.getPackedVertices(smallBodyPolyData));
+          vertexTree = result;
+        }
+      }
+    }
+    return result;
+  }
+
   public vtkAbstractPointLocator getPointLocator() {
+    buildLocators();
     return pointLocator;
   }
 
@@ -223,76 +397,175 @@ public class SmallBodyModel {
     return getSmallBodyCubes().getCubeId(point);
   }
 
-  public vtkFloatArray getCellNormals() {
+  public synchronized vtkFloatArray getCellNormals() {
     // Compute the normals of necessary. For now don't add the normals to
     // the cell
     // data of the small body model since doing so might create problems.
     // TODO consider adding normals to cell data without creating problems
     if (cellNormals == null) {
-      vtkPolyDataNormals normalsFilter = new vtkPolyDataNormals();
-      normalsFilter.SetInputData(smallBodyPolyData);
-      normalsFilter.SetComputeCellNormals(1);
-      normalsFilter.SetComputePointNormals(0);
-      normalsFilter.SplittingOff();
-      normalsFilter.ConsistencyOn();
-      normalsFilter.AutoOrientNormalsOff();
-      normalsFilter.Update();
-
-      vtkPolyData normalsFilterOutput = normalsFilter.GetOutput();
-      vtkCellData normalsFilterOutputCellData = normalsFilterOutput.GetCellData();
-      vtkFloatArray normals = (vtkFloatArray) normalsFilterOutputCellData.GetNormals();
-
-      cellNormals = new vtkFloatArray();
-      cellNormals.DeepCopy(normals);
-
-      normals.Delete();
-      normalsFilterOutputCellData.Delete();
-      normalsFilterOutput.Delete();
-      normalsFilter.Delete();
+      cellNormals = PolyDataUtil.getCellNormals(smallBodyPolyData);
     }
 
     return cellNormals;
   }
 
+  private double[] getCellNormalArray() {
+    double[] result = cellNormalArray;
+    if (result == null) {
+      synchronized (this) {
+        result = cellNormalArray;
+        if (result == null) {
+          vtkFloatArray normals = getCellNormals();
+          int numCells = (int) normals.GetNumberOfTuples();
+          result = new double[3 * numCells];
+          for (int i = 0; i < numCells; i++) {
+            double[] normal = normals.GetTuple3(i);
+            System.arraycopy(normal, 0, result, 3 * i, 3);
+          }
+          cellNormalArray = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /** @return point normals packed as x0, y0, z0, x1, y1, z1..., or null if the model has none */
+  private double[] getPointNormalArray() {
+    double[] result = pointNormalArray;
+    if (result == null) {
+      synchronized (this) {
+        result = pointNormalArray;
+        if (result == null) {
+          vtkDataArray normals = smallBodyPolyData.GetPointData().GetNormals();
+          if (normals == null)
+            return null;
+          int numPoints = (int) normals.GetNumberOfTuples();
+          result = new double[3 * numPoints];
+          for (int i = 0; i < numPoints; i++) {
+            double[] normal = normals.GetTuple3(i);
+            System.arraycopy(normal, 0, result, 3 * i, 3);
+          }
+          pointNormalArray = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return point normals packed as x0, y0, z0, x1, y1, z1...
+   * @throws IllegalStateException if the model has no point normals
+   */
+  private double[] requirePointNormalArray() {
+    double[] pointNormals = getPointNormalArray();
+    if (pointNormals == null)
+      throw new IllegalStateException("Shape model has no point normals");
+    return pointNormals;
+  }
+
+  /**
+   * @param pointNormals packed point normals
+   * @param ids point ids
+   * @return average of the normals at ids, or null if ids is empty
+   */
+  private static double[] averageNormal(double[] pointNormals, int[] ids) {
+    if (ids.length < 1)
+      return null;
+    double[] normal = new double[3];
+    for (int id : ids) {
+      normal[0] += pointNormals[3 * id];
+      normal[1] += pointNormals[3 * id + 1];
+      normal[2] += pointNormals[3 * id + 2];
+    }
+    for (int i = 0; i < 3; i++)
+      normal[i] /= ids.length;
+    return normal;
+  }
+
+  /**
+   * Unlike calling GetTuple3() on the array returned by {@link #getCellNormals()}, this method is
+   * safe to call from multiple threads.
+   * 
+   * @param cellId
+   * @return normal to the cell
+   */
+  public double[] getCellNormal(long cellId) {
+    double[] normals = getCellNormalArray();
+    int i = 3 * (int) cellId;
+    return new double[] {normals[i], normals[i + 1], normals[i + 2]};
+  }
+
+  /**
+   * @return table of center, normal, area, latitude, longitude and tilt for each cell, built on
+   *         first use. The table may be read from multiple threads without locking.
+   */
+  public FacetAttributes getFacetAttributes() {
+    FacetAttributes result = facetAttributes;
+    if (result == null) {
+      synchronized (this) {
+        result = facetAttributes;
+        if (result == null) {
+          result = FacetAttributes.fromPolyData(smallBodyPolyData);
+          facetAttributes = result;
+        }
+      }
+    }
+    return result;
+  }
+
   /**
    * Get the normal at a point. The normal vector at several vertices near the current point are
-   * averaged to compute the normal.
+   * averaged to compute the normal. The model must have point normals.
    * 
    * @param point
    * @return
    */
   public double[] getNormalAtPoint(double[] point) {
-    return PolyDataUtil.getPolyDataNormalAtPoint(point, smallBodyPolyData, pointLocator);
+    if (queryEngine == QueryEngine.BVH)
+      return averageNormal(requirePointNormalArray(),
+          getVertexTree().findNearest(point[0], point[1], point[2], 20));
+    return PolyDataUtil.getPolyDataNormalAtPoint(point, smallBodyPolyData, getPointLocator());
   }
 
   /**
    * Get the normal at a point. Unlike the other function with the same name, this averages the
-   * normals to all vertices within radius distance of point.
+   * normals to all vertices within radius distance of point. The model must have point normals.
    * 
    * @param point
    * @param radius
-   * @return
+   * @return null if there are no vertices within radius of point
    */
   public double[] getNormalAtPoint(double[] point, double radius) {
-    return PolyDataUtil.getPolyDataNormalAtPointWithinRadius(point, smallBodyPolyData, pointLocator,
-        radius);
+    if (queryEngine == QueryEngine.BVH) {
+      double[] pointNormals = requirePointNormalArray();
+      List<Integer> ids = new ArrayList<>();
+      getVertexTree().findWithinRadius(point[0], point[1], point[2], radius, ids::add);
+      return averageNormal(pointNormals, ids.stream().mapToInt(Integer::intValue).toArray());
+    }
+    return PolyDataUtil.getPolyDataNormalAtPointWithinRadius(point, smallBodyPolyData,
+        getPointLocator(), radius);
   }
 
   public double[] getClosestNormal(double[] point) {
     long closestCell = findClosestCell(point);
-    return getCellNormals().GetTuple3(closestCell);
+    return getCellNormal(closestCell);
   }
 
   /**
-   * Get the normal at a point. Unlike the other function with the same name, this averages the
-   * normals to all vertices within radius distance of point.
+   * Get the ids of all vertices within radius distance of point.
    * 
    * @param point
    * @param radius
    * @return
    */
   public vtkIdList getIDsNearPoint(double[] point, double radius) {
-    return PolyDataUtil.getIDsAtPointWithinRadius(point, smallBodyPolyData, pointLocator, radius);
+    if (queryEngine == QueryEngine.BVH) {
+      vtkIdList ids = new vtkIdList();
+      getVertexTree().findWithinRadius(point[0], point[1], point[2], radius, ids::InsertNextId);
+      return ids;
+    }
+    return PolyDataUtil.getIDsAtPointWithinRadius(point, smallBodyPolyData, getPointLocator(),
+        radius);
   }
 
   /**
@@ -304,11 +577,17 @@ public class SmallBodyModel {
    */
   public double[] findClosestPoint(double[] pt) {
     double[] closestPoint = new double[3];
+    if (queryEngine == QueryEngine.BVH) {
+      getBoundingVolumeHierarchy().closestPoint(pt[0], pt[1], pt[2], queryScratch.get().stack,
+          closestPoint);
+      return closestPoint;
+    }
+
     long[] cellId = new long[1];
     int[] subId = new int[1];
     double[] dist2 = new double[1];
 
-    cellLocator.FindClosestPoint(pt, closestPoint, genericCell, cellId, subId, dist2);
+    getCellLocator().FindClosestPoint(pt, closestPoint, genericCell, cellId, subId, dist2);
 
     return closestPoint;
   }
@@ -321,7 +600,8 @@ public class SmallBodyModel {
    * @return
    */
   public double[] findClosestVertex(double[] pt) {
-    long id = pointLocator.FindClosestPoint(pt);
+    long id = queryEngine == QueryEngine.BVH ? getVertexTree().findNearest(pt[0], pt[1], pt[2])
+        : getPointLocator().FindClosestPoint(pt);
     double[] returnPt = new double[3];
     smallBodyPolyData.GetPoint(id, returnPt);
     return returnPt;
@@ -336,13 +616,17 @@ public class SmallBodyModel {
    * @return
    */
   public long findClosestCell(double[] pt, double[] closestPoint) {
+    if (queryEngine == QueryEngine.BVH)
+      return getBoundingVolumeHierarchy().closestPoint(pt[0], pt[1], pt[2],
+          queryScratch.get().stack, closestPoint);
+
     long[] cellId = new long[1];
     int[] subId = new int[1];
     double[] dist2 = new double[1];
 
     // Use FindClosestPoint rather the FindCell since not sure what
     // tolerance to use in the latter.
-    cellLocator.FindClosestPoint(pt, closestPoint, genericCell, cellId, subId, dist2);
+    getCellLocator().FindClosestPoint(pt, closestPoint, genericCell, cellId, subId, dist2);
 
     return cellId[0];
   }
@@ -360,7 +644,16 @@ public class SmallBodyModel {
 
   public Set<Long> findClosestCellsWithinRadius(double[] pt, double radius) {
     Set<Long> cells = new HashSet<>();
-    pointLocator.FindPointsWithinRadius(radius, pt, idList);
+    if (queryEngine == QueryEngine.BVH) {
+      KdTree tree = getVertexTree();
+      tree.findWithinRadius(pt[0], pt[1], pt[2], radius, id -> {
+        for (int j = vertexCellOffsets[id]; j < vertexCellOffsets[id + 1]; j++)
+          if (vertexCells[j] >= 0)
+            cells.add((long) vertexCells[j]);
+      });
+      return cells;
+    }
+    getPointLocator().FindPointsWithinRadius(radius, pt, idList);
     long size = idList.GetNumberOfIds();
     for (int i = 0; i < size; ++i) {
       long id = idList.GetId(i);
@@ -376,7 +669,11 @@ public class SmallBodyModel {
 
   public ArrayList<Long> findClosestVerticesWithinRadius(double[] pt, double radius) {
     ArrayList<Long> vertices = new ArrayList<>();
-    pointLocator.FindPointsWithinRadius(radius, pt, idList);
+    if (queryEngine == QueryEngine.BVH) {
+      getVertexTree().findWithinRadius(pt[0], pt[1], pt[2], radius, id -> vertices.add((long) id));
+      return vertices;
+    }
+    getPointLocator().FindPointsWithinRadius(radius, pt, idList);
     long size = idList.GetNumberOfIds();
     for (long i = 0; i < size; ++i) {
       long id = idList.GetId(i);
@@ -475,6 +772,21 @@ public class SmallBodyModel {
   public long computeRayIntersection(double[] origin, double[] direction, double distance,
       double[] intersectPoint) {
 
+    if (queryEngine == QueryEngine.BVH) {
+      QueryScratch scratch = queryScratch.get();
+      double scale = 2.0 * distance;
+      int cellId = getBoundingVolumeHierarchy().intersect(origin[0], origin[1], origin[2],
+          scale * direction[0], scale * direction[1], scale * direction[2], 1, scratch.stack,
+          scratch.t);
+      if (cellId < 0)
+        return -1;
+      double t = scratch.t[0] * scale;
+      intersectPoint[0] = origin[0] + t * direction[0];
+      intersectPoint[1] = origin[1] + t * direction[1];
+      intersectPoint[2] = origin[2] + t * direction[2];
+      return cellId;
+    }
+
     double[] lookPt = new double[3];
     lookPt[0] = origin[0] + 2.0 * distance * direction[0];
     lookPt[1] = origin[1] + 2.0 * distance * direction[1];
@@ -487,8 +799,8 @@ public class SmallBodyModel {
     int[] subId = new int[1];
     long[] cellId = new long[1];
 
-    int result = cellLocator.IntersectWithLine(origin, lookPt, tol, t, x, pcoords, subId, cellId,
-        genericCell);
+    int result = getCellLocator().IntersectWithLine(origin, lookPt, tol, t, x, pcoords, subId,
+        cellId, genericCell);
 
     intersectPoint[0] = x[0];
     intersectPoint[1] = x[1];
@@ -500,6 +812,76 @@ public class SmallBodyModel {
       return -1;
   }
 
+  /**
+   * Compute the intersections of a batch of rays with the asteroid. The length of each line
+   * segment is the same as used by {@link #computeRayIntersection(double[], double[], double[])}.
+   * 
+   * @param origins packed ray origins, three values per ray
+   * @param directions packed ray directions, three values per ray, assumed to be unit vectors
+   * @param cellIds (returned) the cellId of the cell containing each intersect point or -1 if no
+   *        intersection
+   * @param intersectPoints (returned) packed intersect points, three values per ray
+   */
+  public void computeRayIntersections(double[] origins, double[] directions, long[] cellIds,
+      double[] intersectPoints) {
+    int numRays = cellIds.length;
+    double[] distances = new double[numRays];
+    double diagonal = 10 * getBoundingBoxDiagonalLength();
+    for (int i = 0; i < numRays; i++) {
+      double x = origins[3 * i];
+      double y = origins[3 * i + 1];
+      double z = origins[3 * i + 2];
+      distances[i] = Math.sqrt(x * x + y * y + z * z) + diagonal;
+    }
+    computeRayIntersections(origins, directions, distances, cellIds, intersectPoints);
+  }
+
+  /**
+   * Compute the intersections of a batch of line segments with the asteroid.
+   * 
+   * @param origins packed ray origins, three values per ray
+   * @param directions packed ray directions, three values per ray, assumed to be unit vectors
+   * @param distances length of each line segment
+   * @param cellIds (returned) the cellId of the cell containing each intersect point or -1 if no
+   *        intersection
+   * @param intersectPoints (returned) packed intersect points, three values per ray
+   */
+  public void computeRayIntersections(double[] origins, double[] directions, double[] distances,
+      long[] cellIds, double[] intersectPoints) {
+    int numRays = cellIds.length;
+    if (queryEngine == QueryEngine.BVH) {
+      double[] scaled = new double[3 * numRays];
+      double[] tMax = new double[numRays];
+      for (int i = 0; i < numRays; i++) {
+        double scale = 2.0 * distances[i];
+        scaled[3 * i] = scale * directions[3 * i];
+        scaled[3 * i + 1] = scale * directions[3 * i + 1];
+        scaled[3 * i + 2] = scale * directions[3 * i + 2];
+        tMax[i] = 1;
+      }
+      int[] hits = new int[numRays];
+      double[] tHits = new double[numRays];
+      getBoundingVolumeHierarchy().intersect(origins, scaled, tMax, hits, tHits);
+      for (int i = 0; i < numRays; i++) {
+        cellIds[i] = hits[i];
+        if (hits[i] < 0)
+          continue;
+        for (int k = 0; k < 3; k++)
+          intersectPoints[3 * i + k] = origins[3 * i + k] + tHits[i] * scaled[3 * i + k];
+      }
+    } else {
+      double[] origin = new double[3];
+      double[] direction = new double[3];
+      double[] intersectPoint = new double[3];
+      for (int i = 0; i < numRays; i++) {
+        System.arraycopy(origins, 3 * i, origin, 0, 3);
+        System.arraycopy(directions, 3 * i, direction, 0, 3);
+        cellIds[i] = computeRayIntersection(origin, direction, distances[i], intersectPoint);
+        System.arraycopy(intersectPoint, 0, intersectPoints, 3 * i, 3);
+      }
+    }
+  }
+
   /**
    * Return a unit vector that points east
    * 
@@ -532,12 +914,19 @@ public class SmallBodyModel {
 
   /** @return {@link BoundingBox} which encloses this shape */
   public BoundingBox getBoundingBox() {
-    if (boundingBox == null) {
-      smallBodyPolyData.ComputeBounds();
-      boundingBox = new BoundingBox(smallBodyPolyData.GetBounds());
+    BoundingBox result = boundingBox;
+    if (result == null) {
+      synchronized (this) {
+        result = boundingBox;
+        if (result == null) {
+          smallBodyPolyData.ComputeBounds();
+          result = new BoundingBox(smallBodyPolyData.GetBounds());
+          boundingBox = result;
+        }
+      }
     }
 
-    return boundingBox;
+    return result;
   }
 
   /** @return diagonal length of the enclosing @{link BoundingBox} */
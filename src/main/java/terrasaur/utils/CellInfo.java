@@ -94,12 +94,12 @@ public abstract class CellInfo {
    */
   abstract double circumscribingRadius();
 
-  private final static HashMap<vtkPolyData, HashMap<Long, CellInfo>> completeMap =
-      new HashMap<>();
-
-  public static synchronized void removeKey(vtkPolyData polydata) {
-    completeMap.remove(polydata);
-  }
+  /**
+   * @deprecated CellInfo objects are no longer cached so this does nothing. Use
+   *             {@link FacetAttributes} for repeated lookups on the same mesh.
+   */
+  @Deprecated
+  public static void removeKey(vtkPolyData polydata) {}
 
   /**
    * Find the cell with index cellId.
@@ -208,15 +208,21 @@ public abstract class CellInfo {
   }
 
   /**
-   * Find the cell with index cellId.
+   * Find the cell with index cellId. This method does not lock, so it may be called from multiple
+   * threads as long as each uses its own idList. For repeated lookups on the same mesh use
+   * {@link FacetAttributes}.
    * 
    * @param polydata
    * @param cellId
-   * @param idList
+   * @param idList will contain vertex indices on return
    * @return
    */
   public static CellInfo getCellInfo(vtkPolyData polydata, long cellId, vtkIdList idList) {
-    return getCellInfo(polydata, cellId, idList, false);
+    double[] pt0 = new double[3];
+    double[] pt1 = new double[3];
+    double[] pt2 = new double[3];
+    getCellPoints(polydata, cellId, idList, pt0, pt1, pt2);
+    return fromPoints(pt0, pt1, pt2);
   }
 
   /**
@@ -225,33 +231,15 @@ public abstract class CellInfo {
    * @param polydata
    * @param cellId
    * @param idList
-   * @param CACHE_CELLINFO add this cell to the cached map
+   * @param CACHE_CELLINFO ignored
    * @return
+   * @deprecated the global cache has been removed. Use
+   *             {@link #getCellInfo(vtkPolyData, long, vtkIdList)} or {@link FacetAttributes}.
    */
-  public static synchronized CellInfo getCellInfo(vtkPolyData polydata, long cellId,
-      vtkIdList idList, boolean CACHE_CELLINFO) {
-    HashMap<Long, CellInfo> ciMap = completeMap.get(polydata);
-    if (ciMap == null) {
-      ciMap = new HashMap<>();
-      if (CACHE_CELLINFO)
-        completeMap.put(polydata, ciMap);
-    }
-
-    CellInfo ci = ciMap.get(cellId);
-    if (ci == null) {
-      double[] pt0 = new double[3];
-      double[] pt1 = new double[3];
-      double[] pt2 = new double[3];
-      getCellPoints(polydata, cellId, idList, pt0, pt1, pt2);
-      ci = fromPoints(pt0, pt1, pt2);
-
-      if (CACHE_CELLINFO)
-        ciMap.put(cellId, ci);
-    } else {
-      // need to populate idList as it is not cached
-      polydata.GetCellPoints(cellId, idList);
-    }
-    return ci;
+  @Deprecated
+  public static CellInfo getCellInfo(vtkPolyData polydata, long cellId, vtkIdList idList,
+      boolean CACHE_CELLINFO) {
+    return getCellInfo(polydata, cellId, idList);
   }
 
   /**
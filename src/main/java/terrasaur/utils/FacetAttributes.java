@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import java.util.stream.IntStream;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import vtk.vtkPolyData;
+
+/**
+ * Immutable table of per-facet attributes for a triangular mesh, stored as a structure of arrays
+ * indexed by cell id. The table is built once, in parallel, and may be read from any number of
+ * threads without locking. The attributes are defined as in {@link CellInfo}.
+ * 
+ * @author Hari.Nair@jhuapl.edu
+ *
+ */
+public class FacetAttributes {
+
+  private final int numFacets;
+
+  /** three values per facet */
+  private final double[] centers;
+
+  /** three values per facet */
+  private final double[] normals;
+
+  private final double[] areas;
+
+  /** degrees */
+  private final float[] latitudes;
+
+  /** degrees, 0 to 360 */
+  private final float[] longitudes;
+
+  /** degrees */
+  private final float[] tilts;
+
+  /** degrees */
+  private final float[] tiltDirections;
+
+  /**
+   * Build the table.
+   * 
+   * @param vertices vertex coordinates packed as x0, y0, z0, x1, y1, z1...
+   * @param triangles vertex indices packed as i0, j0, k0, i1, j1, k1...
+   */
+  public FacetAttributes(double[] vertices, int[] triangles) {
+    numFacets = triangles.length / 3;
+    centers = new double[3 * numFacets];
+    normals = new double[3 * numFacets];
+    areas = new double[numFacets];
+    latitudes = new float[numFacets];
+    longitudes = new float[numFacets];
+    tilts = new float[numFacets];
+    tiltDirections = new float[numFacets];
+
+    IntStream.range(0, numFacets).parallel().forEach(i -> compute(i, vertices, triangles));
+  }
+
+  /**
+   * @param polyData shape model
+   * @return table of attributes for each cell of polyData
+   */
+  public static FacetAttributes fromPolyData(vtkPolyData polyData) {
+    return new FacetAttributes(PolyDataUtil.getPackedVertices(polyData),
+        PolyDataUtil.getPackedTriangles(polyData));
+  }
+
+  private void compute(int i, double[] vertices, int[] triangles) {
+    int i1 = 3 * triangles[3 * i];
+    int i2 = 3 * triangles[3 * i + 1];
+    int i3 = 3 * triangles[3 * i + 2];
+
+    Vector3D v1 = new Vector3D(vertices[i1], vertices[i1 + 1], vertices[i1 + 2]);
+    Vector3D v2 = new Vector3D(vertices[i2], vertices[i2 + 1], vertices[i2 + 2]);
+    Vector3D v3 = new Vector3D(vertices[i3], vertices[i3 + 1], vertices[i3 + 2]);
+
+    // same definitions as TriangularFacet
+    Vector3D center = new Vector3D(1. / 3, v1, 1. / 3, v2, 1. / 3, v3);
+    Vector3D cross = v3.subtract(v2).crossProduct(v1.subtract(v2));
+    Vector3D normal = cross.getNorm() > 0 ? cross.normalize() : Vector3D.ZERO;
+
+    double a = v2.distanceSq(v1);
+    double b = v3.distanceSq(v2);
+    double c = v1.distanceSq(v3);
+    double area = 0.25 * Math.sqrt(Math.abs(4.0 * a * c - (a - b + c) * (a - b + c)));
+
+    double longitude = Math.toDegrees(center.getAlpha());
+    if (longitude < 0)
+      longitude += 360;
+
+    centers[3 * i] = center.getX();
+    centers[3 * i + 1] = center.getY();
+    centers[3 * i + 2] = center.getZ();
+    normals[3 * i] = normal.getX();
+    normals[3 * i + 1] = normal.getY();
+    normals[3 * i + 2] = normal.getZ();
+    areas[i] = area;
+    latitudes[i] = (float) Math.toDegrees(center.getDelta());
+    longitudes[i] = (float) longitude;
+    if (normal.equals(Vector3D.ZERO) || center.equals(Vector3D.ZERO)) {
+      // degenerate facet
+      tilts[i] = Float.NaN;
+      tiltDirections[i] = Float.NaN;
+    } else {
+      tilts[i] = (float) CellInfo.tiltDeg(center, normal);
+      tiltDirections[i] = (float) CellInfo.tiltDirDeg(longitude, normal);
+    }
+  }
+
+  /** @return number of facets in the table */
+  public int size() {
+    return numFacets;
+  }
+
+  /**
+   * @param cellId
+   * @return facet center, the average of its three vertices
+   */
+  public Vector3D getCenter(long cellId) {
+    int i = 3 * (int) cellId;
+    return new Vector3D(centers[i], centers[i + 1], centers[i + 2]);
+  }
+
+  /**
+   * @param cellId
+   * @param center facet center is returned in the first three elements
+   */
+  public void getCenter(long cellId, double[] center) {
+    System.arraycopy(centers, 3 * (int) cellId, center, 0, 3);
+  }
+
+  /**
+   * @param cellId
+   * @return unitized cross product of (v3-v2)x(v1-v2)
+   */
+  public Vector3D getNormal(long cellId) {
+    int i = 3 * (int) cellId;
+    return new Vector3D(normals[i], normals[i + 1], normals[i + 2]);
+  }
+
+  /**
+   * @param cellId
+   * @param normal facet normal is returned in the first three elements
+   */
+  public void getNormal(long cellId, double[] normal) {
+    System.arraycopy(normals, 3 * (int) cellId, normal, 0, 3);
+  }
+
+  public double getArea(long cellId) {
+    return areas[(int) cellId];
+  }
+
+  /** @return latitude of the facet center in degrees */
+  public double getLatitude(long cellId) {
+    return latitudes[(int) cellId];
+  }
+
+  /** @return longitude of the facet center in degrees, between 0 and 360 */
+  public double getLongitude(long cellId) {
+    return longitudes[(int) cellId];
+  }
+
+  /** @return distance of the facet center from the origin */
+  public double getRadius(long cellId) {
+    int i = 3 * (int) cellId;
+    double x = centers[i];
+    double y = centers[i + 1];
+    double z = centers[i + 2];
+    return Math.sqrt(x * x + y * y + z * z);
+  }
+
+  /**
+   * @return angle between normal and radial in degrees, see
+   *         {@link CellInfo#tiltDeg(Vector3D, Vector3D)}
+   */
+  public double getTilt(long cellId) {
+    return tilts[(int) cellId];
+  }
+
+  /** @return tilt direction in degrees, see {@link CellInfo#tiltDirDeg(double, Vector3D)} */
+  public double getTiltDirection(long cellId) {
+    return tiltDirections[(int) cellId];
+  }
+
+  /**
+   * @return radius of a circle enclosing an equilateral triangle with an area equal to this
+   *         facet's area
+   */
+  public double getCircumscribingRadius(long cellId) {
+    return Math.sqrt(4 / (3 * Math.sqrt(3)) * areas[(int) cellId]);
+  }
+
+}
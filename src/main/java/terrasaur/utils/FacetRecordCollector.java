@@ -0,0 +1,272 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects text records keyed by facet index with bounded memory. Records are buffered until a
+ * byte budget is reached, then sorted by facet and written to a temporary binary run file. When
+ * all records have been added, the runs are merged and returned in facet order. Records for the
+ * same facet are returned in the order they were added.
+ *
+ * <p>Each run is a sequence of entries, each an int facet index, an int byte count, and the UTF-8
+ * bytes of the record. Temporary files are removed by {@link #close()}.
+ *
+ * <p>This class is not thread safe.
+ *
+ * @author Hari.Nair@jhuapl.edu
+ */
+public class FacetRecordCollector implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger();
+
+  /** largest byte array most JVMs will allocate, and so the largest in-memory budget */
+  static final int MAX_BUFFER_BYTES = Integer.MAX_VALUE - 8;
+
+  /** Receives records in facet order */
+  @FunctionalInterface
+  public interface RecordConsumer {
+    /**
+     * @param facet facet index
+     * @param record record as added
+     */
+    void accept(int facet, String record) throws IOException;
+  }
+
+  private final long maxBufferBytes;
+  private final File tmpDir;
+  private final List<File> runs;
+
+  // buffered records: facet, start and length of each record in bytes
+  private int[] facets;
+  private int[] offsets;
+  private int[] lengths;
+  private byte[] bytes;
+  private int numRecords;
+  private int numBytes;
+  private long totalRecords;
+
+  /**
+   * @param maxBufferBytes approximate number of bytes to hold in memory before writing a run.
+   *     Values larger than {@link #MAX_BUFFER_BYTES} are reduced to it.
+   * @param tmpDir directory for temporary files, or null for the system default
+   * @throws IOException if the temporary directory cannot be created
+   */
+  public FacetRecordCollector(long maxBufferBytes, File tmpDir) throws IOException {
+    if (maxBufferBytes > MAX_BUFFER_BYTES)
+      logger.warn("Buffer size of {} bytes is too large, using {} bytes", maxBufferBytes,
+          MAX_BUFFER_BYTES);
+    this.maxBufferBytes = Math.max(1024, Math.min(MAX_BUFFER_BYTES, maxBufferBytes));
+    this.tmpDir =
+        tmpDir == null
+            ? Files.createTempDirectory("facetRecords").toFile()
+            : Files.createTempDirectory(tmpDir.toPath(), "facetRecords").toFile();
+    this.runs = new ArrayList<>();
+    facets = new int[1024];
+    offsets = new int[1024];
+    lengths = new int[1024];
+    bytes = new byte[64 * 1024];
+  }
+
+  /** @return number of records added */
+  public long size() {
+    return totalRecords;
+  }
+
+  /** @return number of bytes held in memory before a run is written */
+  long getMaxBufferBytes() {
+    return maxBufferBytes;
+  }
+
+  /**
+   * @param capacity current size of the byte buffer
+   * @param needed number of bytes the buffer must hold
+   * @return new size of the byte buffer, doubling where possible without exceeding
+   *     {@link #MAX_BUFFER_BYTES}
+   */
+  static int newCapacity(int capacity, int needed) {
+    return (int) Math.min(MAX_BUFFER_BYTES, Math.max(2L * capacity, needed));
+  }
+
+  /** @return number of runs written to disk so far */
+  public int getNumberOfRuns() {
+    return runs.size();
+  }
+
+  /**
+   * @param facet facet index, must be non-negative
+   * @param record text to store
+   * @throws IOException if a run cannot be written
+   */
+  public void add(int facet, String record) throws IOException {
+    byte[] encoded = record.getBytes(StandardCharsets.UTF_8);
+    if (numRecords > 0 && (long) numBytes + encoded.length + 12L * numRecords > maxBufferBytes)
+      spill();
+
+    if (numRecords == facets.length) {
+      int newLength = 2 * facets.length;
+      facets = Arrays.copyOf(facets, newLength);
+      offsets = Arrays.copyOf(offsets, newLength);
+      lengths = Arrays.copyOf(lengths, newLength);
+    }
+    // the spill check keeps numBytes + encoded.length within maxBufferBytes unless this is the
+    // only record
+    if ((long) numBytes + encoded.length > bytes.length)
+      bytes = Arrays.copyOf(bytes, newCapacity(bytes.length, numBytes + encoded.length));
+
+    System.arraycopy(encoded, 0, bytes, numBytes, encoded.length);
+    facets[numRecords] = facet;
+    offsets[numRecords] = numBytes;
+    lengths[numRecords] = encoded.length;
+    numRecords++;
+    numBytes += encoded.length;
+    totalRecords++;
+  }
+
+  /** @return indices of the buffered records sorted by facet, then by insertion order */
+  private int[] sortedOrder() {
+    long[] keys = new long[numRecords];
+    for (int i = 0; i < numRecords; i++) keys[i] = ((long) facets[i] << 32) | i;
+    Arrays.sort(keys);
+    int[] order = new int[numRecords];
+    for (int i = 0; i < numRecords; i++) order[i] = (int) keys[i];
+    return order;
+  }
+
+  /** Write the buffered records to a new run file */
+  private void spill() throws IOException {
+    File run = new File(tmpDir, String.format("run%05d.bin", runs.size()));
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+      for (int i : sortedOrder()) {
+        out.writeInt(facets[i]);
+        out.writeInt(lengths[i]);
+        out.write(bytes, offsets[i], lengths[i]);
+      }
+    }
+    runs.add(run);
+    logger.debug("Wrote {} records ({} bytes) to {}", numRecords, numBytes, run.getPath());
+    numRecords = 0;
+    numBytes = 0;
+  }
+
+  /** Sequential reader over one run */
+  private static class RunReader implements Closeable {
+    private final int index;
+    private final DataInputStream in;
+    private int facet;
+    private String record;
+
+    private RunReader(int index, File file) throws IOException {
+      this.index = index;
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    /** @return false if the run is exhausted */
+    private boolean next() throws IOException {
+      try {
+        facet = in.readInt();
+      } catch (EOFException e) {
+        return false;
+      }
+      byte[] b = new byte[in.readInt()];
+      in.readFully(b);
+      record = new String(b, StandardCharsets.UTF_8);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Pass every record to consumer in facet order. Records for the same facet are passed in the
+   * order they were added. No more records may be added after this is called.
+   *
+   * @param consumer record consumer
+   * @throws IOException if the runs cannot be read
+   */
+  public void merge(RecordConsumer consumer) throws IOException {
+    if (runs.isEmpty()) {
+      // everything fit in memory
+      for (int i : sortedOrder()) {
+        String record = new String(bytes, offsets[i], lengths[i], StandardCharsets.UTF_8);
+        consumer.accept(facets[i], record);
+      }
+      return;
+    }
+
+    if (numRecords > 0) spill();
+    logger.debug("Merging {} records from {} runs", totalRecords, runs.size());
+
+    // earlier runs hold earlier records, so break ties on run index
+    PriorityQueue<RunReader> queue =
+        new PriorityQueue<>(
+            (a, b) -> a.facet != b.facet ? Integer.compare(a.facet, b.facet) : a.index - b.index);
+    List<RunReader> readers = new ArrayList<>();
+    try {
+      for (int i = 0; i < runs.size(); i++) {
+        RunReader reader = new RunReader(i, runs.get(i));
+        readers.add(reader);
+        if (reader.next()) queue.add(reader);
+      }
+      while (!queue.isEmpty()) {
+        RunReader reader = queue.poll();
+        consumer.accept(reader.facet, reader.record);
+        if (reader.next()) queue.add(reader);
+      }
+    } finally {
+      for (RunReader reader : readers) reader.close();
+    }
+  }
+
+  /** Delete temporary files */
+  @Override
+  public void close() {
+    for (File run : runs) {
+      if (!run.delete()) logger.warn("Could not delete {}", run.getPath());
+    }
+    runs.clear();
+    if (!tmpDir.delete()) logger.warn("Could not delete {}", tmpDir.getPath());
+  }
+}
@@ -22,17 +22,12 @@
  */
 package terrasaur.utils;
 
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.lang3.RandomStringUtils;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolatingFunction;
 import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolator;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
@@ -41,22 +36,22 @@ import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.SingularValueDecomposition;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.Pair;
-import nom.tam.fits.FitsException;
-import terrasaur.fits.FitsUtil;
 import spice.basic.LatitudinalCoordinates;
 import spice.basic.Matrix33;
 import spice.basic.SpiceException;
 import spice.basic.Vector3;
 
 /**
- * This class takes a 3D field as input, uses GMT to create a uniform grid on a local plane, and
- * then returns the field values at these uniform grid points.
+ * This class takes a 3D field as input, uses a {@link SurfaceGridder} to create a uniform grid on a
+ * local plane, and then returns the field values at these uniform grid points.
  * 
  * @author nairah1
  *
  */
 public class GMTGridUtil {
 
+  private static final Pattern TENSION_ARG = Pattern.compile("-T[bi]?([-+.0-9eE]+)");
+
   private List<Vector3> pointsList;
   private List<Double> field;
   private Matrix33 rotation;
@@ -65,7 +60,7 @@ public class GMTGridUtil {
   private int halfSize;
   private int nX, nY;
   private double groundSampleDistance;
-  private String additionalGMTArgs;
+  private double tension;
   private List<Vector3> globalXYZ;
   private List<Vector3> evaluateXYZ;
   private boolean evaluateAtCustomPoints;
@@ -85,7 +80,7 @@ public class GMTGridUtil {
     checkDimensions();
     this.groundSampleDistance = groundSampleDistance;
     this.evaluateAtCustomPoints = false;
-    this.additionalGMTArgs = "";
+    this.tension = 0;
   }
 
   /**
@@ -100,7 +95,7 @@ public class GMTGridUtil {
     this.nY = halfSize * 2 + 1;
     this.groundSampleDistance = groundSampleDistance;
     this.evaluateAtCustomPoints = false;
-    this.additionalGMTArgs = "";
+    this.tension = 0;
   }
 
   private void checkDimensions() {
@@ -113,8 +108,29 @@ public class GMTGridUtil {
     }
   }
 
+  /**
+   * @param tension surface tension between 0 (minimum curvature) and 1 (harmonic surface)
+   */
+  public void setTension(double tension) {
+    this.tension = tension;
+  }
+
+  /**
+   * Accepts the arguments formerly passed to GMTSurface. Only the tension option (-T) is
+   * supported, other arguments are ignored with a warning.
+   * 
+   * @param args
+   */
   public void setGMTArgs(String args) {
-    additionalGMTArgs = args;
+    for (String arg : args.trim().split("\\s+")) {
+      if (arg.isEmpty())
+        continue;
+      Matcher m = TENSION_ARG.matcher(arg);
+      if (m.lookingAt())
+        setTension(Double.parseDouble(m.group(1)));
+      else
+        System.err.printf("Warning: ignoring unsupported GMT argument %s\n", arg);
+    }
   }
 
   /**
@@ -297,135 +313,112 @@ public class GMTGridUtil {
 
   /**
    * Field positions from the pointsList are transformed to a local plane coordinate system and
-   * regridded with GMTSurface. These points are then transformed back to the global coordinate
-   * system.
+   * regridded with a {@link SurfaceGridder}. These points are then transformed back to the global
+   * coordinate system.
    * <p>
-   * GMTSurface is run twice. Once with the field value substituted for z, and one with the
-   * transformed x, y, z to allow transforming back from the local plane to global coordinates.
+   * The field is gridded twice. Once with the field value substituted for z, and once with the
+   * transformed z to allow transforming back from the local plane to global coordinates. Both use
+   * the same data locations, so the gridder is only set up once.
    * 
    * @return a double array of dimensions[7][nX][nY]. First six indices are Lat, Lon, Radius, X, Y,
    *         and Z. Last index is the field value at that position.
    * @throws SpiceException
-   * @throws IOException
-   * @throws InterruptedException
-   * @throws FitsException
    */
-  public double[][][] regridField()
-      throws SpiceException, IOException, InterruptedException, FitsException {
-
-    File tmpDir = new File(String.format("GMT-%d", System.currentTimeMillis()));
-    if (!tmpDir.exists())
-      tmpDir.mkdirs();
-    tmpDir.deleteOnExit();
+  public double[][][] regridField() throws SpiceException {
 
     List<Vector3> transformed = globalToLocal(pointsList);
     double xmin = Double.MAX_VALUE;
     double xmax = -xmin;
     double ymin = Double.MAX_VALUE;
     double ymax = -xmin;
-    for (Vector3 point : transformed) {
-      try {
-        double x = point.getElt(0);
-        double y = point.getElt(1);
-        if (x > xmax)
-          xmax = x;
-        if (x < xmin)
-          xmin = x;
-        if (y > ymax)
-          ymax = y;
-        if (y < ymin)
-          ymin = y;
-      } catch (SpiceException e) {
-        e.printStackTrace();
-      }
-    }
-
-    System.out.printf("Data extents %f/%f/%f/%f\n", xmin, xmax, ymin, ymax);
-
-    ArrayList<Vector3> inputField = new ArrayList<>();
+    double[] x = new double[transformed.size()];
+    double[] y = new double[transformed.size()];
+    double[] z = new double[transformed.size()];
+    double[] f = new double[transformed.size()];
     for (int i = 0; i < transformed.size(); i++) {
       Vector3 point = transformed.get(i);
-      Double value = field.get(i);
-      inputField.add(new Vector3(point.getElt(0), point.getElt(1), value));
+      x[i] = point.getElt(0);
+      y[i] = point.getElt(1);
+      z[i] = point.getElt(2);
+      f[i] = field.get(i);
+      if (x[i] > xmax)
+        xmax = x[i];
+      if (x[i] < xmin)
+        xmin = x[i];
+      if (y[i] > ymax)
+        ymax = y[i];
+      if (y[i] < ymin)
+        ymin = y[i];
     }
 
-    xmax = (evaluateAtCustomPoints ? (halfSize + 1) : halfSize) * groundSampleDistance;
-    xmin = -xmax;
-    ymin = xmin;
-    ymax = xmax;
-
-    // create a random 8 character string
-    String name = RandomStringUtils.randomAlphabetic(8);
-    String inputGMT = new File(tmpDir, name + "_gmt-input.bin").getPath();
-    String outputNetCDF = new File(tmpDir, name + "_surface-output.grd").getPath();
-    String outputFITS = new File(tmpDir, name + "_surface-output.fits").getPath();
-    writeBinaryGMTInput(inputField, inputGMT);
-
-    String command = String.format("GMTSurface %s %12.8f %f/%f/%f/%f %s %s %s", inputGMT,
-        groundSampleDistance, xmin, xmax, ymin, ymax, outputNetCDF, outputFITS, additionalGMTArgs);
-
-    ProcessUtils.runProgramAndWait(command, null, true);
+    System.out.printf("Data extents %f/%f/%f/%f\n", xmin, xmax, ymin, ymax);
 
-    DescriptiveStatistics xStats = new DescriptiveStatistics();
-    DescriptiveStatistics yStats = new DescriptiveStatistics();
+    int gridHalfSize = evaluateAtCustomPoints ? (halfSize + 1) : halfSize;
+    double gridMin = -gridHalfSize * groundSampleDistance;
+    SurfaceGridder gridder = new SurfaceGridder(gridMin, gridMin, groundSampleDistance,
+        2 * gridHalfSize + 1, 2 * gridHalfSize + 1);
+    gridder.setTension(tension);
+    gridder.setPoints(x, y);
+    double[] gridX = gridder.getX();
+    double[] gridY = gridder.getY();
 
-    List<Vector3> surfaceField = new ArrayList<>();
-    PiecewiseBicubicSplineInterpolatingFunction interpolator =
-        readGMTFits(outputFITS, surfaceField, xStats, yStats);
+    double[][] fieldGrid = gridder.grid(f);
 
     if (globalXYZ == null) {
       if (evaluateAtCustomPoints) {
         globalXYZ = evaluateXYZ;
       } else {
-        name = "height";
-        inputGMT = new File(tmpDir, name + "_gmt-input.bin").getPath();
-        outputNetCDF = new File(tmpDir, name + "_surface-output.grd").getPath();
-        outputFITS = new File(tmpDir, name + "_surface-output.fits").getPath();
-        writeBinaryGMTInput(transformed, inputGMT);
-
-        command = String.format("GMTSurface %s %12.8f %f/%f/%f/%f %s %s %s", inputGMT,
-            groundSampleDistance, xmin, xmax, ymin, ymax, outputNetCDF, outputFITS,
-            additionalGMTArgs);
-        ProcessUtils.runProgramAndWait(command, null, false);
-
+        double[][] heightGrid = gridder.grid(z);
         List<Vector3> surfaceXYZ = new ArrayList<>();
-        readGMTFits(outputFITS, surfaceXYZ, xStats, yStats);
+        for (int n = 0; n < gridX.length; n++)
+          for (int m = 0; m < gridY.length; m++)
+            surfaceXYZ.add(new Vector3(gridX[n], gridY[m], heightGrid[n][m]));
 
         globalXYZ = localToGlobal(surfaceXYZ);
       }
     }
 
+    List<Vector3> surfaceField = new ArrayList<>();
     if (evaluateAtCustomPoints) {
-      surfaceField = new ArrayList<>();
+      PiecewiseBicubicSplineInterpolatingFunction interpolator =
+          new PiecewiseBicubicSplineInterpolator().interpolate(gridX, gridY, fieldGrid);
+      double gridXMin = gridX[0];
+      double gridXMax = gridX[gridX.length - 1];
+      double gridYMin = gridY[0];
+      double gridYMax = gridY[gridY.length - 1];
       List<Vector3> transformedEvaluationPoints = globalToLocal(evaluateXYZ);
       for (Vector3 transformedEvaluationPoint : transformedEvaluationPoints) {
-        double x = transformedEvaluationPoint.getElt(0);
-        if (x < xStats.getMin()) {
-          System.err.printf("Warning: x value %g outside range [%g, %g], setting to %g\n", x,
-              xStats.getMin(), xStats.getMax(), xStats.getMin());
-          x = xStats.getMin();
+        double px = transformedEvaluationPoint.getElt(0);
+        if (px < gridXMin) {
+          System.err.printf("Warning: x value %g outside range [%g, %g], setting to %g\n", px,
+              gridXMin, gridXMax, gridXMin);
+          px = gridXMin;
         }
-        if (x > xStats.getMax()) {
-          System.err.printf("Warning: x value %g outside range [%g, %g], setting to %g\n", x,
-              xStats.getMin(), xStats.getMax(), xStats.getMax());
-          x = xStats.getMax();
+        if (px > gridXMax) {
+          System.err.printf("Warning: x value %g outside range [%g, %g], setting to %g\n", px,
+              gridXMin, gridXMax, gridXMax);
+          px = gridXMax;
         }
 
-        double y = transformedEvaluationPoint.getElt(1);
-        if (y < yStats.getMin()) {
-          System.err.printf("Warning: y value %g outside range [%g, %g], setting to %g\n", y,
-              yStats.getMin(), yStats.getMax(), yStats.getMin());
-          y = yStats.getMin();
+        double py = transformedEvaluationPoint.getElt(1);
+        if (py < gridYMin) {
+          System.err.printf("Warning: y value %g outside range [%g, %g], setting to %g\n", py,
+              gridYMin, gridYMax, gridYMin);
+          py = gridYMin;
         }
-        if (y > yStats.getMax()) {
-          System.err.printf("Warning: y value %g outside range [%g, %g], setting to %g\n", y,
-              yStats.getMin(), yStats.getMax(), yStats.getMax());
-          y = yStats.getMax();
+        if (py > gridYMax) {
+          System.err.printf("Warning: y value %g outside range [%g, %g], setting to %g\n", py,
+              gridYMin, gridYMax, gridYMax);
+          py = gridYMax;
         }
 
-        double z = interpolator.value(x, y);
-        surfaceField.add(new Vector3(x, y, z));
+        double pz = interpolator.value(px, py);
+        surfaceField.add(new Vector3(px, py, pz));
       }
+    } else {
+      for (int n = 0; n < gridX.length; n++)
+        for (int m = 0; m < gridY.length; m++)
+          surfaceField.add(new Vector3(gridX[n], gridY[m], fieldGrid[n][m]));
     }
 
     /*-
@@ -610,65 +603,4 @@ public class GMTGridUtil {
     return transformed;
   }
 
-  private void writeBinaryGMTInput(Collection<Vector3> points, String filename) {
-    try (DataOutputStream os =
-        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
-      for (Vector3 point : points) {
-        for (int i = 0; i < 3; i++)
-          BinaryUtils.writeDoubleAndSwap(os, point.getElt(i));
-        // GMTSurface expects 4 column
-        BinaryUtils.writeDoubleAndSwap(os, 1.);
-      }
-
-    } catch (IOException | SpiceException e) {
-      e.printStackTrace();
-    }
-  }
-
-  private static PiecewiseBicubicSplineInterpolatingFunction readGMTFits(String fitsFile,
-      List<Vector3> points, DescriptiveStatistics xStats, DescriptiveStatistics yStats)
-      throws FitsException, IOException {
-    int[] axes = new int[3];
-
-    // load data from fits file
-    double[][][] data = FitsUtil.loadFits(fitsFile, axes);
-
-    // indices into x,y,z components of position vector of fits file data array
-    int xIndex = 3;
-    int yIndex = 4;
-    int zIndex = 5;
-
-    int numCols = axes[1];
-    int numRows = axes[2];
-
-    double[] x = new double[numCols];
-    double[] y = new double[numRows];
-    double[][] z = new double[numCols][numRows];
-
-    xStats.clear();
-    yStats.clear();
-
-    for (int n = 0; n < numCols; ++n) {
-      for (int m = 0; m < numRows; ++m) {
-        if (m == 0) {
-          x[n] = data[xIndex][m][n];
-          xStats.addValue(x[n]);
-        }
-        if (n == 0) {
-          y[m] = data[yIndex][m][n];
-          yStats.addValue(y[m]);
-        }
-        z[n][m] = data[zIndex][m][n];
-        Vector3 thisPoint = new Vector3(x[n], y[m], z[n][m]);
-        points.add(thisPoint);
-
-        // System.out.printf("%d %d %s\n", m, n, thisPoint);
-      }
-    }
-
-    PiecewiseBicubicSplineInterpolator interpolator = new PiecewiseBicubicSplineInterpolator();
-    return interpolator.interpolate(x, y, z);
-  }
-
-
 }
@@ -0,0 +1,375 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A static, balanced 3D k-d tree over a set of points. The tree is implicit: the points are
+ * reordered so that the median of each range is the splitting point of that node, and only the
+ * split axis of each node is stored. Queries do not modify the tree, so an instance may be shared
+ * between threads.
+ * 
+ * @author Hari.Nair@jhuapl.edu
+ *
+ */
+public class KdTree {
+
+  /** ranges this small are scanned linearly */
+  private static final int LEAF_SIZE = 8;
+
+  /** packed coordinates in tree order */
+  private final double[] points;
+
+  /** original index of each point in tree order */
+  private final int[] ids;
+
+  /** split axis of the node whose median is at this position */
+  private final byte[] axes;
+
+  /** bounding box of all points as xmin, xmax, ymin, ymax, zmin, zmax */
+  private final double[] bounds;
+
+  /**
+   * Build the tree.
+   * 
+   * @param packedPoints point coordinates packed as x0, y0, z0, x1, y1, z1...
+   */
+  public KdTree(double[] packedPoints) {
+    int n = packedPoints.length / 3;
+    points = packedPoints.clone();
+    ids = new int[n];
+    for (int i = 0; i < n; i++)
+      ids[i] = i;
+    axes = new byte[n];
+    bounds = new double[] {Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE,
+        -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int i = 0; i < n; i++) {
+      for (int k = 0; k < 3; k++) {
+        bounds[2 * k] = Math.min(bounds[2 * k], points[3 * i + k]);
+        bounds[2 * k + 1] = Math.max(bounds[2 * k + 1], points[3 * i + k]);
+      }
+    }
+    build(0, n);
+  }
+
+  /** @return number of points in the tree */
+  public int size() {
+    return ids.length;
+  }
+
+  private void build(int lo, int hi) {
+    if (hi - lo <= LEAF_SIZE)
+      return;
+
+    // split along the axis with the largest extent
+    double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+    double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int i = lo; i < hi; i++) {
+      for (int k = 0; k < 3; k++) {
+        double v = points[3 * i + k];
+        if (v < min[k])
+          min[k] = v;
+        if (v > max[k])
+          max[k] = v;
+      }
+    }
+    int axis = 0;
+    for (int k = 1; k < 3; k++)
+      if (max[k] - min[k] > max[axis] - min[axis])
+        axis = k;
+
+    int mid = (lo + hi) >>> 1;
+    select(lo, hi - 1, mid, axis);
+    axes[mid] = (byte) axis;
+
+    build(lo, mid);
+    build(mid + 1, hi);
+  }
+
+  /** partially sort [lo, hi] along axis so that position k holds the k-th smallest value */
+  private void select(int lo, int hi, int k, int axis) {
+    while (hi > lo) {
+      double pivot = points[3 * ((lo + hi) >>> 1) + axis];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (points[3 * i + axis] < pivot)
+          i++;
+        while (points[3 * j + axis] > pivot)
+          j--;
+        if (i <= j)
+          swap(i++, j--);
+      }
+      if (k <= j)
+        hi = j;
+      else if (k >= i)
+        lo = i;
+      else
+        return;
+    }
+  }
+
+  private void swap(int i, int j) {
+    for (int k = 0; k < 3; k++) {
+      double tmp = points[3 * i + k];
+      points[3 * i + k] = points[3 * j + k];
+      points[3 * j + k] = tmp;
+    }
+    int tmp = ids[i];
+    ids[i] = ids[j];
+    ids[j] = tmp;
+  }
+
+  private double distanceSquared(int i, double x, double y, double z) {
+    double dx = points[3 * i] - x;
+    double dy = points[3 * i + 1] - y;
+    double dz = points[3 * i + 2] - z;
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  /**
+   * Call consumer with the index of each point within radius of (x, y, z). Points are not returned
+   * in any particular order.
+   * 
+   * @param x
+   * @param y
+   * @param z
+   * @param radius
+   * @param consumer
+   */
+  public void findWithinRadius(double x, double y, double z, double radius, IntConsumer consumer) {
+    findWithinRadius(0, ids.length, x, y, z, radius, radius * radius, consumer);
+  }
+
+  private void findWithinRadius(int lo, int hi, double x, double y, double z, double radius,
+      double radius2, IntConsumer consumer) {
+    if (hi - lo <= LEAF_SIZE) {
+      for (int i = lo; i < hi; i++)
+        if (distanceSquared(i, x, y, z) <= radius2)
+          consumer.accept(ids[i]);
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    int axis = axes[mid];
+    double diff = (axis == 0 ? x : (axis == 1 ? y : z)) - points[3 * mid + axis];
+    if (distanceSquared(mid, x, y, z) <= radius2)
+      consumer.accept(ids[mid]);
+    if (diff <= radius)
+      findWithinRadius(lo, mid, x, y, z, radius, radius2, consumer);
+    if (diff >= -radius)
+      findWithinRadius(mid + 1, hi, x, y, z, radius, radius2, consumer);
+  }
+
+  /**
+   * Call consumer with the index of each point inside a circular cone. Points are not returned in
+   * any particular order.
+   * 
+   * @param apex cone apex
+   * @param axis cone axis, need not be a unit vector
+   * @param halfAngle angle between the axis and the surface of the cone, in radians. Must be less
+   *        than pi/2.
+   * @param consumer
+   */
+  public void findWithinCone(double[] apex, double[] axis, double halfAngle,
+      IntConsumer consumer) {
+    if (ids.length == 0)
+      return;
+    double norm = Math.sqrt(axis[0] * axis[0] + axis[1] * axis[1] + axis[2] * axis[2]);
+    double[] unit = {axis[0] / norm, axis[1] / norm, axis[2] / norm};
+    findWithinCone(0, ids.length, bounds.clone(), apex, unit, halfAngle, Math.cos(halfAngle),
+        consumer);
+  }
+
+  private void findWithinCone(int lo, int hi, double[] box, double[] apex, double[] axis,
+      double halfAngle, double cosHalfAngle, IntConsumer consumer) {
+    if (!boxIntersectsCone(box, apex, axis, halfAngle))
+      return;
+    if (hi - lo <= LEAF_SIZE) {
+      for (int i = lo; i < hi; i++)
+        if (isInCone(i, apex, axis, cosHalfAngle))
+          consumer.accept(ids[i]);
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    int split = axes[mid];
+    if (isInCone(mid, apex, axis, cosHalfAngle))
+      consumer.accept(ids[mid]);
+
+    double[] lower = box.clone();
+    lower[2 * split + 1] = points[3 * mid + split];
+    findWithinCone(lo, mid, lower, apex, axis, halfAngle, cosHalfAngle, consumer);
+
+    double[] upper = box;
+    upper[2 * split] = points[3 * mid + split];
+    findWithinCone(mid + 1, hi, upper, apex, axis, halfAngle, cosHalfAngle, consumer);
+  }
+
+  private boolean isInCone(int i, double[] apex, double[] axis, double cosHalfAngle) {
+    double dx = points[3 * i] - apex[0];
+    double dy = points[3 * i + 1] - apex[1];
+    double dz = points[3 * i + 2] - apex[2];
+    double dot = dx * axis[0] + dy * axis[1] + dz * axis[2];
+    if (dot < 0)
+      return false;
+    return dot * dot >= cosHalfAngle * cosHalfAngle * (dx * dx + dy * dy + dz * dz);
+  }
+
+  /** conservative test using the bounding sphere of the box */
+  private static boolean boxIntersectsCone(double[] box, double[] apex, double[] axis,
+      double halfAngle) {
+    double cx = 0.5 * (box[0] + box[1]) - apex[0];
+    double cy = 0.5 * (box[2] + box[3]) - apex[1];
+    double cz = 0.5 * (box[4] + box[5]) - apex[2];
+    double ex = box[1] - box[0];
+    double ey = box[3] - box[2];
+    double ez = box[5] - box[4];
+    double radius = 0.5 * Math.sqrt(ex * ex + ey * ey + ez * ez);
+    double dist = Math.sqrt(cx * cx + cy * cy + cz * cz);
+    if (dist <= radius)
+      return true;
+    double cosAngle = (cx * axis[0] + cy * axis[1] + cz * axis[2]) / dist;
+    double angle = Math.acos(Math.max(-1, Math.min(1, cosAngle)));
+    return angle <= halfAngle + Math.asin(radius / dist);
+  }
+
+  /**
+   * @param x
+   * @param y
+   * @param z
+   * @return index of the point closest to (x, y, z), or -1 if the tree is empty
+   */
+  public int findNearest(double x, double y, double z) {
+    int[] nearest = findNearest(x, y, z, 1);
+    return nearest.length == 0 ? -1 : nearest[0];
+  }
+
+  /**
+   * @param x
+   * @param y
+   * @param z
+   * @param k number of points to return
+   * @return indices of the k points closest to (x, y, z), sorted by increasing distance
+   */
+  public int[] findNearest(double x, double y, double z, int k) {
+    k = Math.min(k, ids.length);
+    Heap heap = new Heap(k);
+    findNearest(0, ids.length, x, y, z, heap);
+    return heap.sortedIds();
+  }
+
+  private void findNearest(int lo, int hi, double x, double y, double z, Heap heap) {
+    if (hi - lo <= LEAF_SIZE) {
+      for (int i = lo; i < hi; i++)
+        heap.offer(ids[i], distanceSquared(i, x, y, z));
+      return;
+    }
+    int mid = (lo + hi) >>> 1;
+    int axis = axes[mid];
+    double diff = (axis == 0 ? x : (axis == 1 ? y : z)) - points[3 * mid + axis];
+    heap.offer(ids[mid], distanceSquared(mid, x, y, z));
+
+    // search the side containing the query point first
+    if (diff < 0) {
+      findNearest(lo, mid, x, y, z, heap);
+      if (diff * diff < heap.bound())
+        findNearest(mid + 1, hi, x, y, z, heap);
+    } else {
+      findNearest(mid + 1, hi, x, y, z, heap);
+      if (diff * diff < heap.bound())
+        findNearest(lo, mid, x, y, z, heap);
+    }
+  }
+
+  /** bounded max-heap on squared distance */
+  private static class Heap {
+    private final int[] ids;
+    private final double[] dist2;
+    private int size;
+
+    private Heap(int capacity) {
+      ids = new int[capacity];
+      dist2 = new double[capacity];
+      size = 0;
+    }
+
+    /** @return squared distance a point must beat to enter the heap */
+    private double bound() {
+      return size < ids.length ? Double.MAX_VALUE : dist2[0];
+    }
+
+    private void offer(int id, double d2) {
+      if (ids.length == 0)
+        return;
+      if (size < ids.length) {
+        // sift up
+        int i = size++;
+        while (i > 0) {
+          int parent = (i - 1) / 2;
+          if (dist2[parent] >= d2)
+            break;
+          ids[i] = ids[parent];
+          dist2[i] = dist2[parent];
+          i = parent;
+        }
+        ids[i] = id;
+        dist2[i] = d2;
+      } else if (d2 < dist2[0]) {
+        siftDown(0, id, d2);
+      }
+    }
+
+    private void siftDown(int i, int id, double d2) {
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size)
+          break;
+        if (child + 1 < size && dist2[child + 1] > dist2[child])
+          child++;
+        if (dist2[child] <= d2)
+          break;
+        ids[i] = ids[child];
+        dist2[i] = dist2[child];
+        i = child;
+      }
+      ids[i] = id;
+      dist2[i] = d2;
+    }
+
+    private int[] sortedIds() {
+      int n = size;
+      int[] sorted = new int[n];
+      // repeatedly remove the largest element
+      for (int i = n - 1; i >= 0; i--) {
+        sorted[i] = ids[0];
+        int lastId = ids[size - 1];
+        double lastD2 = dist2[size - 1];
+        size--;
+        if (size > 0)
+          siftDown(0, lastId, lastD2);
+      }
+      return sorted;
+    }
+  }
+
+}
@@ -0,0 +1,657 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * Read and write Wavefront OBJ shape models as packed arrays.
+ *
+ * <p>The reader memory maps the file and parses it in parallel chunks split at line boundaries.
+ * Only vertex ("v") and face ("f") records are read. Texture and normal indices in face records
+ * ("f 1/2/3 ...") are ignored, and negative (relative) vertex indices are supported. All other
+ * records are skipped. Normal ("vn") and texture ("vt") records are not read, but {@link
+ * Mesh#hasNormalsOrTextures()} reports whether the file had any so that callers needing them can
+ * use another reader. {@link #readIfNoNormalsOrTextures(Path)} stops parsing at the first such
+ * record so those callers do not parse the file twice.
+ *
+ * <p>The writer formats vertices with the shortest decimal representation that reads back to the
+ * same double, and faces in the fixed width layout used by {@link
+ * PolyDataUtil#saveShapeModelAsOBJ(vtk.vtkPolyData, String)}. Blocks of lines are formatted in
+ * parallel and written in order through a large buffer.
+ *
+ * @author Hari.Nair@jhuapl.edu
+ */
+public class OBJCodec {
+
+  /** target size of a parse chunk in bytes */
+  private static final long CHUNK_BYTES = 32L << 20;
+
+  /** extra bytes mapped past the end of a chunk to finish its last line */
+  private static final int MAX_LINE_BYTES = 1 << 16;
+
+  /** number of lines formatted as one block when writing */
+  private static final int WRITE_BLOCK_LINES = 1 << 16;
+
+  /**
+   * Vertices and faces of a shape model. Faces are stored as a compressed sparse row table: the
+   * vertex indices of face i are faceVertices[faceOffsets[i]] to faceVertices[faceOffsets[i+1]-1].
+   * Vertex indices start at 0.
+   */
+  public static class Mesh {
+    private final double[] vertices;
+    private final int[] faceOffsets;
+    private final int[] faceVertices;
+    private final boolean hasNormalsOrTextures;
+
+    /**
+     * @param vertices vertex coordinates packed as x0, y0, z0, x1, y1, z1...
+     * @param faceOffsets start of each face in faceVertices, with one extra entry at the end
+     * @param faceVertices vertex indices of each face
+     */
+    public Mesh(double[] vertices, int[] faceOffsets, int[] faceVertices) {
+      this(vertices, faceOffsets, faceVertices, false);
+    }
+
+    private Mesh(
+        double[] vertices, int[] faceOffsets, int[] faceVertices, boolean hasNormalsOrTextures) {
+      this.vertices = vertices;
+      this.faceOffsets = faceOffsets;
+      this.faceVertices = faceVertices;
+      this.hasNormalsOrTextures = hasNormalsOrTextures;
+    }
+
+    /**
+     * @param vertices vertex coordinates packed as x0, y0, z0, x1, y1, z1...
+     * @param triangles vertex indices packed as i0, j0, k0, i1, j1, k1...
+     * @return mesh made of triangles
+     */
+    public static Mesh fromTriangles(double[] vertices, int[] triangles) {
+      int[] offsets = new int[triangles.length / 3 + 1];
+      for (int i = 0; i < offsets.length; i++) offsets[i] = 3 * i;
+      return new Mesh(vertices, offsets, triangles);
+    }
+
+    public int getNumberOfVertices() {
+      return vertices.length / 3;
+    }
+
+    public int getNumberOfFaces() {
+      return faceOffsets.length - 1;
+    }
+
+    /** @return vertex coordinates packed as x0, y0, z0, x1, y1, z1... */
+    public double[] getVertices() {
+      return vertices;
+    }
+
+    public int[] getFaceOffsets() {
+      return faceOffsets;
+    }
+
+    public int[] getFaceVertices() {
+      return faceVertices;
+    }
+
+    /**
+     * @return true if this mesh was read from a file with normal ("vn") or texture ("vt") records,
+     *     which are not part of the mesh
+     */
+    public boolean hasNormalsOrTextures() {
+      return hasNormalsOrTextures;
+    }
+
+    /** @return true if every face has three vertices */
+    public boolean isTriangular() {
+      return faceVertices.length == 3 * getNumberOfFaces()
+          && IntStream.range(0, getNumberOfFaces())
+              .allMatch(i -> faceOffsets[i + 1] - faceOffsets[i] == 3);
+    }
+  }
+
+  /** Growable array of ints */
+  private static class IntList {
+    private int[] data = new int[1024];
+    private int size;
+
+    private void add(int value) {
+      if (size == data.length) data = Arrays.copyOf(data, 2 * size);
+      data[size++] = value;
+    }
+  }
+
+  /** Growable array of doubles */
+  private static class DoubleList {
+    private double[] data = new double[3 * 1024];
+    private int size;
+
+    private void add(double value) {
+      if (size == data.length) data = Arrays.copyOf(data, 2 * size);
+      data[size++] = value;
+    }
+  }
+
+  /** Parse the lines beginning in one byte range of the file */
+  private static class ChunkParser {
+    private final ByteBuffer buffer;
+    private final long bufferStart;
+    private final int end;
+    private int pos;
+
+    private final DoubleList vertices = new DoubleList();
+    private final IntList faceSizes = new IntList();
+    private final IntList faceVertices = new IntList();
+
+    /** positions in faceVertices holding relative indices, which need the chunk vertex offset */
+    private final IntList relative = new IntList();
+
+    /** true if a "vn" or "vt" record was seen */
+    private boolean sawNormalsOrTextures;
+
+    /** if not null, set when a "vn" or "vt" record is seen and checked to stop early */
+    private final AtomicBoolean stop;
+
+    /**
+     * @param buffer mapped bytes
+     * @param bufferStart file position of the first byte in buffer
+     * @param start first byte to consider, in buffer coordinates. Parsing starts at the first line
+     *     beginning at or after this byte.
+     * @param end lines beginning at or after this byte, in buffer coordinates, belong to the next
+     *     chunk
+     * @param stop if not null, shared by all chunks to stop parsing once any of them sees a "vn"
+     *     or "vt" record
+     */
+    private ChunkParser(
+        ByteBuffer buffer, long bufferStart, int start, int end, AtomicBoolean stop) {
+      this.buffer = buffer;
+      this.bufferStart = bufferStart;
+      this.end = end;
+      this.pos = start;
+      this.stop = stop;
+    }
+
+    private IOException error(String message) {
+      return new IOException(String.format("%s at byte %d", message, bufferStart + pos));
+    }
+
+    private boolean isSpace(byte b) {
+      return b == ' ' || b == '\t';
+    }
+
+    private boolean isEndOfLine(byte b) {
+      return b == '\n' || b == '\r';
+    }
+
+    private void skipSpaces() {
+      while (pos < buffer.limit() && isSpace(buffer.get(pos))) pos++;
+    }
+
+    private void skipLine() {
+      while (pos < buffer.limit() && buffer.get(pos) != '\n') pos++;
+      pos++;
+    }
+
+    private boolean atEndOfLine() {
+      return pos >= buffer.limit() || isEndOfLine(buffer.get(pos));
+    }
+
+    private void parse(boolean alignToLine) throws IOException {
+      // start after the first newline unless the chunk starts a line
+      if (alignToLine && buffer.get(pos - 1) != '\n') skipLine();
+
+      while (pos < end) {
+        if (stop != null && stop.get()) return;
+        skipSpaces();
+        if (atEndOfLine()) {
+          skipLine();
+          continue;
+        }
+        byte b = buffer.get(pos);
+        if (pos + 1 < buffer.limit() && isSpace(buffer.get(pos + 1))) {
+          if (b == 'v') {
+            pos++;
+            for (int i = 0; i < 3; i++) vertices.add(parseDouble());
+          } else if (b == 'f') {
+            pos++;
+            parseFace();
+          }
+        } else if (b == 'v' && pos + 2 < buffer.limit() && isSpace(buffer.get(pos + 2))) {
+          byte c = buffer.get(pos + 1);
+          if (c == 'n' || c == 't') {
+            sawNormalsOrTextures = true;
+            if (stop != null) {
+              stop.set(true);
+              return;
+            }
+          }
+        }
+        skipLine();
+      }
+    }
+
+    private void parseFace() throws IOException {
+      int numVertices = 0;
+      int localVertices = vertices.size / 3;
+      while (true) {
+        skipSpaces();
+        if (atEndOfLine()) break;
+        long index = parseLong();
+        if (index > 0) {
+          faceVertices.add((int) (index - 1));
+        } else if (index < 0) {
+          relative.add(faceVertices.size);
+          faceVertices.add((int) (localVertices + index));
+        } else {
+          throw error("Vertex index 0 in face record");
+        }
+        numVertices++;
+        // skip texture and normal indices
+        while (pos < buffer.limit() && !isSpace(buffer.get(pos)) && !isEndOfLine(buffer.get(pos)))
+          pos++;
+      }
+      if (numVertices < 3) throw error("Face record with fewer than three vertices");
+      faceSizes.add(numVertices);
+    }
+
+    private long parseLong() throws IOException {
+      boolean negative = false;
+      if (pos < buffer.limit() && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+        negative = buffer.get(pos) == '-';
+        pos++;
+      }
+      int start = pos;
+      long value = 0;
+      while (pos < buffer.limit()) {
+        int digit = buffer.get(pos) - '0';
+        if (digit < 0 || digit > 9) break;
+        value = 10 * value + digit;
+        pos++;
+      }
+      if (pos == start) throw error("Expected an integer");
+      return negative ? -value : value;
+    }
+
+    private double parseDouble() throws IOException {
+      skipSpaces();
+      int start = pos;
+      boolean negative = false;
+      if (pos < buffer.limit() && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+        negative = buffer.get(pos) == '-';
+        pos++;
+      }
+
+      long mantissa = 0;
+      int numDigits = 0;
+      int exponent = 0;
+      boolean sawDigit = false;
+      boolean sawPoint = false;
+      boolean exact = true;
+      while (pos < buffer.limit()) {
+        byte b = buffer.get(pos);
+        if (b >= '0' && b <= '9') {
+          sawDigit = true;
+          if (mantissa != 0 || b != '0') numDigits++;
+          if (numDigits <= 18) {
+            mantissa = 10 * mantissa + (b - '0');
+            if (sawPoint) exponent--;
+          } else {
+            exact = false;
+            if (!sawPoint) exponent++;
+          }
+        } else if (b == '.' && !sawPoint) {
+          sawPoint = true;
+        } else {
+          break;
+        }
+        pos++;
+      }
+      if (pos < buffer.limit() && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+        pos++;
+        exponent += (int) parseLong();
+      }
+      if (!sawDigit || !(atEndOfLine() || isSpace(buffer.get(pos)))) {
+        // not a plain decimal number, e.g. NaN or Infinity
+        while (!atEndOfLine() && !isSpace(buffer.get(pos))) pos++;
+        return fallback(start);
+      }
+
+      // exact when the mantissa and the power of ten are both exactly representable
+      if (exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+        double value = (double) mantissa;
+        value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+      }
+      return fallback(start);
+    }
+
+    private double fallback(int start) throws IOException {
+      byte[] bytes = new byte[pos - start];
+      for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(start + i);
+      try {
+        return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+      } catch (NumberFormatException e) {
+        pos = start;
+        throw error("Cannot parse number");
+      }
+    }
+  }
+
+  private static final double[] POWERS_OF_TEN = new double[23];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+  }
+
+  private OBJCodec() {}
+
+  /**
+   * Read an OBJ file.
+   *
+   * @param path OBJ file
+   * @return vertices and faces
+   * @throws IOException if the file cannot be read or contains a malformed record
+   */
+  public static Mesh read(Path path) throws IOException {
+    return read(path, CHUNK_BYTES);
+  }
+
+  /**
+   * Read an OBJ file which has no normal ("vn") or texture ("vt") records. Parsing stops as soon as
+   * one is found, so a caller can switch to a reader which keeps them at little cost.
+   *
+   * @param path OBJ file
+   * @return vertices and faces, or null if the file has normal or texture records
+   * @throws IOException if the file cannot be read or contains a malformed record
+   */
+  public static Mesh readIfNoNormalsOrTextures(Path path) throws IOException {
+    return read(path, CHUNK_BYTES, true);
+  }
+
+  /**
+   * @param path OBJ file
+   * @param chunkBytes target size of each parse chunk
+   * @return vertices and faces
+   * @throws IOException
+   */
+  static Mesh read(Path path, long chunkBytes) throws IOException {
+    return read(path, chunkBytes, false);
+  }
+
+  /**
+   * @param path OBJ file
+   * @param chunkBytes target size of each parse chunk
+   * @param stopAtNormalsOrTextures if true, stop parsing and return null at the first "vn" or "vt"
+   *     record
+   * @return vertices and faces
+   * @throws IOException
+   */
+  static Mesh read(Path path, long chunkBytes, boolean stopAtNormalsOrTextures)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      int numChunks = (int) Math.max(1, (size + chunkBytes - 1) / chunkBytes);
+      long[] bounds = new long[numChunks + 1];
+      for (int i = 0; i <= numChunks; i++) bounds[i] = size * i / numChunks;
+
+      AtomicBoolean stop = stopAtNormalsOrTextures ? new AtomicBoolean() : null;
+      ChunkParser[] parsers = new ChunkParser[numChunks];
+      IOException[] errors = new IOException[numChunks];
+      IntStream.range(0, numChunks)
+          .parallel()
+          .forEach(
+              i -> {
+                try {
+                  // map one byte before the chunk to check for a line boundary, and enough after
+                  // it to finish the last line
+                  long mapStart = Math.max(0, bounds[i] - 1);
+                  long mapEnd = Math.min(size, bounds[i + 1] + MAX_LINE_BYTES);
+                  MappedByteBuffer buffer =
+                      channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                  parsers[i] =
+                      new ChunkParser(
+                          buffer,
+                          mapStart,
+                          (int) (bounds[i] - mapStart),
+                          (int) (bounds[i + 1] - mapStart),
+                          stop);
+                  parsers[i].parse(i > 0);
+                } catch (IOException e) {
+                  errors[i] = new IOException(path + ": " + e.getMessage(), e);
+                }
+              });
+      for (IOException e : errors) if (e != null) throw e;
+      if (stop != null && stop.get()) return null;
+
+      return merge(parsers);
+    }
+  }
+
+  private static Mesh merge(ChunkParser[] parsers) throws IOException {
+    int numChunks = parsers.length;
+    int[] vertexOffset = new int[numChunks + 1];
+    int[] faceOffset = new int[numChunks + 1];
+    int[] faceVertexOffset = new int[numChunks + 1];
+    boolean hasNormalsOrTextures = false;
+    for (int i = 0; i < numChunks; i++) {
+      hasNormalsOrTextures |= parsers[i].sawNormalsOrTextures;
+      vertexOffset[i + 1] = vertexOffset[i] + parsers[i].vertices.size / 3;
+      faceOffset[i + 1] = faceOffset[i] + parsers[i].faceSizes.size;
+      faceVertexOffset[i + 1] = faceVertexOffset[i] + parsers[i].faceVertices.size;
+    }
+
+    int numVertices = vertexOffset[numChunks];
+    double[] vertices = new double[3 * numVertices];
+    int[] faceOffsets = new int[faceOffset[numChunks] + 1];
+    int[] faceVertices = new int[faceVertexOffset[numChunks]];
+    boolean[] badIndex = new boolean[numChunks];
+    IntStream.range(0, numChunks)
+        .parallel()
+        .forEach(
+            i -> {
+              ChunkParser p = parsers[i];
+              System.arraycopy(p.vertices.data, 0, vertices, 3 * vertexOffset[i], p.vertices.size);
+              System.arraycopy(
+                  p.faceVertices.data, 0, faceVertices, faceVertexOffset[i], p.faceVertices.size);
+              for (int j = 0; j < p.relative.size; j++)
+                faceVertices[faceVertexOffset[i] + p.relative.data[j]] += vertexOffset[i];
+              int offset = faceVertexOffset[i];
+              for (int j = 0; j < p.faceSizes.size; j++) {
+                faceOffsets[faceOffset[i] + j] = offset;
+                offset += p.faceSizes.data[j];
+              }
+              for (int j = faceVertexOffset[i]; j < faceVertexOffset[i + 1]; j++) {
+                if (faceVertices[j] < 0 || faceVertices[j] >= numVertices) badIndex[i] = true;
+              }
+            });
+    faceOffsets[faceOffsets.length - 1] = faceVertices.length;
+    for (boolean bad : badIndex)
+      if (bad) throw new IOException("Face record refers to a vertex that does not exist");
+
+    return new Mesh(vertices, faceOffsets, faceVertices, hasNormalsOrTextures);
+  }
+
+  /**
+   * Write an OBJ file.
+   *
+   * @param mesh vertices and faces
+   * @param path output file
+   * @param header text written at the top of the file, may be null
+   * @throws IOException
+   */
+  public static void write(Mesh mesh, Path path, String header) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      write(mesh, channel, header);
+    }
+  }
+
+  /**
+   * Write an OBJ file. The stream is not closed.
+   *
+   * @param mesh vertices and faces
+   * @param stream output stream
+   * @param header text written at the top of the file, may be null
+   * @throws IOException
+   */
+  public static void write(Mesh mesh, OutputStream stream, String header) throws IOException {
+    write(mesh, Channels.newChannel(stream), header);
+    stream.flush();
+  }
+
+  private static void write(Mesh mesh, WritableByteChannel channel, String header)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(8 << 20);
+    if (header != null) put(channel, buffer, header.getBytes(StandardCharsets.UTF_8));
+
+    int numVertices = mesh.getNumberOfVertices();
+    int numFaces = mesh.getNumberOfFaces();
+    writeBlocks(channel, buffer, numVertices, (start, end) -> formatVertices(mesh, start, end));
+    writeBlocks(channel, buffer, numFaces, (start, end) -> formatFaces(mesh, start, end));
+
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+  }
+
+  private interface BlockFormatter {
+    byte[] format(int start, int end);
+  }
+
+  /** Format lines in parallel blocks and write the blocks in order */
+  private static void writeBlocks(
+      WritableByteChannel channel, ByteBuffer buffer, int numLines, BlockFormatter formatter)
+      throws IOException {
+    int numBlocks = (numLines + WRITE_BLOCK_LINES - 1) / WRITE_BLOCK_LINES;
+    int batchSize = 2 * Runtime.getRuntime().availableProcessors();
+    for (int batchStart = 0; batchStart < numBlocks; batchStart += batchSize) {
+      int batchEnd = Math.min(numBlocks, batchStart + batchSize);
+      List<byte[]> blocks = new ArrayList<>(batchEnd - batchStart);
+      IntStream.range(batchStart, batchEnd)
+          .parallel()
+          .mapToObj(
+              b ->
+                  formatter.format(
+                      b * WRITE_BLOCK_LINES, Math.min(numLines, (b + 1) * WRITE_BLOCK_LINES)))
+          .forEachOrdered(blocks::add);
+      for (byte[] block : blocks) put(channel, buffer, block);
+    }
+  }
+
+  private static void put(WritableByteChannel channel, ByteBuffer buffer, byte[] bytes)
+      throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      if (!buffer.hasRemaining()) {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+      }
+      int n = Math.min(buffer.remaining(), bytes.length - offset);
+      buffer.put(bytes, offset, n);
+      offset += n;
+    }
+  }
+
+  /** Growable byte array for formatting a block of lines */
+  private static class ByteList {
+    private byte[] data;
+    private int size;
+
+    private ByteList(int capacity) {
+      data = new byte[capacity];
+    }
+
+    private void ensure(int n) {
+      if (size + n > data.length) data = Arrays.copyOf(data, Math.max(2 * data.length, size + n));
+    }
+
+    private void add(char c) {
+      ensure(1);
+      data[size++] = (byte) c;
+    }
+
+    private void add(String s) {
+      ensure(s.length());
+      for (int i = 0; i < s.length(); i++) data[size++] = (byte) s.charAt(i);
+    }
+
+    /** right justify value in a field of the given width */
+    private void add(long value, int width) {
+      String s = Long.toString(value);
+      for (int i = s.length(); i < width; i++) add(' ');
+      add(s);
+    }
+
+    private byte[] toArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+
+  private static byte[] formatVertices(Mesh mesh, int start, int end) {
+    double[] v = mesh.getVertices();
+    ByteList bytes = new ByteList(64 * (end - start));
+    for (int i = start; i < end; i++) {
+      bytes.add('v');
+      for (int j = 0; j < 3; j++) {
+        bytes.add(' ');
+        // shortest representation that reads back to the same double
+        bytes.add(Double.toString(v[3 * i + j]));
+      }
+      bytes.add('\r');
+      bytes.add('\n');
+    }
+    return bytes.toArray();
+  }
+
+  private static byte[] formatFaces(Mesh mesh, int start, int end) {
+    int[] offsets = mesh.getFaceOffsets();
+    int[] indices = mesh.getFaceVertices();
+    ByteList bytes = new ByteList(44 * (end - start));
+    for (int i = start; i < end; i++) {
+      // same layout as String.format("%-10s%10d%10d%10d", "f", ...)
+      bytes.add("f         ");
+      for (int j = offsets[i]; j < offsets[i + 1]; j++) bytes.add(indices[j] + 1L, 10);
+      bytes.add('\r');
+      bytes.add('\n');
+    }
+    return bytes.toArray();
+  }
+}
@@ -24,26 +24,27 @@ package terrasaur.utils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
-import java.util.Set;
 import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.EigenDecomposition;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-import org.apache.commons.math3.util.Pair;
+import org.apache.commons.math3.stat.descriptive.AggregateSummaryStatistics;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.commons.text.WordUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import picante.math.vectorspace.VectorIJK;
 import terrasaur.apps.PointCloudToPlane;
 import terrasaur.apps.ValidateOBJ;
 import terrasaur.smallBodyModel.BoundingBox;
-import terrasaur.utils.mesh.TriangularFacet;
 import spice.basic.LatitudinalCoordinates;
 import spice.basic.SpiceException;
 import spice.basic.Vector3;
@@ -54,7 +55,11 @@ public class PolyDataStatistics {
 
   private final static Logger logger = LogManager.getLogger(PolyDataStatistics.class);
 
+  /** number of cells or edges handled by each parallel task */
+  private static final int CHUNK_SIZE = 1 << 16;
+
   private long numberPlates;
+  private int numberNonTriangles;
   private long numberVertices;
   private int numberEdges;
   private int enumberDuplicateVertices;
@@ -80,6 +85,7 @@ public class PolyDataStatistics {
   private double volume;
 
   private ArrayList<double[]> principalAxes;
+  private final Map<String, Long> timings = new LinkedHashMap<>();
 
   private vtkPolyData polydata;
 
@@ -88,74 +94,113 @@ public class PolyDataStatistics {
     getPolyDataStatistics();
   }
 
-  private void getPolyDataStatistics() {
-
-    // First determine if the shape model is closed
-    vtkPolyData boundary = PolyDataUtil.getBoundary(polydata);
-    isClosed = (boundary.GetNumberOfCells() == 0);
-
-    polydata.BuildCells();
-    vtkIdList idList = new vtkIdList();
+  /** Statistics accumulated over a range of cells */
+  private static class FacetSums {
+    private final SummaryStatistics areas = new SummaryStatistics();
+    // order: 1, x, y, z, x^2, y^2, z^2, xy, yz, zx
+    private final double[] integral = new double[10];
+  }
 
-    long numberOfCells = polydata.GetNumberOfCells();
+  /** Statistics accumulated over a range of edges */
+  private static class EdgeSums {
+    private final SummaryStatistics lengths = new SummaryStatistics();
+    private int numEdges;
+    private int numBoundaryEdges;
+  }
 
-    double[] pt0 = new double[3];
-    double[] pt1 = new double[3];
-    double[] pt2 = new double[3];
-    Set<Pair<Long, Long>> edges = new LinkedHashSet<>();
+  /** @return number of chunks needed to cover n items */
+  private static int numChunks(int n) {
+    return Math.max(1, (n + CHUNK_SIZE - 1) / CHUNK_SIZE);
+  }
 
-    DescriptiveStatistics areaStatistics = new DescriptiveStatistics();
-    for (int i = 0; i < numberOfCells; ++i) {
-      polydata.GetCellPoints(i, idList);
-      long id0 = idList.GetId(0);
-      long id1 = idList.GetId(1);
-      long id2 = idList.GetId(2);
-      polydata.GetPoint(id0, pt0);
-      polydata.GetPoint(id1, pt1);
-      polydata.GetPoint(id2, pt2);
-
-      TriangularFacet facet =
-          new TriangularFacet(new VectorIJK(pt0), new VectorIJK(pt1), new VectorIJK(pt2));
-      double area = facet.getArea();
-
-      areaStatistics.addValue(area);
-
-      edges.add(id0 < id1 ? new Pair<>(id0, id1) : new Pair<>(id1, id0));
-      edges.add(id1 < id2 ? new Pair<>(id1, id2) : new Pair<>(id2, id1));
-      edges.add(id2 < id0 ? new Pair<>(id2, id0) : new Pair<>(id0, id1));
+  private void getPolyDataStatistics() {
+    long start = System.currentTimeMillis();
+    double[] vertices = PolyDataUtil.getPackedVertices(polydata);
+    numberNonTriangles = countNonTriangles(polydata);
+    if (numberNonTriangles > 0)
+      logger.warn("{} of {} cells are not triangles. They are treated as degenerate triangles, "
+          + "so the edge, area, and closure statistics do not describe them.", numberNonTriangles,
+          polydata.GetNumberOfCells());
+    int[] triangles = PolyDataUtil.getPackedTriangles(polydata);
+    int numberOfCells = triangles.length / 3;
+    start = addTiming("Read mesh", start);
+
+    // area and volume integrals over each facet
+    List<FacetSums> facetSums = IntStream.range(0, numChunks(numberOfCells)).parallel()
+        .mapToObj(chunk -> {
+          FacetSums sums = new FacetSums();
+          int end = Math.min(numberOfCells, (chunk + 1) * CHUNK_SIZE);
+          for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+            int a = 3 * triangles[3 * i];
+            int b = 3 * triangles[3 * i + 1];
+            int c = 3 * triangles[3 * i + 2];
+            double[] n = cross(vertices, a, b, c);
+            sums.areas.addValue(0.5 * Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]));
+            addIntegralTerms(vertices, a, b, c, n, sums.integral);
+          }
+          return sums;
+        }).collect(Collectors.toList());
+    List<SummaryStatistics> areas = new ArrayList<>();
+    double[] integral = new double[10];
+    for (FacetSums sums : facetSums) {
+      areas.add(sums.areas);
+      for (int i = 0; i < integral.length; i++)
+        integral[i] += sums.integral[i];
     }
-
-    DescriptiveStatistics edgeStatistics = new DescriptiveStatistics();
-    for (Pair<Long, Long> edge : edges) {
-      polydata.GetPoint(edge.getKey(), pt0);
-      polydata.GetPoint(edge.getValue(), pt1);
-      double length = new Vector3D(pt0).distance(new Vector3D(pt1));
-      edgeStatistics.addValue(length);
+    StatisticalSummary areaStatistics = AggregateSummaryStatistics.aggregate(areas);
+    start = addTiming("Facet areas and mass properties", start);
+
+    // each edge as a pair of vertex indices packed into a long, smaller index first
+    long[] edgeKeys = new long[triangles.length];
+    IntStream.range(0, numberOfCells).parallel().forEach(i -> {
+      for (int j = 0; j < 3; j++) {
+        long id0 = triangles[3 * i + j];
+        long id1 = triangles[3 * i + (j + 1) % 3];
+        edgeKeys[3 * i + j] = id0 < id1 ? (id0 << 32) | id1 : (id1 << 32) | id0;
+      }
+    });
+    Arrays.parallelSort(edgeKeys);
+
+    // each chunk handles the edges whose first copy falls in its range. Edges used by only one
+    // cell are on the boundary.
+    List<EdgeSums> edgeSums = IntStream.range(0, numChunks(edgeKeys.length)).parallel()
+        .mapToObj(chunk -> {
+          EdgeSums sums = new EdgeSums();
+          int end = Math.min(edgeKeys.length, (chunk + 1) * CHUNK_SIZE);
+          for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+            long key = edgeKeys[i];
+            if (i > 0 && edgeKeys[i - 1] == key)
+              continue;
+            sums.numEdges++;
+            if (i + 1 == edgeKeys.length || edgeKeys[i + 1] != key)
+              sums.numBoundaryEdges++;
+            int a = 3 * (int) (key >>> 32);
+            int b = 3 * (int) key;
+            double dx = vertices[b] - vertices[a];
+            double dy = vertices[b + 1] - vertices[a + 1];
+            double dz = vertices[b + 2] - vertices[a + 2];
+            sums.lengths.addValue(Math.sqrt(dx * dx + dy * dy + dz * dz));
+          }
+          return sums;
+        }).collect(Collectors.toList());
+    List<SummaryStatistics> lengths = new ArrayList<>();
+    int numBoundaryEdges = 0;
+    numberEdges = 0;
+    for (EdgeSums sums : edgeSums) {
+      lengths.add(sums.lengths);
+      numberEdges += sums.numEdges;
+      numBoundaryEdges += sums.numBoundaryEdges;
     }
+    StatisticalSummary edgeStatistics = AggregateSummaryStatistics.aggregate(lengths);
+    isClosed = numBoundaryEdges == 0;
+    start = addTiming("Edges", start);
 
     if (isClosed()) {
-      volume = getMassProperties();
-
-      // For debugging, print out this information to make sure it agrees
-      // with our implementation
-      /*-
-      vtkMassProperties massProp = new vtkMassProperties();
-      massProp.SetInputData(polydata);
-      massProp.Update();
-      
-      System.out.println("Surface Area = " +
-      		massProp.GetSurfaceArea());
-      System.out.println("Volume = " + massProp.GetVolume());
-      System.out.println("Mean Plate Area = " +
-      		massProp.GetSurfaceArea() / polydata.GetNumberOfCells());
-      System.out.println("Min Plate Area = " +
-      		massProp.GetMinCellArea());
-      System.out.println("Max Plate Area = " +
-      		massProp.GetMaxCellArea());
-      		*/
+      volume = getMassProperties(integral);
+      start = addTiming("Principal axes", start);
     }
 
-    eulerPolyhedronFormula = polydata.GetNumberOfPoints() - edges.size() + numberOfCells;
+    eulerPolyhedronFormula = polydata.GetNumberOfPoints() - numberEdges + numberOfCells;
     if (isClosed() && eulerPolyhedronFormula != 2) {
       vertexErrorMessage = new StringBuilder();
       vertexErrorMessage
@@ -168,10 +213,10 @@ public class PolyDataStatistics {
 
     polydata.ComputeBounds();
     boundingBox = new BoundingBox(polydata.GetBounds());
+    addTiming("Bounds", start);
 
     numberPlates = numberOfCells;
     numberVertices = polydata.GetNumberOfPoints();
-    numberEdges = edges.size();
     surfaceArea = areaStatistics.getSum();
     meanCellArea = areaStatistics.getMean();
     minCellArea = areaStatistics.getMin();
@@ -183,7 +228,57 @@ public class PolyDataStatistics {
     maxEdgeLength = edgeStatistics.getMax();
     stdEdgeLength = edgeStatistics.getStandardDeviation();
     varEdgeLength = edgeStatistics.getVariance();
+  }
+
+  /**
+   * @param polydata shape model
+   * @return number of cells which are not triangles
+   */
+  private static int countNonTriangles(vtkPolyData polydata) {
+    long numberOfCells = polydata.GetNumberOfCells();
+    if (numberOfCells == polydata.GetNumberOfPolys() && polydata.GetPolys().GetMaxCellSize() <= 3)
+      return 0;
+
+    polydata.BuildCells();
+    vtkIdList idList = new vtkIdList();
+    int count = 0;
+    for (long i = 0; i < numberOfCells; i++) {
+      polydata.GetCellPoints(i, idList);
+      if (idList.GetNumberOfIds() != 3)
+        count++;
+    }
+    idList.Delete();
+    return count;
+  }
+
+  /**
+   * @param label name of the step
+   * @param start start time of the step in milliseconds
+   * @return current time in milliseconds
+   */
+  private long addTiming(String label, long start) {
+    long now = System.currentTimeMillis();
+    timings.put(label, now - start);
+    return now;
+  }
 
+  /**
+   * @return time in milliseconds spent on each step of computing the statistics, in the order the
+   *         steps were run
+   */
+  public Map<String, Long> getTimings() {
+    return Collections.unmodifiableMap(timings);
+  }
+
+  /** @return (v1 - v0) x (v2 - v0), where vertices begin at indices a, b, and c */
+  private static double[] cross(double[] vertices, int a, int b, int c) {
+    double e1x = vertices[b] - vertices[a];
+    double e1y = vertices[b + 1] - vertices[a + 1];
+    double e1z = vertices[b + 2] - vertices[a + 2];
+    double e2x = vertices[c] - vertices[a];
+    double e2y = vertices[c + 1] - vertices[a + 1];
+    double e2z = vertices[c + 2] - vertices[a + 2];
+    return new double[] {e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x};
   }
 
   private List<String> evaluateOpenModel() throws SpiceException {
@@ -243,93 +338,86 @@ public class PolyDataStatistics {
     return list;
   }
 
+  /**
+   * Add the contribution of one facet to the polyhedral mass integrals. Adapted from the file
+   * Wm5PolyhedralMassProperties.cpp in the Geometric Tools source code
+   * (http://www.geometrictools.com)
+   * 
+   * @param vertices packed vertex coordinates
+   * @param a index of the first coordinate of the first vertex
+   * @param b index of the first coordinate of the second vertex
+   * @param c index of the first coordinate of the third vertex
+   * @param N cross product of the edges (v1 - v0) x (v2 - v0)
+   * @param integral order: 1, x, y, z, x^2, y^2, z^2, xy, yz, zx
+   */
+  private static void addIntegralTerms(double[] vertices, int a, int b, int c, double[] N,
+      double[] integral) {
+    double[] v0 = {vertices[a], vertices[a + 1], vertices[a + 2]};
+    double[] v1 = {vertices[b], vertices[b + 1], vertices[b + 2]};
+    double[] v2 = {vertices[c], vertices[c + 1], vertices[c + 2]};
+
+    // Compute integral terms.
+    double tmp0, tmp1, tmp2;
+    double f1x, f2x, f3x, g0x, g1x, g2x;
+    tmp0 = v0[0] + v1[0];
+    f1x = tmp0 + v2[0];
+    tmp1 = v0[0] * v0[0];
+    tmp2 = tmp1 + v1[0] * tmp0;
+    f2x = tmp2 + v2[0] * f1x;
+    f3x = v0[0] * tmp1 + v1[0] * tmp2 + v2[0] * f2x;
+    g0x = f2x + v0[0] * (f1x + v0[0]);
+    g1x = f2x + v1[0] * (f1x + v1[0]);
+    g2x = f2x + v2[0] * (f1x + v2[0]);
+
+    double f1y, f2y, f3y, g0y, g1y, g2y;
+    tmp0 = v0[1] + v1[1];
+    f1y = tmp0 + v2[1];
+    tmp1 = v0[1] * v0[1];
+    tmp2 = tmp1 + v1[1] * tmp0;
+    f2y = tmp2 + v2[1] * f1y;
+    f3y = v0[1] * tmp1 + v1[1] * tmp2 + v2[1] * f2y;
+    g0y = f2y + v0[1] * (f1y + v0[1]);
+    g1y = f2y + v1[1] * (f1y + v1[1]);
+    g2y = f2y + v2[1] * (f1y + v2[1]);
+
+    double f1z, f2z, f3z, g0z, g1z, g2z;
+    tmp0 = v0[2] + v1[2];
+    f1z = tmp0 + v2[2];
+    tmp1 = v0[2] * v0[2];
+    tmp2 = tmp1 + v1[2] * tmp0;
+    f2z = tmp2 + v2[2] * f1z;
+    f3z = v0[2] * tmp1 + v1[2] * tmp2 + v2[2] * f2z;
+    g0z = f2z + v0[2] * (f1z + v0[2]);
+    g1z = f2z + v1[2] * (f1z + v1[2]);
+    g2z = f2z + v2[2] * (f1z + v2[2]);
+
+    // Update integrals.
+    integral[0] += N[0] * f1x;
+    integral[1] += N[0] * f2x;
+    integral[2] += N[1] * f2y;
+    integral[3] += N[2] * f2z;
+    integral[4] += N[0] * f3x;
+    integral[5] += N[1] * f3y;
+    integral[6] += N[2] * f3z;
+    integral[7] += N[0] * (v0[1] * g0x + v1[1] * g1x + v2[1] * g2x);
+    integral[8] += N[1] * (v0[2] * g0y + v1[2] * g1y + v2[2] * g2y);
+    integral[9] += N[2] * (v0[0] * g0z + v1[0] * g1z + v2[0] * g2z);
+  }
+
   /**
    * The following function was adapted from from the file Wm5PolyhedralMassProperties.cpp in the
    * Geometric Tools source code (http://www.geometrictools.com)
    * 
+   * @param integral sums from {@link #addIntegralTerms} over all facets, which are scaled in
+   *        place
    * @return mass
    */
-  private double getMassProperties() {
-    long numberOfCells = polydata.GetNumberOfCells();
-    vtkIdList idList = new vtkIdList();
-
-    double[] v0 = new double[3];
-    double[] v1 = new double[3];
-    double[] v2 = new double[3];
-
+  private double getMassProperties(double[] integral) {
     final double oneDiv6 = 1.0 / 6.0;
     final double oneDiv24 = 1.0 / 24.0;
     final double oneDiv60 = 1.0 / 60.0;
     final double oneDiv120 = 1.0 / 120.0;
 
-    // order: 1, x, y, z, x^2, y^2, z^2, xy, yz, zx
-    double[] integral = {0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0};
-
-    for (int i = 0; i < numberOfCells; ++i) {
-      polydata.GetCellPoints(i, idList);
-      long id0 = idList.GetId(0);
-      long id1 = idList.GetId(1);
-      long id2 = idList.GetId(2);
-      polydata.GetPoint(id0, v0);
-      polydata.GetPoint(id1, v1);
-      polydata.GetPoint(id2, v2);
-
-      // Get cross product of edges and normal vector.
-      Vector3D V1mV0 = new Vector3D(v1).subtract(new Vector3D(v0));
-      Vector3D V2mV0 = new Vector3D(v2).subtract(new Vector3D(v0));
-      double[] N = V1mV0.crossProduct(V2mV0).toArray();
-      // Vector3<Real> V1mV0 = v1 - v0;
-      // Vector3<Real> V2mV0 = v2 - v0;
-      // Vector3<Real> N = V1mV0.Cross(V2mV0);
-
-      // Compute integral terms.
-      double tmp0, tmp1, tmp2;
-      double f1x, f2x, f3x, g0x, g1x, g2x;
-      tmp0 = v0[0] + v1[0];
-      f1x = tmp0 + v2[0];
-      tmp1 = v0[0] * v0[0];
-      tmp2 = tmp1 + v1[0] * tmp0;
-      f2x = tmp2 + v2[0] * f1x;
-      f3x = v0[0] * tmp1 + v1[0] * tmp2 + v2[0] * f2x;
-      g0x = f2x + v0[0] * (f1x + v0[0]);
-      g1x = f2x + v1[0] * (f1x + v1[0]);
-      g2x = f2x + v2[0] * (f1x + v2[0]);
-
-      double f1y, f2y, f3y, g0y, g1y, g2y;
-      tmp0 = v0[1] + v1[1];
-      f1y = tmp0 + v2[1];
-      tmp1 = v0[1] * v0[1];
-      tmp2 = tmp1 + v1[1] * tmp0;
-      f2y = tmp2 + v2[1] * f1y;
-      f3y = v0[1] * tmp1 + v1[1] * tmp2 + v2[1] * f2y;
-      g0y = f2y + v0[1] * (f1y + v0[1]);
-      g1y = f2y + v1[1] * (f1y + v1[1]);
-      g2y = f2y + v2[1] * (f1y + v2[1]);
-
-      double f1z, f2z, f3z, g0z, g1z, g2z;
-      tmp0 = v0[2] + v1[2];
-      f1z = tmp0 + v2[2];
-      tmp1 = v0[2] * v0[2];
-      tmp2 = tmp1 + v1[2] * tmp0;
-      f2z = tmp2 + v2[2] * f1z;
-      f3z = v0[2] * tmp1 + v1[2] * tmp2 + v2[2] * f2z;
-      g0z = f2z + v0[2] * (f1z + v0[2]);
-      g1z = f2z + v1[2] * (f1z + v1[2]);
-      g2z = f2z + v2[2] * (f1z + v2[2]);
-
-      // Update integrals.
-      integral[0] += N[0] * f1x;
-      integral[1] += N[0] * f2x;
-      integral[2] += N[1] * f2y;
-      integral[3] += N[2] * f2z;
-      integral[4] += N[0] * f3x;
-      integral[5] += N[1] * f3y;
-      integral[6] += N[2] * f3z;
-      integral[7] += N[0] * (v0[1] * g0x + v1[1] * g1x + v2[1] * g2x);
-      integral[8] += N[1] * (v0[2] * g0y + v1[2] * g1y + v2[2] * g2y);
-      integral[9] += N[2] * (v0[0] * g0z + v1[0] * g1z + v2[0] * g2z);
-    }
-
     integral[0] *= oneDiv6;
     integral[1] *= oneDiv24;
     integral[2] *= oneDiv24;
@@ -387,6 +475,8 @@ public class PolyDataStatistics {
     Map<String, String> stats = new TreeMap<>();
 
     stats.put("Number of Plates", Long.toString(numberPlates));
+    if (numberNonTriangles > 0)
+      stats.put("Non-Triangular Plates", Integer.toString(numberNonTriangles));
     stats.put("Number of Vertices", Long.toString(numberVertices));
     stats.put("Number of Edges", Integer.toString(numberEdges));
     stats.put("Euler Polyhedron Formula", Long.toString(eulerPolyhedronFormula));
@@ -431,6 +521,8 @@ public class PolyDataStatistics {
     ArrayList<String> stats = new ArrayList<String>();
 
     stats.add(String.format("%-26s = %d", "Number of Plates", numberPlates));
+    if (numberNonTriangles > 0)
+      stats.add(String.format("%-26s = %d", "Non-Triangular Plates", numberNonTriangles));
     stats.add(String.format("%-26s = %d", "Number of Vertices", numberVertices));
     stats.add(String.format("%-26s = %d", "Number of Edges", numberEdges));
     stats.add(String.format("%-26s = %d", "Euler Polyhedron Formula", eulerPolyhedronFormula));
@@ -473,19 +565,25 @@ public class PolyDataStatistics {
         stats.add(s);
     }
 
+    long start = System.currentTimeMillis();
     ValidateOBJ vo = new ValidateOBJ(polydata);
     if (isClosed()) {
       vo.testFacets();
       stats.add(vo.getMessage());
+      start = addTiming("Facet test", start);
       vo.testVertices();
       stats.add(vo.getMessage());
+      start = addTiming("Vertex test", start);
     }
     vo.findDuplicateVertices();
     stats.add(vo.getMessage());
+    start = addTiming("Duplicate vertices", start);
     vo.findUnreferencedVertices();
     stats.add(vo.getMessage());
+    start = addTiming("Unreferenced vertices", start);
     vo.findZeroAreaFacets();
     stats.add(vo.getMessage());
+    addTiming("Zero area facets", start);
 
     return stats;
 
@@ -36,6 +36,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -45,6 +46,7 @@ import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.stream.IntStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -64,6 +66,7 @@ import picante.math.coords.CoordConverters;
 import picante.math.coords.LatitudinalVector;
 import picante.math.vectorspace.VectorIJK;
 import picante.math.vectorspace.UnwritableVectorIJK;
+import terrasaur.fits.FitsCube;
 import terrasaur.utils.math.MathConversions;
 import terrasaur.utils.math.RotationUtils;
 import terrasaur.utils.mesh.TriangularFacet;
@@ -72,14 +75,17 @@ import spice.basic.SpiceException;
 import spice.basic.Vector3;
 import vtk.vtkAbstractPointLocator;
 import vtk.vtkCellArray;
+import vtk.vtkCellData;
 import vtk.vtkDataArray;
 import vtk.vtkDecimatePro;
 import vtk.vtkDelaunay3D;
+import vtk.vtkDoubleArray;
 import vtk.vtkFeatureEdges;
 import vtk.vtkFloatArray;
 import vtk.vtkGenericCell;
 import vtk.vtkGeometryFilter;
 import vtk.vtkIdList;
+import vtk.vtkIdTypeArray;
 import vtk.vtkOBJReader;
 import vtk.vtkPLYReader;
 import vtk.vtkPoints;
@@ -119,6 +125,38 @@ public class PolyDataUtil {
     }
   }
 
+  /**
+   * Compute cell normals without reorienting the cells. Cells are visited in a consistent order, so
+   * the normal of a cell listed in the opposite order to its neighbors is reversed.
+   *
+   * @param polyData shape model, which is not modified
+   * @return one normal per cell
+   */
+  public static vtkFloatArray getCellNormals(vtkPolyData polyData) {
+    vtkPolyDataNormals normalsFilter = new vtkPolyDataNormals();
+    normalsFilter.SetInputData(polyData);
+    normalsFilter.SetComputeCellNormals(1);
+    normalsFilter.SetComputePointNormals(0);
+    normalsFilter.SplittingOff();
+    normalsFilter.ConsistencyOn();
+    normalsFilter.AutoOrientNormalsOff();
+    normalsFilter.Update();
+
+    vtkPolyData normalsFilterOutput = normalsFilter.GetOutput();
+    vtkCellData normalsFilterOutputCellData = normalsFilterOutput.GetCellData();
+    vtkFloatArray normals = (vtkFloatArray) normalsFilterOutputCellData.GetNormals();
+
+    vtkFloatArray cellNormals = new vtkFloatArray();
+    cellNormals.DeepCopy(normals);
+
+    normals.Delete();
+    normalsFilterOutputCellData.Delete();
+    normalsFilterOutput.Delete();
+    normalsFilter.Delete();
+
+    return cellNormals;
+  }
+
   /**
    * Compute the mean normal vector over the entire vtkPolyData by averaging all the normal vectors
    * of all cells.
@@ -362,6 +400,88 @@ public class PolyDataUtil {
     return new TriangularFacet(v1, v2, v3);
   }
 
+  /**
+   * @param polyData shape model
+   * @return vertex coordinates packed as x0, y0, z0, x1, y1, z1...
+   */
+  public static double[] getPackedVertices(vtkPolyData polyData) {
+    vtkPoints points = polyData.GetPoints();
+    int numPoints = (int) polyData.GetNumberOfPoints();
+    if (numPoints == 0) return new double[0];
+
+    // copy the whole coordinate array at once when possible
+    vtkDataArray data = points.GetData();
+    if (data instanceof vtkDoubleArray) {
+      double[] vertices = ((vtkDoubleArray) data).GetJavaArray();
+      if (vertices.length == 3 * numPoints) return vertices;
+    } else if (data instanceof vtkFloatArray) {
+      float[] floats = ((vtkFloatArray) data).GetJavaArray();
+      if (floats.length == 3 * numPoints) {
+        double[] vertices = new double[floats.length];
+        for (int i = 0; i < floats.length; i++) vertices[i] = floats[i];
+        return vertices;
+      }
+    }
+
+    double[] vertices = new double[3 * numPoints];
+    double[] p = new double[3];
+    for (int i = 0; i < numPoints; i++) {
+      points.GetPoint(i, p);
+      vertices[3 * i] = p[0];
+      vertices[3 * i + 1] = p[1];
+      vertices[3 * i + 2] = p[2];
+    }
+    return vertices;
+  }
+
+  /**
+   * @param polyData shape model. All cells are assumed to be triangles.
+   * @return vertex indices of each cell packed as i0, j0, k0, i1, j1, k1...
+   */
+  public static int[] getPackedTriangles(vtkPolyData polyData) {
+    int numCells = (int) polyData.GetNumberOfCells();
+    if (numCells == polyData.GetNumberOfPolys()) {
+      // copy the whole cell array at once when every cell is a triangle
+      vtkIdTypeArray legacy = new vtkIdTypeArray();
+      polyData.GetPolys().ExportLegacyFormat(legacy);
+      long[] cells = legacy.GetJavaArray();
+      legacy.Delete();
+      if (cells.length == 4 * numCells) {
+        int[] triangles = new int[3 * numCells];
+        boolean allTriangles = true;
+        for (int i = 0; i < numCells && allTriangles; i++) {
+          allTriangles = cells[4 * i] == 3;
+          triangles[3 * i] = (int) cells[4 * i + 1];
+          triangles[3 * i + 1] = (int) cells[4 * i + 2];
+          triangles[3 * i + 2] = (int) cells[4 * i + 3];
+        }
+        if (allTriangles)
+          return triangles;
+      }
+    }
+
+    polyData.BuildCells();
+    int[] triangles = new int[3 * numCells];
+    vtkIdList idList = new vtkIdList();
+    for (int i = 0; i < numCells; i++) {
+      polyData.GetCellPoints(i, idList);
+      if (idList.GetNumberOfIds() != 3) {
+        logger.warn("Cell {} has {} vertices, expected 3", i, idList.GetNumberOfIds());
+        // collapse to a degenerate triangle so it is never hit
+        long id = idList.GetNumberOfIds() > 0 ? idList.GetId(0) : 0;
+        triangles[3 * i] = (int) id;
+        triangles[3 * i + 1] = (int) id;
+        triangles[3 * i + 2] = (int) id;
+        continue;
+      }
+      triangles[3 * i] = (int) idList.GetId(0);
+      triangles[3 * i + 1] = (int) idList.GetId(1);
+      triangles[3 * i + 2] = (int) idList.GetId(2);
+    }
+    idList.Delete();
+    return triangles;
+  }
+
   /**
    * Return the vtkIDList for points found within radius of point pt.
    *
@@ -1242,6 +1362,13 @@ public class PolyDataUtil {
   }
 
   private static vtkPolyData loadOBJShapeModel(String filename) throws Exception {
+    // OBJCodec only reads vertices and faces. vtkOBJReader stores vn and vt records as point
+    // Normals and TCoords, which getNormalAtPoint() and others use when present. OBJCodec stops at
+    // the first of these records, so such files are not parsed twice.
+    OBJCodec.Mesh mesh = OBJCodec.readIfNoNormalsOrTextures(Paths.get(filename));
+    if (mesh != null)
+      return fromOBJMesh(mesh);
+
     vtkOBJReader smallBodyReader = new vtkOBJReader();
     smallBodyReader.SetFileName(filename);
     smallBodyReader.Update();
@@ -1343,9 +1470,16 @@ public class PolyDataUtil {
 
     int liveSize = axes[1];
 
-    float[][][] data = (float[][][]) hdu.getData().getData();
     f.getStream().close();
 
+    // only the coordinate planes are read from the file
+    FitsCube.Tile xPlane, yPlane, zPlane;
+    try (FitsCube cube = FitsCube.open(new File(filename))) {
+      xPlane = cube.getPlane(xIdx);
+      yPlane = cube.getPlane(yIdx);
+      zPlane = cube.getPlane(zIdx);
+    }
+
     int[][] indices = new int[liveSize][liveSize];
     int c = 0;
     float x, y, z;
@@ -1357,9 +1491,9 @@ public class PolyDataUtil {
         indices[m][n] = -1;
 
         // A pixel value of -1.0e38 means that pixel is invalid and should be skipped
-        x = data[xIdx][m][n];
-        y = data[yIdx][m][n];
-        z = data[zIdx][m][n];
+        x = xPlane.getFloat(m, n);
+        y = yPlane.getFloat(m, n);
+        z = zPlane.getFloat(m, n);
 
         // Check to see if x,y,z values are all valid
         boolean valid = x != INVALID_VALUE && y != INVALID_VALUE && z != INVALID_VALUE;
@@ -1458,6 +1592,10 @@ public class PolyDataUtil {
    *   <li>STL (.stl extension) *
    * </ul>
    *
+   * If a shape model cache directory is set, large triangular models are saved to a binary
+   * sidecar there on first load, which later calls read instead of the original file as long as
+   * the original is unchanged. Caching is off by default. See {@link ShapeModelCache}.
+   *
    * @param filename
    * @param ext
    * @return
@@ -1471,6 +1609,12 @@ public class PolyDataUtil {
 
     ext = ext.toLowerCase();
 
+    ShapeModelCache.Sidecar sidecar = ShapeModelCache.getSidecar(new File(filename));
+    if (sidecar != null) {
+      vtkPolyData cached = sidecar.load();
+      if (cached != null) return cached;
+    }
+
     vtkPolyData shapeModel = new vtkPolyData();
     if (ext.equals("vtk")) {
       shapeModel = loadVTKShapeModel(filename);
@@ -1502,6 +1646,7 @@ public class PolyDataUtil {
       logger.warn("Unknown extension: " + FilenameUtils.getExtension(filename));
       return null;
     }
+    if (sidecar != null) sidecar.save(shapeModel);
     return shapeModel;
   }
 
@@ -1746,34 +1891,64 @@ public class PolyDataUtil {
 
   public static void saveShapeModelAsOBJ(vtkPolyData polyData, OutputStream stream, String header)
       throws IOException {
-    OutputStreamWriter fstream = new OutputStreamWriter(stream);
-    BufferedWriter out = new BufferedWriter(fstream);
-
-    if (header != null) out.write(header);
-
-    vtkPoints points = polyData.GetPoints();
-
-    long numberPoints = polyData.GetNumberOfPoints();
-    long numberCells = polyData.GetNumberOfCells();
+    OBJCodec.write(toOBJMesh(polyData), stream, header);
+    stream.close();
+  }
 
-    double[] p = new double[3];
-    for (int i = 0; i < numberPoints; ++i) {
-      points.GetPoint(i, p);
-      out.write(String.format("v %20.16f %20.16f %20.16f\r\n", p[0], p[1], p[2]));
+  /**
+   * @param polyData shape model
+   * @return vertices and polygons of the shape model
+   */
+  public static OBJCodec.Mesh toOBJMesh(vtkPolyData polyData) {
+    double[] vertices = getPackedVertices(polyData);
+
+    // each cell is stored as the number of points followed by the point ids
+    vtkIdTypeArray legacy = new vtkIdTypeArray();
+    polyData.GetPolys().ExportLegacyFormat(legacy);
+    long[] cells = legacy.GetJavaArray();
+    legacy.Delete();
+
+    int numCells = (int) polyData.GetNumberOfPolys();
+    int[] faceOffsets = new int[numCells + 1];
+    int[] faceVertices = new int[cells.length - numCells];
+    int pos = 0;
+    for (int i = 0; i < numCells; i++) {
+      int n = (int) cells[pos++];
+      faceOffsets[i + 1] = faceOffsets[i] + n;
+      for (int j = 0; j < n; j++) faceVertices[faceOffsets[i] + j] = (int) cells[pos++];
     }
+    return new OBJCodec.Mesh(vertices, faceOffsets, faceVertices);
+  }
 
-    polyData.BuildCells();
-    vtkIdList idList = new vtkIdList();
-    for (int i = 0; i < numberCells; ++i) {
-      polyData.GetCellPoints(i, idList);
-      long id0 = idList.GetId(0);
-      long id1 = idList.GetId(1);
-      long id2 = idList.GetId(2);
-      out.write(String.format("%-10s%10d%10d%10d\r\n", "f", id0 + 1, id1 + 1, id2 + 1));
-    }
+  /**
+   * @param mesh vertices and polygons
+   * @return shape model with the same vertices and polygons
+   */
+  public static vtkPolyData fromOBJMesh(OBJCodec.Mesh mesh) {
+    vtkDoubleArray coords = new vtkDoubleArray();
+    coords.SetNumberOfComponents(3);
+    coords.SetJavaArray(mesh.getVertices());
+    vtkPoints points = new vtkPoints();
+    points.SetData(coords);
+
+    int numCells = mesh.getNumberOfFaces();
+    int[] faceOffsets = mesh.getFaceOffsets();
+    int[] faceVertices = mesh.getFaceVertices();
+    long[] cells = new long[numCells + faceVertices.length];
+    IntStream.range(0, numCells).parallel().forEach(i -> {
+      int pos = faceOffsets[i] + i;
+      cells[pos++] = faceOffsets[i + 1] - faceOffsets[i];
+      for (int j = faceOffsets[i]; j < faceOffsets[i + 1]; j++) cells[pos++] = faceVertices[j];
+    });
+    vtkIdTypeArray legacy = new vtkIdTypeArray();
+    legacy.SetJavaArray(cells);
+    vtkCellArray polys = new vtkCellArray();
+    polys.SetCells(numCells, legacy);
 
-    idList.Delete();
-    out.close();
+    vtkPolyData polyData = new vtkPolyData();
+    polyData.SetPoints(points);
+    polyData.SetPolys(polys);
+    return polyData;
   }
 
   public static void saveShapeModelAsVTK(vtkPolyData polyData, String filename) throws IOException {
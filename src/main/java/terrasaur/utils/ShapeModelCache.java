@@ -0,0 +1,525 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import terrasaur.smallBodyModel.BoundingVolumeHierarchy;
+import vtk.vtkFloatArray;
+import vtk.vtkPolyData;
+
+/**
+ * Binary sidecar holding a triangular shape model along with its cell normals and
+ * {@link BoundingVolumeHierarchy}, so that loading the model does not need to parse text or build
+ * search structures.
+ * <p>
+ * Caching is off unless a cache directory is set, either with the system property
+ * {@value #CACHE_DIRECTORY_PROPERTY} or with {@link #setCacheDirectory(File)}. Sidecars are never
+ * written next to the source data. The sidecar for /path/to/model.obj is
+ * model.obj-&lt;hash of the absolute path&gt;.tsc in the cache directory.
+ * <p>
+ * The sidecar is keyed by the SHA-256 digest of the source file. If the size and modification time
+ * of the source file match those recorded in the sidecar the digest is not recomputed. If only the
+ * modification time differs and the digest still matches (a copied or touched file), the recorded
+ * modification time is updated so the next load is fast again. The layout, in little endian
+ * order, is
+ * 
+ * <pre>
+ * int    magic number
+ * int    format version
+ * long   source file size
+ * long   source file modification time
+ * byte   SHA-256 digest of the source file (32 bytes)
+ * int    number of vertices
+ * int    number of triangles
+ * int    CRC-32 of everything after the header
+ * double vertex coordinates, three per vertex
+ * int    vertex indices, three per triangle
+ * float  cell normals, three per triangle
+ *        bounding volume hierarchy
+ * </pre>
+ * 
+ * The sidecar is read into the heap in one pass and the file is closed before the model is
+ * returned, since VTK needs the arrays on the heap anyway. A sidecar that is truncated or fails the
+ * CRC check is ignored and the source file is read instead.
+ * <p>
+ * Only models consisting of triangles and no point or cell data are cached, since those are all
+ * that the sidecar can reproduce.
+ * 
+ * @author Hari.Nair@jhuapl.edu
+ *
+ */
+public class ShapeModelCache {
+
+  private final static Logger logger = LogManager.getLogger(ShapeModelCache.class);
+
+  /** system property naming the directory in which to keep sidecars */
+  public static final String CACHE_DIRECTORY_PROPERTY = "terrasaur.shapeModelCache";
+
+  private static final int MAGIC = 0x43534d54; // "TMSC"
+
+  /** increment when the layout changes so older sidecars are rebuilt */
+  private static final int VERSION = 2;
+
+  private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 32 + 4 + 4 + 4;
+
+  /** offset of the source file modification time in the header */
+  private static final int MODIFIED_OFFSET = 16;
+
+  /** offset of the CRC in the header */
+  private static final int CRC_OFFSET = HEADER_BYTES - 4;
+
+  public static final String SUFFIX = ".tsc";
+
+  private static volatile File cacheDirectory = getDefaultCacheDirectory();
+
+  /** models with fewer cells than this load quickly enough without a sidecar */
+  private static volatile int minCells = 100000;
+
+  /** cached search structures for shape models returned by {@link Sidecar#load()} */
+  private static final Map<vtkPolyData, ShapeModelCache> loaded =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final double[] vertices;
+  private final int[] triangles;
+  private final float[] cellNormals;
+  private final BoundingVolumeHierarchy bvh;
+
+  /** shape model state when this cache was attached to it */
+  private long polyDataMTime;
+  private long numPoints;
+  private long numCells;
+
+  private ShapeModelCache(double[] vertices, int[] triangles, float[] cellNormals,
+      BoundingVolumeHierarchy bvh) {
+    this.vertices = vertices;
+    this.triangles = triangles;
+    this.cellNormals = cellNormals;
+    this.bvh = bvh;
+  }
+
+  private static File getDefaultCacheDirectory() {
+    String dir = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+    return dir == null || dir.trim().isEmpty() ? null : new File(dir);
+  }
+
+  /**
+   * @param dir directory in which to keep sidecars, created if needed. Null turns caching off.
+   *        The default is the value of the system property {@value #CACHE_DIRECTORY_PROPERTY}.
+   */
+  public static void setCacheDirectory(File dir) {
+    cacheDirectory = dir;
+  }
+
+  /** @return directory in which sidecars are kept, or null if caching is off */
+  public static File getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  /**
+   * @param cells models with fewer cells than this are not cached. Default is 100000.
+   */
+  public static void setMinimumCells(int cells) {
+    minCells = cells;
+  }
+
+  /** @return packed vertex coordinates */
+  public double[] getVertices() {
+    return vertices;
+  }
+
+  /** @return packed vertex indices, three per triangle */
+  public int[] getTriangles() {
+    return triangles;
+  }
+
+  /** @return cell normals as computed by {@link PolyDataUtil#getCellNormals(vtkPolyData)} */
+  public double[] getCellNormals() {
+    double[] normals = new double[cellNormals.length];
+    for (int i = 0; i < normals.length; i++)
+      normals[i] = cellNormals[i];
+    return normals;
+  }
+
+  public BoundingVolumeHierarchy getBoundingVolumeHierarchy() {
+    return bvh;
+  }
+
+  /**
+   * Check that the shape model has not been changed since this cache was attached to it. This
+   * compares the VTK modification time and the point and cell counts, so code that edits the
+   * model in place must call Modified() as VTK requires.
+   * 
+   * @param polyData shape model passed to {@link #get(vtkPolyData)}
+   * @return true if this cache still describes the shape model
+   */
+  public boolean matches(vtkPolyData polyData) {
+    return polyData.GetMTime() == polyDataMTime && polyData.GetNumberOfPoints() == numPoints
+        && polyData.GetNumberOfCells() == numCells;
+  }
+
+  private void attach(vtkPolyData polyData) {
+    polyDataMTime = polyData.GetMTime();
+    numPoints = polyData.GetNumberOfPoints();
+    numCells = polyData.GetNumberOfCells();
+    loaded.put(polyData, this);
+  }
+
+  /**
+   * @param polyData shape model
+   * @return the cache for a shape model returned by {@link Sidecar#load()} or passed to
+   *         {@link Sidecar#save(vtkPolyData)}, or null. The caller should check
+   *         {@link #matches(vtkPolyData)} in case the shape model has been modified since.
+   */
+  public static ShapeModelCache get(vtkPolyData polyData) {
+    return loaded.get(polyData);
+  }
+
+  /**
+   * @param source shape model file
+   * @return sidecar for the shape model file, or null if caching is off
+   */
+  public static Sidecar getSidecar(File source) {
+    File dir = cacheDirectory;
+    if (dir == null)
+      return null;
+    String path = source.getAbsolutePath();
+    String hash = toHex(sha256(path.getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+    return new Sidecar(source, new File(dir, source.getName() + "-" + hash + SUFFIX));
+  }
+
+  /**
+   * Decide whether a shape model can be reproduced by a sidecar.
+   * 
+   * @param polyData shape model
+   * @return packed triangles, or null if the model is too small, has cells other than triangles,
+   *         or carries point or cell data
+   */
+  static int[] getCacheableTriangles(vtkPolyData polyData) {
+    long numCells = polyData.GetNumberOfCells();
+    if (numCells < minCells || numCells != polyData.GetNumberOfPolys()
+        || polyData.GetPointData().GetNumberOfArrays() > 0
+        || polyData.GetCellData().GetNumberOfArrays() > 0)
+      return null;
+
+    int[] triangles = PolyDataUtil.getPackedTriangles(polyData);
+    for (int i = 0; i < numCells; i++) {
+      // getPackedTriangles collapses other polygons to a point
+      if (triangles[3 * i] == triangles[3 * i + 1] && triangles[3 * i] == triangles[3 * i + 2]
+          && polyData.GetCell(i).GetNumberOfPoints() != 3)
+        return null;
+    }
+    return triangles;
+  }
+
+  /**
+   * The sidecar for one source file. The digest of the source file is computed at most once per
+   * instance, so checking a stale sidecar with {@link #load()} and then replacing it with
+   * {@link #save(vtkPolyData)} reads the source file only once for hashing.
+   */
+  public static class Sidecar {
+
+    private final File source;
+    private final File cacheFile;
+
+    /** digest of the source file, or null if not yet computed */
+    private byte[] digest;
+
+    private Sidecar(File source, File cacheFile) {
+      this.source = source;
+      this.cacheFile = cacheFile;
+    }
+
+    /** @return sidecar file */
+    public File getFile() {
+      return cacheFile;
+    }
+
+    private byte[] getDigest() throws IOException {
+      if (digest == null)
+        digest = digest(source);
+      return digest;
+    }
+
+    /**
+     * Load a shape model from its sidecar.
+     * 
+     * @return shape model, or null if there is no usable sidecar
+     */
+    public vtkPolyData load() {
+      long start = System.currentTimeMillis();
+      ShapeModelCache cache = read();
+      if (cache == null)
+        return null;
+
+      vtkPolyData polyData = PolyDataUtil
+          .fromOBJMesh(OBJCodec.Mesh.fromTriangles(cache.vertices, cache.triangles));
+      cache.attach(polyData);
+      logger.debug("Loaded {} triangles from {} in {} ms", cache.triangles.length / 3, cacheFile,
+          System.currentTimeMillis() - start);
+      return polyData;
+    }
+
+    /**
+     * Read the arrays stored in the sidecar.
+     * 
+     * @return arrays and hierarchy, or null if there is no sidecar, it is out of date, or it
+     *         cannot be read
+     */
+    ShapeModelCache read() {
+      if (!cacheFile.isFile())
+        return null;
+
+      try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_BYTES || fileSize > Integer.MAX_VALUE)
+          throw new IOException("bad length " + fileSize);
+
+        ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION)
+          return null;
+        long size = header.getLong();
+        long modified = header.getLong();
+        byte[] storedDigest = new byte[32];
+        header.get(storedDigest);
+        int numVertices = header.getInt();
+        int numTriangles = header.getInt();
+        int crc = header.getInt();
+
+        if (size != source.length()) {
+          logger.debug("{} is out of date", cacheFile);
+          return null;
+        }
+        boolean refresh = false;
+        if (modified != source.lastModified()) {
+          if (!Arrays.equals(storedDigest, getDigest())) {
+            logger.debug("{} is out of date", cacheFile);
+            return null;
+          }
+          refresh = true;
+        }
+
+        long arrayBytes = 24L * numVertices + 24L * numTriangles;
+        if (numVertices < 0 || numTriangles < 0 || HEADER_BYTES + arrayBytes > fileSize)
+          throw new IOException("bad header");
+
+        ByteBuffer buffer = readFully(channel, HEADER_BYTES, (int) fileSize - HEADER_BYTES);
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.duplicate());
+        if ((int) crc32.getValue() != crc)
+          throw new IOException("CRC mismatch");
+
+        double[] vertices = new double[3 * numVertices];
+        buffer.asDoubleBuffer().get(vertices);
+        buffer.position(buffer.position() + 8 * vertices.length);
+        int[] triangles = new int[3 * numTriangles];
+        buffer.asIntBuffer().get(triangles);
+        buffer.position(buffer.position() + 4 * triangles.length);
+        float[] normals = new float[3 * numTriangles];
+        buffer.asFloatBuffer().get(normals);
+        buffer.position(buffer.position() + 4 * normals.length);
+        BoundingVolumeHierarchy bvh = BoundingVolumeHierarchy.read(buffer, vertices, triangles);
+        if (buffer.hasRemaining())
+          throw new IOException("unexpected trailing data");
+
+        if (refresh)
+          refreshModified(source.lastModified());
+
+        return new ShapeModelCache(vertices, triangles, normals, bvh);
+      } catch (IOException | RuntimeException e) {
+        logger.warn("Cannot read {}: {}", cacheFile, e.getMessage());
+        return null;
+      }
+    }
+
+    /** record a new source modification time after the digest has been found to match */
+    private void refreshModified(long modified) {
+      try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(modified).flip();
+        while (buffer.hasRemaining())
+          channel.write(buffer, MODIFIED_OFFSET + buffer.position());
+        logger.debug("Updated modification time in {}", cacheFile);
+      } catch (IOException e) {
+        logger.debug("Cannot update {}: {}", cacheFile, e.getMessage());
+      }
+    }
+
+    /**
+     * Write the sidecar for a shape model. Nothing is written if the model is small, is not made
+     * of triangles, or carries point or cell data. Failure to write is logged and otherwise
+     * ignored.
+     * 
+     * @param polyData shape model read from the source file
+     */
+    public void save(vtkPolyData polyData) {
+      int[] triangles = getCacheableTriangles(polyData);
+      if (triangles == null)
+        return;
+
+      long start = System.currentTimeMillis();
+      double[] vertices = PolyDataUtil.getPackedVertices(polyData);
+      vtkFloatArray normalArray = PolyDataUtil.getCellNormals(polyData);
+      float[] normals = normalArray.GetJavaArray();
+      normalArray.Delete();
+      BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(vertices, triangles);
+
+      if (write(vertices, triangles, normals, bvh)) {
+        new ShapeModelCache(vertices, triangles, normals, bvh).attach(polyData);
+        logger.debug("Wrote {} in {} ms", cacheFile, System.currentTimeMillis() - start);
+      }
+    }
+
+    /**
+     * Write the sidecar to a temporary file and move it into place so concurrent readers never
+     * see a partial file.
+     * 
+     * @return true if the sidecar was written
+     */
+    boolean write(double[] vertices, int[] triangles, float[] normals,
+        BoundingVolumeHierarchy bvh) {
+      long length = HEADER_BYTES + 8L * vertices.length + 4L * triangles.length
+          + 4L * normals.length + bvh.getSerializedSize();
+      if (length > Integer.MAX_VALUE)
+        return false;
+
+      Path tmp = null;
+      try {
+        long size = source.length();
+        long modified = source.lastModified();
+        byte[] sourceDigest = getDigest();
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(size);
+        buffer.putLong(modified);
+        buffer.put(sourceDigest);
+        buffer.putInt(vertices.length / 3);
+        buffer.putInt(triangles.length / 3);
+        buffer.putInt(0); // CRC, filled in below
+        buffer.asDoubleBuffer().put(vertices);
+        buffer.position(buffer.position() + 8 * vertices.length);
+        buffer.asIntBuffer().put(triangles);
+        buffer.position(buffer.position() + 4 * triangles.length);
+        buffer.asFloatBuffer().put(normals);
+        buffer.position(buffer.position() + 4 * normals.length);
+        bvh.write(buffer);
+
+        CRC32 crc32 = new CRC32();
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(HEADER_BYTES);
+        payload.limit(buffer.position());
+        crc32.update(payload);
+        buffer.putInt(CRC_OFFSET, (int) crc32.getValue());
+        buffer.flip();
+
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        tmp = Files.createTempFile(dir.toPath(), cacheFile.getName(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+          while (buffer.hasRemaining())
+            channel.write(buffer);
+        }
+        Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        tmp = null;
+        return true;
+      } catch (IOException | RuntimeException e) {
+        logger.debug("Cannot write {}: {}", cacheFile, e.getMessage());
+        return false;
+      } finally {
+        if (tmp != null) {
+          try {
+            Files.deleteIfExists(tmp);
+          } catch (IOException e) {
+            logger.debug("Cannot delete {}", tmp);
+          }
+        }
+      }
+    }
+  }
+
+  /** @return length bytes starting at position, in little endian order */
+  private static ByteBuffer readFully(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new IOException("unexpected end of file");
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static byte[] sha256(byte[] bytes) {
+    return newDigest().digest(bytes);
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes)
+      sb.append(String.format("%02x", b));
+    return sb.toString();
+  }
+
+  /** @return SHA-256 digest of the file contents */
+  static byte[] digest(File file) throws IOException {
+    MessageDigest md = newDigest();
+    byte[] bytes = new byte[1 << 20];
+    try (InputStream is = Files.newInputStream(file.toPath())) {
+      int n;
+      while ((n = is.read(bytes)) > 0)
+        md.update(bytes, 0, n);
+    }
+    return md.digest();
+  }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import java.util.Arrays;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+
+/**
+ * Summary statistics that do not store the values added to them. Moments are updated with
+ * Welford's method, and two instances built from different values may be combined with
+ * {@link #merge(StreamingStatistics)}, so values may be accumulated in parallel and merged at the
+ * end. The median is optionally estimated with a small mergeable quantile sketch that is exact
+ * until more than {@link QuantileSketch#CAPACITY} values have been added.
+ * <p>
+ * Empty statistics follow {@link org.apache.commons.math3.stat.descriptive.DescriptiveStatistics}:
+ * N is 0 and everything else is NaN. With one value the variance is 0.
+ * 
+ * @author Hari.Nair@jhuapl.edu
+ *
+ */
+public class StreamingStatistics implements StatisticalSummary {
+
+  private long n;
+  private double mean;
+  private double m2;
+  private double min = Double.NaN;
+  private double max = Double.NaN;
+  private double sum;
+  private double sumsq;
+  private final QuantileSketch sketch;
+
+  /** Statistics without a median estimate */
+  public StreamingStatistics() {
+    this(false);
+  }
+
+  /**
+   * @param trackMedian if true, keep a quantile sketch so {@link #getMedian()} is available
+   */
+  public StreamingStatistics(boolean trackMedian) {
+    sketch = trackMedian ? new QuantileSketch() : null;
+  }
+
+  public void addValue(double value) {
+    n++;
+    double delta = value - mean;
+    mean += delta / n;
+    m2 += delta * (value - mean);
+    if (n == 1) {
+      min = value;
+      max = value;
+    } else {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+    sum += value;
+    sumsq += value * value;
+    if (sketch != null)
+      sketch.add(value);
+  }
+
+  /**
+   * Add the values summarized by other to these statistics. The median is only tracked if both
+   * instances track it.
+   * 
+   * @param other statistics to add, which are not modified
+   */
+  public void merge(StreamingStatistics other) {
+    if (other.n == 0)
+      return;
+    if (n == 0) {
+      min = other.min;
+      max = other.max;
+    } else {
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+    long total = n + other.n;
+    double delta = other.mean - mean;
+    mean += delta * other.n / total;
+    m2 += other.m2 + delta * delta * n * other.n / total;
+    n = total;
+    sum += other.sum;
+    sumsq += other.sumsq;
+    if (sketch != null && other.sketch != null)
+      sketch.merge(other.sketch);
+  }
+
+  @Override
+  public long getN() {
+    return n;
+  }
+
+  @Override
+  public double getMean() {
+    return n == 0 ? Double.NaN : mean;
+  }
+
+  /** @return bias corrected sample variance */
+  @Override
+  public double getVariance() {
+    if (n == 0)
+      return Double.NaN;
+    return n == 1 ? 0 : m2 / (n - 1);
+  }
+
+  @Override
+  public double getStandardDeviation() {
+    return Math.sqrt(getVariance());
+  }
+
+  @Override
+  public double getMin() {
+    return min;
+  }
+
+  @Override
+  public double getMax() {
+    return max;
+  }
+
+  @Override
+  public double getSum() {
+    return n == 0 ? Double.NaN : sum;
+  }
+
+  /** @return sum of the squares of the values */
+  public double getSumsq() {
+    return n == 0 ? Double.NaN : sumsq;
+  }
+
+  /**
+   * @return median of the values, or NaN if there are none or the median is not tracked. While
+   *         the sketch is exact the result matches DescriptiveStatistics.getPercentile(50).
+   */
+  public double getMedian() {
+    return sketch == null || n == 0 ? Double.NaN : sketch.getMedian();
+  }
+
+  /**
+   * A compacting quantile sketch in the style of Karnin, Lang and Liberty. Values are held in
+   * levels, where each value in level i stands for 2^i of the original values. When a level fills
+   * it is sorted and every other value is promoted to the next level. Memory grows with the
+   * logarithm of the number of values.
+   */
+  static class QuantileSketch {
+
+    /** maximum number of values held in each level */
+    static final int CAPACITY = 128;
+
+    private double[][] levels = new double[1][4];
+    private int[] sizes = new int[1];
+
+    /** alternates which half of a compacted level is kept, so the estimate is not biased */
+    private boolean keepOdd;
+
+    void add(double value) {
+      insert(0, value);
+    }
+
+    void merge(QuantileSketch other) {
+      for (int level = 0; level < other.levels.length; level++) {
+        for (int i = 0; i < other.sizes[level]; i++)
+          insert(level, other.levels[level][i]);
+      }
+    }
+
+    private void insert(int level, double value) {
+      if (level == levels.length) {
+        levels = Arrays.copyOf(levels, level + 1);
+        levels[level] = new double[CAPACITY];
+        sizes = Arrays.copyOf(sizes, level + 1);
+      }
+      double[] values = levels[level];
+      if (sizes[level] == values.length) {
+        if (values.length < CAPACITY) {
+          values = Arrays.copyOf(values, Math.min(CAPACITY, 2 * values.length));
+          levels[level] = values;
+        } else {
+          compact(level);
+        }
+      }
+      values[sizes[level]++] = value;
+    }
+
+    /** promote half of a full level to the next one */
+    private void compact(int level) {
+      double[] values = levels[level];
+      Arrays.sort(values, 0, sizes[level]);
+      int start = keepOdd ? 1 : 0;
+      keepOdd = !keepOdd;
+      int size = sizes[level];
+      sizes[level] = 0;
+      for (int i = start; i < size; i += 2)
+        insert(level + 1, values[i]);
+    }
+
+    double getMedian() {
+      if (levels.length == 1) {
+        double[] values = Arrays.copyOf(levels[0], sizes[0]);
+        Arrays.sort(values);
+        // estimate used by Percentile: position (n + 1) / 2, counting from 1
+        int size = values.length;
+        double pos = (size + 1) / 2.;
+        int lower = (int) Math.floor(pos);
+        if (lower >= size)
+          return values[size - 1];
+        return values[lower - 1] + (pos - lower) * (values[lower] - values[lower - 1]);
+      }
+
+      int count = 0;
+      for (int size : sizes)
+        count += size;
+      double[] values = new double[count];
+      long[] weights = new long[count];
+      Integer[] order = new Integer[count];
+      long total = 0;
+      int j = 0;
+      for (int level = 0; level < levels.length; level++) {
+        for (int i = 0; i < sizes[level]; i++) {
+          values[j] = levels[level][i];
+          weights[j] = 1L << level;
+          total += weights[j];
+          order[j] = j;
+          j++;
+        }
+      }
+      Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+      long cumulative = 0;
+      for (int i : order) {
+        cumulative += weights[i];
+        if (2 * cumulative >= total)
+          return values[i];
+      }
+      return values[order[count - 1]];
+    }
+  }
+
+}
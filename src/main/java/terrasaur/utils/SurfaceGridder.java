@@ -0,0 +1,503 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Grid scattered (x, y, f) data onto a uniform grid with a continuous curvature surface in
+ * tension, in the spirit of GMT's surface program (Smith and Wessel, 1990).
+ * <p>
+ * The grid minimizes
+ * 
+ * <pre>
+ * &Sigma; (z(x<sub>i</sub>, y<sub>i</sub>) - f<sub>i</sub>)<sup>2</sup> + &lambda; [(1 - T)(z<sub>xx</sub><sup>2</sup> + 2 z<sub>xy</sub><sup>2</sup> + z<sub>yy</sub><sup>2</sup>) + T(z<sub>x</sub><sup>2</sup> + z<sub>y</sub><sup>2</sup>)]
+ * </pre>
+ * 
+ * where z(x, y) is the bilinear interpolant of the grid, derivatives are finite differences in
+ * grid units, &lambda; is the smoothing weight and T is the tension. With T = 0 this is a discrete
+ * thin plate spline, which reproduces planes exactly.
+ * <p>
+ * The normal equations are solved with Jacobi preconditioned conjugate gradients, starting on a
+ * coarse grid and interpolating each solution to the next finer grid as the starting point.
+ * Operator evaluations are parallel across grid rows.
+ * 
+ * @author Hari.Nair@jhuapl.edu
+ *
+ */
+public class SurfaceGridder {
+
+  /** coarsest grid has at least this many nodes along each side */
+  private static final int MIN_COARSE_SIZE = 8;
+
+  private final double xmin;
+  private final double ymin;
+  private final double spacing;
+  private final int nx;
+  private final int ny;
+
+  private double tension;
+  private double smoothing;
+  private double convergenceLimit;
+  private int maxIterations;
+
+  /** finest level is last */
+  private List<Level> levels;
+
+  /**
+   * 
+   * @param xmin x coordinate of the first grid column
+   * @param ymin y coordinate of the first grid row
+   * @param spacing grid spacing in x and y
+   * @param nx number of grid columns
+   * @param ny number of grid rows
+   */
+  public SurfaceGridder(double xmin, double ymin, double spacing, int nx, int ny) {
+    if (nx < 2 || ny < 2)
+      throw new IllegalArgumentException(
+          String.format("SurfaceGridder: grid must be at least 2x2 (got %dx%d)", nx, ny));
+    this.xmin = xmin;
+    this.ymin = ymin;
+    this.spacing = spacing;
+    this.nx = nx;
+    this.ny = ny;
+    this.tension = 0;
+    this.smoothing = 1e-3;
+    this.convergenceLimit = 1e-8;
+    this.maxIterations = 10000;
+  }
+
+  /**
+   * @param tension between 0 (minimum curvature) and 1 (harmonic surface). Default is 0.
+   */
+  public void setTension(double tension) {
+    if (tension < 0 || tension > 1)
+      throw new IllegalArgumentException(
+          String.format("SurfaceGridder: tension must be between 0 and 1 (got %f)", tension));
+    this.tension = tension;
+  }
+
+  /**
+   * @param smoothing weight of the smoothness term relative to the data misfit. Smaller values fit
+   *        the data more closely. Default is 1e-3.
+   */
+  public void setSmoothing(double smoothing) {
+    this.smoothing = smoothing;
+  }
+
+  /**
+   * @param convergenceLimit iterations on each grid stop when the norm of the residual falls below
+   *        this fraction of the norm of the right hand side. Default is 1e-8.
+   */
+  public void setConvergenceLimit(double convergenceLimit) {
+    this.convergenceLimit = convergenceLimit;
+  }
+
+  /**
+   * @param maxIterations maximum conjugate gradient iterations on each grid. Default is 10000.
+   */
+  public void setMaxIterations(int maxIterations) {
+    this.maxIterations = maxIterations;
+  }
+
+  /** @return x coordinate of each grid column */
+  public double[] getX() {
+    double[] x = new double[nx];
+    for (int i = 0; i < nx; i++)
+      x[i] = xmin + i * spacing;
+    return x;
+  }
+
+  /** @return y coordinate of each grid row */
+  public double[] getY() {
+    double[] y = new double[ny];
+    for (int i = 0; i < ny; i++)
+      y[i] = ymin + i * spacing;
+    return y;
+  }
+
+  /**
+   * Set the data locations. Points outside the grid are ignored. Call this before
+   * {@link #grid(double[])}. The locations may be reused to grid several fields.
+   * 
+   * @param x
+   * @param y
+   */
+  public void setPoints(double[] x, double[] y) {
+    levels = new ArrayList<>();
+    int scale = 1;
+    while (true) {
+      int levelNx = (nx - 2) / scale + 2;
+      int levelNy = (ny - 2) / scale + 2;
+      if (scale > 1 && (levelNx < MIN_COARSE_SIZE || levelNy < MIN_COARSE_SIZE))
+        break;
+      levels.add(0, new Level(levelNx, levelNy, scale, x, y));
+      scale *= 2;
+    }
+  }
+
+  /**
+   * Grid a field.
+   * 
+   * @param f field value at each point passed to {@link #setPoints(double[], double[])}
+   * @return grid values, indexed as [column][row]. All values are NaN if no point is inside the
+   *         grid.
+   */
+  public double[][] grid(double[] f) {
+    double[][] grid = new double[nx][ny];
+
+    double sum = 0;
+    int count = 0;
+    Level finest = levels.get(levels.size() - 1);
+    for (int i = 0; i < f.length; i++) {
+      if (finest.inside[i]) {
+        sum += f[i];
+        count++;
+      }
+    }
+    if (count == 0) {
+      for (double[] column : grid)
+        Arrays.fill(column, Double.NaN);
+      return grid;
+    }
+
+    // the smoothness term does not penalize a constant, so start from the mean
+    double[] z = new double[levels.get(0).size()];
+    Arrays.fill(z, sum / count);
+
+    for (int i = 0; i < levels.size(); i++) {
+      Level level = levels.get(i);
+      if (i > 0)
+        z = levels.get(i - 1).prolong(z, level);
+      level.solve(f, z);
+    }
+
+    for (int ix = 0; ix < nx; ix++)
+      for (int iy = 0; iy < ny; iy++)
+        grid[ix][iy] = z[iy * nx + ix];
+    return grid;
+  }
+
+  /**
+   * Convenience method to grid a single field.
+   * 
+   * @param x
+   * @param y
+   * @param f
+   * @return grid values, indexed as [column][row]
+   */
+  public double[][] grid(double[] x, double[] y, double[] f) {
+    setPoints(x, y);
+    return grid(f);
+  }
+
+  /**
+   * One grid in the coarse to fine sequence. Node (ix, iy) is at (xmin + ix * scale * spacing,
+   * ymin + iy * scale * spacing) and is stored at index iy * nx + ix.
+   */
+  private class Level {
+
+    private final int nx;
+    private final int ny;
+    private final int scale;
+
+    /** true if the point is inside this grid */
+    private final boolean[] inside;
+
+    /** lower left node of the cell containing each point */
+    private final int[] cell;
+
+    /** bilinear weights for each point, four per point */
+    private final double[] weights;
+
+    /** nine coefficients per node of the data misfit term of the normal equations */
+    private final double[] dataStencil;
+
+    /** diagonal of the normal equations */
+    private final double[] diagonal;
+
+    private Level(int nx, int ny, int scale, double[] x, double[] y) {
+      this.nx = nx;
+      this.ny = ny;
+      this.scale = scale;
+
+      final double levelSpacing = scale * spacing;
+      inside = new boolean[x.length];
+      cell = new int[x.length];
+      weights = new double[4 * x.length];
+      dataStencil = new double[9 * size()];
+      for (int i = 0; i < x.length; i++) {
+        double u = (x[i] - xmin) / levelSpacing;
+        double v = (y[i] - ymin) / levelSpacing;
+
+        // tolerate roundoff on the far edges of the finest grid
+        if (!(u >= 0 && v >= 0 && u <= nx - 1 + 1e-9 && v <= ny - 1 + 1e-9))
+          continue;
+        int ix = Math.min((int) u, nx - 2);
+        int iy = Math.min((int) v, ny - 2);
+        double fu = u - ix;
+        double fv = v - iy;
+
+        inside[i] = true;
+        cell[i] = iy * nx + ix;
+        weights[4 * i] = (1 - fu) * (1 - fv);
+        weights[4 * i + 1] = fu * (1 - fv);
+        weights[4 * i + 2] = (1 - fu) * fv;
+        weights[4 * i + 3] = fu * fv;
+
+        for (int a = 0; a < 4; a++) {
+          int node = cell[i] + (a & 1) + (a >> 1) * nx;
+          for (int b = 0; b < 4; b++) {
+            int dx = (b & 1) - (a & 1);
+            int dy = (b >> 1) - (a >> 1);
+            dataStencil[9 * node + 3 * (dy + 1) + dx + 1] += weights[4 * i + a] * weights[4 * i + b];
+          }
+        }
+      }
+
+      diagonal = new double[size()];
+      IntStream.range(0, ny).parallel().forEach(iy -> {
+        for (int ix = 0; ix < nx; ix++) {
+          int node = iy * nx + ix;
+          diagonal[node] = dataStencil[9 * node + 4] + smoothing * smoothnessDiagonal(ix, iy);
+        }
+      });
+    }
+
+    private int size() {
+      return nx * ny;
+    }
+
+    private boolean interiorX(int ix) {
+      return ix >= 1 && ix <= nx - 2;
+    }
+
+    private boolean interiorY(int iy) {
+      return iy >= 1 && iy <= ny - 2;
+    }
+
+    /**
+     * @param ix
+     * @param iy
+     * @return diagonal element of the smoothness operator at this node
+     */
+    private double smoothnessDiagonal(int ix, int iy) {
+      double curvature = 0;
+      for (int q = ix - 1; q <= ix + 1; q++)
+        if (interiorX(q))
+          curvature += q == ix ? 4 : 1;
+      for (int q = iy - 1; q <= iy + 1; q++)
+        if (interiorY(q))
+          curvature += q == iy ? 4 : 1;
+      int numCells = (ix > 0 ? 1 : 0) + (ix < nx - 1 ? 1 : 0);
+      numCells *= (iy > 0 ? 1 : 0) + (iy < ny - 1 ? 1 : 0);
+      curvature += 2 * numCells;
+
+      int numEdges = (ix > 0 ? 1 : 0) + (ix < nx - 1 ? 1 : 0) + (iy > 0 ? 1 : 0)
+          + (iy < ny - 1 ? 1 : 0);
+
+      return (1 - tension) * curvature + tension * numEdges;
+    }
+
+    /**
+     * Evaluate the left hand side of the normal equations.
+     * 
+     * @param z grid values
+     * @param result A z on return
+     * @param work scratch space of length 5 * {@link #size()}
+     */
+    private void apply(double[] z, double[] result, double[] work) {
+      final int n = size();
+
+      // finite differences: z_xx, z_yy, z_xy on cells, z_x and z_y on edges
+      IntStream.range(0, ny).parallel().forEach(iy -> {
+        for (int ix = 0; ix < nx; ix++) {
+          int p = iy * nx + ix;
+          work[p] = interiorX(ix) ? z[p - 1] - 2 * z[p] + z[p + 1] : 0;
+          work[n + p] = interiorY(iy) ? z[p - nx] - 2 * z[p] + z[p + nx] : 0;
+          boolean cellExists = ix < nx - 1 && iy < ny - 1;
+          work[2 * n + p] = cellExists ? z[p + nx + 1] - z[p + 1] - z[p + nx] + z[p] : 0;
+          work[3 * n + p] = ix < nx - 1 ? z[p + 1] - z[p] : 0;
+          work[4 * n + p] = iy < ny - 1 ? z[p + nx] - z[p] : 0;
+        }
+      });
+
+      // apply the transposes, gathering onto each node
+      IntStream.range(0, ny).parallel().forEach(iy -> {
+        for (int ix = 0; ix < nx; ix++) {
+          int p = iy * nx + ix;
+
+          double data = 0;
+          for (int dy = -1; dy <= 1; dy++) {
+            int qy = iy + dy;
+            if (qy < 0 || qy >= ny)
+              continue;
+            for (int dx = -1; dx <= 1; dx++) {
+              int qx = ix + dx;
+              if (qx < 0 || qx >= nx)
+                continue;
+              data += dataStencil[9 * p + 3 * (dy + 1) + dx + 1] * z[qy * nx + qx];
+            }
+          }
+
+          double curvature = -2 * work[p] - 2 * work[n + p];
+          if (ix > 0)
+            curvature += work[p - 1];
+          if (ix < nx - 1)
+            curvature += work[p + 1];
+          if (iy > 0)
+            curvature += work[n + p - nx];
+          if (iy < ny - 1)
+            curvature += work[n + p + nx];
+
+          // node p is the lower left, lower right, upper left and upper right corner of these
+          // cells
+          double twist = work[2 * n + p];
+          if (ix > 0)
+            twist -= work[2 * n + p - 1];
+          if (iy > 0)
+            twist -= work[2 * n + p - nx];
+          if (ix > 0 && iy > 0)
+            twist += work[2 * n + p - nx - 1];
+          curvature += 2 * twist;
+
+          double gradient = -work[3 * n + p] - work[4 * n + p];
+          if (ix > 0)
+            gradient += work[3 * n + p - 1];
+          if (iy > 0)
+            gradient += work[4 * n + p - nx];
+
+          result[p] =
+              data + smoothing * ((1 - tension) * curvature + tension * gradient);
+        }
+      });
+    }
+
+    /**
+     * @param f field value at each point
+     * @return right hand side of the normal equations
+     */
+    private double[] rightHandSide(double[] f) {
+      double[] b = new double[size()];
+      for (int i = 0; i < f.length; i++) {
+        if (!inside[i])
+          continue;
+        for (int a = 0; a < 4; a++)
+          b[cell[i] + (a & 1) + (a >> 1) * nx] += weights[4 * i + a] * f[i];
+      }
+      return b;
+    }
+
+    /**
+     * Sum of products, accumulated by row so the result does not depend on thread scheduling.
+     */
+    private double dot(double[] a, double[] b, double[] rowSums) {
+      IntStream.range(0, ny).parallel().forEach(iy -> {
+        double sum = 0;
+        for (int p = iy * nx; p < (iy + 1) * nx; p++)
+          sum += a[p] * b[p];
+        rowSums[iy] = sum;
+      });
+      double sum = 0;
+      for (double rowSum : rowSums)
+        sum += rowSum;
+      return sum;
+    }
+
+    /**
+     * Solve the normal equations with preconditioned conjugate gradients.
+     * 
+     * @param f field value at each point
+     * @param z starting point on input, solution on return
+     */
+    private void solve(double[] f, double[] z) {
+      final int n = size();
+      double[] b = rightHandSide(f);
+      double[] r = new double[n];
+      double[] s = new double[n];
+      double[] d = new double[n];
+      double[] q = new double[n];
+      double[] work = new double[5 * n];
+      double[] rowSums = new double[ny];
+
+      double bNorm = Math.sqrt(dot(b, b, rowSums));
+      if (bNorm == 0)
+        bNorm = 1;
+
+      apply(z, q, work);
+      for (int i = 0; i < n; i++) {
+        r[i] = b[i] - q[i];
+        d[i] = r[i] / diagonal[i];
+      }
+      double delta = dot(r, d, rowSums);
+
+      for (int iter = 0; iter < maxIterations; iter++) {
+        if (Math.sqrt(dot(r, r, rowSums)) < convergenceLimit * bNorm)
+          break;
+
+        apply(d, q, work);
+        double alpha = delta / dot(d, q, rowSums);
+        for (int i = 0; i < n; i++) {
+          z[i] += alpha * d[i];
+          r[i] -= alpha * q[i];
+          s[i] = r[i] / diagonal[i];
+        }
+        double deltaOld = delta;
+        delta = dot(r, s, rowSums);
+        double beta = delta / deltaOld;
+        for (int i = 0; i < n; i++)
+          d[i] = s[i] + beta * d[i];
+      }
+    }
+
+    /**
+     * Bilinearly interpolate this level's grid onto the next finer level.
+     * 
+     * @param z grid values on this level
+     * @param finer next finer level
+     * @return grid values on the finer level
+     */
+    private double[] prolong(double[] z, Level finer) {
+      double[] fine = new double[finer.size()];
+      final double ratio = (double) finer.scale / scale;
+      IntStream.range(0, finer.ny).parallel().forEach(iy -> {
+        double v = Math.min(iy * ratio, ny - 1);
+        int cy = Math.min((int) v, ny - 2);
+        double fv = v - cy;
+        for (int ix = 0; ix < finer.nx; ix++) {
+          double u = Math.min(ix * ratio, nx - 1);
+          int cx = Math.min((int) u, nx - 2);
+          double fu = u - cx;
+          int p = cy * nx + cx;
+          fine[iy * finer.nx + ix] = (1 - fu) * (1 - fv) * z[p] + fu * (1 - fv) * z[p + 1]
+              + (1 - fu) * fv * z[p + nx] + fu * fv * z[p + nx + 1];
+        }
+      });
+      return fine;
+    }
+  }
+
+}
@@ -54,7 +54,7 @@ public abstract class GravityOptions {
   }
 
   @Value.Default
-  /** Rotation rate of shape model in radians/sec (default is 0) */
+  /** Rotation rate of shape model in radians/sec (default is 1) */
   public double rotation() {
     return 1.;
   }
@@ -22,12 +22,21 @@
  */
 package terrasaur.utils.gravity;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import terrasaur.utils.NativeLibraryLoader;
+import terrasaur.utils.PolyDataUtil;
+import terrasaur.utils.gravity.GravityOptions.ALGORITHM;
 import terrasaur.utils.gravity.GravityOptions.EVALUATION;
+import vtk.vtkPolyData;
 
 public class GravityUtils {
 
@@ -85,6 +94,187 @@ public class GravityUtils {
     return updatedPlateResults;
   }
 
+  /**
+   * Compute gravity in process using {@link PolyhedronGravity}. This replaces running the command
+   * returned by {@link #buildCommand(GravityOptions)}.
+   * <p>
+   * Elevation is computed relative to {@link GravityOptions#refPotential()} if present. Otherwise
+   * for {@link EVALUATION#CENTERS} and {@link EVALUATION#AVERAGE_VERTICES} it is relative to the
+   * area weighted mean potential of the evaluated plates, and for the other evaluation types it is
+   * not computed. Call {@link NativeLibraryLoader#loadVtkLibraries()} before this method.
+   * 
+   * @param options gravity options. {@link GravityOptions#suffix()} and
+   *        {@link GravityOptions#outputFolder()} are ignored. Set {@link GravityOptions#rotation()}
+   *        to 0 for a body that does not rotate, since it defaults to 1 rad/s.
+   * @return potential in J/kg and acceleration in m/s^2 at each evaluation point
+   * @throws Exception if the shape model or field points file cannot be read
+   */
+  public static List<GravityResult> compute(GravityOptions options) throws Exception {
+    if (options.algorithm() == ALGORITHM.CHENG)
+      logger.warn("Algorithm {} is not supported in process, using {}", ALGORITHM.CHENG,
+          ALGORITHM.WERNER);
+
+    vtkPolyData polyData = PolyDataUtil.loadShapeModel(options.plateModelFile());
+    double[] vertices = PolyDataUtil.getPackedVertices(polyData);
+    int[] triangles = PolyDataUtil.getPackedTriangles(polyData);
+    PolyhedronGravity polyhedron = new PolyhedronGravity(vertices, triangles);
+
+    final int numPlates = triangles.length / 3;
+    final int numVertices = vertices.length / 3;
+
+    double[] points;
+    int total;
+    switch (options.evaluation()) {
+      case FILE:
+        points = readFieldPoints(options.fieldPointsFile().get(), options.columnX(),
+            options.columnY(), options.columnZ());
+        total = points.length / 3;
+        break;
+      case VERTICES:
+        points = vertices;
+        total = numVertices;
+        break;
+      default:
+        points = null;
+        total = numPlates;
+    }
+
+    final int start = Math.min(total, options.startIndex().orElse(0));
+    final int end = Math.min(total, start + options.numPlates().orElse(total));
+
+    // for the plate evaluations, xyz is the plate center and area is the plate area
+    double[] centers = null;
+    double[] areas = null;
+    if (points == null) {
+      centers = new double[3 * (end - start)];
+      areas = new double[end - start];
+      for (int i = start; i < end; i++) {
+        double[][] p = new double[3][];
+        for (int j = 0; j < 3; j++) {
+          int v = triangles[3 * i + j];
+          p[j] = new double[] {vertices[3 * v], vertices[3 * v + 1], vertices[3 * v + 2]};
+        }
+        for (int k = 0; k < 3; k++)
+          centers[3 * (i - start) + k] = (p[0][k] + p[1][k] + p[2][k]) / 3;
+        Vector3D e1 = new Vector3D(p[1]).subtract(new Vector3D(p[0]));
+        Vector3D e2 = new Vector3D(p[2]).subtract(new Vector3D(p[0]));
+        areas[i - start] = 0.5 * e1.crossProduct(e2).getNorm();
+      }
+    }
+
+    double[] evalPoints;
+    int[] vertexIndex = null;
+    switch (options.evaluation()) {
+      case CENTERS:
+        evalPoints = centers;
+        break;
+      case AVERAGE_VERTICES:
+        // evaluate each vertex of the selected plates once
+        vertexIndex = new int[numVertices];
+        Arrays.fill(vertexIndex, -1);
+        int numUsed = 0;
+        for (int i = 3 * start; i < 3 * end; i++) {
+          if (vertexIndex[triangles[i]] < 0)
+            vertexIndex[triangles[i]] = numUsed++;
+        }
+        evalPoints = new double[3 * numUsed];
+        for (int v = 0; v < numVertices; v++) {
+          if (vertexIndex[v] >= 0)
+            System.arraycopy(vertices, 3 * v, evalPoints, 3 * vertexIndex[v], 3);
+        }
+        break;
+      default:
+        evalPoints = Arrays.copyOfRange(points, 3 * start, 3 * end);
+    }
+
+    double[] potential = new double[evalPoints.length / 3];
+    double[] acc = new double[evalPoints.length];
+    polyhedron.evaluate(evalPoints, potential, acc);
+
+    // PolyhedronGravity returns results in units of G*density times km^2 or km
+    final double gRho = options.gravConstant() * options.density() * 1e3;
+    final double omega2 = options.rotation() * options.rotation();
+    for (int i = 0; i < potential.length; i++) {
+      double x = evalPoints[3 * i] * 1e3;
+      double y = evalPoints[3 * i + 1] * 1e3;
+      potential[i] = gRho * potential[i] * 1e6 - 0.5 * omega2 * (x * x + y * y);
+      acc[3 * i] = gRho * acc[3 * i] * 1e3 + omega2 * x;
+      acc[3 * i + 1] = gRho * acc[3 * i + 1] * 1e3 + omega2 * y;
+      acc[3 * i + 2] = gRho * acc[3 * i + 2] * 1e3;
+    }
+
+    List<GravityResult> results = new ArrayList<>();
+    for (int i = start; i < end; i++) {
+      GravityResult gr;
+      if (vertexIndex != null) {
+        double p = 0;
+        double[] a = new double[3];
+        for (int j = 0; j < 3; j++) {
+          int v = vertexIndex[triangles[3 * i + j]];
+          p += potential[v] / 3;
+          for (int k = 0; k < 3; k++)
+            a[k] += acc[3 * v + k] / 3;
+        }
+        gr = new GravityResult(i, Arrays.copyOfRange(centers, 3 * (i - start), 3 * (i - start + 1)),
+            p, a);
+      } else {
+        int j = i - start;
+        gr = new GravityResult(i, Arrays.copyOfRange(evalPoints, 3 * j, 3 * j + 3), potential[j],
+            Arrays.copyOfRange(acc, 3 * j, 3 * j + 3));
+      }
+      if (areas != null)
+        gr.setArea(areas[i - start]);
+      results.add(gr);
+    }
+
+    Double refPotential = options.refPotential().orElse(null);
+    if (refPotential == null && areas != null) {
+      double sum = 0;
+      double totalArea = 0;
+      for (GravityResult gr : results) {
+        sum += gr.getPotential() * gr.getArea();
+        totalArea += gr.getArea();
+      }
+      refPotential = sum / totalArea;
+    }
+    if (refPotential != null) {
+      for (GravityResult gr : results)
+        gr.setElevation(
+            (gr.getPotential() - refPotential) / new Vector3D(gr.getAcc()).getNorm());
+    }
+
+    return results;
+  }
+
+  /**
+   * Read field points from a text file. Columns may be separated by whitespace or commas. Blank
+   * lines and lines starting with # are skipped.
+   * 
+   * @param filename
+   * @param columnX
+   * @param columnY
+   * @param columnZ
+   * @return packed field point coordinates
+   * @throws IOException
+   */
+  private static double[] readFieldPoints(String filename, int columnX, int columnY, int columnZ)
+      throws IOException {
+    List<String> lines = Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8);
+    double[] points = new double[3 * lines.size()];
+    int numPoints = 0;
+    for (String line : lines) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#"))
+        continue;
+      String[] parts = line.split("[\\s,]+");
+      points[3 * numPoints] = Double.parseDouble(parts[columnX]);
+      points[3 * numPoints + 1] = Double.parseDouble(parts[columnY]);
+      points[3 * numPoints + 2] = Double.parseDouble(parts[columnZ]);
+      numPoints++;
+    }
+    return Arrays.copyOf(points, 3 * numPoints);
+  }
+
   public static String buildCommand(GravityOptions options) {
 
     StringBuilder sb = new StringBuilder();
@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.gravity;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Exterior and surface gravity of a constant density polyhedron, from
+ * <p>
+ * Werner, R.A., Scheeres, D.J. 1997. Exterior gravitation of a polyhedron derived and compared
+ * with harmonic and mascon gravitation representations of asteroid 4769 Castalia. Celestial
+ * Mechanics and Dynamical Astronomy 65, 313-344.
+ * <p>
+ * The facet dyads F<sub>f</sub> = n<sub>f</sub>n<sub>f</sub> and edge dyads E<sub>e</sub> =
+ * n<sub>A</sub>n<sub>A,e</sub> + n<sub>B</sub>n<sub>B,e</sub> are computed once when the
+ * polyhedron is built, so each field point costs one pass over the edges and one over the facets.
+ * An instance holds no mutable state and may be evaluated from any number of threads.
+ * <p>
+ * The mesh must be closed with outward facing normals. Potential and acceleration are returned in
+ * units of G&sigma; times the square and first power of the vertex units. Potential is negative,
+ * following {@link GravityResult}, and acceleration points toward the body.
+ * 
+ * @author Hari.Nair@jhuapl.edu
+ *
+ */
+public class PolyhedronGravity {
+
+  private final static Logger logger = LogManager.getLogger(PolyhedronGravity.class);
+
+  /** field points closer than this fraction of an edge's length to the edge are on it */
+  private static final double EDGE_TOLERANCE = 1e-12;
+
+  /**
+   * facets where the sine of the angle between two edges is smaller than this are degenerate. Their
+   * computed normal is dominated by rounding error, so it is set to zero.
+   */
+  private static final double DEGENERATE_TOLERANCE = 1e-12;
+
+  /** number of field points evaluated by each task */
+  private static final int CHUNK_SIZE = 64;
+
+  private final double[] vertices;
+  private final int[] triangles;
+
+  /** unit outward normal of each facet */
+  private final double[] facetNormals;
+
+  /** two vertex indices per edge */
+  private final int[] edgeVertices;
+
+  /** length of each edge */
+  private final double[] edgeLengths;
+
+  /**
+   * nine values per edge: the edge dyad in row major order. It is symmetric when both facets meet
+   * along the full edge, but not when one is degenerate, so all elements are kept.
+   */
+  private final double[] edgeDyads;
+
+  /**
+   * @param vertices packed vertex coordinates, three values per vertex
+   * @param triangles packed vertex indices, three values per facet, counterclockwise when viewed
+   *        from outside
+   */
+  public PolyhedronGravity(double[] vertices, int[] triangles) {
+    this.vertices = vertices;
+    this.triangles = triangles;
+
+    final int numFacets = triangles.length / 3;
+    facetNormals = new double[3 * numFacets];
+    for (int f = 0; f < numFacets; f++) {
+      double[] e1 = edgeVector(triangles[3 * f], triangles[3 * f + 1]);
+      double[] e2 = edgeVector(triangles[3 * f], triangles[3 * f + 2]);
+      double[] n = cross(e1, e2);
+      double norm = Math.sqrt(dot(n, n));
+      boolean degenerate = norm <= DEGENERATE_TOLERANCE * Math.sqrt(dot(e1, e1) * dot(e2, e2));
+      for (int k = 0; k < 3; k++)
+        facetNormals[3 * f + k] = degenerate ? 0 : n[k] / norm;
+    }
+
+    // pair up the two facets sharing each edge. Key is the undirected edge, value is the first
+    // facet seen and the edge's position in it.
+    Map<Long, Integer> halfEdges = new HashMap<>();
+    final long numVertices = vertices.length / 3;
+    int numEdges = 0;
+    int numOpen = 0;
+    int[] edgeFacets = new int[6 * numFacets];
+    for (int f = 0; f < numFacets; f++) {
+      for (int k = 0; k < 3; k++) {
+        int a = triangles[3 * f + k];
+        int b = triangles[3 * f + (k + 1) % 3];
+        long key = Math.min(a, b) * numVertices + Math.max(a, b);
+        Integer first = halfEdges.remove(key);
+        if (first == null) {
+          halfEdges.put(key, 3 * f + k);
+        } else {
+          edgeFacets[2 * numEdges] = first;
+          edgeFacets[2 * numEdges + 1] = 3 * f + k;
+          numEdges++;
+        }
+      }
+    }
+    // edges used by only one facet
+    for (int halfEdge : halfEdges.values()) {
+      edgeFacets[2 * numEdges] = halfEdge;
+      edgeFacets[2 * numEdges + 1] = -1;
+      numEdges++;
+      numOpen++;
+    }
+    if (numOpen > 0)
+      logger.warn("{} edges belong to only one facet. The polyhedron is not closed.", numOpen);
+
+    edgeVertices = new int[2 * numEdges];
+    edgeLengths = new double[numEdges];
+    edgeDyads = new double[9 * numEdges];
+    for (int e = 0; e < numEdges; e++) {
+      int halfEdge = edgeFacets[2 * e];
+      int f = halfEdge / 3;
+      int a = triangles[halfEdge];
+      int b = triangles[3 * f + (halfEdge % 3 + 1) % 3];
+      edgeVertices[2 * e] = a;
+      edgeVertices[2 * e + 1] = b;
+      double[] d = edgeVector(a, b);
+      edgeLengths[e] = Math.sqrt(dot(d, d));
+
+      double[] dyad = new double[9];
+      addEdgeDyad(edgeFacets[2 * e], dyad);
+      if (edgeFacets[2 * e + 1] >= 0)
+        addEdgeDyad(edgeFacets[2 * e + 1], dyad);
+      System.arraycopy(dyad, 0, edgeDyads, 9 * e, 9);
+    }
+
+    logger.debug("Polyhedron has {} facets and {} edges", numFacets, numEdges);
+  }
+
+  private double[] edgeVector(int a, int b) {
+    return new double[] {vertices[3 * b] - vertices[3 * a],
+        vertices[3 * b + 1] - vertices[3 * a + 1], vertices[3 * b + 2] - vertices[3 * a + 2]};
+  }
+
+  /**
+   * Add n n<sub>e</sub> to dyad, where n is the facet normal and n<sub>e</sub> is the outward
+   * normal of the edge in the plane of the facet.
+   * 
+   * @param halfEdge 3 * facet + position of the edge's first vertex in the facet
+   * @param dyad 3x3 matrix in row major order
+   */
+  private void addEdgeDyad(int halfEdge, double[] dyad) {
+    int f = halfEdge / 3;
+    int a = triangles[halfEdge];
+    int b = triangles[3 * f + (halfEdge % 3 + 1) % 3];
+    double[] n = {facetNormals[3 * f], facetNormals[3 * f + 1], facetNormals[3 * f + 2]};
+
+    // edges run counterclockwise around n, so edge x n points away from the facet
+    double[] edgeNormal = cross(edgeVector(a, b), n);
+    double norm = Math.sqrt(dot(edgeNormal, edgeNormal));
+    if (norm == 0)
+      return;
+    for (int i = 0; i < 3; i++)
+      for (int j = 0; j < 3; j++)
+        dyad[3 * i + j] += n[i] * edgeNormal[j] / norm;
+  }
+
+  private static double[] cross(double[] a, double[] b) {
+    return new double[] {a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2],
+        a[0] * b[1] - a[1] * b[0]};
+  }
+
+  private static double dot(double[] a, double[] b) {
+    return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+  }
+
+  /** @return number of facets */
+  public int getNumberOfFacets() {
+    return facetNormals.length / 3;
+  }
+
+  /** @return number of edges */
+  public int getNumberOfEdges() {
+    return edgeLengths.length;
+  }
+
+  /**
+   * Evaluate gravity at one field point.
+   * 
+   * @param x
+   * @param y
+   * @param z
+   * @param acc acceleration is returned in the first three elements
+   * @return potential
+   */
+  public double evaluate(double x, double y, double z, double[] acc) {
+    double u = 0;
+    double ax = 0;
+    double ay = 0;
+    double az = 0;
+
+    for (int e = 0; e < edgeLengths.length; e++) {
+      int p = 3 * edgeVertices[2 * e];
+      int q = 3 * edgeVertices[2 * e + 1];
+      double r1x = vertices[p] - x;
+      double r1y = vertices[p + 1] - y;
+      double r1z = vertices[p + 2] - z;
+      double r2x = vertices[q] - x;
+      double r2y = vertices[q + 1] - y;
+      double r2z = vertices[q + 2] - z;
+      double a = Math.sqrt(r1x * r1x + r1y * r1y + r1z * r1z);
+      double b = Math.sqrt(r2x * r2x + r2y * r2y + r2z * r2z);
+      double length = edgeLengths[e];
+
+      // on the edge the term vanishes, since E r is zero for r along the edge
+      double denom = a + b - length;
+      if (denom <= EDGE_TOLERANCE * length)
+        continue;
+      double wireLength = Math.log((a + b + length) / denom);
+
+      int d = 9 * e;
+      double ex = edgeDyads[d] * r1x + edgeDyads[d + 1] * r1y + edgeDyads[d + 2] * r1z;
+      double ey = edgeDyads[d + 3] * r1x + edgeDyads[d + 4] * r1y + edgeDyads[d + 5] * r1z;
+      double ez = edgeDyads[d + 6] * r1x + edgeDyads[d + 7] * r1y + edgeDyads[d + 8] * r1z;
+      u += (r1x * ex + r1y * ey + r1z * ez) * wireLength;
+      ax -= ex * wireLength;
+      ay -= ey * wireLength;
+      az -= ez * wireLength;
+    }
+
+    for (int f = 0; f < facetNormals.length / 3; f++) {
+      int p = 3 * triangles[3 * f];
+      int q = 3 * triangles[3 * f + 1];
+      int s = 3 * triangles[3 * f + 2];
+      double r1x = vertices[p] - x;
+      double r1y = vertices[p + 1] - y;
+      double r1z = vertices[p + 2] - z;
+      double r2x = vertices[q] - x;
+      double r2y = vertices[q + 1] - y;
+      double r2z = vertices[q + 2] - z;
+      double r3x = vertices[s] - x;
+      double r3y = vertices[s + 1] - y;
+      double r3z = vertices[s + 2] - z;
+      double l1 = Math.sqrt(r1x * r1x + r1y * r1y + r1z * r1z);
+      double l2 = Math.sqrt(r2x * r2x + r2y * r2y + r2z * r2z);
+      double l3 = Math.sqrt(r3x * r3x + r3y * r3y + r3z * r3z);
+
+      double nx = facetNormals[3 * f];
+      double ny = facetNormals[3 * f + 1];
+      double nz = facetNormals[3 * f + 2];
+      double nr = nx * r1x + ny * r1y + nz * r1z;
+      if (nr == 0)
+        continue;
+
+      // signed solid angle subtended by the facet
+      double tripleProduct = r1x * (r2y * r3z - r2z * r3y) + r1y * (r2z * r3x - r2x * r3z)
+          + r1z * (r2x * r3y - r2y * r3x);
+      double denom = l1 * l2 * l3 + l1 * (r2x * r3x + r2y * r3y + r2z * r3z)
+          + l2 * (r3x * r1x + r3y * r1y + r3z * r1z) + l3 * (r1x * r2x + r1y * r2y + r1z * r2z);
+      double solidAngle = 2 * Math.atan2(tripleProduct, denom);
+
+      u -= nr * nr * solidAngle;
+      ax += nx * nr * solidAngle;
+      ay += ny * nr * solidAngle;
+      az += nz * nr * solidAngle;
+    }
+
+    acc[0] = ax;
+    acc[1] = ay;
+    acc[2] = az;
+    return -0.5 * u;
+  }
+
+  /**
+   * Evaluate gravity at many field points in parallel.
+   * 
+   * @param points packed field point coordinates, three values per point
+   * @param potential potential at each point on return
+   * @param acc packed acceleration at each point on return
+   */
+  public void evaluate(double[] points, double[] potential, double[] acc) {
+    final int numPoints = points.length / 3;
+    final int numChunks = (numPoints + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    IntStream.range(0, numChunks).parallel().forEach(chunk -> {
+      double[] thisAcc = new double[3];
+      int end = Math.min(numPoints, (chunk + 1) * CHUNK_SIZE);
+      for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+        potential[i] = evaluate(points[3 * i], points[3 * i + 1], points[3 * i + 2], thisAcc);
+        System.arraycopy(thisAcc, 0, acc, 3 * i, 3);
+      }
+    });
+  }
+
+  /**
+   * @param x
+   * @param y
+   * @param z
+   * @return sum of the solid angles subtended by the facets: 4&pi; inside the polyhedron, 0
+   *         outside, and 2&pi; on a smooth part of the surface
+   */
+  public double getSolidAngle(double x, double y, double z) {
+    double sum = 0;
+    for (int f = 0; f < facetNormals.length / 3; f++) {
+      double[] r1 = {vertices[3 * triangles[3 * f]] - x, vertices[3 * triangles[3 * f] + 1] - y,
+          vertices[3 * triangles[3 * f] + 2] - z};
+      double[] r2 =
+          {vertices[3 * triangles[3 * f + 1]] - x, vertices[3 * triangles[3 * f + 1] + 1] - y,
+              vertices[3 * triangles[3 * f + 1] + 2] - z};
+      double[] r3 =
+          {vertices[3 * triangles[3 * f + 2]] - x, vertices[3 * triangles[3 * f + 2] + 1] - y,
+              vertices[3 * triangles[3 * f + 2] + 2] - z};
+      double l1 = Math.sqrt(dot(r1, r1));
+      double l2 = Math.sqrt(dot(r2, r2));
+      double l3 = Math.sqrt(dot(r3, r3));
+      double denom = l1 * l2 * l3 + l1 * dot(r2, r3) + l2 * dot(r3, r1) + l3 * dot(r1, r2);
+      sum += 2 * Math.atan2(dot(r1, cross(r2, r3)), denom);
+    }
+    return sum;
+  }
+
+}
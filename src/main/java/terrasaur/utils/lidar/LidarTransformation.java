@@ -27,12 +27,15 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 
@@ -53,6 +56,8 @@ public class LidarTransformation {
   private int stopId;
   private double minErrorBefore;
   private double maxErrorBefore;
+  private double rmsBefore;
+  private double meanErrorBefore;
   private double stdBefore;
   private double minErrorAfter;
   private double maxErrorAfter;
@@ -60,9 +65,9 @@ public class LidarTransformation {
   private double meanErrorAfter;
   private double stdAfter;
 
-  private Vector3D translationObject;
-  private Rotation rotationObject;
-  private Vector3D centerOfRotationObject;
+  private transient Vector3D translationObject;
+  private transient Rotation rotationObject;
+  private transient Vector3D centerOfRotationObject;
 
   /**
    * Create a transform with the translation set to {@link Vector3D#ZERO}, rotation to
@@ -79,6 +84,58 @@ public class LidarTransformation {
     return t;
   }
 
+  /**
+   * Create a transform from its components.
+   * 
+   * @param translation translation
+   * @param rotation rotation about centerOfRotation
+   * @param centerOfRotation center of rotation
+   * @return transform
+   */
+  public static LidarTransformation fromComponents(Vector3D translation, Rotation rotation,
+      Vector3D centerOfRotation) {
+    LidarTransformation t = new LidarTransformation();
+    t.translationObject = translation;
+    t.rotationObject = rotation;
+    t.centerOfRotationObject = centerOfRotation;
+
+    t.translation = Arrays.asList(translation.getX(), translation.getY(), translation.getZ());
+    t.rotation = Arrays.asList(rotation.getQ0(), rotation.getQ1(), rotation.getQ2(),
+        rotation.getQ3());
+    t.centerOfRotation =
+        Arrays.asList(centerOfRotation.getX(), centerOfRotation.getY(), centerOfRotation.getZ());
+    return t;
+  }
+
+  /**
+   * Record the distances between the points and the reference before and after the transform
+   * was applied.
+   * 
+   * @param before distances before the transform
+   * @param after distances after the transform
+   */
+  void setErrorStatistics(SummaryStatistics before, SummaryStatistics after) {
+    minErrorBefore = before.getMin();
+    maxErrorBefore = before.getMax();
+    rmsBefore = PointCloudRegistration.rms(before);
+    meanErrorBefore = before.getMean();
+    stdBefore = before.getStandardDeviation();
+    stopId = (int) before.getN() - 1;
+    minErrorAfter = after.getMin();
+    maxErrorAfter = after.getMax();
+    rmsAfter = PointCloudRegistration.rms(after);
+    meanErrorAfter = after.getMean();
+    stdAfter = after.getStandardDeviation();
+  }
+
+  /**
+   * @return this transform in the same JSON format read by {@link #fromJSON(File)}
+   */
+  public String toJSON() {
+    Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    return gson.toJson(this);
+  }
+
   private static LidarTransformation fromJSON(Reader reader) {
     Gson gson = new Gson();
     JsonReader jsonReader = new JsonReader(reader);
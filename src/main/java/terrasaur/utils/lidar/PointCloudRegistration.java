@@ -0,0 +1,474 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.lidar;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.RotationConvention;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularMatrixException;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import terrasaur.smallBodyModel.SmallBodyModel;
+import vtk.vtkPoints;
+
+/**
+ * Rigid registration of a point cloud to a reference shape model using the iterative closest
+ * point (ICP) algorithm. This replaces the external lidar-optimize program. Each iteration finds
+ * the closest point on the reference for every control point in parallel, then solves for the
+ * rotation and translation which minimize either the point to point or the point to plane
+ * distances.
+ *
+ * <p>The reference model must use {@link SmallBodyModel.QueryEngine#BVH} so that it can be
+ * queried from multiple threads.
+ *
+ * <pre>
+ * PointCloudRegistration icp = new PointCloudRegistration(reference);
+ * icp.setMetric(PointCloudRegistration.Metric.POINT_TO_PLANE);
+ * LidarTransformation transform = icp.register(points, true, true, 2000);
+ * </pre>
+ */
+public class PointCloudRegistration {
+
+  private static final Logger logger = LogManager.getLogger(PointCloudRegistration.class);
+
+  /** Distance minimized at each iteration */
+  public enum Metric {
+    /** distance between each point and its closest point on the reference */
+    POINT_TO_POINT,
+    /** distance between each point and the tangent plane at its closest point on the reference */
+    POINT_TO_PLANE
+  }
+
+  private final SmallBodyModel reference;
+  private Metric metric;
+  private int maxIterations;
+  private double tolerance;
+  private int numThreads;
+
+  /**
+   * @param reference shape model to register to
+   * @throws IllegalArgumentException if reference does not use {@link
+   *     SmallBodyModel.QueryEngine#BVH}
+   */
+  public PointCloudRegistration(SmallBodyModel reference) {
+    if (reference.getQueryEngine() != SmallBodyModel.QueryEngine.BVH)
+      throw new IllegalArgumentException(
+          "Reference model must use QueryEngine.BVH, not " + reference.getQueryEngine());
+    this.reference = reference;
+    this.metric = Metric.POINT_TO_PLANE;
+    this.maxIterations = 100;
+    this.tolerance = 1e-9;
+    this.numThreads = Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * @param metric distance to minimize. Default is {@link Metric#POINT_TO_PLANE}.
+   */
+  public void setMetric(Metric metric) {
+    this.metric = metric;
+  }
+
+  /**
+   * @param maxIterations maximum number of iterations. Default is 100.
+   */
+  public void setMaxIterations(int maxIterations) {
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * @param tolerance stop when the relative change in RMS error between iterations is less than
+   *     this. Default is 1e-9.
+   */
+  public void setTolerance(double tolerance) {
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * @param numThreads number of threads used to find closest points. Default is the number of
+   *     available processors.
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * @param points points to register
+   * @param computeTranslation true if translation should be computed
+   * @param computeRotation true if rotation should be computed
+   * @param maxControlPoints maximum number of points to use. If there are more points than this,
+   *     an evenly spaced subset is used.
+   * @return transformation taking points to the reference
+   */
+  public LidarTransformation register(
+      vtkPoints points, boolean computeTranslation, boolean computeRotation, int maxControlPoints) {
+    int numPoints = (int) points.GetNumberOfPoints();
+    int numControl = maxControlPoints > 0 ? Math.min(numPoints, maxControlPoints) : numPoints;
+    double[] packed = new double[3 * numControl];
+    double[] p = new double[3];
+    for (int i = 0; i < numControl; i++) {
+      points.GetPoint(controlIndex(i, numControl, numPoints), p);
+      System.arraycopy(p, 0, packed, 3 * i, 3);
+    }
+    return register(packed, computeTranslation, computeRotation, numControl);
+  }
+
+  /**
+   * @param points points to register, packed as x0, y0, z0, x1, y1, z1...
+   * @param computeTranslation true if translation should be computed
+   * @param computeRotation true if rotation should be computed
+   * @param maxControlPoints maximum number of points to use. If there are more points than this,
+   *     an evenly spaced subset is used.
+   * @return transformation taking points to the reference
+   */
+  public LidarTransformation register(
+      double[] points, boolean computeTranslation, boolean computeRotation, int maxControlPoints) {
+    int numPoints = points.length / 3;
+    int numControl = maxControlPoints > 0 ? Math.min(numPoints, maxControlPoints) : numPoints;
+    if (numControl < 3)
+      throw new IllegalArgumentException(
+          String.format("Need at least 3 points for registration, have %d", numControl));
+
+    // control points relative to their centroid, which is the center of rotation
+    double[] control = new double[3 * numControl];
+    double[] center = new double[3];
+    for (int i = 0; i < numControl; i++) {
+      int index = controlIndex(i, numControl, numPoints);
+      for (int j = 0; j < 3; j++) {
+        control[3 * i + j] = points[3 * index + j];
+        center[j] += points[3 * index + j];
+      }
+    }
+    for (int j = 0; j < 3; j++) center[j] /= numControl;
+    for (int i = 0; i < numControl; i++)
+      for (int j = 0; j < 3; j++) control[3 * i + j] -= center[j];
+
+    Vector3D centerOfRotation = new Vector3D(center);
+    Rotation rotation = Rotation.IDENTITY;
+    Vector3D translation = Vector3D.ZERO;
+
+    double[] transformed = new double[3 * numControl];
+    double[] closest = new double[3 * numControl];
+    double[] normals = new double[3 * numControl];
+    double[] distances = new double[numControl];
+
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      transform(control, center, rotation, translation, transformed);
+      findClosestPoints(pool, transformed, closest, normals, distances);
+      SummaryStatistics before = summarize(distances);
+
+      double lastRMS = rms(before);
+      int iteration = 0;
+      while (iteration++ < maxIterations) {
+        if (!computeTranslation && !computeRotation) break;
+
+        if (metric == Metric.POINT_TO_POINT) {
+          Rotation newRotation = rotation;
+          Vector3D newTranslation = translation;
+          if (computeRotation) {
+            newRotation = bestRotation(control, closest, center, computeTranslation);
+          }
+          if (computeTranslation) {
+            newTranslation = bestTranslation(control, closest, center, newRotation);
+          }
+          rotation = newRotation;
+          translation = newTranslation;
+        } else {
+          double[] update =
+              pointToPlaneUpdate(
+                  transformed, closest, normals, center, computeTranslation, computeRotation);
+          if (update == null) {
+            logger.warn("Point to plane system is singular, stopping after {} iterations",
+                iteration - 1);
+            break;
+          }
+          Vector3D omega = new Vector3D(update[0], update[1], update[2]);
+          Vector3D delta = new Vector3D(update[3], update[4], update[5]);
+          double angle = omega.getNorm();
+          if (angle > 0) {
+            Rotation increment =
+                new Rotation(omega, angle, RotationConvention.VECTOR_OPERATOR);
+            rotation = increment.compose(rotation, RotationConvention.VECTOR_OPERATOR);
+            translation = increment.applyTo(translation);
+          }
+          translation = translation.add(delta);
+        }
+
+        transform(control, center, rotation, translation, transformed);
+        findClosestPoints(pool, transformed, closest, normals, distances);
+
+        double thisRMS = rms(summarize(distances));
+        logger.debug("Iteration {}: RMS error {}", iteration, thisRMS);
+        boolean converged = Math.abs(lastRMS - thisRMS) <= tolerance * Math.max(lastRMS, 1e-300);
+        lastRMS = thisRMS;
+        if (converged) break;
+      }
+
+      SummaryStatistics after = summarize(distances);
+      logger.info(
+          String.format(
+              "Registered %d control points in %d iterations: RMS error %.6e before, %.6e after",
+              numControl, Math.min(iteration, maxIterations), rms(before), rms(after)));
+
+      LidarTransformation result =
+          LidarTransformation.fromComponents(translation, rotation, centerOfRotation);
+      result.setErrorStatistics(before, after);
+      return result;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * @param i control point number
+   * @param numControl number of control points
+   * @param numPoints number of points
+   * @return index of the i-th control point, evenly spaced through the points
+   */
+  private static int controlIndex(int i, int numControl, int numPoints) {
+    return (int) ((long) i * numPoints / numControl);
+  }
+
+  /**
+   * Apply the current transform to the control points.
+   *
+   * @param control control points relative to center
+   * @param center center of rotation
+   * @param rotation current rotation
+   * @param translation current translation
+   * @param transformed transformed points
+   */
+  private static void transform(
+      double[] control,
+      double[] center,
+      Rotation rotation,
+      Vector3D translation,
+      double[] transformed) {
+    double[][] m = rotation.getMatrix();
+    double[] t = translation.toArray();
+    for (int i = 0; i < control.length / 3; i++) {
+      double x = control[3 * i];
+      double y = control[3 * i + 1];
+      double z = control[3 * i + 2];
+      for (int j = 0; j < 3; j++)
+        transformed[3 * i + j] = m[j][0] * x + m[j][1] * y + m[j][2] * z + center[j] + t[j];
+    }
+  }
+
+  /**
+   * Find the closest point on the reference, the normal to the closest cell, and the distance for
+   * each transformed point.
+   */
+  private void findClosestPoints(
+      ForkJoinPool pool,
+      double[] transformed,
+      double[] closest,
+      double[] normals,
+      double[] distances) {
+    int numControl = distances.length;
+    try {
+      pool.submit(
+              () ->
+                  IntStream.range(0, numControl)
+                      .parallel()
+                      .forEach(
+                          i -> {
+                            double[] pt = {
+                              transformed[3 * i], transformed[3 * i + 1], transformed[3 * i + 2]
+                            };
+                            double[] closestPoint = new double[3];
+                            long cell = reference.findClosestCell(pt, closestPoint);
+                            double[] normal = reference.getCellNormal(cell);
+                            double d2 = 0;
+                            for (int j = 0; j < 3; j++) {
+                              closest[3 * i + j] = closestPoint[j];
+                              normals[3 * i + j] = normal[j];
+                              double d = pt[j] - closestPoint[j];
+                              d2 += d * d;
+                            }
+                            distances[i] = Math.sqrt(d2);
+                          }))
+          .get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Solve for the rotation minimizing the point to point distances (Kabsch algorithm).
+   *
+   * @param control control points relative to center
+   * @param closest closest reference points
+   * @param center center of rotation
+   * @param centered true if translation is also being solved for, in which case both sets of
+   *     points are centered on their centroids
+   * @return best rotation
+   */
+  private static Rotation bestRotation(
+      double[] control, double[] closest, double[] center, boolean centered) {
+    int numControl = control.length / 3;
+
+    // control points are already centered on their centroid
+    double[] targetMean = new double[3];
+    if (centered) {
+      for (int i = 0; i < numControl; i++)
+        for (int j = 0; j < 3; j++) targetMean[j] += closest[3 * i + j] - center[j];
+      for (int j = 0; j < 3; j++) targetMean[j] /= numControl;
+    }
+
+    double[][] h = new double[3][3];
+    for (int i = 0; i < numControl; i++) {
+      for (int j = 0; j < 3; j++) {
+        double a = control[3 * i + j];
+        for (int k = 0; k < 3; k++) {
+          double b = closest[3 * i + k] - center[k] - targetMean[k];
+          h[j][k] += a * b;
+        }
+      }
+    }
+
+    // H = U S V^T, R = V diag(1, 1, d) U^T
+    SingularValueDecomposition svd = new SingularValueDecomposition(new Array2DRowRealMatrix(h));
+    RealMatrix u = svd.getU();
+    RealMatrix v = svd.getV();
+    double d = Math.signum(new LUDecomposition(v.multiply(u.transpose())).getDeterminant());
+    if (d == 0) d = 1;
+    RealMatrix s = new Array2DRowRealMatrix(new double[][] {{1, 0, 0}, {0, 1, 0}, {0, 0, d}});
+    RealMatrix r = v.multiply(s).multiply(u.transpose());
+
+    return new Rotation(r.getData(), 1e-10);
+  }
+
+  /**
+   * @param control control points relative to center
+   * @param closest closest reference points
+   * @param center center of rotation
+   * @param rotation rotation to apply before translating
+   * @return translation minimizing the point to point distances
+   */
+  private static Vector3D bestTranslation(
+      double[] control, double[] closest, double[] center, Rotation rotation) {
+    int numControl = control.length / 3;
+    double[] sum = new double[3];
+    for (int i = 0; i < numControl; i++) {
+      Vector3D rotated =
+          rotation.applyTo(new Vector3D(control[3 * i], control[3 * i + 1], control[3 * i + 2]));
+      double[] r = rotated.toArray();
+      for (int j = 0; j < 3; j++) sum[j] += closest[3 * i + j] - center[j] - r[j];
+    }
+    return new Vector3D(sum[0] / numControl, sum[1] / numControl, sum[2] / numControl);
+  }
+
+  /**
+   * Linearize the point to plane problem about the current transform and solve the normal
+   * equations for a small rotation vector and translation.
+   *
+   * @return rotation vector and translation as {wx, wy, wz, dx, dy, dz}, or null if the system is
+   *     singular
+   */
+  private static double[] pointToPlaneUpdate(
+      double[] transformed,
+      double[] closest,
+      double[] normals,
+      double[] center,
+      boolean computeTranslation,
+      boolean computeRotation) {
+    int numControl = transformed.length / 3;
+
+    // unknowns are rotation vector followed by translation
+    int offset = computeRotation ? 0 : 3;
+    int size = (computeRotation ? 3 : 0) + (computeTranslation ? 3 : 0);
+
+    double[][] ata = new double[size][size];
+    double[] atb = new double[size];
+    double[] row = new double[6];
+    for (int i = 0; i < numControl; i++) {
+      double px = transformed[3 * i] - center[0];
+      double py = transformed[3 * i + 1] - center[1];
+      double pz = transformed[3 * i + 2] - center[2];
+      double nx = normals[3 * i];
+      double ny = normals[3 * i + 1];
+      double nz = normals[3 * i + 2];
+
+      // (p x n) . omega + n . delta = (q - x) . n
+      row[0] = py * nz - pz * ny;
+      row[1] = pz * nx - px * nz;
+      row[2] = px * ny - py * nx;
+      row[3] = nx;
+      row[4] = ny;
+      row[5] = nz;
+      double b =
+          (closest[3 * i] - transformed[3 * i]) * nx
+              + (closest[3 * i + 1] - transformed[3 * i + 1]) * ny
+              + (closest[3 * i + 2] - transformed[3 * i + 2]) * nz;
+
+      for (int j = 0; j < size; j++) {
+        double rj = row[j + offset];
+        atb[j] += rj * b;
+        for (int k = 0; k < size; k++) ata[j][k] += rj * row[k + offset];
+      }
+    }
+
+    double[] solution;
+    try {
+      solution =
+          new LUDecomposition(new Array2DRowRealMatrix(ata, false))
+              .getSolver()
+              .solve(new ArrayRealVector(atb, false))
+              .toArray();
+    } catch (SingularMatrixException e) {
+      return null;
+    }
+
+    double[] update = new double[6];
+    System.arraycopy(solution, 0, update, offset, size);
+    return update;
+  }
+
+  /**
+   * @param distances distance from each point to the reference
+   * @return summary statistics
+   */
+  private static SummaryStatistics summarize(double[] distances) {
+    SummaryStatistics stats = new SummaryStatistics();
+    for (double d : distances) stats.addValue(d);
+    return stats;
+  }
+
+  /**
+   * @param stats summary statistics
+   * @return root mean square value
+   */
+  static double rms(SummaryStatistics stats) {
+    return Math.sqrt(stats.getSumsq() / stats.getN());
+  }
+}
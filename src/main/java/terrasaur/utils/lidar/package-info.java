@@ -21,6 +21,7 @@
  * THE SOFTWARE.
  */
 /**
- * Classes to interface with the C++ lidar-optimize code
+ * Rigid registration of point clouds to shape models, and classes to read transformations
+ * written by the C++ lidar-optimize code
  */
 package terrasaur.utils.lidar;
@@ -29,62 +29,83 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
-import org.apache.logging.log4j.Level;
+import java.util.stream.IntStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import picante.math.Statistics;
 import picante.math.vectorspace.UnwritableRotationMatrixIJK;
 import picante.math.vectorspace.UnwritableVectorIJK;
 import picante.math.vectorspace.VectorIJK;
 import picante.surfaces.Surface;
 import terrasaur.utils.octree.BoundingBox;
-import terrasaur.utils.octree.Octree;
+import terrasaur.utils.octree.LinearOctree;
 
 /**
  * Class representing a mesh made of triangular facets. Implements the {@link Surface} interface.
+ * <p>
+ * The mesh is stored as packed vertex coordinates, packed triangle vertex indices, and a
+ * compressed sparse row (CSR) table of facets containing each vertex. The lists of
+ * {@link UnwritableVectorIJK} and {@link TriangularFacet} objects are views over these arrays.
+ * Transformations and subsets work on the arrays directly and take time linear in the mesh size.
  * 
  * @author nairah1
- *
+ * 
  */
 public class TriangularMesh implements Surface {
 
   private static Logger logger = LogManager.getLogger(TriangularMesh.class);
 
-  private int octreeLevel;
-  private ThreadLocal<Octree> threadLocalOctree;
+  /** Octree nodes with more facets than this are split */
+  private static final int MAX_FACETS_PER_LEAF = 8;
 
-  /** list of 3D vertices in the order they were added */
-  private List<UnwritableVectorIJK> vertexList;
+  /** Facets sorted into a linear octree for ray queries */
+  private final LinearOctree octree;
 
-  /** Lookup vertex index from 3D position */
-  private Map<UnwritableVectorIJK, Integer> vertexIndexMap;
+  /** vertex coordinates packed as x0, y0, z0, x1, y1, z1... */
+  private final double[] vertices;
+
+  /** vertex indices packed as i0, j0, k0, i1, j1, k1... */
+  private final int[] triangles;
+
+  /**
+   * Facets containing vertex v are vertexFacets[vertexFacetOffsets[v]] to
+   * vertexFacets[vertexFacetOffsets[v+1]-1], in increasing order
+   */
+  private final int[] vertexFacetOffsets;
+  private final int[] vertexFacets;
+
+  /** list of 3D vertices in the order they were added */
+  private final List<UnwritableVectorIJK> vertexList;
 
   /** List of facets in the order they were added */
-  private List<TriangularFacet> facetList;
+  private final List<TriangularFacet> facetList;
 
-  /** Lookup facet index from facet */
-  private Map<TriangularFacet, Integer> facetIndexMap;
+  /** Lookup vertex index from 3D position, built on first use */
+  private volatile Map<UnwritableVectorIJK, Integer> vertexIndexMap;
 
-  /** Lookup facets containing a vertex */
-  private Map<UnwritableVectorIJK, List<TriangularFacet>> vertexFacetMap;
+  /** Lookup facet index from facet, built on first use */
+  private volatile Map<TriangularFacet, Integer> facetIndexMap;
+
+  /** Lookup facets containing a vertex, built on first use */
+  private volatile Map<UnwritableVectorIJK, List<TriangularFacet>> vertexFacetMap;
 
   /** Coordinates of mesh center */
   private UnwritableVectorIJK center;
 
-  /** Facets in each level of the octree */
-  private Map<Integer, Set<TriangularFacet>> facetOctreeMap;
-
   // "set" methods violate the Builder pattern, but this allows the color/albedo
   // map to change between renderings
   private Map<TriangularFacet, Double> albedoMap = Collections.emptyMap();
@@ -202,8 +223,8 @@ public class TriangularMesh implements Surface {
       }
       String[] parts = trimmed.split("\\s+");
       if (parts[0].equalsIgnoreCase("v")) {
-        builder.addVertex(new UnwritableVectorIJK(Double.parseDouble(parts[1]),
-            Double.parseDouble(parts[2]), Double.parseDouble(parts[3])));
+        builder.addVertex(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+            Double.parseDouble(parts[3]));
       }
       if (parts[0].equalsIgnoreCase("f")) {
         int[] indices = new int[3];
@@ -215,13 +236,23 @@ public class TriangularMesh implements Surface {
       }
 
     }
-    logger.debug("read {} vertices and {} facets", builder.vertexList.size(),
-        builder.facetIndexList.size());
+    logger.debug("read {} vertices and {} facets", builder.numVertices, builder.numFacets);
 
     return builder.build();
 
   }
 
+  /**
+   * Create a mesh from packed arrays. The arrays are copied.
+   * 
+   * @param vertices vertex coordinates packed as x0, y0, z0, x1, y1, z1...
+   * @param triangles vertex indices packed as i0, j0, k0, i1, j1, k1...
+   * @return
+   */
+  public static TriangularMesh fromPackedArrays(double[] vertices, int[] triangles) {
+    return new TriangularMesh(vertices.clone(), triangles.clone());
+  }
+
   /**
    * Read a shape model in Wavefront OBJ format.
    * 
@@ -258,15 +289,12 @@ public class TriangularMesh implements Surface {
 
     try (PrintWriter pw = new PrintWriter(objFile)) {
 
-      for (UnwritableVectorIJK v : vertexList) {
-        pw.printf("v %f %f %f\n", v.getI(), v.getJ(), v.getK());
+      for (int i = 0; i < vertices.length; i += 3) {
+        pw.printf("v %f %f %f\n", vertices[i], vertices[i + 1], vertices[i + 2]);
       }
 
-      for (TriangularFacet f : facetList) {
-        int index1 = getVertexIndexMap().get(f.getVertex1()) + 1;
-        int index2 = getVertexIndexMap().get(f.getVertex2()) + 1;
-        int index3 = getVertexIndexMap().get(f.getVertex3()) + 1;
-        pw.printf("f %d %d %d\n", index1, index2, index3);
+      for (int i = 0; i < triangles.length; i += 3) {
+        pw.printf("f %d %d %d\n", triangles[i] + 1, triangles[i + 1] + 1, triangles[i + 2] + 1);
       }
 
     } catch (FileNotFoundException e) {
@@ -276,23 +304,16 @@ public class TriangularMesh implements Surface {
   }
 
   public static class Builder {
-    private List<UnwritableVectorIJK> vertexList;
-    private List<UnwritableVectorIJK> facetIndexList;
-    private List<TriangularFacet> facetList;
-
-    private Map<UnwritableVectorIJK, Integer> vertexIndexMap;
-    private Map<TriangularFacet, Integer> facetIndexMap;
-
-    private Map<UnwritableVectorIJK, List<TriangularFacet>> vertexFacetMap;
+    private double[] vertices;
+    private int[] triangles;
+    private int numVertices;
+    private int numFacets;
 
     public Builder() {
-      this.vertexList = new ArrayList<>();
-      this.facetIndexList = new ArrayList<>();
-      this.facetList = new ArrayList<>();
-
-      this.vertexIndexMap = new HashMap<>();
-      this.facetIndexMap = new HashMap<>();
-      this.vertexFacetMap = new HashMap<>();
+      this.vertices = new double[3 * 1024];
+      this.triangles = new int[3 * 2048];
+      this.numVertices = 0;
+      this.numFacets = 0;
     }
 
     /**
@@ -301,8 +322,24 @@ public class TriangularMesh implements Surface {
      * @param vertex
      */
     public void addVertex(UnwritableVectorIJK vertex) {
-      vertexIndexMap.put(vertex, vertexList.size());
-      vertexList.add(vertex);
+      addVertex(vertex.getI(), vertex.getJ(), vertex.getK());
+    }
+
+    /**
+     * Add a vertex to the mesh.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void addVertex(double x, double y, double z) {
+      if (3 * numVertices == vertices.length) {
+        vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+      }
+      vertices[3 * numVertices] = x;
+      vertices[3 * numVertices + 1] = y;
+      vertices[3 * numVertices + 2] = z;
+      numVertices++;
     }
 
     /**
@@ -313,25 +350,19 @@ public class TriangularMesh implements Surface {
      * @param index3 index of vertex 3
      */
     public void addFacet(int index1, int index2, int index3) {
-      facetIndexList.add(new UnwritableVectorIJK(index1, index2, index3));
-      List<UnwritableVectorIJK> vertices = new ArrayList<>();
-      vertices.add(vertexList.get(index1));
-      vertices.add(vertexList.get(index2));
-      vertices.add(vertexList.get(index3));
-
-      TriangularFacet tf = new TriangularFacet(vertices.get(0), vertices.get(1), vertices.get(2));
-      facetIndexMap.put(tf, facetList.size());
-      facetList.add(tf);
-
-      for (UnwritableVectorIJK vertex : vertices) {
-        List<TriangularFacet> facets = vertexFacetMap.get(vertex);
-        if (facets == null) {
-          facets = new ArrayList<>();
-          vertexFacetMap.put(vertex, facets);
+      for (int index : new int[] {index1, index2, index3}) {
+        if (index < 0 || index >= numVertices) {
+          throw new IndexOutOfBoundsException(
+              String.format("Vertex index %d out of range for %d vertices", index, numVertices));
         }
-        facets.add(tf);
       }
-
+      if (3 * numFacets == triangles.length) {
+        triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+      }
+      triangles[3 * numFacets] = index1;
+      triangles[3 * numFacets + 1] = index2;
+      triangles[3 * numFacets + 2] = index3;
+      numFacets++;
     }
 
     /**
@@ -340,65 +371,116 @@ public class TriangularMesh implements Surface {
      * @return
      */
     public TriangularMesh build() {
-      TriangularMesh mesh = new TriangularMesh();
-      mesh.vertexList = Collections.unmodifiableList(vertexList);
-      mesh.facetList = Collections.unmodifiableList(facetList);
+      return new TriangularMesh(Arrays.copyOf(vertices, 3 * numVertices),
+          Arrays.copyOf(triangles, 3 * numFacets));
+    }
+  }
+
+  /**
+   * Build the mesh. The arrays are not copied and must not be modified afterwards.
+   * 
+   * @param vertices vertex coordinates packed as x0, y0, z0, x1, y1, z1...
+   * @param triangles vertex indices packed as i0, j0, k0, i1, j1, k1...
+   */
+  private TriangularMesh(double[] vertices, int[] triangles) {
+    this.vertices = vertices;
+    this.triangles = triangles;
+
+    int numVertices = vertices.length / 3;
+    int numFacets = triangles.length / 3;
+
+    UnwritableVectorIJK[] vertexArray = new UnwritableVectorIJK[numVertices];
+    IntStream.range(0, numVertices).parallel().forEach(i -> vertexArray[i] =
+        new UnwritableVectorIJK(vertices[3 * i], vertices[3 * i + 1], vertices[3 * i + 2]));
+    vertexList = Collections.unmodifiableList(Arrays.asList(vertexArray));
+
+    TriangularFacet[] facetArray = new TriangularFacet[numFacets];
+    IntStream.range(0, numFacets).parallel()
+        .forEach(i -> facetArray[i] = new TriangularFacet(vertexArray[triangles[3 * i]],
+            vertexArray[triangles[3 * i + 1]], vertexArray[triangles[3 * i + 2]]));
+    facetList = Collections.unmodifiableList(Arrays.asList(facetArray));
+
+    // CSR table of facets containing each vertex
+    vertexFacetOffsets = new int[numVertices + 1];
+    for (int index : triangles) {
+      vertexFacetOffsets[index + 1]++;
+    }
+    for (int i = 0; i < numVertices; i++) {
+      vertexFacetOffsets[i + 1] += vertexFacetOffsets[i];
+    }
+    vertexFacets = new int[triangles.length];
+    int[] next = Arrays.copyOf(vertexFacetOffsets, numVertices);
+    for (int i = 0; i < triangles.length; i++) {
+      vertexFacets[next[triangles[i]]++] = i / 3;
+    }
 
-      Statistics.Builder builder = Statistics.builder();
-      for (TriangularFacet f : facetList) {
-        builder.accumulate(f.getMeanEdgeLength());
+    double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+    double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+    double[] sum = new double[3];
+    for (int i = 0; i < vertices.length; i++) {
+      int j = i % 3;
+      min[j] = Math.min(min[j], vertices[i]);
+      max[j] = Math.max(max[j], vertices[i]);
+      sum[j] += vertices[i];
+    }
+    center = new UnwritableVectorIJK(sum[0] / numVertices, sum[1] / numVertices,
+        sum[2] / numVertices);
+    boundingBox = new BoundingBox(new UnwritableVectorIJK(min[0], min[1], min[2]),
+        new UnwritableVectorIJK(max[0], max[1], max[2]));
+
+    double[] facetBounds = new double[6 * numFacets];
+    IntStream.range(0, numFacets).parallel().forEach(i -> {
+      for (int j = 0; j < 3; j++) {
+        double a = vertices[3 * triangles[3 * i] + j];
+        double b = vertices[3 * triangles[3 * i + 1] + j];
+        double c = vertices[3 * triangles[3 * i + 2] + j];
+        facetBounds[6 * i + j] = Math.min(a, Math.min(b, c));
+        facetBounds[6 * i + j + 3] = Math.max(a, Math.max(b, c));
       }
-      Statistics edgeStats = builder.build();
+    });
+    octree = new LinearOctree(facetBounds, LinearOctree.MAX_LEVEL, MAX_FACETS_PER_LEAF);
+    logger.debug("Octree for {} facets: {}", numFacets, octree.getOccupancyStatistics());
+  }
 
-      mesh.vertexIndexMap = Collections.unmodifiableMap(vertexIndexMap);
-      mesh.facetIndexMap = Collections.unmodifiableMap(facetIndexMap);
+  /** @return number of vertices in the mesh */
+  public int getNumberOfVertices() {
+    return vertices.length / 3;
+  }
 
-      mesh.vertexFacetMap = Collections.unmodifiableMap(vertexFacetMap);
+  /** @return number of facets in the mesh */
+  public int getNumberOfFacets() {
+    return triangles.length / 3;
+  }
 
-      Statistics.Builder xBuilder = Statistics.builder();
-      Statistics.Builder yBuilder = Statistics.builder();
-      Statistics.Builder zBuilder = Statistics.builder();
+  /**
+   * @return copy of the vertex coordinates packed as x0, y0, z0, x1, y1, z1...
+   */
+  public double[] getPackedVertices() {
+    return vertices.clone();
+  }
 
-      for (UnwritableVectorIJK v : vertexList) {
-        xBuilder.accumulate(v.getI());
-        yBuilder.accumulate(v.getJ());
-        zBuilder.accumulate(v.getK());
-      }
-      Statistics xStats = xBuilder.build();
-      Statistics yStats = yBuilder.build();
-      Statistics zStats = zBuilder.build();
-
-      mesh.center = new UnwritableVectorIJK(xStats.getMean(), yStats.getMean(), zStats.getMean());
-      mesh.boundingBox = new BoundingBox(
-          new UnwritableVectorIJK(xStats.getMinimumValue(), yStats.getMinimumValue(),
-              zStats.getMinimumValue()),
-          new UnwritableVectorIJK(xStats.getMaximumValue(), yStats.getMaximumValue(),
-              zStats.getMaximumValue()));
-      mesh.threadLocalOctree = new ThreadLocal<>();
-
-      // this ratio should be about 10
-      double maxSide = Math.max(mesh.boundingBox.getxRange().getLength(), Math
-          .max(mesh.boundingBox.getyRange().getLength(), mesh.boundingBox.getzRange().getLength()));
-
-      // octree levels above 10 require box indices to be long
-      int octreeLevel = Math.min(10,
-          (int) (Math.log(maxSide / (10 * edgeStats.getMean())) / Math.log(2.0) + 0.5));
-      double boxSize = maxSide / Math.pow(2, octreeLevel);
-      logger.printf(Level.DEBUG,
-          "Octree level %d, Mean edge length %f, box size %f, box size/edge length %f", octreeLevel,
-          edgeStats.getMean(), boxSize, boxSize / edgeStats.getMean());
-      mesh.buildFacetOctreeMap(octreeLevel);
-      return mesh;
-    }
+  /**
+   * @return copy of the facet vertex indices packed as i0, j0, k0, i1, j1, k1...
+   */
+  public int[] getPackedTriangles() {
+    return triangles.clone();
   }
 
-  private Octree getOctree() {
-    Octree octree = threadLocalOctree.get();
-    if (octree == null) {
-      octree = new Octree(boundingBox);
-      threadLocalOctree.set(octree);
-    }
-    return octree;
+  /**
+   * @param facetIndex
+   * @return indices of the three vertices of this facet
+   */
+  public int[] getFacetVertexIndices(int facetIndex) {
+    return Arrays.copyOfRange(triangles, 3 * facetIndex, 3 * facetIndex + 3);
+  }
+
+  /**
+   * @param vertexIndex
+   * @return indices of facets containing this vertex, in increasing order
+   */
+  public int[] getVertexFacetIndices(int vertexIndex) {
+    return Arrays.copyOfRange(vertexFacets, vertexFacetOffsets[vertexIndex],
+        vertexFacetOffsets[vertexIndex + 1]);
   }
 
   /**
@@ -407,7 +489,7 @@ public class TriangularMesh implements Surface {
    * @return
    */
   public List<UnwritableVectorIJK> getVertexList() {
-    return Collections.unmodifiableList(vertexList);
+    return vertexList;
   }
 
   /**
@@ -416,17 +498,31 @@ public class TriangularMesh implements Surface {
    * @return
    */
   public List<TriangularFacet> getFacetList() {
-    return Collections.unmodifiableList(facetList);
+    return facetList;
   }
 
   /**
    * Return a mapping from vertex to list index. Add 1 to this index to get the corresponding OBJ
-   * vertex number (which start from 1).
+   * vertex number (which start from 1). If two vertices have the same coordinates the later index
+   * is returned.
    * 
    * @return
    */
   public Map<UnwritableVectorIJK, Integer> getVertexIndexMap() {
-    return vertexIndexMap;
+    Map<UnwritableVectorIJK, Integer> map = vertexIndexMap;
+    if (map == null) {
+      synchronized (this) {
+        if (vertexIndexMap == null) {
+          Map<UnwritableVectorIJK, Integer> newMap = new HashMap<>();
+          for (int i = 0; i < vertexList.size(); i++) {
+            newMap.put(vertexList.get(i), i);
+          }
+          vertexIndexMap = Collections.unmodifiableMap(newMap);
+        }
+        map = vertexIndexMap;
+      }
+    }
+    return map;
   }
 
   /**
@@ -435,16 +531,47 @@ public class TriangularMesh implements Surface {
    * @return
    */
   public Map<TriangularFacet, Integer> getFacetIndexMap() {
-    return facetIndexMap;
+    Map<TriangularFacet, Integer> map = facetIndexMap;
+    if (map == null) {
+      synchronized (this) {
+        if (facetIndexMap == null) {
+          Map<TriangularFacet, Integer> newMap = new IdentityHashMap<>(facetList.size());
+          for (int i = 0; i < facetList.size(); i++) {
+            newMap.put(facetList.get(i), i);
+          }
+          facetIndexMap = Collections.unmodifiableMap(newMap);
+        }
+        map = facetIndexMap;
+      }
+    }
+    return map;
   }
 
   /**
-   * Return a list of facets containing this vertex
+   * Return a list of facets containing this vertex. Vertices with the same coordinates share an
+   * entry.
    * 
    * @return
    */
   public Map<UnwritableVectorIJK, List<TriangularFacet>> getVertexFacetMap() {
-    return vertexFacetMap;
+    Map<UnwritableVectorIJK, List<TriangularFacet>> map = vertexFacetMap;
+    if (map == null) {
+      synchronized (this) {
+        if (vertexFacetMap == null) {
+          Map<UnwritableVectorIJK, List<TriangularFacet>> newMap = new HashMap<>();
+          for (int i = 0; i < vertexList.size(); i++) {
+            List<TriangularFacet> facets =
+                newMap.computeIfAbsent(vertexList.get(i), k -> new ArrayList<>());
+            for (int j = vertexFacetOffsets[i]; j < vertexFacetOffsets[i + 1]; j++) {
+              facets.add(facetList.get(vertexFacets[j]));
+            }
+          }
+          vertexFacetMap = Collections.unmodifiableMap(newMap);
+        }
+        map = vertexFacetMap;
+      }
+    }
+    return map;
   }
 
   /**
@@ -456,15 +583,6 @@ public class TriangularMesh implements Surface {
     return center;
   }
 
-  /**
-   * return a mapping of octree box index to {@link Set} of facets contained in the box
-   * 
-   * @return
-   */
-  public Map<Integer, Set<TriangularFacet>> getFacetOctreeMap() {
-    return facetOctreeMap;
-  }
-
   /**
    * Get the {@link BoundingBox} which encloses the mesh with its edges parallel to the coordinate
    * system axes.
@@ -475,18 +593,17 @@ public class TriangularMesh implements Surface {
     return boundingBox;
   }
 
-  private void buildFacetOctreeMap(int level) {
-    facetOctreeMap = new HashMap<>();
-    octreeLevel = level;
-    for (TriangularFacet facet : facetList) {
-      for (UnwritableVectorIJK v : facet.getVertices()) {
-        int index = getOctree().getIndex(v, level);
-        Set<TriangularFacet> facets = facetOctreeMap.get(index);
-        if (facets == null) {
-          facets = new HashSet<>();
-          facetOctreeMap.put(index, facets);
-        }
-        facets.add(facet);
+  /**
+   * Add facets sharing a vertex with this one, including itself, to the set
+   * 
+   * @param facetIndex
+   * @param neighbors
+   */
+  private void addFacetNeighbors(int facetIndex, BitSet neighbors) {
+    for (int i = 3 * facetIndex; i < 3 * facetIndex + 3; i++) {
+      int vertex = triangles[i];
+      for (int j = vertexFacetOffsets[vertex]; j < vertexFacetOffsets[vertex + 1]; j++) {
+        neighbors.set(vertexFacets[j]);
       }
     }
   }
@@ -497,10 +614,13 @@ public class TriangularMesh implements Surface {
    * @return
    */
   public Set<TriangularFacet> getFacetNeighbors(TriangularFacet tf) {
-    Set<TriangularFacet> facets = new TreeSet<>(FACET_DISTANCE_COMPARATOR(tf));
+    Set<TriangularFacet> facets =
+        new TreeSet<>(FACET_DISTANCE_COMPARATOR(tf).thenComparing(FACET_INDEX_COMPARATOR));
 
-    for (UnwritableVectorIJK vertex : tf.getVertices()) {
-      facets.addAll(vertexFacetMap.get(vertex));
+    BitSet neighbors = new BitSet();
+    addFacetNeighbors(getFacetIndexMap().get(tf), neighbors);
+    for (int i = neighbors.nextSetBit(0); i >= 0; i = neighbors.nextSetBit(i + 1)) {
+      facets.add(facetList.get(i));
     }
     return Collections.unmodifiableSet(facets);
   }
@@ -511,31 +631,30 @@ public class TriangularMesh implements Surface {
    * @return
    */
   public Set<TriangularFacet> getFacetsWithinRadius(TriangularFacet tf, double radius) {
-    Set<TriangularFacet> facets = new TreeSet<>(FACET_DISTANCE_COMPARATOR(tf));
-    facets.add(tf);
+    Set<TriangularFacet> facets =
+        new TreeSet<>(FACET_DISTANCE_COMPARATOR(tf).thenComparing(FACET_INDEX_COMPARATOR));
 
     UnwritableVectorIJK center = tf.getCenter();
 
-    while (true) {
-
-      Set<TriangularFacet> currentFacets = new HashSet<>(facets);
-      int facetSize = currentFacets.size();
-
-      for (TriangularFacet facet : currentFacets) {
-        for (TriangularFacet neighbor : getFacetNeighbors(facet)) {
-          if (!facets.contains(neighbor)) {
-            if (neighbor.getCenter().getDistance(center) < radius) {
-              facets.add(neighbor);
-            }
-          }
+    // breadth first search outward from tf
+    int start = getFacetIndexMap().get(tf);
+    BitSet visited = new BitSet();
+    visited.set(start);
+    Deque<Integer> queue = new ArrayDeque<>();
+    queue.add(start);
+    BitSet neighbors = new BitSet();
+    while (!queue.isEmpty()) {
+      int facet = queue.poll();
+      facets.add(facetList.get(facet));
+
+      neighbors.clear();
+      addFacetNeighbors(facet, neighbors);
+      for (int i = neighbors.nextSetBit(0); i >= 0; i = neighbors.nextSetBit(i + 1)) {
+        if (!visited.get(i) && facetList.get(i).getCenter().getDistance(center) < radius) {
+          visited.set(i);
+          queue.add(i);
         }
       }
-
-      // we're done if we haven't added any more facets in this loop
-      if (facets.size() == facetSize) {
-        break;
-      }
-
     }
 
     return Collections.unmodifiableSet(facets);
@@ -552,7 +671,7 @@ public class TriangularMesh implements Surface {
    */
   public Set<TriangularFacet> getFacetsWithinRadius(UnwritableVectorIJK point, double radius) {
 
-    Set<UnwritableVectorIJK> vertices = getVerticesWithinRadius(point, radius);
+    BitSet vertices = getVertexIndicesWithinRadius(point, radius);
     Set<TriangularFacet> facets = new TreeSet<>(new Comparator<TriangularFacet>() {
 
       @Override
@@ -562,15 +681,13 @@ public class TriangularMesh implements Surface {
         return Double.compare(dist1, dist2);
       }
 
-    });
+    }.thenComparing(FACET_INDEX_COMPARATOR));
 
-    for (UnwritableVectorIJK v : vertices) {
-      List<TriangularFacet> facetList = vertexFacetMap.get(v);
-      for (TriangularFacet facet : facetList) {
-        if (!facets.contains(facet)) {
-          if (facet.getCenter().getDistance(point) < radius) {
-            facets.add(facet);
-          }
+    for (int v = vertices.nextSetBit(0); v >= 0; v = vertices.nextSetBit(v + 1)) {
+      for (int j = vertexFacetOffsets[v]; j < vertexFacetOffsets[v + 1]; j++) {
+        TriangularFacet facet = facetList.get(vertexFacets[j]);
+        if (facet.getCenter().getDistance(point) < radius) {
+          facets.add(facet);
         }
       }
     }
@@ -590,34 +707,55 @@ public class TriangularMesh implements Surface {
   public Set<UnwritableVectorIJK> getVerticesWithinRadius(UnwritableVectorIJK point,
       double radius) {
 
-    Set<UnwritableVectorIJK> vertices = new TreeSet<>(VERTEX_DISTANCE_COMPARATOR(point));
-
-    NavigableSet<TriangularFacet> facets =
-        getIntersections(getCenter(), VectorIJK.subtract(point, getCenter()));
-
-    while (true) {
+    Set<UnwritableVectorIJK> vertices = new TreeSet<>(VERTEX_DISTANCE_COMPARATOR(point)
+        .thenComparingDouble(UnwritableVectorIJK::getI)
+        .thenComparingDouble(UnwritableVectorIJK::getJ)
+        .thenComparingDouble(UnwritableVectorIJK::getK));
+    BitSet indices = getVertexIndicesWithinRadius(point, radius);
+    for (int v = indices.nextSetBit(0); v >= 0; v = indices.nextSetBit(v + 1)) {
+      vertices.add(vertexList.get(v));
+    }
+    return vertices;
+  }
 
-      Set<TriangularFacet> currentFacets = new HashSet<>(facets);
-      int facetSize = currentFacets.size();
+  /**
+   * Search outward from the facets intersected by the ray from the mesh center towards point.
+   * Facets sharing a vertex with a facet already found are added if any of their vertices are
+   * within radius of point.
+   * 
+   * @param point
+   * @param radius
+   * @return indices of vertices within radius of point
+   */
+  private BitSet getVertexIndicesWithinRadius(UnwritableVectorIJK point, double radius) {
+    BitSet vertices = new BitSet();
+    BitSet visited = new BitSet();
+    Deque<Integer> queue = new ArrayDeque<>();
+    Map<TriangularFacet, Integer> facetIndexMap = getFacetIndexMap();
+    for (TriangularFacet facet : getIntersections(getCenter(),
+        VectorIJK.subtract(point, getCenter()))) {
+      int index = facetIndexMap.get(facet);
+      visited.set(index);
+      queue.add(index);
+    }
 
-      for (TriangularFacet facet : currentFacets) {
-        for (TriangularFacet neighbor : getFacetNeighbors(facet)) {
-          for (UnwritableVectorIJK vertex : neighbor.getVertices()) {
-            if (!vertices.contains(vertex)) {
-              if (vertex.getDistance(point) < radius) {
-                vertices.add(vertex);
-                facets.add(neighbor);
-              }
+    BitSet neighbors = new BitSet();
+    while (!queue.isEmpty()) {
+      int facet = queue.poll();
+      neighbors.clear();
+      addFacetNeighbors(facet, neighbors);
+      for (int i = neighbors.nextSetBit(0); i >= 0; i = neighbors.nextSetBit(i + 1)) {
+        for (int j = 3 * i; j < 3 * i + 3; j++) {
+          int vertex = triangles[j];
+          if (!vertices.get(vertex) && vertexList.get(vertex).getDistance(point) < radius) {
+            vertices.set(vertex);
+            if (!visited.get(i)) {
+              visited.set(i);
+              queue.add(i);
             }
           }
         }
       }
-
-      // we're done if we haven't added any more facets in this loop
-      if (facets.size() == facetSize) {
-        break;
-      }
-
     }
 
     return vertices;
@@ -630,19 +768,17 @@ public class TriangularMesh implements Surface {
    * @return
    */
   public TriangularMesh rotate(UnwritableRotationMatrixIJK rotate) {
-    Builder builder = new Builder();
     UnwritableVectorIJK center = getCenter();
-    for (UnwritableVectorIJK v : vertexList) {
-      VectorIJK rotatedVector = VectorIJK.add(rotate.mxv(VectorIJK.subtract(v, center)), center);
-      builder.addVertex(rotatedVector);
-    }
-
-    for (TriangularFacet f : facetList) {
-      builder.addFacet(vertexList.indexOf(f.getVertex1()), vertexList.indexOf(f.getVertex2()),
-          vertexList.indexOf(f.getVertex3()));
-    }
+    double[] rotated = new double[vertices.length];
+    IntStream.range(0, vertexList.size()).parallel().forEach(i -> {
+      VectorIJK v = rotate.mxv(new VectorIJK(vertices[3 * i] - center.getI(),
+          vertices[3 * i + 1] - center.getJ(), vertices[3 * i + 2] - center.getK()));
+      rotated[3 * i] = v.getI() + center.getI();
+      rotated[3 * i + 1] = v.getJ() + center.getJ();
+      rotated[3 * i + 2] = v.getK() + center.getK();
+    });
 
-    return builder.build();
+    return new TriangularMesh(rotated, triangles);
   }
 
   /**
@@ -652,20 +788,13 @@ public class TriangularMesh implements Surface {
    * @return
    */
   public TriangularMesh scale(double scale) {
-
-    Builder builder = new Builder();
     UnwritableVectorIJK center = getCenter();
-    for (UnwritableVectorIJK v : vertexList) {
-      VectorIJK scaledVector = VectorIJK.add(VectorIJK.subtract(v, center).scale(scale), center);
-      builder.addVertex(scaledVector);
-    }
+    double[] c = {center.getI(), center.getJ(), center.getK()};
+    double[] scaled = new double[vertices.length];
+    IntStream.range(0, vertices.length).parallel()
+        .forEach(i -> scaled[i] = (vertices[i] - c[i % 3]) * scale + c[i % 3]);
 
-    for (TriangularFacet f : facetList) {
-      builder.addFacet(vertexList.indexOf(f.getVertex1()), vertexList.indexOf(f.getVertex2()),
-          vertexList.indexOf(f.getVertex3()));
-    }
-
-    return builder.build();
+    return new TriangularMesh(scaled, triangles);
   }
 
   /**
@@ -675,25 +804,42 @@ public class TriangularMesh implements Surface {
    * @return
    */
   public TriangularMesh subset(Collection<TriangularFacet> facets) {
-
-    Set<UnwritableVectorIJK> vertexSet = new HashSet<>();
+    Map<TriangularFacet, Integer> facetIndexMap = getFacetIndexMap();
+    int[] facetIndices = new int[facets.size()];
+    int i = 0;
     for (TriangularFacet facet : facets) {
-      vertexSet.addAll(facet.getVertices());
+      facetIndices[i++] = facetIndexMap.get(facet);
     }
+    return subset(facetIndices);
+  }
 
-    List<UnwritableVectorIJK> vertexList = new ArrayList<>();
-    vertexList.addAll(vertexSet);
-
-    Builder builder = new Builder();
-    for (UnwritableVectorIJK vertex : vertexList) {
-      builder.addVertex(vertex);
-    }
-    for (TriangularFacet facet : facets) {
-      builder.addFacet(vertexList.indexOf(facet.getVertex1()),
-          vertexList.indexOf(facet.getVertex2()), vertexList.indexOf(facet.getVertex3()));
+  /**
+   * Create a mesh from the supplied facets. Vertices are numbered in order of first use.
+   * 
+   * @param facetIndices indices of facets to include
+   * @return
+   */
+  public TriangularMesh subset(int[] facetIndices) {
+    int[] newIndex = new int[vertexList.size()];
+    Arrays.fill(newIndex, -1);
+
+    int[] subsetTriangles = new int[3 * facetIndices.length];
+    int numVertices = 0;
+    for (int i = 0; i < facetIndices.length; i++) {
+      for (int j = 0; j < 3; j++) {
+        int vertex = triangles[3 * facetIndices[i] + j];
+        if (newIndex[vertex] < 0) {
+          newIndex[vertex] = numVertices++;
+        }
+        subsetTriangles[3 * i + j] = newIndex[vertex];
+      }
     }
 
-    return builder.build();
+    double[] subsetVertices = new double[3 * numVertices];
+    IntStream.range(0, newIndex.length).parallel().filter(i -> newIndex[i] >= 0)
+        .forEach(i -> System.arraycopy(vertices, 3 * i, subsetVertices, 3 * newIndex[i], 3));
+
+    return new TriangularMesh(subsetVertices, subsetTriangles);
   }
 
   /**
@@ -703,19 +849,70 @@ public class TriangularMesh implements Surface {
    * @return
    */
   public TriangularMesh translate(UnwritableVectorIJK translate) {
+    double[] t = {translate.getI(), translate.getJ(), translate.getK()};
+    double[] translated = new double[vertices.length];
+    IntStream.range(0, vertices.length).parallel()
+        .forEach(i -> translated[i] = vertices[i] + t[i % 3]);
 
-    Builder builder = new Builder();
-    for (UnwritableVectorIJK v : vertexList) {
-      VectorIJK translatedVector = VectorIJK.add(v, translate);
-      builder.addVertex(translatedVector);
+    return new TriangularMesh(translated, triangles);
+  }
+
+  /**
+   * Find where the line through origin along direction crosses a facet. Uses the same test as
+   * {@link TriangularFacet#intersects(UnwritableVectorIJK, UnwritableVectorIJK)}.
+   * 
+   * @param facet facet index
+   * @param origin
+   * @param direction
+   * @return distance along the line in units of direction, which may be negative, or NaN if the
+   *         line does not cross the facet
+   */
+  private double intersectFacet(int facet, double[] origin, double[] direction) {
+    final double EPS = 1e-12;
+
+    int a = 3 * triangles[3 * facet];
+    int b = 3 * triangles[3 * facet + 1];
+    int c = 3 * triangles[3 * facet + 2];
+
+    double e1x = vertices[b] - vertices[a];
+    double e1y = vertices[b + 1] - vertices[a + 1];
+    double e1z = vertices[b + 2] - vertices[a + 2];
+    double e2x = vertices[c] - vertices[a];
+    double e2y = vertices[c + 1] - vertices[a + 1];
+    double e2z = vertices[c + 2] - vertices[a + 2];
+
+    // pvec = direction x edge2
+    double px = direction[1] * e2z - direction[2] * e2y;
+    double py = direction[2] * e2x - direction[0] * e2z;
+    double pz = direction[0] * e2y - direction[1] * e2x;
+    double det = e1x * px + e1y * py + e1z * pz;
+    if (det > -EPS && det < EPS) {
+      return Double.NaN;
+    }
+    double invDet = 1 / det;
+
+    double tx = origin[0] - vertices[a];
+    double ty = origin[1] - vertices[a + 1];
+    double tz = origin[2] - vertices[a + 2];
+    double u = (tx * px + ty * py + tz * pz) * invDet;
+    if (u < 0 || u > 1) {
+      return Double.NaN;
     }
 
-    for (TriangularFacet f : facetList) {
-      builder.addFacet(vertexList.indexOf(f.getVertex1()), vertexList.indexOf(f.getVertex2()),
-          vertexList.indexOf(f.getVertex3()));
+    // qvec = tvec x edge1
+    double qx = ty * e1z - tz * e1y;
+    double qy = tz * e1x - tx * e1z;
+    double qz = tx * e1y - ty * e1x;
+    double v = (direction[0] * qx + direction[1] * qy + direction[2] * qz) * invDet;
+    if (v < 0 || u + v > 1) {
+      return Double.NaN;
     }
 
-    return builder.build();
+    return (e2x * qx + e2y * qy + e2z * qz) * invDet;
+  }
+
+  private static double[] toArray(UnwritableVectorIJK v) {
+    return new double[] {v.getI(), v.getJ(), v.getK()};
   }
 
   /**
@@ -730,35 +927,9 @@ public class TriangularMesh implements Surface {
   public NavigableSet<TriangularFacet> getIntersections(UnwritableVectorIJK origin,
       UnwritableVectorIJK direction) {
 
-    /*-
-    		 List<TriangularFacet> list = facetList.parallelStream()
-    		 .filter(f -> lookDir.getDirection().getDot(VectorIJK.subtract(f.getCenter(),
-    		 getCenter())) < 0
-    		 && f.intersects(lookDir))
-    		 .collect(Collectors.toList());
-    		 */
-
     // if the origin is inside the bounding box, do a check to ensure that any
     // intersections are along the specified direction
-    final boolean outsideBox = !getOctree().getBoundingBox(0).closedContains(origin);
-
-    // find the list of bounding boxes intersected by the ray
-    Set<Integer> boxIndices = new HashSet<>();
-    boxIndices.add(0);
-    for (int level = 0; level < octreeLevel; level++) {
-      Set<Integer> nextIndices = new HashSet<>();
-      for (int index : boxIndices) {
-        if (getOctree().getBoundingBox(index).intersects(origin, direction)) {
-          nextIndices.add(index);
-        }
-      }
-      boxIndices = new HashSet<>();
-      for (int index : nextIndices) {
-        boxIndices.addAll(getOctree().contains(index));
-      }
-    }
-    // intersection with set of boxes containing facets
-    boxIndices.retainAll(facetOctreeMap.keySet());
+    final boolean outsideBox = !boundingBox.closedContains(origin);
 
     // now collect all the facets intersected by the ray, sorted by distance to the
     // origin
@@ -772,25 +943,33 @@ public class TriangularMesh implements Surface {
 
         });
 
-    // Set<TriangularFacet> candidates = new HashSet<>();
-    for (int index : boxIndices) {
-      Set<TriangularFacet> candidates = facetOctreeMap.get(index);
-      for (TriangularFacet f : candidates) {
-        if (f.intersects(origin, direction)) {
-          if (outsideBox || VectorIJK.subtract(f.getCenter(), origin).getDot(direction) > 0) {
-            intersectingFacets.add(f);
-          }
+    double[] o = toArray(origin);
+    double[] d = toArray(direction);
+    octree.forEachCandidate(o, d, facet -> {
+      if (!Double.isNaN(intersectFacet(facet, o, d))) {
+        TriangularFacet f = facetList.get(facet);
+        if (outsideBox || VectorIJK.subtract(f.getCenter(), origin).getDot(direction) > 0) {
+          intersectingFacets.add(f);
         }
       }
-      // candidates.addAll(facetOctreeMap.get(index));
-    }
-
-    // intersectingFacets.addAll(candidates.parallelStream().filter(f ->
-    // f.intersects(origin, direction)).collect(Collectors.toSet()));
+    });
 
     return intersectingFacets;
   }
 
+  /**
+   * Find the first facet hit by a ray.
+   * 
+   * @param origin ray origin
+   * @param direction ray direction
+   * @return index of the facet with the nearest intersection in front of origin, or -1 if the ray
+   *         does not hit the mesh
+   */
+  public int getNearestIntersection(UnwritableVectorIJK origin, UnwritableVectorIJK direction) {
+    return octree.nearest(toArray(origin), toArray(direction), 0, Double.MAX_VALUE,
+        this::intersectFacet);
+  }
+
   /**
    * Draw a ray from the Sun to the facet center. If the nearest facet intersected by the ray is
    * this facet, it is not in shadow.
@@ -802,11 +981,26 @@ public class TriangularMesh implements Surface {
    * @return 0 if not in shadow, 1 if shadowed
    */
   public double isInShadow(TriangularFacet f, UnwritableVectorIJK sunPos) {
+    return isInShadow(getFacetIndexMap().get(f), sunPos);
+  }
+
+  /**
+   * Draw a ray from the Sun to the facet center. If no other facet is crossed before the ray
+   * reaches the center, the facet is not in shadow.
+   * 
+   * @param facetIndex
+   * @param sunPos sun position in the mesh coordinate system
+   * @return 0 if not in shadow, 1 if shadowed
+   */
+  public double isInShadow(int facetIndex, UnwritableVectorIJK sunPos) {
     double shadow = 1;
+    TriangularFacet f = facetList.get(facetIndex);
     VectorIJK lookDir = VectorIJK.subtract(f.getCenter(), sunPos);
     if (f.getNormal().getDot(lookDir) < 0) {
-      NavigableSet<TriangularFacet> list = getIntersections(sunPos, lookDir);
-      if (list.size() > 0 && f.equals(list.first())) {
+      // lookDir runs from the Sun to the facet center, so blockers have 0 <= t < 1
+      boolean blocked = octree.any(toArray(sunPos), toArray(lookDir), 0, 1,
+          (facet, o, d) -> facet == facetIndex ? Double.NaN : intersectFacet(facet, o, d));
+      if (!blocked) {
         shadow = 0.;
       }
     }
@@ -815,54 +1009,34 @@ public class TriangularMesh implements Surface {
 
   @Override
   public VectorIJK computeOutwardNormal(UnwritableVectorIJK surfacePoint, VectorIJK buffer) {
-    NavigableSet<TriangularFacet> list =
-        getIntersections(getCenter(), VectorIJK.subtract(surfacePoint, getCenter()));
-    if (list.size() > 0) {
-      // note this is the closest facet to surfacePoint but may not be the last facet
-      // intersected by the ray on its way out
-      buffer.setTo(list.first().getNormal());
+    int facet =
+        getNearestIntersection(getCenter(), VectorIJK.subtract(surfacePoint, getCenter()));
+    if (facet >= 0) {
+      // note this is the first facet intersected by the ray from the center but may not be the
+      // last facet intersected by the ray on its way out
+      buffer.setTo(facetList.get(facet).getNormal());
     }
 
     return buffer;
   }
 
+  /**
+   * Check if the line through source along ray crosses the mesh. As with
+   * {@link TriangularFacet#intersects(UnwritableVectorIJK, UnwritableVectorIJK)}, crossings behind
+   * source count. Use {@link #getNearestIntersection(UnwritableVectorIJK, UnwritableVectorIJK)} to
+   * find hits in front of source only.
+   */
   @Override
   public boolean intersects(UnwritableVectorIJK source, UnwritableVectorIJK ray) {
-
-    // set of boxes intersected by the ray
-    Set<Integer> boxIndices = getOctree().contains(0);
-    for (int level = 1; level < octreeLevel; level++) {
-      Set<Integer> nextIndices = new HashSet<>();
-      for (int index : boxIndices) {
-        if (getOctree().getBoundingBox(index).intersects(source, ray)) {
-          nextIndices.add(index);
-        }
-      }
-      boxIndices = new HashSet<>();
-      for (int index : nextIndices) {
-        boxIndices.addAll(getOctree().contains(index));
-      }
-    }
-
-    // intersection with set of boxes containing facets
-    boxIndices.retainAll(facetOctreeMap.keySet());
-    for (int index : boxIndices) {
-      Set<TriangularFacet> candidates = facetOctreeMap.get(index);
-      for (TriangularFacet f : candidates) {
-        if (f.intersects(source, ray)) {
-          return true;
-        }
-      }
-    }
-
-    return false;
+    return octree.any(toArray(source), toArray(ray), -Double.MAX_VALUE, Double.MAX_VALUE,
+        this::intersectFacet);
   }
 
   @Override
   public VectorIJK compute(UnwritableVectorIJK source, UnwritableVectorIJK ray, VectorIJK buffer) {
-    NavigableSet<TriangularFacet> list = getIntersections(source, ray);
-    if (list.size() > 0) {
-      buffer.setTo(list.first().getCenter());
+    int facet = getNearestIntersection(source, ray);
+    if (facet >= 0) {
+      buffer.setTo(facetList.get(facet).getCenter());
     }
 
     return buffer;
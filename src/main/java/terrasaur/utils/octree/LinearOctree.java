@@ -0,0 +1,618 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.octree;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Linear octree over a set of items with axis aligned bounds, such as the facets of a shape model.
+ * Items are sorted by the Morton code of their box centers so that each octree node holds a
+ * contiguous range of items. Nodes are stored in primitive arrays in breadth first order, with the
+ * children of each node stored next to each other. Each node stores the bounds of the items it
+ * contains, which may extend past the octree cell.
+ * <p>
+ * Only occupied nodes are stored. A node is split until it holds no more than a given number of
+ * items or reaches the maximum level, so the depth adapts to the item density in each region.
+ * Each node is identified by a 64 bit locational code: a leading 1 bit followed by three bits for
+ * each level of the path from the root. Nodes are stored in increasing order of this code.
+ * <p>
+ * The octree is immutable once built and may be queried from any number of threads. Ray queries
+ * do not allocate apart from a small traversal stack.
+ *
+ * @author nairah1
+ *
+ */
+public class LinearOctree {
+
+  /** Morton codes are 63 bit longs, 21 bits per axis */
+  public static final int MAX_LEVEL = 21;
+
+  /**
+   * Ray intersection test for a single item.
+   */
+  @FunctionalInterface
+  public interface RayIntersector {
+    /**
+     * @param item item index
+     * @param origin ray origin
+     * @param direction ray direction
+     * @return distance along the ray to the intersection in units of direction, or NaN if there is
+     *         no intersection
+     */
+    double intersect(int item, double[] origin, double[] direction);
+  }
+
+  private final int level;
+  private final int maxItemsPerLeaf;
+
+  /** item indices sorted by Morton code */
+  private final int[] items;
+
+  private final int numNodes;
+
+  /** locational code of each node, in increasing unsigned order */
+  private final long[] nodeKeys;
+
+  /** six values per node: xmin, ymin, zmin, xmax, ymax, zmax */
+  private final double[] nodeBounds;
+
+  /** index of the first child, or -1 for a leaf */
+  private final int[] firstChild;
+  private final byte[] numChildren;
+
+  /** items in a node are items[itemStart] to items[itemEnd-1] */
+  private final int[] itemStart;
+  private final int[] itemEnd;
+
+  /**
+   * Build the octree, splitting nodes down to a single item.
+   *
+   * @param itemBounds six values per item: xmin, ymin, zmin, xmax, ymax, zmax
+   * @param level maximum depth of the octree, up to {@link #MAX_LEVEL}
+   */
+  public LinearOctree(double[] itemBounds, int level) {
+    this(itemBounds, level, 1);
+  }
+
+  /**
+   * Build the octree.
+   *
+   * @param itemBounds six values per item: xmin, ymin, zmin, xmax, ymax, zmax
+   * @param level maximum depth of the octree, up to {@link #MAX_LEVEL}
+   * @param maxItemsPerLeaf nodes with more items than this are split unless they are at the
+   *        maximum depth
+   */
+  public LinearOctree(double[] itemBounds, int level, int maxItemsPerLeaf) {
+    this.level = Math.max(0, Math.min(MAX_LEVEL, level));
+    this.maxItemsPerLeaf = Math.max(1, maxItemsPerLeaf);
+    int numItems = itemBounds.length / 6;
+
+    double[] rootBounds = emptyBounds();
+    for (int i = 0; i < numItems; i++) {
+      union(rootBounds, itemBounds, 6 * i);
+    }
+
+    // sort items by Morton code of box center
+    long[] codes = new long[numItems];
+    int side = 1 << MAX_LEVEL;
+    IntStream.range(0, numItems).parallel().forEach(i -> {
+      int[] cell = new int[3];
+      for (int j = 0; j < 3; j++) {
+        double center = 0.5 * (itemBounds[6 * i + j] + itemBounds[6 * i + j + 3]);
+        double range = rootBounds[j + 3] - rootBounds[j];
+        double scaled = range > 0 ? (center - rootBounds[j]) / range : 0;
+        cell[j] = Math.max(0, Math.min(side - 1, (int) (scaled * side)));
+      }
+      codes[i] = mortonCode(cell[0], cell[1], cell[2]);
+    });
+    items = new int[numItems];
+    for (int i = 0; i < numItems; i++) {
+      items[i] = i;
+    }
+    radixSort(codes, items);
+
+    // breadth first construction so that siblings are contiguous
+    int capacity = Math.max(16, numItems / 2);
+    int[] firstChild = new int[capacity];
+    byte[] numChildren = new byte[capacity];
+    int[] itemStart = new int[capacity];
+    int[] itemEnd = new int[capacity];
+    int[] nodeLevel = new int[capacity];
+    long[] nodeKeys = new long[capacity];
+
+    int numNodes = 1;
+    firstChild[0] = -1;
+    itemStart[0] = 0;
+    itemEnd[0] = numItems;
+    nodeLevel[0] = 0;
+    nodeKeys[0] = 1;
+    for (int node = 0; node < numNodes; node++) {
+      int start = itemStart[node];
+      int end = itemEnd[node];
+      int nodeDepth = nodeLevel[node];
+      if (nodeDepth >= this.level || end - start <= this.maxItemsPerLeaf) {
+        firstChild[node] = -1;
+        continue;
+      }
+
+      int shift = 3 * (MAX_LEVEL - 1 - nodeDepth);
+      firstChild[node] = numNodes;
+      int childStart = start;
+      while (childStart < end) {
+        int octant = (int) (codes[childStart] >>> shift) & 7;
+        int childEnd = childStart + 1;
+        while (childEnd < end && ((int) (codes[childEnd] >>> shift) & 7) == octant) {
+          childEnd++;
+        }
+
+        if (numNodes == firstChild.length) {
+          int newCapacity = 2 * firstChild.length;
+          firstChild = Arrays.copyOf(firstChild, newCapacity);
+          numChildren = Arrays.copyOf(numChildren, newCapacity);
+          itemStart = Arrays.copyOf(itemStart, newCapacity);
+          itemEnd = Arrays.copyOf(itemEnd, newCapacity);
+          nodeLevel = Arrays.copyOf(nodeLevel, newCapacity);
+          nodeKeys = Arrays.copyOf(nodeKeys, newCapacity);
+        }
+        firstChild[numNodes] = -1;
+        itemStart[numNodes] = childStart;
+        itemEnd[numNodes] = childEnd;
+        nodeLevel[numNodes] = nodeDepth + 1;
+        nodeKeys[numNodes] = (nodeKeys[node] << 3) | octant;
+        numNodes++;
+        numChildren[node]++;
+
+        childStart = childEnd;
+      }
+    }
+
+    this.numNodes = numNodes;
+    this.firstChild = Arrays.copyOf(firstChild, numNodes);
+    this.numChildren = Arrays.copyOf(numChildren, numNodes);
+    this.itemStart = Arrays.copyOf(itemStart, numNodes);
+    this.itemEnd = Arrays.copyOf(itemEnd, numNodes);
+    this.nodeKeys = Arrays.copyOf(nodeKeys, numNodes);
+
+    // children always follow their parent, so fill in bounds from the bottom up
+    nodeBounds = new double[6 * numNodes];
+    for (int node = numNodes - 1; node >= 0; node--) {
+      System.arraycopy(emptyBounds(), 0, nodeBounds, 6 * node, 6);
+      if (this.firstChild[node] < 0) {
+        for (int i = this.itemStart[node]; i < this.itemEnd[node]; i++) {
+          unionInto(nodeBounds, 6 * node, itemBounds, 6 * items[i]);
+        }
+      } else {
+        for (int child = this.firstChild[node]; child < this.firstChild[node]
+            + this.numChildren[node]; child++) {
+          unionInto(nodeBounds, 6 * node, nodeBounds, 6 * child);
+        }
+      }
+    }
+  }
+
+  private static double[] emptyBounds() {
+    return new double[] {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE,
+        -Double.MAX_VALUE, -Double.MAX_VALUE};
+  }
+
+  private static void union(double[] bounds, double[] other, int offset) {
+    unionInto(bounds, 0, other, offset);
+  }
+
+  private static void unionInto(double[] bounds, int offset, double[] other, int otherOffset) {
+    for (int j = 0; j < 3; j++) {
+      bounds[offset + j] = Math.min(bounds[offset + j], other[otherOffset + j]);
+      bounds[offset + j + 3] = Math.max(bounds[offset + j + 3], other[otherOffset + j + 3]);
+    }
+  }
+
+  /**
+   * Interleave the low 21 bits of each argument, x in the lowest bit.
+   *
+   * @param x
+   * @param y
+   * @param z
+   * @return
+   */
+  static long mortonCode(int x, int y, int z) {
+    return spread(x) | (spread(y) << 1) | (spread(z) << 2);
+  }
+
+  private static long spread(int i) {
+    long v = i & 0x1fffffL;
+    v = (v | (v << 32)) & 0x1f00000000ffffL;
+    v = (v | (v << 16)) & 0x1f0000ff0000ffL;
+    v = (v | (v << 8)) & 0x100f00f00f00f00fL;
+    v = (v | (v << 4)) & 0x10c30c30c30c30c3L;
+    v = (v | (v << 2)) & 0x1249249249249249L;
+    return v;
+  }
+
+  /**
+   * Sort codes in increasing order and apply the same permutation to values. Least significant
+   * digit radix sort, eight bits at a time, which is stable.
+   *
+   * @param codes non-negative keys
+   * @param values
+   */
+  private static void radixSort(long[] codes, int[] values) {
+    int n = codes.length;
+    long[] codeBuffer = new long[n];
+    int[] valueBuffer = new int[n];
+    int[] count = new int[257];
+    for (int shift = 0; shift < 64; shift += 8) {
+      Arrays.fill(count, 0);
+      for (long code : codes) {
+        count[(int) (code >>> shift) & 0xff]++;
+      }
+      // skip digits that are the same for every code
+      if (n == 0 || count[(int) (codes[0] >>> shift) & 0xff] == n) {
+        continue;
+      }
+      for (int i = 0, total = 0; i < 256; i++) {
+        int c = count[i];
+        count[i] = total;
+        total += c;
+      }
+      for (int i = 0; i < n; i++) {
+        int digit = (int) (codes[i] >>> shift) & 0xff;
+        int j = count[digit]++;
+        codeBuffer[j] = codes[i];
+        valueBuffer[j] = values[i];
+      }
+      System.arraycopy(codeBuffer, 0, codes, 0, n);
+      System.arraycopy(valueBuffer, 0, values, 0, n);
+    }
+  }
+
+  /** @return number of items in the octree */
+  public int size() {
+    return items.length;
+  }
+
+  /** @return number of occupied nodes */
+  public int getNumberOfNodes() {
+    return numNodes;
+  }
+
+  /** @return maximum depth of the octree */
+  public int getLevel() {
+    return level;
+  }
+
+  /** @return largest number of items in a leaf above the maximum depth */
+  public int getMaxItemsPerLeaf() {
+    return maxItemsPerLeaf;
+  }
+
+  /**
+   * @param node node index
+   * @return locational code of the node: a leading 1 bit followed by three bits per level
+   */
+  public long getNodeKey(int node) {
+    return nodeKeys[node];
+  }
+
+  /**
+   * @param key locational code
+   * @return depth of the node with this code
+   */
+  public static int getLevel(long key) {
+    return (63 - Long.numberOfLeadingZeros(key)) / 3;
+  }
+
+  /**
+   * @param key locational code
+   * @return index of the node with this code, or -1 if the node is not occupied
+   */
+  public int findNode(long key) {
+    int lo = 0;
+    int hi = numNodes - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = Long.compareUnsigned(nodeKeys[mid], key);
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param node node index
+   * @return number of items in the node and all of its descendants
+   */
+  public int getNumberOfItems(int node) {
+    return itemEnd[node] - itemStart[node];
+  }
+
+  /**
+   * @param node node index
+   * @return true if the node has no children
+   */
+  public boolean isLeaf(int node) {
+    return firstChild[node] < 0;
+  }
+
+  /** Summary of how items are distributed among the octree nodes. */
+  public static class OccupancyStatistics {
+    private final int numNodes;
+    private final int numLeaves;
+    private final int maxDepth;
+    private final int[] nodesPerLevel;
+    private final int minItemsPerLeaf;
+    private final int maxItemsPerLeaf;
+    private final double meanItemsPerLeaf;
+
+    private OccupancyStatistics(int numNodes, int numLeaves, int maxDepth, int[] nodesPerLevel,
+        int minItemsPerLeaf, int maxItemsPerLeaf, double meanItemsPerLeaf) {
+      this.numNodes = numNodes;
+      this.numLeaves = numLeaves;
+      this.maxDepth = maxDepth;
+      this.nodesPerLevel = nodesPerLevel;
+      this.minItemsPerLeaf = minItemsPerLeaf;
+      this.maxItemsPerLeaf = maxItemsPerLeaf;
+      this.meanItemsPerLeaf = meanItemsPerLeaf;
+    }
+
+    public int getNumberOfNodes() {
+      return numNodes;
+    }
+
+    public int getNumberOfLeaves() {
+      return numLeaves;
+    }
+
+    /** @return depth of the deepest leaf */
+    public int getMaxDepth() {
+      return maxDepth;
+    }
+
+    /** @return number of occupied nodes at each level, starting with the root */
+    public int[] getNodesPerLevel() {
+      return nodesPerLevel.clone();
+    }
+
+    public int getMinItemsPerLeaf() {
+      return minItemsPerLeaf;
+    }
+
+    public int getMaxItemsPerLeaf() {
+      return maxItemsPerLeaf;
+    }
+
+    public double getMeanItemsPerLeaf() {
+      return meanItemsPerLeaf;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d nodes, %d leaves, max depth %d, items per leaf min %d mean %.1f max %d, "
+              + "nodes per level %s",
+          numNodes, numLeaves, maxDepth, minItemsPerLeaf, meanItemsPerLeaf, maxItemsPerLeaf,
+          Arrays.toString(nodesPerLevel));
+    }
+  }
+
+  /** @return occupancy statistics for this octree */
+  public OccupancyStatistics getOccupancyStatistics() {
+    int[] nodesPerLevel = new int[MAX_LEVEL + 1];
+    int numLeaves = 0;
+    int maxDepth = 0;
+    int minItems = Integer.MAX_VALUE;
+    int maxItems = 0;
+    long totalItems = 0;
+    for (int node = 0; node < numNodes; node++) {
+      int depth = getLevel(nodeKeys[node]);
+      nodesPerLevel[depth]++;
+      if (isLeaf(node)) {
+        int n = getNumberOfItems(node);
+        numLeaves++;
+        maxDepth = Math.max(maxDepth, depth);
+        minItems = Math.min(minItems, n);
+        maxItems = Math.max(maxItems, n);
+        totalItems += n;
+      }
+    }
+    return new OccupancyStatistics(numNodes, numLeaves, maxDepth,
+        Arrays.copyOf(nodesPerLevel, maxDepth + 1), numLeaves > 0 ? minItems : 0, maxItems,
+        numLeaves > 0 ? (double) totalItems / numLeaves : 0);
+  }
+
+  /**
+   * Find the entry distance of a line through a node's bounds.
+   *
+   * @param node
+   * @param origin
+   * @param invDir reciprocal of each component of the line direction
+   * @param tMin smallest distance of interest
+   * @param tMax largest distance of interest
+   * @return distance along the line where it enters the node bounds, clamped to tMin, or NaN if
+   *         the line does not pass through the bounds between tMin and tMax
+   */
+  private double entry(int node, double[] origin, double[] invDir, double tMin, double tMax) {
+    int offset = 6 * node;
+    for (int j = 0; j < 3; j++) {
+      double t0 = (nodeBounds[offset + j] - origin[j]) * invDir[j];
+      double t1 = (nodeBounds[offset + j + 3] - origin[j]) * invDir[j];
+      if (t0 > t1) {
+        double tmp = t0;
+        t0 = t1;
+        t1 = tmp;
+      }
+      // NaN when the origin lies on a face and the line is parallel to it, treat as inside
+      if (t0 > tMin) {
+        tMin = t0;
+      }
+      if (t1 < tMax) {
+        tMax = t1;
+      }
+      if (tMin > tMax) {
+        return Double.NaN;
+      }
+    }
+    return tMin;
+  }
+
+  private static double[] reciprocal(double[] direction) {
+    return new double[] {1 / direction[0], 1 / direction[1], 1 / direction[2]};
+  }
+
+  private int[] newStack() {
+    return new int[7 * level + 8];
+  }
+
+  /**
+   * Find the nearest item intersected by the ray.
+   *
+   * @param origin ray origin
+   * @param direction ray direction
+   * @param tMin smallest distance along the ray to consider, in units of direction
+   * @param tMax largest distance along the ray to consider, in units of direction
+   * @param intersector item intersection test
+   * @return index of the item with the smallest intersection distance in [tMin, tMax], or -1 if
+   *         none
+   */
+  public int nearest(double[] origin, double[] direction, double tMin, double tMax,
+      RayIntersector intersector) {
+    if (items.length == 0) {
+      return -1;
+    }
+    double[] invDir = reciprocal(direction);
+    int[] stack = newStack();
+    int top = 0;
+    stack[top++] = 0;
+
+    int nearest = -1;
+    double best = tMax;
+    while (top > 0) {
+      int node = stack[--top];
+      double t = entry(node, origin, invDir, tMin, best);
+      if (Double.isNaN(t)) {
+        continue;
+      }
+      if (firstChild[node] < 0) {
+        for (int i = itemStart[node]; i < itemEnd[node]; i++) {
+          double tItem = intersector.intersect(items[i], origin, direction);
+          if (tItem >= tMin && tItem <= best) {
+            if (tItem < best || nearest < 0 || items[i] < nearest) {
+              nearest = items[i];
+            }
+            best = tItem;
+          }
+        }
+      } else {
+        int first = firstChild[node];
+        for (int child = first + numChildren[node] - 1; child >= first; child--) {
+          stack[top++] = child;
+        }
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * Check if the ray intersects any item.
+   *
+   * @param origin ray origin
+   * @param direction ray direction
+   * @param tMin smallest distance along the ray to consider, in units of direction
+   * @param tMax largest distance along the ray to consider, in units of direction
+   * @param intersector item intersection test
+   * @return true if any item is intersected between tMin and tMax
+   */
+  public boolean any(double[] origin, double[] direction, double tMin, double tMax,
+      RayIntersector intersector) {
+    if (items.length == 0) {
+      return false;
+    }
+    double[] invDir = reciprocal(direction);
+    int[] stack = newStack();
+    int top = 0;
+    stack[top++] = 0;
+
+    while (top > 0) {
+      int node = stack[--top];
+      if (Double.isNaN(entry(node, origin, invDir, tMin, tMax))) {
+        continue;
+      }
+      if (firstChild[node] < 0) {
+        for (int i = itemStart[node]; i < itemEnd[node]; i++) {
+          double t = intersector.intersect(items[i], origin, direction);
+          if (t >= tMin && t <= tMax) {
+            return true;
+          }
+        }
+      } else {
+        int first = firstChild[node];
+        for (int child = first + numChildren[node] - 1; child >= first; child--) {
+          stack[top++] = child;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Call consumer for each item in a leaf whose bounds are crossed by the line through origin
+   * along direction. The line extends in both directions.
+   *
+   * @param origin point on the line
+   * @param direction line direction
+   * @param consumer called with each candidate item index
+   */
+  public void forEachCandidate(double[] origin, double[] direction, IntConsumer consumer) {
+    if (items.length == 0) {
+      return;
+    }
+    double[] invDir = reciprocal(direction);
+    int[] stack = newStack();
+    int top = 0;
+    stack[top++] = 0;
+
+    while (top > 0) {
+      int node = stack[--top];
+      if (Double.isNaN(entry(node, origin, invDir, -Double.MAX_VALUE, Double.MAX_VALUE))) {
+        continue;
+      }
+      if (firstChild[node] < 0) {
+        for (int i = itemStart[node]; i < itemEnd[node]; i++) {
+          consumer.accept(items[i]);
+        }
+      } else {
+        int first = firstChild[node];
+        for (int child = first + numChildren[node] - 1; child >= first; child--) {
+          stack[top++] = child;
+        }
+      }
+    }
+  }
+
+}
@@ -24,12 +24,8 @@ package terrasaur.utils.octree;
 
 import picante.math.vectorspace.UnwritableVectorIJK;
 import picante.math.vectorspace.VectorIJK;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
 
 /**
  * Implementation of a 3D heirarchical octree. The level 0 octree is set to the user supplied
@@ -111,7 +107,8 @@ import java.util.TreeMap;
  * </tr>
  * </table>
  * 
- * This class supports up to 10 levels in the hierarchy. More boxes will overflow a 32 bit int.
+ * Indices are longs, so this class supports up to 20 levels. For a sparse, adaptive octree over a
+ * set of items see {@link LinearOctree}.
  * 
  * @author nairah1
  *
@@ -119,14 +116,11 @@ import java.util.TreeMap;
 public class Octree {
 
   /**
-   * need to use longs for index if a higher MAX_LEVEL is desired
+   * The number of boxes in levels 0 to 20 fits in a long
    */
-  public static final int MAX_LEVEL = 10;
+  public static final int MAX_LEVEL = 20;
 
   private BoundingBox boundingBox;
-  private Map<Integer, Integer> startIndexMap;
-  private NavigableMap<Integer, Integer> indexToLevelMap;
-  private Map<Integer, Set<Integer>> containsMap = new HashMap<>();
 
   /**
    * Create an Octree from this BoundingBox
@@ -135,26 +129,19 @@ public class Octree {
    */
   public Octree(BoundingBox boundingBox) {
     this.boundingBox = boundingBox;
-
-    indexToLevelMap = new TreeMap<>();
-    startIndexMap = new HashMap<>();
-    startIndexMap.put(0, 0);
-    indexToLevelMap.put(0, 0);
-    for (int i = 1; i < MAX_LEVEL + 1; i++) {
-      startIndexMap.put(i, getMinIndex(i));
-      indexToLevelMap.put(getMaxIndex(i), i);
-    }
   }
 
-  private int getMinIndex(int level) {
-    if (level < 1) {
-      return 0;
-    }
-    return getMinIndex(level - 1) + (int) Math.pow(8, level - 1);
+  /**
+   * @param level
+   * @return index of the first box in this level
+   */
+  private static long getMinIndex(int level) {
+    // sum of 8^i for i < level, unsigned so that level 21 does not overflow
+    return Long.divideUnsigned((1L << (3 * level)) - 1, 7);
   }
 
-  private int getMaxIndex(int level) {
-    return getMinIndex(level) + (int) Math.pow(8, level) - 1;
+  private static long getMaxIndex(int level) {
+    return getMinIndex(level + 1) - 1;
   }
 
   /**
@@ -163,39 +150,33 @@ public class Octree {
    * @param index
    * @return
    */
-  public Set<Integer> contains(int index) {
-    Set<Integer> indices = new HashSet<>();
+  public Set<Long> contains(long index) {
+    Set<Long> indices = new HashSet<>();
 
-    if (containsMap.containsKey(index)) {
-      indices = containsMap.get(index);
-    } else {
-      int level = getLevel(index);
-      int startIndex = startIndexMap.get(level);
-      startIndexMap.put(level + 1, getMinIndex(level + 1));
-      indexToLevelMap.put(getMaxIndex(level + 1), level + 1);
-
-      int side = (int) Math.pow(2, level);
-      int iindex = index - startIndex;
+    int level = getLevel(index);
+    if (level >= MAX_LEVEL) {
+      return indices;
+    }
+    long side = 1L << level;
+    long iindex = index - getMinIndex(level);
 
-      int iz = iindex / side / side;
-      int iy = (iindex - iz * side * side) / side;
-      int ix = iindex - side * (iy + iz * side);
+    long iz = iindex / side / side;
+    long iy = (iindex - iz * side * side) / side;
+    long ix = iindex - side * (iy + iz * side);
 
-      side *= 2;
-      startIndex = startIndexMap.get(level + 1);
+    side *= 2;
+    long startIndex = getMinIndex(level + 1);
 
-      ix *= 2;
-      iy *= 2;
-      iz *= 2;
+    ix *= 2;
+    iy *= 2;
+    iz *= 2;
 
-      for (int i = 0; i < 2; i++) {
-        for (int j = 0; j < 2; j++) {
-          for (int k = 0; k < 2; k++) {
-            indices.add((ix + i) + side * (iy + j + side * (iz + k)) + startIndex);
-          }
+    for (int i = 0; i < 2; i++) {
+      for (int j = 0; j < 2; j++) {
+        for (int k = 0; k < 2; k++) {
+          indices.add((ix + i) + side * (iy + j + side * (iz + k)) + startIndex);
         }
       }
-      containsMap.put(index, indices);
     }
     return indices;
   }
@@ -206,8 +187,12 @@ public class Octree {
    * @param index
    * @return
    */
-  public int getLevel(int index) {
-    return indexToLevelMap.get(indexToLevelMap.ceilingKey(index));
+  public int getLevel(long index) {
+    int level = 0;
+    while (level < MAX_LEVEL && index > getMaxIndex(level)) {
+      level++;
+    }
+    return level;
   }
 
   /**
@@ -217,7 +202,7 @@ public class Octree {
    * @param level
    * @return
    */
-  public int getIndex(UnwritableVectorIJK point, int level) {
+  public long getIndex(UnwritableVectorIJK point, int level) {
     UnwritableVectorIJK minPt = boundingBox.minPt();
     UnwritableVectorIJK maxPt = boundingBox.maxPt();
 
@@ -228,12 +213,12 @@ public class Octree {
     double y = (point.getJ() - minPt.getJ()) / yScale;
     double z = (point.getK() - minPt.getK()) / zScale;
 
-    int startIndex = startIndexMap.get(level);
-    int side = (int) Math.pow(2, level);
+    long startIndex = getMinIndex(level);
+    long side = 1L << level;
 
-    int ix = (int) (x * side);
-    int iy = (int) (y * side);
-    int iz = (int) (z * side);
+    long ix = (long) (x * side);
+    long iy = (long) (y * side);
+    long iz = (long) (z * side);
 
     return ix + side * (iy + side * iz) + startIndex;
   }
@@ -244,11 +229,11 @@ public class Octree {
    * @param index
    * @return
    */
-  public BoundingBox getBoundingBox(int index) {
+  public BoundingBox getBoundingBox(long index) {
     int level = getLevel(index);
-    long startIndex = startIndexMap.get(level);
+    long startIndex = getMinIndex(level);
 
-    int side = (int) Math.pow(2, level);
+    long side = 1L << level;
     long iindex = index - startIndex;
 
     long iz = iindex / side / side;
@@ -279,13 +264,13 @@ public class Octree {
   }
 
   public static void main(String[] args) {
-    int index = 0;
+    long index = 0;
     BoundingBox bb = new BoundingBox(VectorIJK.ZERO, new UnwritableVectorIJK(1, 1, 1));
     Octree o = new Octree(bb);
-    Set<Integer> indices = o.contains(index);
+    Set<Long> indices = o.contains(index);
     BoundingBox orig = o.getBoundingBox(index);
     System.out.println(orig);
-    for (int i : indices) {
+    for (long i : indices) {
       System.out.println(o.getBoundingBox(i));
     }
 
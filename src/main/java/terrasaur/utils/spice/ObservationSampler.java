@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.spice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import spice.basic.CSPICE;
+import spice.basic.FOV;
+import spice.basic.Instrument;
+import spice.basic.SCLK;
+import spice.basic.SCLKTime;
+import spice.basic.SpiceException;
+
+/**
+ * Evaluate observer position, Sun position, and instrument orientation at a list of SCLK times in
+ * one pass. The instrument field of view is looked up once per instrument and cached. Results are
+ * plain arrays so that later processing can run on multiple threads without calling SPICE, which
+ * is not thread safe.
+ *
+ * <pre>
+ * ObservationSampler sampler =
+ *     new ObservationSampler(-64, "-64", "2101955", "IAU_BENNU", -64360, "LT+S");
+ * List&lt;ObservationSampler.Sample&gt; samples = sampler.sample(sclkStrings);
+ * </pre>
+ *
+ * The SPICE kernels must be loaded before calling {@link #sample(List)}.
+ */
+public class ObservationSampler {
+
+  private static final Map<Integer, FOV> fovCache = new ConcurrentHashMap<>();
+
+  /** Geometry at one SCLK time. All vectors are in the body fixed frame. */
+  public static class Sample {
+    private final String sclk;
+    private final double et;
+    private final double[] observerPosition;
+    private final double[] sunPosition;
+    private final double[][] instrumentToBodyFixed;
+
+    private Sample(
+        String sclk,
+        double et,
+        double[] observerPosition,
+        double[] sunPosition,
+        double[][] instrumentToBodyFixed) {
+      this.sclk = sclk;
+      this.et = et;
+      this.observerPosition = observerPosition;
+      this.sunPosition = sunPosition;
+      this.instrumentToBodyFixed = instrumentToBodyFixed;
+    }
+
+    /** @return SCLK string as formatted by SPICE */
+    public String getSclk() {
+      return sclk;
+    }
+
+    /** @return ephemeris time in TDB seconds past J2000 */
+    public double getEt() {
+      return et;
+    }
+
+    /** @return position of the observer relative to the target */
+    public double[] getObserverPosition() {
+      return observerPosition;
+    }
+
+    /** @return position of the Sun relative to the target */
+    public double[] getSunPosition() {
+      return sunPosition;
+    }
+
+    /**
+     * @return row major rotation matrix taking vectors in the instrument frame to the body fixed
+     *     frame
+     */
+    public double[][] getInstrumentToBodyFixed() {
+      return instrumentToBodyFixed;
+    }
+  }
+
+  private final int clockID;
+  private final String observer;
+  private final String target;
+  private final String bodyFixedFrame;
+  private final int instrumentID;
+  private final String abcorr;
+
+  /**
+   * @param clockID NAIF ID of the spacecraft clock
+   * @param observer NAIF name or ID of the observer
+   * @param target NAIF name or ID of the target body
+   * @param bodyFixedFrame name of the target body fixed frame
+   * @param instrumentID NAIF ID of the instrument
+   * @param abcorr aberration correction, e.g. "LT+S"
+   */
+  public ObservationSampler(
+      int clockID,
+      String observer,
+      String target,
+      String bodyFixedFrame,
+      int instrumentID,
+      String abcorr) {
+    this.clockID = clockID;
+    this.observer = observer;
+    this.target = target;
+    this.bodyFixedFrame = bodyFixedFrame;
+    this.instrumentID = instrumentID;
+    this.abcorr = abcorr;
+  }
+
+  /**
+   * @param instrumentID NAIF ID of the instrument
+   * @return field of view, read from the kernel pool on first use
+   * @throws SpiceException
+   */
+  public static FOV getFOV(int instrumentID) throws SpiceException {
+    FOV fov = fovCache.get(instrumentID);
+    if (fov == null) {
+      fov = new FOV(new Instrument(instrumentID));
+      fovCache.put(instrumentID, fov);
+    }
+    return fov;
+  }
+
+  /**
+   * @param sclk SCLK string
+   * @return geometry at this time
+   * @throws SpiceException
+   */
+  public Sample sample(String sclk) throws SpiceException {
+    return sample(List.of(sclk)).get(0);
+  }
+
+  /**
+   * @param sclkStrings SCLK strings
+   * @return geometry at each time, in the same order
+   * @throws SpiceException
+   */
+  public List<Sample> sample(List<String> sclkStrings) throws SpiceException {
+    String instrumentFrame = getFOV(instrumentID).getReferenceFrame().getName();
+    SCLK clock = new SCLK(clockID);
+
+    List<Sample> samples = new ArrayList<>(sclkStrings.size());
+    double[] lt = new double[1];
+    for (String sclkString : sclkStrings) {
+      SCLKTime sclkTime = new SCLKTime(clock, sclkString);
+      double et = sclkTime.getTDBSeconds();
+
+      double[] observerPosition = new double[3];
+      CSPICE.spkpos(observer, et, bodyFixedFrame, abcorr, target, observerPosition, lt);
+      double[] sunPosition = new double[3];
+      CSPICE.spkpos("SUN", et, bodyFixedFrame, abcorr, target, sunPosition, lt);
+      double[][] instrumentToBodyFixed = CSPICE.pxform(instrumentFrame, bodyFixedFrame, et);
+
+      samples.add(
+          new Sample(
+              sclkTime.toString(), et, observerPosition, sunPosition, instrumentToBodyFixed));
+    }
+    return samples;
+  }
+}
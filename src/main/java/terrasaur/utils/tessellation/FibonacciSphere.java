@@ -38,6 +38,7 @@ import picante.math.vectorspace.VectorIJK;
 import picante.math.vectorspace.UnwritableVectorIJK;
 
 import picante.math.intervals.UnwritableInterval;
+import terrasaur.utils.KdTree;
 
 /**
  * Implements fibonacci tiling and reverse lookup as described in
@@ -53,6 +54,8 @@ public class FibonacciSphere implements SphericalTessellation {
 
   private final List<LatitudinalVector> lvList;
   private final List<UnwritableVectorIJK> ijkList;
+  /** index over the tile centers used for nearest neighbor and radius queries */
+  private final KdTree kdTree;
   private final ThreadLocal<List<Double>> threadLocalDistance;
   private final ThreadLocal<DescriptiveStatistics> threadLocalStats;
 
@@ -76,6 +79,15 @@ public class FibonacciSphere implements SphericalTessellation {
       ijkList.add(CoordConverters.convert(lv));
     }
 
+    double[] packedPoints = new double[3 * npts];
+    for (int i = 0; i < npts; i++) {
+      UnwritableVectorIJK ijk = ijkList.get(i);
+      packedPoints[3 * i] = ijk.getI();
+      packedPoints[3 * i + 1] = ijk.getJ();
+      packedPoints[3 * i + 2] = ijk.getK();
+    }
+    kdTree = new KdTree(packedPoints);
+
     threadLocalDistance = new ThreadLocal<>();
   }
 
@@ -101,8 +113,9 @@ public class FibonacciSphere implements SphericalTessellation {
 
         double minDist = Double.MAX_VALUE;
 
-        for (UnwritableVectorIJK ijk : ijkList) {
-          double dist = ijk.getSeparation(ijkList.get(i));
+        UnwritableVectorIJK center = ijkList.get(i);
+        for (int j : kdTree.findNearest(center.getI(), center.getJ(), center.getK(), 2)) {
+          double dist = ijkList.get(j).getSeparation(center);
           if (dist > 0 && dist < minDist) {
             minDist = dist;
           }
@@ -314,4 +327,41 @@ public class FibonacciSphere implements SphericalTessellation {
     return distanceMap;
   }
 
+  /**
+   *
+   * @param point input point, need not be a unit vector
+   * @param maxDistance maximum distance from the input point in radians
+   * @return map of tile indices within maxDistance of the input point sorted by distance
+   */
+  public NavigableMap<Double, Integer> getDistanceMap(UnwritableVectorIJK point,
+      double maxDistance) {
+    if (maxDistance >= Math.PI)
+      return getDistanceMap(point);
+
+    NavigableMap<Double, Integer> distanceMap = new TreeMap<>();
+    UnwritableVectorIJK unit = point.createUnitized();
+    // chord length between unit vectors separated by maxDistance, padded for roundoff
+    double radius = 2 * Math.sin(maxDistance / 2) * (1 + 1e-9);
+    kdTree.findWithinRadius(unit.getI(), unit.getJ(), unit.getK(), radius, i -> {
+      double dist = ijkList.get(i).getSeparation(point);
+      if (dist <= maxDistance)
+        distanceMap.put(dist, i);
+    });
+    return distanceMap;
+  }
+
+  /**
+   *
+   * @param point input point, need not be a unit vector
+   * @param k number of tiles to return
+   * @return map of the k tiles closest to the input point sorted by distance
+   */
+  public NavigableMap<Double, Integer> getNearestTiles(UnwritableVectorIJK point, int k) {
+    NavigableMap<Double, Integer> distanceMap = new TreeMap<>();
+    UnwritableVectorIJK unit = point.createUnitized();
+    for (int i : kdTree.findNearest(unit.getI(), unit.getJ(), unit.getK(), k))
+      distanceMap.put(ijkList.get(i).getSeparation(point), i);
+    return distanceMap;
+  }
+
 }
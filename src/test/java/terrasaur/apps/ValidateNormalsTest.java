@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.apps;
+
+import static org.junit.Assert.assertEquals;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import terrasaur.utils.OBJCodec;
+import terrasaur.utils.PolyDataUtil;
+import terrasaur.utils.TestFixtures;
+
+public class ValidateNormalsTest {
+
+  @BeforeClass
+  public static void setup() {
+    TestFixtures.loadVtkLibraries();
+  }
+
+  /**
+   * @param level number of times each facet is split into four
+   * @return closed sphere made by subdividing an octahedron, with outward facing normals. Unlike
+   *     {@link TestFixtures#latLonSphere(int, int)} there are no duplicate vertices at the poles, so
+   *     every edge is shared by exactly two facets.
+   */
+  private static OBJCodec.Mesh octahedronSphere(int level) {
+    double[] vertices = {1, 0, 0, -1, 0, 0, 0, 1, 0, 0, -1, 0, 0, 0, 1, 0, 0, -1};
+    int[] triangles = {
+      0, 2, 4, 2, 1, 4, 1, 3, 4, 3, 0, 4, 2, 0, 5, 1, 2, 5, 3, 1, 5, 0, 3, 5
+    };
+    for (int l = 0; l < level; l++) {
+      Map<Long, Integer> midpoints = new HashMap<>();
+      int numVertices = vertices.length / 3;
+      double[] newVertices = Arrays.copyOf(vertices, vertices.length + triangles.length * 3 / 2);
+      int[] newTriangles = new int[4 * triangles.length];
+      int t = 0;
+      for (int i = 0; i < triangles.length; i += 3) {
+        int[] mid = new int[3];
+        for (int k = 0; k < 3; k++) {
+          int a = triangles[i + k];
+          int b = triangles[i + (k + 1) % 3];
+          long key = (long) Math.min(a, b) << 32 | Math.max(a, b);
+          Integer m = midpoints.get(key);
+          if (m == null) {
+            m = numVertices++;
+            double norm = 0;
+            for (int j = 0; j < 3; j++) {
+              double x = (vertices[3 * a + j] + vertices[3 * b + j]) / 2;
+              newVertices[3 * m + j] = x;
+              norm += x * x;
+            }
+            for (int j = 0; j < 3; j++) newVertices[3 * m + j] /= Math.sqrt(norm);
+            midpoints.put(key, m);
+          }
+          mid[k] = m;
+        }
+        int[] split = {
+          triangles[i], mid[0], mid[2],
+          mid[0], triangles[i + 1], mid[1],
+          mid[2], mid[1], triangles[i + 2],
+          mid[0], mid[1], mid[2]
+        };
+        System.arraycopy(split, 0, newTriangles, t, split.length);
+        t += split.length;
+      }
+      vertices = Arrays.copyOf(newVertices, 3 * numVertices);
+      triangles = newTriangles;
+    }
+    return OBJCodec.Mesh.fromTriangles(vertices, triangles);
+  }
+
+  /** reverse the vertex order of a facet */
+  private static void flip(int[] triangles, int facet) {
+    int tmp = triangles[3 * facet + 1];
+    triangles[3 * facet + 1] = triangles[3 * facet + 2];
+    triangles[3 * facet + 2] = tmp;
+  }
+
+  private static ValidateNormals validate(double[] vertices, int[] triangles) {
+    return new ValidateNormals(
+        PolyDataUtil.fromOBJMesh(OBJCodec.Mesh.fromTriangles(vertices, triangles)));
+  }
+
+  @Test
+  public void testFlippedFacets() {
+    OBJCodec.Mesh sphere = octahedronSphere(3);
+    int[] triangles = sphere.getFaceVertices().clone();
+
+    // include the first facet, which seeds the orientation of the piece
+    Set<Long> expected = new TreeSet<>(Arrays.asList(0L, 17L, 200L, 511L));
+    for (long facet : expected) flip(triangles, (int) facet);
+
+    ValidateNormals vn = validate(sphere.getVertices(), triangles);
+    assertEquals(expected, new TreeSet<>(vn.findFlippedNormalsClosed()));
+    assertEquals(expected, new TreeSet<>(vn.findFlippedNormals(1)));
+  }
+
+  @Test
+  public void testInsideOut() {
+    OBJCodec.Mesh sphere = octahedronSphere(3);
+    int[] triangles = sphere.getFaceVertices().clone();
+    Set<Long> expected = new TreeSet<>();
+    for (int i = 0; i < triangles.length / 3; i++) {
+      flip(triangles, i);
+      expected.add((long) i);
+    }
+
+    ValidateNormals vn = validate(sphere.getVertices(), triangles);
+    assertEquals(expected, new TreeSet<>(vn.findFlippedNormalsClosed()));
+    assertEquals(expected, new TreeSet<>(vn.findFlippedNormals(1)));
+  }
+
+  @Test
+  public void testDisjointPieces() {
+    // an outward sphere with a few flipped facets next to a smaller inside-out sphere. Each piece
+    // must be oriented by its own signed volume. The origin can't be inside both pieces, so the
+    // crossing count in findFlippedNormals() doesn't apply here.
+    OBJCodec.Mesh sphere = octahedronSphere(2);
+    double[] vertices0 = sphere.getVertices();
+    int[] triangles0 = sphere.getFaceVertices();
+    int numVertices = vertices0.length / 3;
+    int numFacets = triangles0.length / 3;
+
+    double[] vertices = new double[2 * vertices0.length];
+    for (int i = 0; i < vertices0.length; i += 3) {
+      vertices[i] = vertices0[i] - 3;
+      vertices[i + 1] = vertices0[i + 1];
+      vertices[i + 2] = vertices0[i + 2];
+      vertices[vertices0.length + i] = 0.5 * vertices0[i] + 3;
+      vertices[vertices0.length + i + 1] = 0.5 * vertices0[i + 1];
+      vertices[vertices0.length + i + 2] = 0.5 * vertices0[i + 2];
+    }
+    int[] triangles = new int[2 * triangles0.length];
+    for (int i = 0; i < triangles0.length; i++) {
+      triangles[i] = triangles0[i];
+      triangles[triangles0.length + i] = triangles0[i] + numVertices;
+    }
+
+    Set<Long> expected = new TreeSet<>(Arrays.asList(5L, 40L, 111L));
+    for (long facet : expected) flip(triangles, (int) facet);
+    for (int i = numFacets; i < 2 * numFacets; i++) {
+      flip(triangles, i);
+      expected.add((long) i);
+    }
+
+    ValidateNormals vn = validate(vertices, triangles);
+    assertEquals(expected, new TreeSet<>(vn.findFlippedNormalsClosed()));
+  }
+}
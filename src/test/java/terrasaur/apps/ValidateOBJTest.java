@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.apps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import terrasaur.utils.OBJCodec;
+import terrasaur.utils.PolyDataUtil;
+import terrasaur.utils.TestFixtures;
+
+public class ValidateOBJTest {
+
+  @BeforeClass
+  public static void setup() {
+    TestFixtures.loadVtkLibraries();
+  }
+
+  private static ValidateOBJ validate(double[] vertices, int[] triangles) {
+    return new ValidateOBJ(
+        PolyDataUtil.fromOBJMesh(OBJCodec.Mesh.fromTriangles(vertices, triangles)));
+  }
+
+  /** @return duplicates found by comparing every pair of vertices */
+  private static NavigableMap<Long, List<Long>> bruteForceDuplicates(double[] vertices) {
+    NavigableMap<Long, List<Long>> map = new TreeMap<>();
+    int n = vertices.length / 3;
+    for (int v = 0; v < n; v++) {
+      List<Long> duplicates = new ArrayList<>();
+      for (int w = v + 1; w < n; w++) {
+        double d2 = 0;
+        for (int k = 0; k < 3; k++)
+          d2 += Math.pow(vertices[3 * w + k] - vertices[3 * v + k], 2);
+        if (d2 <= 1e-20)
+          duplicates.add((long) w);
+      }
+      if (!duplicates.isEmpty())
+        map.put((long) v, duplicates);
+    }
+    return map;
+  }
+
+  @Test
+  public void testDuplicateVertices() {
+    // grid cells are 2e-10 wide. Pairs 3, 4 and 5, 6 straddle cell boundaries with the second
+    // vertex of each pair in the lower cell.
+    double edge = 2e-10 * 12345;
+    double[] vertices = {1, 2, 3, // 0
+        1, 2, 3, // 1: exact duplicate of 0
+        1 + 6e-11, 2 - 6e-11, 3 + 3e-11, // 2: within 1e-10 of 0 and 1
+        edge + 2.5e-11, edge + 2.5e-11, edge + 2.5e-11, // 3
+        edge - 2.5e-11, edge - 2.5e-11, edge - 2.5e-11, // 4: 8.7e-11 from 3 on all three axes
+        -edge + 4e-11, 0, 0, // 5
+        -edge - 4e-11, 0, 0, // 6: 8e-11 from 5 on a negative axis
+        5, 5, 5, // 7
+        5 + 1.5e-10, 5, 5, // 8: too far from 7
+        5 + 3e-10, 5, 5}; // 9: too far from 8
+    int[] triangles = {0, 3, 5, 1, 4, 6, 2, 7, 8, 9, 3, 6};
+
+    NavigableMap<Long, List<Long>> expected = new TreeMap<>();
+    expected.put(0L, Arrays.asList(1L, 2L));
+    expected.put(1L, Arrays.asList(2L));
+    expected.put(3L, Arrays.asList(4L));
+    expected.put(5L, Arrays.asList(6L));
+    assertEquals(expected, bruteForceDuplicates(vertices));
+
+    ValidateOBJ vo = validate(vertices, triangles);
+    assertEquals(expected, vo.findDuplicateVertices());
+    assertEquals("4 vertices have duplicates", vo.getMessage());
+  }
+
+  @Test
+  public void testRandomDuplicates() {
+    // clusters of points within a few tolerances of each other, so that many pairs fall on either
+    // side of the tolerance and of grid cell boundaries
+    Random r = new Random(0);
+    int numClusters = 300;
+    int perCluster = 4;
+    double[] vertices = new double[3 * numClusters * perCluster];
+    for (int c = 0; c < numClusters; c++) {
+      double[] center = {r.nextGaussian() * 1e3, r.nextGaussian(), r.nextGaussian() * 1e-6};
+      for (int p = 0; p < perCluster; p++)
+        for (int k = 0; k < 3; k++)
+          vertices[3 * (c * perCluster + p) + k] = center[k] + (r.nextDouble() - 0.5) * 2e-10;
+    }
+    int[] triangles = new int[vertices.length / 3];
+    for (int i = 0; i < triangles.length; i++)
+      triangles[i] = i;
+
+    NavigableMap<Long, List<Long>> expected = bruteForceDuplicates(vertices);
+    assertTrue(expected.size() > numClusters);
+    assertEquals(expected, validate(vertices, triangles).findDuplicateVertices());
+  }
+
+  @Test(timeout = 60000)
+  public void testLargeCoordinates() {
+    // cell indices saturate beyond about 1.8e9
+    double[] vertices = {1e10, 0, 0, 2e9, 3e9, -4e9, 1e10, 0, 0, Double.POSITIVE_INFINITY, 0, 0,
+        Double.NEGATIVE_INFINITY, 1, 1, 2e9, 3e9, -4e9, Double.MAX_VALUE, 0, 0};
+    int[] triangles = {0, 1, 2, 3, 4, 5, 6, 0, 1};
+    NavigableMap<Long, List<Long>> expected = new TreeMap<>();
+    expected.put(0L, Arrays.asList(2L));
+    expected.put(1L, Arrays.asList(5L));
+    assertEquals(expected, bruteForceDuplicates(vertices));
+    assertEquals(expected, validate(vertices, triangles).findDuplicateVertices());
+  }
+
+  @Test
+  public void testZeroAreaAndUnreferenced() {
+    double[] vertices = {0, 0, 0, // 0
+        1, 0, 0, // 1
+        0, 1, 0, // 2
+        2, 0, 0, // 3: on the line through 0 and 1
+        7, 7, 7, // 4: unreferenced
+        0, 1, 0, // 5: duplicate of 2
+        8, 8, 8}; // 6: unreferenced
+    int[] triangles = {0, 1, 2, // good
+        0, 0, 1, // repeated vertex
+        0, 1, 3, // collinear
+        1, 2, 5, // two coincident vertices
+        1, 3, 2}; // good
+    ValidateOBJ vo = validate(vertices, triangles);
+
+    assertEquals(Arrays.asList(1, 2, 3), vo.findZeroAreaFacets());
+    assertEquals("3 zero area facets found", vo.getMessage());
+    assertEquals(Arrays.asList(4L, 6L), vo.findUnreferencedVertices());
+    assertEquals("2 unreferenced vertices found", vo.getMessage());
+    assertEquals(Collections.singletonMap(2L, Arrays.asList(5L)), vo.findDuplicateVertices());
+
+    // only the two good facets contribute, in facet order
+    DescriptiveStatistics stats = vo.normalStats();
+    assertEquals(2, stats.getN());
+    assertEquals(0, stats.getElement(0), 0);
+    assertEquals(0, stats.getElement(1), 0);
+  }
+
+  @Test
+  public void testMalformedVertices() {
+    double[] vertices =
+        {0, 0, 0, 1, Double.NaN, 0, 0, 1, 0, 0, 0, Double.POSITIVE_INFINITY, 1, 0, 0};
+    int[] triangles = {0, 1, 2, 0, 2, 3, 0, 4, 2};
+    ValidateOBJ vo = validate(vertices, triangles);
+    assertEquals(Arrays.asList(1, 3), vo.findMalformedVertices());
+
+    // facets with malformed vertices are left out
+    assertEquals(1, vo.normalStats().getN());
+  }
+
+}
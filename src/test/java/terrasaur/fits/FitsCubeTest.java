@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.fits;
+
+import static org.junit.Assert.assertEquals;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+public class FitsCubeTest {
+
+  private static final int NUM_PLANES = 3;
+  private static final int NUM_ROWS = 4;
+  private static final int NUM_COLS = 5;
+
+  private static double value(int plane, int row, int col) {
+    return 100 * plane + 10 * row + col;
+  }
+
+  private static void writeCard(DataOutputStream os, String card) throws IOException {
+    os.write(String.format("%-80s", card).getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static void pad(DataOutputStream os, byte fill) throws IOException {
+    while (os.size() % 2880 != 0)
+      os.write(fill);
+  }
+
+  /**
+   * Write a small cube with the given BITPIX. Integer data is stored with BSCALE 0.5 and BZERO 10.
+   */
+  private static File writeCube(int bitpix, boolean compressed) throws IOException {
+    File file = File.createTempFile("FitsCubeTest", compressed ? ".fits.gz" : ".fits");
+    file.deleteOnExit();
+    try (OutputStream fos = compressed ? new GZIPOutputStream(new FileOutputStream(file))
+        : new FileOutputStream(file); DataOutputStream os = new DataOutputStream(fos)) {
+      writeCard(os, String.format("%-8s= %20s", "SIMPLE", "T"));
+      writeCard(os, String.format("%-8s= %20d / data type", "BITPIX", bitpix));
+      writeCard(os, String.format("%-8s= %20d", "NAXIS", 3));
+      writeCard(os, String.format("%-8s= %20d", "NAXIS1", NUM_COLS));
+      writeCard(os, String.format("%-8s= %20d", "NAXIS2", NUM_ROWS));
+      writeCard(os, String.format("%-8s= %20d", "NAXIS3", NUM_PLANES));
+      if (bitpix > 0) {
+        writeCard(os, String.format("%-8s= %20s", "BSCALE", "0.5"));
+        writeCard(os, String.format("%-8s= %20s", "BZERO", "10."));
+      }
+      writeCard(os, String.format("%-8s= %-20s", "PLANE1", "'X coordinate'"));
+      writeCard(os, "END");
+      pad(os, (byte) ' ');
+
+      for (int plane = 0; plane < NUM_PLANES; plane++) {
+        for (int row = 0; row < NUM_ROWS; row++) {
+          for (int col = 0; col < NUM_COLS; col++) {
+            double v = value(plane, row, col);
+            switch (bitpix) {
+              case 16:
+                os.writeShort((int) ((v - 10) / 0.5));
+                break;
+              case -32:
+                os.writeFloat((float) v);
+                break;
+              default:
+                os.writeDouble(v);
+            }
+          }
+        }
+      }
+      pad(os, (byte) 0);
+    }
+    return file;
+  }
+
+  private static void check(File file) throws IOException {
+    try (FitsCube cube = FitsCube.open(file)) {
+      assertEquals(NUM_PLANES, cube.getAxes()[0]);
+      assertEquals(NUM_ROWS, cube.getAxes()[1]);
+      assertEquals(NUM_COLS, cube.getAxes()[2]);
+      assertEquals("'X coordinate'", cube.getHeaderValue("PLANE1"));
+
+      for (int plane = 0; plane < NUM_PLANES; plane++) {
+        double[][] data = cube.getPlane(plane).toDoubleArray();
+        float[][] floats = cube.getPlane(plane).toFloatArray();
+        for (int row = 0; row < NUM_ROWS; row++) {
+          for (int col = 0; col < NUM_COLS; col++) {
+            assertEquals(value(plane, row, col), data[row][col], 0);
+            assertEquals(value(plane, row, col), floats[row][col], 0);
+          }
+        }
+      }
+
+      FitsCube.Tile tile = cube.getTile(2, 1, 2, 2, 3);
+      double[][] data = tile.toDoubleArray();
+      assertEquals(2, data.length);
+      assertEquals(3, data[0].length);
+      for (int row = 0; row < 2; row++)
+        for (int col = 0; col < 3; col++)
+          assertEquals(value(2, row + 1, col + 2), tile.getDouble(row, col), 0);
+      assertEquals(value(2, 2, 4), data[1][2], 0);
+    }
+  }
+
+  @Test
+  public void testFloat() throws IOException {
+    check(writeCube(-32, false));
+  }
+
+  @Test
+  public void testDouble() throws IOException {
+    check(writeCube(-64, false));
+  }
+
+  @Test
+  public void testScaledShort() throws IOException {
+    File file = writeCube(16, false);
+    check(file);
+    try (FitsCube cube = FitsCube.open(file)) {
+      assertEquals((short) ((value(1, 2, 3) - 10) / 0.5), cube.getPlane(1).getRaw(2, 3));
+    }
+  }
+
+  @Test
+  public void testCompressed() throws IOException {
+    check(writeCube(-32, true));
+  }
+
+  @Test
+  public void testLoadFits() throws Exception {
+    File file = writeCube(-32, false);
+    int[] axes = new int[3];
+    double[][] plane = FitsUtil.getPlaneFromFits(file, 1, axes);
+    assertEquals(NUM_ROWS, axes[1]);
+    assertEquals(value(1, 3, 4), plane[3][4], 0);
+  }
+
+}
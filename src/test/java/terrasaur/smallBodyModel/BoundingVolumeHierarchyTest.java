@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.smallBodyModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.Test;
+import terrasaur.utils.OBJCodec;
+import terrasaur.utils.TestFixtures;
+
+public class BoundingVolumeHierarchyTest {
+
+  /** latitude/longitude tessellation of a unit sphere */
+  private static double[] vertices;
+  private static int[] triangles;
+
+  static {
+    OBJCodec.Mesh sphere = TestFixtures.latLonSphere(40, 80);
+    vertices = sphere.getVertices();
+    triangles = sphere.getFaceVertices();
+  }
+
+  /** brute force closest intersection, returns ray parameter or NaN */
+  private static double bruteForce(double[] o, double[] d) {
+    double best = Double.NaN;
+    for (int i = 0; i < triangles.length / 3; i++) {
+      double[] p0 = new double[3];
+      double[] e1 = new double[3];
+      double[] e2 = new double[3];
+      for (int k = 0; k < 3; k++) {
+        p0[k] = vertices[3 * triangles[3 * i] + k];
+        e1[k] = vertices[3 * triangles[3 * i + 1] + k] - p0[k];
+        e2[k] = vertices[3 * triangles[3 * i + 2] + k] - p0[k];
+      }
+      double[] p = cross(d, e2);
+      double det = dot(e1, p);
+      if (det == 0)
+        continue;
+      double[] s = {o[0] - p0[0], o[1] - p0[1], o[2] - p0[2]};
+      double u = dot(s, p) / det;
+      double[] q = cross(s, e1);
+      double v = dot(d, q) / det;
+      double t = dot(e2, q) / det;
+      if (u < 0 || v < 0 || u + v > 1 || t < 0 || t > 1)
+        continue;
+      if (Double.isNaN(best) || t < best)
+        best = t;
+    }
+    return best;
+  }
+
+  private static double[] cross(double[] a, double[] b) {
+    return new double[] {a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2],
+        a[0] * b[1] - a[1] * b[0]};
+  }
+
+  private static double dot(double[] a, double[] b) {
+    return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+  }
+
+  @Test
+  public void testClosestIntersection() {
+    BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(vertices, triangles);
+    assertEquals(triangles.length / 3, bvh.getNumberOfTriangles());
+
+    Random r = new Random(0);
+    int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+    double[] tHit = new double[1];
+    for (int i = 0; i < 500; i++) {
+      // ray from a point outside the sphere to a random point near the origin
+      double[] o = {4 * r.nextGaussian(), 4 * r.nextGaussian(), 4 * r.nextGaussian()};
+      double[] d = {r.nextGaussian() - o[0], r.nextGaussian() - o[1], r.nextGaussian() - o[2]};
+
+      double expected = bruteForce(o, d);
+      int hit = bvh.intersect(o[0], o[1], o[2], d[0], d[1], d[2], 1, stack, tHit);
+      if (Double.isNaN(expected)) {
+        assertEquals(-1, hit);
+      } else {
+        assertEquals(expected, tHit[0], 1e-12);
+        int any = bvh.intersectAny(o[0], o[1], o[2], d[0], d[1], d[2], 1, stack, null);
+        assertTrue(any >= 0);
+      }
+    }
+  }
+
+  @Test
+  public void testIntersectAll() {
+    BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(vertices, triangles);
+
+    Random r = new Random(0);
+    int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+    double[] tHit = new double[1];
+    for (int i = 0; i < 500; i++) {
+      // segment from outside the sphere through the origin crosses the sphere twice
+      double[] o = {r.nextGaussian(), r.nextGaussian(), r.nextGaussian()};
+      double scale = 4 / Math.sqrt(dot(o, o));
+      for (int k = 0; k < 3; k++)
+        o[k] *= scale;
+      double[] d = {-2 * o[0], -2 * o[1], -2 * o[2]};
+
+      int[] numHits = new int[1];
+      double[] tMin = {Double.MAX_VALUE};
+      bvh.intersectAll(o[0], o[1], o[2], d[0], d[1], d[2], 1, stack, (triangle, t) -> {
+        numHits[0]++;
+        tMin[0] = Math.min(tMin[0], t);
+      });
+      assertEquals(2, numHits[0]);
+
+      bvh.intersect(o[0], o[1], o[2], d[0], d[1], d[2], 1, stack, tHit);
+      assertEquals(tHit[0], tMin[0], 0);
+    }
+  }
+
+  @Test
+  public void testBatch() {
+    BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(vertices, triangles);
+
+    // rays from the origin hit the sphere from inside at a distance of about 1
+    int n = 100;
+    double[] origins = new double[3 * n];
+    double[] directions = new double[3 * n];
+    double[] tMax = new double[n];
+    Random r = new Random(1);
+    for (int i = 0; i < n; i++) {
+      double x = r.nextGaussian();
+      double y = r.nextGaussian();
+      double z = r.nextGaussian();
+      double norm = Math.sqrt(x * x + y * y + z * z);
+      directions[3 * i] = x / norm;
+      directions[3 * i + 1] = y / norm;
+      directions[3 * i + 2] = z / norm;
+      tMax[i] = 2;
+    }
+    int[] hits = new int[n];
+    double[] tHits = new double[n];
+    bvh.intersect(origins, directions, tMax, hits, tHits);
+    for (int i = 0; i < n; i++) {
+      assertTrue(hits[i] >= 0);
+      assertEquals(1, tHits[i], 0.01);
+    }
+  }
+
+  @Test
+  public void testClosestPoint() {
+    BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(vertices, triangles);
+
+    Random r = new Random(2);
+    int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+    double[] closest = new double[3];
+    for (int i = 0; i < 200; i++) {
+      // point just above the center of a random facet
+      int t = r.nextInt(triangles.length / 3);
+      double[] p = new double[3];
+      for (int k = 0; k < 3; k++) {
+        for (int v = 0; v < 3; v++)
+          p[k] += vertices[3 * triangles[3 * t + v] + k] / 3;
+      }
+      double norm = Math.sqrt(dot(p, p));
+      double scale = (norm + 0.001) / norm;
+      for (int k = 0; k < 3; k++)
+        p[k] *= scale;
+
+      int cell = bvh.closestPoint(p[0], p[1], p[2], stack, closest);
+      assertTrue(cell >= 0);
+      double[] d = {closest[0] - p[0], closest[1] - p[1], closest[2] - p[2]};
+      assertTrue(Math.sqrt(dot(d, d)) <= 0.001 + 1e-9);
+    }
+  }
+
+  @Test
+  public void testSerialization() {
+    BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(vertices, triangles);
+    ByteBuffer buffer = ByteBuffer.allocate((int) bvh.getSerializedSize() + 8);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(1);
+    bvh.write(buffer);
+    buffer.putInt(2);
+    assertEquals(buffer.capacity(), buffer.position());
+
+    buffer.flip();
+    assertEquals(1, buffer.getInt());
+    BoundingVolumeHierarchy copy = BoundingVolumeHierarchy.read(buffer, vertices, triangles);
+    assertEquals(2, buffer.getInt());
+    assertEquals(bvh.getNumberOfNodes(), copy.getNumberOfNodes());
+
+    Random r = new Random(3);
+    int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+    for (int i = 0; i < 200; i++) {
+      double[] o = {4 * r.nextGaussian(), 4 * r.nextGaussian(), 4 * r.nextGaussian()};
+      double[] d = {-o[0], -o[1], -o[2]};
+      assertEquals(bvh.intersect(o[0], o[1], o[2], d[0], d[1], d[2], 1, stack, null),
+          copy.intersect(o[0], o[1], o[2], d[0], d[1], d[2], 1, stack, null));
+    }
+  }
+
+}
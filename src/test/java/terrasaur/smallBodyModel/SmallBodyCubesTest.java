@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.smallBodyModel;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import picante.math.intervals.Interval;
+import terrasaur.utils.OBJCodec;
+import terrasaur.utils.PolyDataUtil;
+import terrasaur.utils.TestFixtures;
+
+public class SmallBodyCubesTest {
+
+  /** latitude/longitude tessellation of a unit sphere */
+  private static double[] vertices;
+  private static int[] triangles;
+
+  @BeforeClass
+  public static void setup() {
+    TestFixtures.loadVtkLibraries();
+
+    OBJCodec.Mesh sphere = TestFixtures.latLonSphere(20, 40);
+    vertices = sphere.getVertices();
+    triangles = sphere.getFaceVertices();
+  }
+
+  /** bounding box of each cell, from all of its points */
+  private static List<BoundingBox> cellBounds(OBJCodec.Mesh mesh) {
+    double[] vertices = mesh.getVertices();
+    int[] offsets = mesh.getFaceOffsets();
+    List<BoundingBox> cells = new ArrayList<>();
+    for (int i = 0; i + 1 < offsets.length; i++) {
+      double[] bounds = {Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE,
+          -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE};
+      for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+        for (int k = 0; k < 3; k++) {
+          double x = vertices[3 * mesh.getFaceVertices()[j] + k];
+          bounds[2 * k] = Math.min(bounds[2 * k], x);
+          bounds[2 * k + 1] = Math.max(bounds[2 * k + 1], x);
+        }
+      }
+      cells.add(new BoundingBox(bounds));
+    }
+    return cells;
+  }
+
+  /** bounding box of the model with buffer added to all sides */
+  private static BoundingBox boundingBox(double[] vertices, double buffer) {
+    double[] bounds = {Double.MAX_VALUE, -Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE,
+        Double.MAX_VALUE, -Double.MAX_VALUE};
+    for (int i = 0; i < vertices.length; i++) {
+      bounds[2 * (i % 3)] = Math.min(bounds[2 * (i % 3)], vertices[i]);
+      bounds[2 * (i % 3) + 1] = Math.max(bounds[2 * (i % 3) + 1], vertices[i]);
+    }
+    return new BoundingBox(new Interval(bounds[0] - buffer, bounds[1] + buffer),
+        new Interval(bounds[2] - buffer, bounds[3] + buffer),
+        new Interval(bounds[4] - buffer, bounds[5] + buffer));
+  }
+
+  /**
+   * The list of cubes built the way SmallBodyCubes did before it used an arithmetic grid.
+   */
+  private static List<BoundingBox> bruteForceCubes(OBJCodec.Mesh mesh, double cubeSize,
+      double buffer, boolean removeEmptyCubes) {
+    BoundingBox boundingBox = boundingBox(mesh.getVertices(), buffer);
+    int numCubesX = (int) Math.ceil(boundingBox.getXRange().getLength() / cubeSize);
+    int numCubesY = (int) Math.ceil(boundingBox.getYRange().getLength() / cubeSize);
+    int numCubesZ = (int) Math.ceil(boundingBox.getZRange().getLength() / cubeSize);
+
+    List<BoundingBox> allCubes = new ArrayList<>();
+    for (int k = 0; k < numCubesZ; ++k) {
+      double zmin = boundingBox.getZRange().getBegin() + k * cubeSize;
+      double zmax = boundingBox.getZRange().getBegin() + (k + 1) * cubeSize;
+      for (int j = 0; j < numCubesY; ++j) {
+        double ymin = boundingBox.getYRange().getBegin() + j * cubeSize;
+        double ymax = boundingBox.getYRange().getBegin() + (j + 1) * cubeSize;
+        for (int i = 0; i < numCubesX; ++i) {
+          double xmin = boundingBox.getXRange().getBegin() + i * cubeSize;
+          double xmax = boundingBox.getXRange().getBegin() + (i + 1) * cubeSize;
+          allCubes.add(new BoundingBox(new Interval(xmin, xmax), new Interval(ymin, ymax),
+              new Interval(zmin, zmax)));
+        }
+      }
+    }
+
+    if (removeEmptyCubes) {
+      List<BoundingBox> cells = cellBounds(mesh);
+      allCubes.removeIf(cube -> bruteForceIntersecting(Arrays.asList(cube), cells).isEmpty());
+    }
+
+    return allCubes;
+  }
+
+  private static TreeSet<Integer> bruteForceIntersecting(List<BoundingBox> cubes,
+      List<BoundingBox> boxes) {
+    TreeSet<Integer> cubeIds = new TreeSet<>();
+    for (int i = 0; i < cubes.size(); i++) {
+      for (BoundingBox bb : boxes) {
+        if (cubes.get(i).intersects(bb)) {
+          cubeIds.add(i);
+          break;
+        }
+      }
+    }
+    return cubeIds;
+  }
+
+  private static int bruteForceCubeId(BoundingBox boundingBox, List<BoundingBox> cubes,
+      double[] point) {
+    if (!boundingBox.contains(point))
+      return -1;
+    for (int i = 0; i < cubes.size(); i++) {
+      if (cubes.get(i).contains(point))
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * @return a random coordinate along one axis of the cubes, on a cube face half of the time
+   */
+  private static double randomCoordinate(Random r, List<BoundingBox> cubes, int axis) {
+    BoundingBox cube = cubes.get(r.nextInt(cubes.size()));
+    Interval range = new Interval(axis == 0 ? cube.getXRange()
+        : axis == 1 ? cube.getYRange() : cube.getZRange());
+    switch (r.nextInt(4)) {
+      case 0:
+        return range.getBegin();
+      case 1:
+        return range.getEnd();
+      default:
+        return range.getBegin() + 1.2 * (r.nextDouble() - 0.1) * range.getLength();
+    }
+  }
+
+  private static double[] randomPoint(Random r, List<BoundingBox> cubes) {
+    return new double[] {randomCoordinate(r, cubes, 0), randomCoordinate(r, cubes, 1),
+        randomCoordinate(r, cubes, 2)};
+  }
+
+  private void compare(OBJCodec.Mesh mesh, double cubeSize, double buffer,
+      boolean removeEmptyCubes) {
+    SmallBodyCubes cubes =
+        new SmallBodyCubes(PolyDataUtil.fromOBJMesh(mesh), cubeSize, buffer, removeEmptyCubes);
+    List<BoundingBox> expected = bruteForceCubes(mesh, cubeSize, buffer, removeEmptyCubes);
+    for (int i = 0; i < expected.size(); i++)
+      assertEquals(expected.get(i), cubes.getCube(i));
+
+    // the full grid, so points outside the surviving cubes are also tested
+    List<BoundingBox> grid = bruteForceCubes(mesh, cubeSize, buffer, false);
+    BoundingBox boundingBox = boundingBox(mesh.getVertices(), buffer);
+    Random r = new Random(0);
+    for (int i = 0; i < 5000; i++) {
+      double[] point = randomPoint(r, grid);
+      assertEquals(Arrays.toString(point), bruteForceCubeId(boundingBox, expected, point),
+          cubes.getCubeId(point));
+    }
+
+    // boxes whose faces often lie on cube faces, including degenerate boxes
+    for (int i = 0; i < 2000; i++) {
+      double[] a = randomPoint(r, grid);
+      double[] b = r.nextInt(4) == 0 ? a.clone() : randomPoint(r, grid);
+      BoundingBox bb = new BoundingBox(new double[] {Math.min(a[0], b[0]), Math.max(a[0], b[0]),
+          Math.min(a[1], b[1]), Math.max(a[1], b[1]), Math.min(a[2], b[2]),
+          Math.max(a[2], b[2])});
+      assertEquals(bb.toString(), bruteForceIntersecting(expected, Arrays.asList(bb)),
+          cubes.getIntersectingCubes(bb));
+    }
+
+    // a patch of the surface
+    int[] offsets = mesh.getFaceOffsets();
+    int[] faces = mesh.getFaceVertices();
+    int first = mesh.getNumberOfFaces() - 60;
+    int[] patchOffsets = new int[61];
+    for (int i = 0; i <= 60; i++)
+      patchOffsets[i] = offsets[first + i] - offsets[first];
+    OBJCodec.Mesh patch = new OBJCodec.Mesh(mesh.getVertices(), patchOffsets,
+        Arrays.copyOfRange(faces, offsets[first], offsets[mesh.getNumberOfFaces()]));
+    assertEquals(bruteForceIntersecting(expected, cellBounds(patch)),
+        cubes.getIntersectingCubes(PolyDataUtil.fromOBJMesh(patch)));
+  }
+
+  /** cube faces are exactly representable */
+  @Test
+  public void testExactGrid() {
+    OBJCodec.Mesh mesh = OBJCodec.Mesh.fromTriangles(vertices, triangles);
+    compare(mesh, 0.25, 0.25, true);
+    compare(mesh, 0.25, 0.25, false);
+  }
+
+  /** cube faces are subject to rounding, and the last cube extends past the bounding box */
+  @Test
+  public void testInexactGrid() {
+    OBJCodec.Mesh mesh = OBJCodec.Mesh.fromTriangles(vertices, triangles);
+    compare(mesh, 0.1, 0.03, true);
+    compare(mesh, 0.07, 0.01, true);
+    compare(mesh, 0.07, 0.01, false);
+  }
+
+  /**
+   * Cells which are not triangles occupy every cube overlapping the bounds of all of their points.
+   * The sphere is followed by a quad and a single vertex cell inside it, which are the last cells
+   * so they are part of the patch tested by {@link #compare}.
+   */
+  @Test
+  public void testNonTriangles() {
+    int numVertices = vertices.length / 3;
+    double[] mixedVertices = Arrays.copyOf(vertices, vertices.length + 15);
+    System.arraycopy(new double[] {-0.7, -0.7, 0.1, 0.7, -0.7, 0.1, 0.7, 0.7, 0.35, -0.7, 0.7,
+        0.35, 0.05, -0.2, -0.4}, 0, mixedVertices, vertices.length, 15);
+    int numTriangles = triangles.length / 3;
+    int[] offsets = new int[numTriangles + 3];
+    for (int i = 0; i <= numTriangles; i++)
+      offsets[i] = 3 * i;
+    offsets[numTriangles + 1] = offsets[numTriangles] + 4;
+    offsets[numTriangles + 2] = offsets[numTriangles + 1] + 1;
+    int[] faces = Arrays.copyOf(triangles, triangles.length + 5);
+    for (int i = 0; i < 5; i++)
+      faces[triangles.length + i] = numVertices + i;
+    OBJCodec.Mesh mesh = new OBJCodec.Mesh(mixedVertices, offsets, faces);
+
+    compare(mesh, 0.25, 0.25, true);
+    compare(mesh, 0.1, 0.03, true);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class FacetRecordCollectorTest {
+
+  private static List<String> collect(long budget, int numRecords, List<String> expected)
+      throws IOException {
+    Random r = new Random(0);
+    int numFacets = 100;
+    List<List<String>> byFacet = new ArrayList<>();
+    for (int i = 0; i < numFacets; i++)
+      byFacet.add(new ArrayList<>());
+
+    List<String> merged = new ArrayList<>();
+    try (FacetRecordCollector collector = new FacetRecordCollector(budget, null)) {
+      for (int i = 0; i < numRecords; i++) {
+        int facet = r.nextInt(numFacets);
+        String record = String.format("record %d facet %d\n", i, facet);
+        byFacet.get(facet).add(record);
+        collector.add(facet, record);
+      }
+      assertEquals(numRecords, collector.size());
+      if (budget < 100 * numRecords)
+        assertTrue(collector.getNumberOfRuns() > 1);
+      collector.merge((facet, record) -> merged.add(facet + ":" + record));
+    }
+
+    for (int i = 0; i < numFacets; i++)
+      for (String record : byFacet.get(i))
+        expected.add(i + ":" + record);
+    return merged;
+  }
+
+  @Test
+  public void testInMemory() throws IOException {
+    List<String> expected = new ArrayList<>();
+    List<String> merged = collect(1 << 20, 5000, expected);
+    assertEquals(expected, merged);
+  }
+
+  @Test
+  public void testSpill() throws IOException {
+    List<String> expected = new ArrayList<>();
+    List<String> merged = collect(4096, 5000, expected);
+    assertEquals(expected, merged);
+  }
+
+  @Test
+  public void testSpillBoundary() throws IOException {
+    // each record is 20 bytes plus 12 bytes of bookkeeping
+    String record = "0123456789abcdefghi\n";
+    long budget = 1024;
+    int perRun = 32;
+    assertTrue(20 * perRun + 12 * (perRun - 1) <= budget);
+    assertTrue(20 * (perRun + 1) + 12 * perRun > budget);
+
+    List<Integer> added = new ArrayList<>();
+    List<Integer> merged = new ArrayList<>();
+    try (FacetRecordCollector collector = new FacetRecordCollector(budget, null)) {
+      for (int i = 0; i < perRun; i++) {
+        collector.add(perRun - i, record);
+        added.add(perRun - i);
+      }
+      assertEquals(0, collector.getNumberOfRuns());
+      collector.add(0, record);
+      added.add(0);
+      assertEquals(1, collector.getNumberOfRuns());
+      for (int i = 1; i < perRun; i++) {
+        collector.add(i, record);
+        added.add(i);
+      }
+      assertEquals(1, collector.getNumberOfRuns());
+      collector.add(0, record);
+      added.add(0);
+      assertEquals(2, collector.getNumberOfRuns());
+      collector.merge((facet, r) -> merged.add(facet));
+    }
+    Collections.sort(added);
+    assertEquals(added, merged);
+  }
+
+  @Test
+  public void testLargeBudget() throws IOException {
+    // budgets of 2 GB or more would overflow the int sized buffer
+    for (long megabytes : new long[] {2047, 2048, 4096, 1L << 30}) {
+      try (FacetRecordCollector collector = new FacetRecordCollector(megabytes << 20, null)) {
+        assertTrue(collector.getMaxBufferBytes() <= FacetRecordCollector.MAX_BUFFER_BYTES);
+        collector.add(1, "b\n");
+        collector.add(0, "a\n");
+        List<String> merged = new ArrayList<>();
+        collector.merge((facet, r) -> merged.add(facet + ":" + r));
+        assertEquals(Arrays.asList("0:a\n", "1:b\n"), merged);
+      }
+    }
+
+    int max = FacetRecordCollector.MAX_BUFFER_BYTES;
+    assertEquals(1 << 17, FacetRecordCollector.newCapacity(1 << 16, 100));
+    assertEquals(1 << 30, FacetRecordCollector.newCapacity(1 << 29, (1 << 29) + 1));
+    assertEquals(max, FacetRecordCollector.newCapacity(1 << 30, (1 << 30) + 1));
+    assertEquals(max, FacetRecordCollector.newCapacity(max - 100, max - 50));
+  }
+
+}
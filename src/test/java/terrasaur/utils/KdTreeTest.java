@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class KdTreeTest {
+
+  private static double[] randomPoints(int n, Random r) {
+    double[] points = new double[3 * n];
+    for (int i = 0; i < points.length; i++)
+      points[i] = r.nextGaussian();
+    return points;
+  }
+
+  private static double distance(double[] points, int i, double[] p) {
+    double dx = points[3 * i] - p[0];
+    double dy = points[3 * i + 1] - p[1];
+    double dz = points[3 * i + 2] - p[2];
+    return Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+
+  @Test
+  public void testWithinRadius() {
+    Random r = new Random(0);
+    double[] points = randomPoints(5000, r);
+    KdTree tree = new KdTree(points);
+    assertEquals(5000, tree.size());
+
+    for (int j = 0; j < 50; j++) {
+      double[] p = {r.nextGaussian(), r.nextGaussian(), r.nextGaussian()};
+      double radius = 0.5 * r.nextDouble();
+
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < 5000; i++)
+        if (distance(points, i, p) <= radius)
+          expected.add(i);
+
+      List<Integer> found = new ArrayList<>();
+      tree.findWithinRadius(p[0], p[1], p[2], radius, found::add);
+      Collections.sort(found);
+
+      assertEquals(expected, found);
+    }
+  }
+
+  @Test
+  public void testNearest() {
+    Random r = new Random(1);
+    double[] points = randomPoints(5000, r);
+    KdTree tree = new KdTree(points);
+
+    for (int j = 0; j < 50; j++) {
+      double[] p = {r.nextGaussian(), r.nextGaussian(), r.nextGaussian()};
+
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < 5000; i++)
+        expected.add(i);
+      expected.sort((a, b) -> Double.compare(distance(points, a, p), distance(points, b, p)));
+
+      assertEquals((int) expected.get(0), tree.findNearest(p[0], p[1], p[2]));
+
+      int[] nearest = tree.findNearest(p[0], p[1], p[2], 10);
+      assertEquals(10, nearest.length);
+      for (int i = 0; i < nearest.length; i++)
+        assertEquals((int) expected.get(i), nearest[i]);
+    }
+  }
+
+  @Test
+  public void testWithinCone() {
+    Random r = new Random(2);
+    double[] points = randomPoints(5000, r);
+    KdTree tree = new KdTree(points);
+
+    for (int j = 0; j < 50; j++) {
+      double[] apex = {3 * r.nextGaussian(), 3 * r.nextGaussian(), 3 * r.nextGaussian()};
+      double[] axis = {-apex[0] + r.nextGaussian(), -apex[1] + r.nextGaussian(),
+          -apex[2] + r.nextGaussian()};
+      double halfAngle = 0.3 * r.nextDouble();
+
+      double norm = Math.sqrt(axis[0] * axis[0] + axis[1] * axis[1] + axis[2] * axis[2]);
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < 5000; i++) {
+        double d = distance(points, i, apex);
+        double dot = 0;
+        for (int k = 0; k < 3; k++)
+          dot += (points[3 * i + k] - apex[k]) * axis[k];
+        if (Math.acos(dot / (d * norm)) <= halfAngle)
+          expected.add(i);
+      }
+
+      List<Integer> found = new ArrayList<>();
+      tree.findWithinCone(apex, axis, halfAngle, found::add);
+      Collections.sort(found);
+
+      assertEquals(expected, found);
+    }
+  }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Test;
+
+public class OBJCodecTest {
+
+  private static OBJCodec.Mesh read(String contents, long chunkBytes) throws IOException {
+    return read(contents, chunkBytes, false);
+  }
+
+  private static OBJCodec.Mesh read(String contents, long chunkBytes,
+      boolean stopAtNormalsOrTextures) throws IOException {
+    Path path = Files.createTempFile("OBJCodecTest", ".obj");
+    try {
+      Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+      return OBJCodec.read(path, chunkBytes, stopAtNormalsOrTextures);
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  private static OBJCodec.Mesh randomMesh(int numVertices, int numFaces) {
+    Random r = new Random(0);
+    double[] vertices = new double[3 * numVertices];
+    for (int i = 0; i < vertices.length; i++)
+      vertices[i] = (r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(12) - 6);
+    int[] triangles = new int[3 * numFaces];
+    for (int i = 0; i < triangles.length; i++)
+      triangles[i] = r.nextInt(numVertices);
+    return OBJCodec.Mesh.fromTriangles(vertices, triangles);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    OBJCodec.Mesh mesh = randomMesh(2000, 4000);
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    OBJCodec.write(mesh, stream, "# header\n");
+    String contents = stream.toString(StandardCharsets.UTF_8.name());
+    assertTrue(contents.startsWith("# header\n"));
+
+    // small chunks so lines cross chunk boundaries
+    for (long chunkBytes : new long[] {1 << 20, 1000, 37}) {
+      OBJCodec.Mesh copy = read(contents, chunkBytes);
+      assertEquals(mesh.getNumberOfVertices(), copy.getNumberOfVertices());
+      assertEquals(mesh.getNumberOfFaces(), copy.getNumberOfFaces());
+      assertArrayEquals(mesh.getVertices(), copy.getVertices(), 0);
+      assertArrayEquals(mesh.getFaceVertices(), copy.getFaceVertices());
+      assertTrue(copy.isTriangular());
+    }
+  }
+
+  @Test
+  public void testFaceFormat() throws IOException {
+    OBJCodec.Mesh mesh =
+        OBJCodec.Mesh.fromTriangles(new double[] {0, 0, 0, 1, 0, 0, 0, 1, 0}, new int[] {0, 1, 2});
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    OBJCodec.write(mesh, stream, null);
+    String contents = stream.toString(StandardCharsets.UTF_8.name());
+    assertTrue(contents.endsWith(String.format("%-10s%10d%10d%10d\r\n", "f", 1, 2, 3)));
+  }
+
+  @Test
+  public void testRecords() throws IOException {
+    String contents = "# comment\n" + "mtllib model.mtl\n" + "o model\n" + "v 1 2 3\n"
+        + "vt 0.5 0.5\n" + "vn 0 0 1\n" + "\tv  -1.5e2 +2.25E-1 .5 1.0\r\n" + "v 0 0 0\n"
+        + "v 1 1 1\n" + "g group\n" + "f 1/1/1 2/1/1 3/1/1\n" + "s off\n" + "f 1//1 2//1 3//1 4\n"
+        + "v 2 2 2\n" + "f -1 -2 -3\n" + "\n" + "f 1 2 5";
+
+    for (long chunkBytes : new long[] {1 << 20, 7}) {
+      OBJCodec.Mesh mesh = read(contents, chunkBytes);
+      assertEquals(5, mesh.getNumberOfVertices());
+      assertArrayEquals(new double[] {1, 2, 3, -150, 0.225, 0.5, 0, 0, 0, 1, 1, 1, 2, 2, 2},
+          mesh.getVertices(), 0);
+      assertEquals(4, mesh.getNumberOfFaces());
+      assertArrayEquals(new int[] {0, 3, 7, 10, 13}, mesh.getFaceOffsets());
+      assertArrayEquals(new int[] {0, 1, 2, 0, 1, 2, 3, 4, 3, 2, 0, 1, 4},
+          mesh.getFaceVertices());
+      assertTrue(!mesh.isTriangular());
+      assertTrue(mesh.hasNormalsOrTextures());
+    }
+  }
+
+  @Test
+  public void testNormalsOrTextures() throws IOException {
+    String faces = "v 0 0 0\nv 1 0 0\nv 0 1 0\n";
+    for (long chunkBytes : new long[] {1 << 20, 5}) {
+      assertFalse(read(faces + "f 1 2 3\n", chunkBytes).hasNormalsOrTextures());
+      assertFalse(read(faces + "vp 0.5\nf 1/1/1 2/1/1 3/1/1\n", chunkBytes)
+          .hasNormalsOrTextures());
+      assertTrue(read(faces + "vn 0 0 1\nf 1//1 2//1 3//1\n", chunkBytes)
+          .hasNormalsOrTextures());
+      assertTrue(read(faces + "f 1/1 2/2 3/3\nvt\t0 0\nvt 1 0\nvt 0 1", chunkBytes)
+          .hasNormalsOrTextures());
+    }
+    assertFalse(randomMesh(3, 1).hasNormalsOrTextures());
+  }
+
+  @Test
+  public void testStopAtNormalsOrTextures() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 1000; i++)
+      sb.append(String.format("v %d 0 0%n", i));
+    for (int i = 1; i < 999; i++)
+      sb.append(String.format("f %d %d %d%n", i, i + 1, i + 2));
+    String faces = sb.toString();
+    for (long chunkBytes : new long[] {1 << 20, 100}) {
+      OBJCodec.Mesh mesh = read(faces, chunkBytes, true);
+      assertEquals(1000, mesh.getNumberOfVertices());
+      assertEquals(998, mesh.getNumberOfFaces());
+      assertArrayEquals(read(faces, chunkBytes).getFaceVertices(), mesh.getFaceVertices());
+
+      assertNull(read("vn 0 0 1\n" + faces, chunkBytes, true));
+      assertNull(read(faces + "vt 0 0\n", chunkBytes, true));
+      assertNull(read(faces.substring(0, 5000) + "vn 0 0 1\n" + faces.substring(5000),
+          chunkBytes, true));
+    }
+
+    // malformed records are still reported
+    boolean thrown = false;
+    try {
+      read("v 0 x 0\nvn 0 0 1\n", 1 << 20, true);
+    } catch (IOException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+  }
+
+  @Test
+  public void testBadIndex() {
+    for (String contents : new String[] {"v 0 0 0\nf 0 1 1\n", "v 0 0 0\nf 1 1 2\n",
+        "v 0 0 0\nf -2 1 1\n", "v 0 x 0\n"}) {
+      boolean thrown = false;
+      try {
+        read(contents, 1 << 20);
+      } catch (IOException e) {
+        thrown = true;
+      }
+      assertTrue(thrown);
+    }
+  }
+
+}
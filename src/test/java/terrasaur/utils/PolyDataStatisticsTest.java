@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PolyDataStatisticsTest {
+
+  @BeforeClass
+  public static void setup() {
+    TestFixtures.loadVtkLibraries();
+  }
+
+  private static final double[] CUBE_VERTICES =
+      {0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 1, 0, 0, 0, 1, 1, 0, 1, 1, 1, 1, 0, 1, 1};
+
+  /** unit cube, outward facing */
+  private static final int[] CUBE_TRIANGLES = {0, 2, 1, 0, 3, 2, 4, 5, 6, 4, 6, 7, 0, 1, 5, 0, 5,
+      4, 1, 2, 6, 1, 6, 5, 2, 3, 7, 2, 7, 6, 3, 0, 4, 3, 4, 7};
+
+  /** @return statistics from PolyDataStatistics for a mesh */
+  private static Map<String, String> statistics(double[] vertices, int[] faceOffsets,
+      int[] faceVertices) {
+    OBJCodec.Mesh mesh = new OBJCodec.Mesh(vertices, faceOffsets, faceVertices);
+    return new PolyDataStatistics(PolyDataUtil.fromOBJMesh(mesh)).getShapeModelStatsMap();
+  }
+
+  private static Map<String, String> statistics(double[] vertices, int[] triangles) {
+    OBJCodec.Mesh mesh = OBJCodec.Mesh.fromTriangles(vertices, triangles);
+    return statistics(vertices, mesh.getFaceOffsets(), triangles);
+  }
+
+  /** @return leading number of a formatted statistic */
+  private static double value(Map<String, String> stats, String key) {
+    return Double.parseDouble(stats.get(key).trim().split("\\s+")[0]);
+  }
+
+  /**
+   * Check the counts and statistics against a direct calculation over the triangles.
+   *
+   * @return number of distinct edges
+   */
+  private static int checkAgainstDirect(Map<String, String> stats, double[] vertices,
+      int[] triangles) {
+    SummaryStatistics areas = new SummaryStatistics();
+    SummaryStatistics lengths = new SummaryStatistics();
+    Set<Long> edges = new HashSet<>();
+    for (int i = 0; i < triangles.length / 3; i++) {
+      double[][] v = new double[3][];
+      for (int j = 0; j < 3; j++) {
+        int a = triangles[3 * i + j];
+        int b = triangles[3 * i + (j + 1) % 3];
+        v[j] = new double[] {vertices[3 * a], vertices[3 * a + 1], vertices[3 * a + 2]};
+        if (edges.add(Math.min(a, b) * (long) Integer.MAX_VALUE + Math.max(a, b))) {
+          double d2 = 0;
+          for (int k = 0; k < 3; k++)
+            d2 += Math.pow(vertices[3 * b + k] - vertices[3 * a + k], 2);
+          lengths.addValue(Math.sqrt(d2));
+        }
+      }
+      double[] e1 = new double[3];
+      double[] e2 = new double[3];
+      for (int k = 0; k < 3; k++) {
+        e1[k] = v[1][k] - v[0][k];
+        e2[k] = v[2][k] - v[0][k];
+      }
+      double nx = e1[1] * e2[2] - e1[2] * e2[1];
+      double ny = e1[2] * e2[0] - e1[0] * e2[2];
+      double nz = e1[0] * e2[1] - e1[1] * e2[0];
+      areas.addValue(0.5 * Math.sqrt(nx * nx + ny * ny + nz * nz));
+    }
+
+    assertEquals(triangles.length / 3, (long) value(stats, "Number of Plates"));
+    assertEquals(edges.size(), (long) value(stats, "Number of Edges"));
+    assertEquals(vertices.length / 3 - edges.size() + triangles.length / 3,
+        (long) value(stats, "Euler Polyhedron Formula"));
+    assertEquals(areas.getSum(), value(stats, "Surface Area"), 1e-14);
+    assertEquals(areas.getMean(), value(stats, "Plate Area Mean"), 1e-14);
+    assertEquals(areas.getMin(), value(stats, "Plate Area Min"), 1e-14);
+    assertEquals(areas.getStandardDeviation(), value(stats, "Plate Area Standard Dev"), 1e-14);
+    assertEquals(lengths.getMean(), value(stats, "Edge Length Mean"), 1e-14);
+    assertEquals(lengths.getMax(), value(stats, "Edge Length Max"), 1e-14);
+    assertEquals(lengths.getVariance(), value(stats, "Edge Length Variance"), 1e-14);
+    return edges.size();
+  }
+
+  @Test
+  public void testTetrahedron() {
+    double[] vertices = {0, 0, 0, 1, 0, 0, 0, 2, 0, 0, 0, 3};
+    int[] triangles = {0, 2, 1, 0, 1, 3, 1, 2, 3, 0, 3, 2};
+    Map<String, String> stats = statistics(vertices, triangles);
+    assertEquals(6, checkAgainstDirect(stats, vertices, triangles));
+    assertEquals("Yes", stats.get("Surface Closed?"));
+    assertEquals(2, (long) value(stats, "Euler Polyhedron Formula"));
+    assertEquals(1, value(stats, "Volume"), 1e-14);
+    assertFalse(stats.containsKey("Non-Triangular Plates"));
+  }
+
+  @Test
+  public void testCube() {
+    Map<String, String> stats = statistics(CUBE_VERTICES, CUBE_TRIANGLES);
+    assertEquals(18, checkAgainstDirect(stats, CUBE_VERTICES, CUBE_TRIANGLES));
+    assertEquals("Yes", stats.get("Surface Closed?"));
+    assertEquals(2, (long) value(stats, "Euler Polyhedron Formula"));
+    assertEquals(6, value(stats, "Surface Area"), 1e-14);
+    assertEquals(1, value(stats, "Volume"), 1e-14);
+    assertEquals(Math.sqrt(2), value(stats, "Edge Length Max"), 1e-14);
+  }
+
+  @Test
+  public void testOpenPatch() {
+    // 3 x 3 grid of vertices in the z = 0 plane, 8 triangles
+    double[] vertices = new double[27];
+    for (int i = 0; i < 9; i++) {
+      vertices[3 * i] = i % 3;
+      vertices[3 * i + 1] = i / 3;
+    }
+    int[] triangles = new int[24];
+    int t = 0;
+    for (int row = 0; row < 2; row++) {
+      for (int col = 0; col < 2; col++) {
+        int a = 3 * row + col;
+        triangles[t++] = a;
+        triangles[t++] = a + 1;
+        triangles[t++] = a + 4;
+        triangles[t++] = a;
+        triangles[t++] = a + 4;
+        triangles[t++] = a + 3;
+      }
+    }
+    Map<String, String> stats = statistics(vertices, triangles);
+    assertEquals(16, checkAgainstDirect(stats, vertices, triangles));
+    assertEquals("No", stats.get("Surface Closed?"));
+    assertEquals(1, (long) value(stats, "Euler Polyhedron Formula"));
+    assertFalse(stats.containsKey("Volume"));
+
+    // removing one triangle from the cube also opens it
+    int[] open = new int[CUBE_TRIANGLES.length - 3];
+    System.arraycopy(CUBE_TRIANGLES, 3, open, 0, open.length);
+    stats = statistics(CUBE_VERTICES, open);
+    assertEquals(18, checkAgainstDirect(stats, CUBE_VERTICES, open));
+    assertEquals("No", stats.get("Surface Closed?"));
+  }
+
+  @Test
+  public void testNonTriangles() {
+    // cube with the bottom face as one quadrilateral
+    int[] faceVertices = new int[4 + CUBE_TRIANGLES.length - 6];
+    faceVertices[0] = 0;
+    faceVertices[1] = 3;
+    faceVertices[2] = 2;
+    faceVertices[3] = 1;
+    System.arraycopy(CUBE_TRIANGLES, 6, faceVertices, 4, CUBE_TRIANGLES.length - 6);
+    int numFaces = 1 + (CUBE_TRIANGLES.length - 6) / 3;
+    int[] faceOffsets = new int[numFaces + 1];
+    for (int i = 1; i <= numFaces; i++)
+      faceOffsets[i] = 4 + 3 * (i - 1);
+
+    Map<String, String> stats = statistics(CUBE_VERTICES, faceOffsets, faceVertices);
+    assertEquals(numFaces, (long) value(stats, "Number of Plates"));
+    assertEquals(1, (long) value(stats, "Non-Triangular Plates"));
+    assertTrue(value(stats, "Surface Area") < 6);
+  }
+
+}
@@ -0,0 +1,304 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import terrasaur.smallBodyModel.BoundingVolumeHierarchy;
+import vtk.vtkCellArray;
+import vtk.vtkFloatArray;
+import vtk.vtkIdList;
+import vtk.vtkPoints;
+import vtk.vtkPolyData;
+
+public class ShapeModelCacheTest {
+
+  /** latitude/longitude tessellation of a unit sphere */
+  private static double[] vertices;
+  private static int[] triangles;
+  private static float[] normals;
+
+  private File dir;
+  private File source;
+
+  @BeforeClass
+  public static void setup() {
+    OBJCodec.Mesh sphere = TestFixtures.latLonSphere(20, 40);
+    vertices = sphere.getVertices();
+    triangles = sphere.getFaceVertices();
+    normals = new float[triangles.length];
+    for (int i = 0; i < normals.length; i++)
+      normals[i] = i * 0.5f;
+
+    TestFixtures.loadVtkLibraries();
+  }
+
+  @Before
+  public void createFiles() throws IOException {
+    dir = Files.createTempDirectory("ShapeModelCacheTest").toFile();
+    source = new File(dir, "model.obj");
+    Files.write(source.toPath(), "source contents".getBytes(StandardCharsets.US_ASCII));
+    ShapeModelCache.setCacheDirectory(new File(dir, "cache"));
+  }
+
+  @After
+  public void deleteFiles() {
+    ShapeModelCache.setCacheDirectory(null);
+    ShapeModelCache.setMinimumCells(100000);
+    File[] cacheFiles = new File(dir, "cache").listFiles();
+    if (cacheFiles != null)
+      for (File f : cacheFiles)
+        f.delete();
+    new File(dir, "cache").delete();
+    source.delete();
+    dir.delete();
+  }
+
+  private ShapeModelCache.Sidecar writeSidecar() {
+    ShapeModelCache.Sidecar sidecar = ShapeModelCache.getSidecar(source);
+    assertEquals(true, sidecar.write(vertices, triangles, normals,
+        new BoundingVolumeHierarchy(vertices, triangles)));
+    return sidecar;
+  }
+
+  /** @return source modification time recorded in the sidecar */
+  private static long recordedModified(File cacheFile) throws IOException {
+    byte[] bytes = Files.readAllBytes(cacheFile.toPath());
+    return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong(16);
+  }
+
+  @Test
+  public void testDisabled() {
+    ShapeModelCache.setCacheDirectory(null);
+    assertNull(ShapeModelCache.getSidecar(source));
+  }
+
+  @Test
+  public void testLocation() {
+    File cacheFile = ShapeModelCache.getSidecar(source).getFile();
+    assertEquals(new File(dir, "cache"), cacheFile.getParentFile());
+
+    // files with the same name in different directories get different sidecars
+    File other = new File(new File(dir, "other"), source.getName());
+    assertEquals(false, cacheFile.equals(ShapeModelCache.getSidecar(other).getFile()));
+  }
+
+  @Test
+  public void testRoundTrip() {
+    writeSidecar();
+    ShapeModelCache cache = ShapeModelCache.getSidecar(source).read();
+    assertNotNull(cache);
+    assertArrayEquals(vertices, cache.getVertices(), 0);
+    assertArrayEquals(triangles, cache.getTriangles());
+    double[] cellNormals = cache.getCellNormals();
+    for (int i = 0; i < normals.length; i++)
+      assertEquals(normals[i], cellNormals[i], 0);
+
+    // the stored hierarchy answers queries the same as a fresh one
+    BoundingVolumeHierarchy fresh = new BoundingVolumeHierarchy(vertices, triangles);
+    BoundingVolumeHierarchy stored = cache.getBoundingVolumeHierarchy();
+    int[] stack = new int[BoundingVolumeHierarchy.STACK_SIZE];
+    double[] freshHit = new double[3];
+    double[] storedHit = new double[3];
+    Random r = new Random(1);
+    for (int i = 0; i < 1000; i++) {
+      double x = 3 * (r.nextDouble() - 0.5);
+      double y = 3 * (r.nextDouble() - 0.5);
+      double z = 3 * (r.nextDouble() - 0.5);
+      assertEquals(fresh.intersect(x, y, z, -x, -y, -z, 1, stack, freshHit),
+          stored.intersect(x, y, z, -x, -y, -z, 1, stack, storedHit));
+      assertEquals(freshHit[0], storedHit[0], 0);
+      assertEquals(fresh.closestPoint(x, y, z, stack, freshHit),
+          stored.closestPoint(x, y, z, stack, storedHit));
+      assertArrayEquals(freshHit, storedHit, 0);
+    }
+  }
+
+  @Test
+  public void testStaleSize() throws IOException {
+    writeSidecar();
+    Files.write(source.toPath(), "new source contents".getBytes(StandardCharsets.US_ASCII));
+    assertNull(ShapeModelCache.getSidecar(source).read());
+  }
+
+  @Test
+  public void testStaleDigest() throws IOException {
+    writeSidecar();
+    long modified = source.lastModified();
+    Files.write(source.toPath(), "SOURCE CONTENTS".getBytes(StandardCharsets.US_ASCII));
+    source.setLastModified(modified + 10000);
+    assertNull(ShapeModelCache.getSidecar(source).read());
+  }
+
+  @Test
+  public void testSameSizeAndTime() throws IOException {
+    // size and modification time are trusted without hashing
+    writeSidecar();
+    long modified = source.lastModified();
+    Files.write(source.toPath(), "SOURCE CONTENTS".getBytes(StandardCharsets.US_ASCII));
+    source.setLastModified(modified);
+    assertNotNull(ShapeModelCache.getSidecar(source).read());
+  }
+
+  @Test
+  public void testTouched() throws IOException {
+    ShapeModelCache.Sidecar sidecar = writeSidecar();
+    long modified = source.lastModified() + 10000;
+    source.setLastModified(modified);
+    modified = source.lastModified();
+    assertEquals(false, modified == recordedModified(sidecar.getFile()));
+
+    // digest matches, so the sidecar is used and its header refreshed
+    assertNotNull(ShapeModelCache.getSidecar(source).read());
+    assertEquals(modified, recordedModified(sidecar.getFile()));
+    assertNotNull(ShapeModelCache.getSidecar(source).read());
+  }
+
+  @Test
+  public void testCorrupt() throws IOException {
+    File cacheFile = writeSidecar().getFile();
+    long length = cacheFile.length();
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+      raf.seek(length / 2);
+      int b = raf.read();
+      raf.seek(length / 2);
+      raf.write(b ^ 0xff);
+    }
+    assertNull(ShapeModelCache.getSidecar(source).read());
+  }
+
+  @Test
+  public void testTruncated() throws IOException {
+    File cacheFile = writeSidecar().getFile();
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+      raf.setLength(cacheFile.length() - 100);
+    }
+    assertNull(ShapeModelCache.getSidecar(source).read());
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+      raf.setLength(10);
+    }
+    assertNull(ShapeModelCache.getSidecar(source).read());
+  }
+
+  @Test
+  public void testPolyData() {
+    ShapeModelCache.setMinimumCells(0);
+
+    vtkPolyData polyData =
+        PolyDataUtil.fromOBJMesh(OBJCodec.Mesh.fromTriangles(vertices, triangles));
+    ShapeModelCache.Sidecar sidecar = ShapeModelCache.getSidecar(source);
+    sidecar.save(polyData);
+    assertEquals(true, sidecar.getFile().isFile());
+
+    vtkPolyData loaded = ShapeModelCache.getSidecar(source).load();
+    assertNotNull(loaded);
+    assertArrayEquals(vertices, PolyDataUtil.getPackedVertices(loaded), 0);
+    assertArrayEquals(triangles, PolyDataUtil.getPackedTriangles(loaded));
+
+    ShapeModelCache cache = ShapeModelCache.get(loaded);
+    assertNotNull(cache);
+    assertEquals(true, cache.matches(loaded));
+    vtkFloatArray freshNormals = PolyDataUtil.getCellNormals(polyData);
+    assertArrayEquals(toDouble(freshNormals.GetJavaArray()), cache.getCellNormals(), 0);
+
+    loaded.GetPoints().SetPoint(0, 2, 2, 2);
+    loaded.GetPoints().Modified();
+    assertEquals(false, cache.matches(loaded));
+  }
+
+  private static double[] toDouble(float[] f) {
+    double[] d = new double[f.length];
+    for (int i = 0; i < f.length; i++)
+      d[i] = f[i];
+    return d;
+  }
+
+  @Test
+  public void testSkipRules() {
+    ShapeModelCache.setMinimumCells(0);
+
+    vtkPolyData polyData =
+        PolyDataUtil.fromOBJMesh(OBJCodec.Mesh.fromTriangles(vertices, triangles));
+    assertNotNull(ShapeModelCache.getCacheableTriangles(polyData));
+
+    // too small
+    ShapeModelCache.setMinimumCells(triangles.length);
+    assertNull(ShapeModelCache.getCacheableTriangles(polyData));
+    ShapeModelCache.setMinimumCells(0);
+
+    // point data
+    vtkFloatArray pointData = new vtkFloatArray();
+    pointData.SetName("pointData");
+    pointData.SetNumberOfTuples(polyData.GetNumberOfPoints());
+    polyData.GetPointData().AddArray(pointData);
+    assertNull(ShapeModelCache.getCacheableTriangles(polyData));
+
+    // cell data
+    polyData = PolyDataUtil.fromOBJMesh(OBJCodec.Mesh.fromTriangles(vertices, triangles));
+    vtkFloatArray cellData = new vtkFloatArray();
+    cellData.SetName("cellData");
+    cellData.SetNumberOfTuples(polyData.GetNumberOfCells());
+    polyData.GetCellData().AddArray(cellData);
+    assertNull(ShapeModelCache.getCacheableTriangles(polyData));
+
+    // a quadrilateral among the triangles
+    vtkPoints points = new vtkPoints();
+    for (int i = 0; i < vertices.length / 3; i++)
+      points.InsertNextPoint(vertices[3 * i], vertices[3 * i + 1], vertices[3 * i + 2]);
+    vtkCellArray polys = new vtkCellArray();
+    vtkIdList idList = new vtkIdList();
+    idList.SetNumberOfIds(3);
+    for (int i = 0; i < triangles.length / 3; i++) {
+      for (int j = 0; j < 3; j++)
+        idList.SetId(j, triangles[3 * i + j]);
+      polys.InsertNextCell(idList);
+    }
+    idList.SetNumberOfIds(4);
+    for (int j = 0; j < 4; j++)
+      idList.SetId(j, j);
+    polys.InsertNextCell(idList);
+    polyData = new vtkPolyData();
+    polyData.SetPoints(points);
+    polyData.SetPolys(polys);
+    assertNull(ShapeModelCache.getCacheableTriangles(polyData));
+
+    ShapeModelCache.Sidecar sidecar = ShapeModelCache.getSidecar(source);
+    sidecar.save(polyData);
+    assertEquals(false, sidecar.getFile().exists());
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+public class StreamingStatisticsTest {
+
+  @Test
+  public void testMerge() {
+    Random r = new Random(0);
+    DescriptiveStatistics expected = new DescriptiveStatistics();
+    StreamingStatistics merged = new StreamingStatistics(true);
+    for (int chunk = 0; chunk < 7; chunk++) {
+      StreamingStatistics stats = new StreamingStatistics(true);
+      for (int i = 0; i < 5 + chunk; i++) {
+        double value = 100 + r.nextGaussian();
+        expected.addValue(value);
+        stats.addValue(value);
+      }
+      merged.merge(stats);
+    }
+
+    assertEquals(expected.getN(), merged.getN());
+    assertEquals(expected.getMean(), merged.getMean(), 1e-12);
+    assertEquals(expected.getVariance(), merged.getVariance(), 1e-10);
+    assertEquals(expected.getMin(), merged.getMin(), 0);
+    assertEquals(expected.getMax(), merged.getMax(), 0);
+    assertEquals(expected.getSum(), merged.getSum(), 1e-9);
+    assertEquals(expected.getSumsq(), merged.getSumsq(), 1e-7);
+    assertEquals(expected.getPercentile(50), merged.getMedian(), 0);
+  }
+
+  @Test
+  public void testEmpty() {
+    StreamingStatistics stats = new StreamingStatistics(true);
+    assertEquals(0, stats.getN());
+    assertTrue(Double.isNaN(stats.getMean()));
+    assertTrue(Double.isNaN(stats.getSum()));
+    assertTrue(Double.isNaN(stats.getMedian()));
+    stats.addValue(3);
+    assertEquals(0, stats.getVariance(), 0);
+    assertEquals(3, stats.getMedian(), 0);
+  }
+
+  @Test
+  public void testApproximateMedian() {
+    Random r = new Random(0);
+    DescriptiveStatistics expected = new DescriptiveStatistics();
+    StreamingStatistics stats = new StreamingStatistics(true);
+    StreamingStatistics other = new StreamingStatistics(true);
+    for (int i = 0; i < 100000; i++) {
+      double value = r.nextDouble();
+      expected.addValue(value);
+      (i % 3 == 0 ? other : stats).addValue(value);
+    }
+    stats.merge(other);
+
+    // the rank error of the sketch is a few percent at most
+    assertEquals(expected.getPercentile(50), stats.getMedian(), 0.03);
+  }
+
+}
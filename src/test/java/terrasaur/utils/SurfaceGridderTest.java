@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import org.junit.Test;
+
+public class SurfaceGridderTest {
+
+  @Test
+  public void testPlane() {
+    // a minimum curvature surface reproduces a plane
+    Random r = new Random(1);
+    int numPts = 2000;
+    double[] x = new double[numPts];
+    double[] y = new double[numPts];
+    double[] f = new double[numPts];
+    for (int i = 0; i < numPts; i++) {
+      x[i] = -1 + 2 * r.nextDouble();
+      y[i] = -1 + 2 * r.nextDouble();
+      f[i] = 3 + 2 * x[i] - y[i];
+    }
+
+    SurfaceGridder gridder = new SurfaceGridder(-1, -1, 0.02, 101, 101);
+    double[][] grid = gridder.grid(x, y, f);
+    double[] gridX = gridder.getX();
+    double[] gridY = gridder.getY();
+    for (int ix = 0; ix < gridX.length; ix++)
+      for (int iy = 0; iy < gridY.length; iy++)
+        assertEquals(3 + 2 * gridX[ix] - gridY[iy], grid[ix][iy], 1e-5);
+  }
+
+  @Test
+  public void testSmooth() {
+    Random r = new Random(2);
+    int numPts = 5000;
+    double[] x = new double[numPts];
+    double[] y = new double[numPts];
+    double[] f = new double[numPts];
+    double[] g = new double[numPts];
+    for (int i = 0; i < numPts; i++) {
+      x[i] = 2 * Math.PI * r.nextDouble();
+      y[i] = 2 * Math.PI * r.nextDouble();
+      f[i] = Math.sin(x[i]) * Math.cos(y[i]);
+      g[i] = -f[i];
+    }
+
+    SurfaceGridder gridder = new SurfaceGridder(0, 0, 2 * Math.PI / 64, 65, 65);
+    gridder.setTension(0.25);
+    gridder.setPoints(x, y);
+    double[][] grid = gridder.grid(f);
+    double[][] negated = gridder.grid(g);
+    double[] gridX = gridder.getX();
+    double[] gridY = gridder.getY();
+    double maxError = 0;
+    for (int ix = 0; ix < gridX.length; ix++) {
+      for (int iy = 0; iy < gridY.length; iy++) {
+        double expected = Math.sin(gridX[ix]) * Math.cos(gridY[iy]);
+        maxError = Math.max(maxError, Math.abs(grid[ix][iy] - expected));
+        assertEquals(-grid[ix][iy], negated[ix][iy], 1e-6);
+      }
+    }
+    assertTrue(String.format("max error %g", maxError), maxError < 0.02);
+  }
+
+  @Test
+  public void testNoData() {
+    SurfaceGridder gridder = new SurfaceGridder(0, 0, 1, 11, 11);
+    double[][] grid = gridder.grid(new double[] {20}, new double[] {20}, new double[] {1});
+    assertTrue(Double.isNaN(grid[5][5]));
+  }
+
+}
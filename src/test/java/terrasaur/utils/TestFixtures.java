@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils;
+
+import java.util.function.DoubleBinaryOperator;
+import vtk.vtkPolyData;
+
+/** Shapes and native library setup shared between tests. */
+public class TestFixtures {
+
+  private TestFixtures() {}
+
+  /**
+   * Load the VTK native libraries. {@link NativeLibraryLoader#loadVtkLibraries()} only logs
+   * libraries it can't load; this throws so that tests needing VTK fail rather than skip.
+   */
+  public static void loadVtkLibraries() {
+    NativeLibraryLoader.loadVtkLibraries();
+    try {
+      new vtkPolyData().Delete();
+    } catch (UnsatisfiedLinkError e) {
+      throw new AssertionError("VTK native libraries not found on java.library.path ("
+          + System.getProperty("java.library.path")
+          + "); tests expect them in 3rd-party/${ARCH}/vtk/lib", e);
+    }
+  }
+
+  /**
+   * @param nLat number of latitude bands
+   * @param nLon number of longitude bands
+   * @return latitude/longitude tessellation of a unit sphere
+   */
+  public static OBJCodec.Mesh latLonSphere(int nLat, int nLon) {
+    return latLonSphere(nLat, nLon, (lat, lon) -> 1);
+  }
+
+  /**
+   * @param nLat number of latitude bands
+   * @param nLon number of longitude bands
+   * @param radius radius as a function of latitude and longitude, in radians
+   * @return latitude/longitude tessellation of a star shaped body. Vertex i * nLon + j is at
+   *         latitude i and longitude j, and each band is split into two outward facing triangles.
+   */
+  public static OBJCodec.Mesh latLonSphere(int nLat, int nLon, DoubleBinaryOperator radius) {
+    double[] vertices = new double[3 * (nLat + 1) * nLon];
+    for (int i = 0; i <= nLat; i++) {
+      double lat = Math.PI * i / nLat - Math.PI / 2;
+      for (int j = 0; j < nLon; j++) {
+        double lon = 2 * Math.PI * j / nLon;
+        double r = radius.applyAsDouble(lat, lon);
+        int v = 3 * (i * nLon + j);
+        vertices[v] = r * Math.cos(lat) * Math.cos(lon);
+        vertices[v + 1] = r * Math.cos(lat) * Math.sin(lon);
+        vertices[v + 2] = r * Math.sin(lat);
+      }
+    }
+    int[] triangles = new int[6 * nLat * nLon];
+    int t = 0;
+    for (int i = 0; i < nLat; i++) {
+      for (int j = 0; j < nLon; j++) {
+        int a = i * nLon + j;
+        int b = i * nLon + (j + 1) % nLon;
+        int c = (i + 1) * nLon + j;
+        int d = (i + 1) * nLon + (j + 1) % nLon;
+        triangles[t++] = a;
+        triangles[t++] = b;
+        triangles[t++] = d;
+        triangles[t++] = a;
+        triangles[t++] = d;
+        triangles[t++] = c;
+      }
+    }
+    return OBJCodec.Mesh.fromTriangles(vertices, triangles);
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.gravity;
+
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import terrasaur.utils.OBJCodec;
+import terrasaur.utils.TestFixtures;
+import terrasaur.utils.gravity.GravityOptions.EVALUATION;
+
+public class GravityUtilsTest {
+
+  private static final double G = 6.67408e-11;
+
+  /** density in g/cm^3 */
+  private static final double DENSITY = 2;
+
+  /** field points in km, far enough away that the sphere acts as a point mass */
+  private static final double[][] FIELD_POINTS =
+      {{0, 0, 30}, {25, 0, 0}, {12, -9, 20}, {-15, 14, -7}};
+
+  /** unit sphere in km */
+  private static OBJCodec.Mesh sphere;
+  private static String objFile;
+  private static String fieldPointsFile;
+
+  /** GM of the sphere in m^3/s^2 */
+  private static double gm;
+
+  @BeforeClass
+  public static void setup() throws IOException {
+    TestFixtures.loadVtkLibraries();
+
+    sphere = TestFixtures.latLonSphere(20, 40);
+    File dir = Files.createTempDirectory("GravityUtilsTest").toFile();
+    dir.deleteOnExit();
+    File obj = new File(dir, "sphere.obj");
+    obj.deleteOnExit();
+    OBJCodec.write(sphere, obj.toPath(), null);
+    objFile = obj.getPath();
+
+    StringBuilder sb = new StringBuilder("# x y z\n");
+    for (double[] p : FIELD_POINTS)
+      sb.append(String.format("%s, %s, %s\n", p[0], p[1], p[2]));
+    File points = new File(dir, "points.txt");
+    points.deleteOnExit();
+    Files.write(points.toPath(), sb.toString().getBytes(StandardCharsets.US_ASCII));
+    fieldPointsFile = points.getPath();
+
+    // volume of the polyhedron rather than of the unit sphere, so only the far field
+    // approximation contributes error
+    double[] v = sphere.getVertices();
+    int[] t = sphere.getFaceVertices();
+    double volume = 0;
+    for (int i = 0; i < t.length; i += 3) {
+      int a = 3 * t[i];
+      int b = 3 * t[i + 1];
+      int c = 3 * t[i + 2];
+      volume += (v[a] * (v[b + 1] * v[c + 2] - v[b + 2] * v[c + 1])
+          - v[a + 1] * (v[b] * v[c + 2] - v[b + 2] * v[c])
+          + v[a + 2] * (v[b] * v[c + 1] - v[b + 1] * v[c])) / 6;
+    }
+    gm = G * DENSITY * 1e3 * volume * 1e9;
+  }
+
+  private static ImmutableGravityOptions.Builder options(double rotation) {
+    return ImmutableGravityOptions.builder().plateModelFile(objFile).density(DENSITY)
+        .gravConstant(G).rotation(rotation);
+  }
+
+  @Test
+  public void testPointMass() throws Exception {
+    List<GravityResult> results = GravityUtils.compute(options(0).evaluation(EVALUATION.FILE)
+        .fieldPointsFile(fieldPointsFile).build());
+    assertEquals(FIELD_POINTS.length, results.size());
+    for (int i = 0; i < FIELD_POINTS.length; i++) {
+      GravityResult gr = results.get(i);
+      double[] p = FIELD_POINTS[i];
+      assertEquals(i, gr.getIndex());
+      for (int k = 0; k < 3; k++)
+        assertEquals(p[k], gr.getXYZ()[k], 0);
+
+      // SI units
+      double r = Math.sqrt(p[0] * p[0] + p[1] * p[1] + p[2] * p[2]) * 1e3;
+      double potential = -gm / r;
+      assertEquals(potential, gr.getPotential(), Math.abs(potential) * 1e-5);
+      for (int k = 0; k < 3; k++)
+        assertEquals(-gm / (r * r) * p[k] * 1e3 / r, gr.getAcc()[k], gm / (r * r) * 1e-5);
+    }
+  }
+
+  @Test
+  public void testRotation() throws Exception {
+    double omega = 1e-5;
+    List<GravityResult> still = GravityUtils.compute(options(0).evaluation(EVALUATION.FILE)
+        .fieldPointsFile(fieldPointsFile).build());
+    List<GravityResult> rotating = GravityUtils.compute(options(omega)
+        .evaluation(EVALUATION.FILE).fieldPointsFile(fieldPointsFile).build());
+    for (int i = 0; i < FIELD_POINTS.length; i++) {
+      double x = FIELD_POINTS[i][0] * 1e3;
+      double y = FIELD_POINTS[i][1] * 1e3;
+      double[] acc0 = still.get(i).getAcc();
+      double[] acc1 = rotating.get(i).getAcc();
+      double centrifugal = 0.5 * omega * omega * (x * x + y * y);
+      assertEquals(still.get(i).getPotential() - centrifugal, rotating.get(i).getPotential(),
+          1e-12 * centrifugal);
+      assertEquals(acc0[0] + omega * omega * x, acc1[0], 1e-12 * Math.abs(acc1[0]));
+      assertEquals(acc0[1] + omega * omega * y, acc1[1], 1e-12 * Math.abs(acc1[1]));
+      assertEquals(acc0[2], acc1[2], 0);
+    }
+  }
+
+  @Test
+  public void testAverageVertices() throws Exception {
+    int start = 10;
+    int numPlates = 50;
+    double omega = 1e-5;
+    List<GravityResult> vertices =
+        GravityUtils.compute(options(omega).evaluation(EVALUATION.VERTICES).build());
+    List<GravityResult> plates = GravityUtils.compute(options(omega)
+        .evaluation(EVALUATION.AVERAGE_VERTICES).startIndex(start).numPlates(numPlates).build());
+    assertEquals(sphere.getNumberOfVertices(), vertices.size());
+    assertEquals(numPlates, plates.size());
+
+    int[] t = sphere.getFaceVertices();
+    for (int i = 0; i < numPlates; i++) {
+      GravityResult gr = plates.get(i);
+      int plate = start + i;
+      assertEquals(plate, gr.getIndex());
+      double potential = 0;
+      double[] acc = new double[3];
+      double[] center = new double[3];
+      for (int j = 0; j < 3; j++) {
+        GravityResult vertex = vertices.get(t[3 * plate + j]);
+        potential += vertex.getPotential() / 3;
+        for (int k = 0; k < 3; k++) {
+          acc[k] += vertex.getAcc()[k] / 3;
+          center[k] += vertex.getXYZ()[k] / 3;
+        }
+      }
+      assertEquals(potential, gr.getPotential(), 1e-12 * Math.abs(potential));
+      for (int k = 0; k < 3; k++) {
+        assertEquals(acc[k], gr.getAcc()[k], 1e-12 * Math.abs(acc[k]));
+        assertEquals(center[k], gr.getXYZ()[k], 1e-15);
+      }
+    }
+  }
+
+  @Test
+  public void testReferencePotential() throws Exception {
+    // rotation makes the surface potential vary with latitude
+    int start = 100;
+    int numPlates = 400;
+    List<GravityResult> results = GravityUtils.compute(options(1e-5)
+        .evaluation(EVALUATION.CENTERS).startIndex(start).numPlates(numPlates).build());
+    assertEquals(numPlates, results.size());
+
+    double[] v = sphere.getVertices();
+    int[] t = sphere.getFaceVertices();
+    double sum = 0;
+    double totalArea = 0;
+    for (int i = 0; i < numPlates; i++) {
+      int plate = start + i;
+      double[] e1 = new double[3];
+      double[] e2 = new double[3];
+      for (int k = 0; k < 3; k++) {
+        e1[k] = v[3 * t[3 * plate + 1] + k] - v[3 * t[3 * plate] + k];
+        e2[k] = v[3 * t[3 * plate + 2] + k] - v[3 * t[3 * plate] + k];
+      }
+      double area = 0.5 * Math.sqrt(Math.pow(e1[1] * e2[2] - e1[2] * e2[1], 2)
+          + Math.pow(e1[2] * e2[0] - e1[0] * e2[2], 2)
+          + Math.pow(e1[0] * e2[1] - e1[1] * e2[0], 2));
+      GravityResult gr = results.get(i);
+      assertEquals(area, gr.getArea(), 1e-15);
+      sum += gr.getPotential() * area;
+      totalArea += area;
+    }
+    double refPotential = sum / totalArea;
+
+    for (GravityResult gr : results) {
+      double[] acc = gr.getAcc();
+      double g = Math.sqrt(acc[0] * acc[0] + acc[1] * acc[1] + acc[2] * acc[2]);
+      assertEquals((gr.getPotential() - refPotential) / g, gr.getElevation(), 1e-6);
+    }
+
+    // an explicit reference potential is used as given
+    List<GravityResult> fixed = GravityUtils.compute(options(1e-5).evaluation(EVALUATION.CENTERS)
+        .startIndex(start).numPlates(numPlates).refPotential(refPotential + 1).build());
+    for (int i = 0; i < numPlates; i++) {
+      double[] acc = fixed.get(i).getAcc();
+      double g = Math.sqrt(acc[0] * acc[0] + acc[1] * acc[1] + acc[2] * acc[2]);
+      assertEquals(results.get(i).getElevation() - 1 / g, fixed.get(i).getElevation(), 1e-6);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.gravity;
+
+import static org.junit.Assert.assertEquals;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.Test;
+import terrasaur.utils.OBJCodec;
+import terrasaur.utils.TestFixtures;
+
+public class PolyhedronGravityTest {
+
+  /** @return cube with edges of length 2 centered on the origin */
+  private static PolyhedronGravity cube() {
+    double[] vertices = new double[24];
+    for (int i = 0; i < 8; i++) {
+      vertices[3 * i] = (i & 1) == 0 ? -1 : 1;
+      vertices[3 * i + 1] = (i & 2) == 0 ? -1 : 1;
+      vertices[3 * i + 2] = (i & 4) == 0 ? -1 : 1;
+    }
+    int[] triangles = {0, 2, 3, 0, 3, 1, // z = -1
+        4, 5, 7, 4, 7, 6, // z = 1
+        0, 1, 5, 0, 5, 4, // y = -1
+        2, 6, 7, 2, 7, 3, // y = 1
+        0, 4, 6, 0, 6, 2, // x = -1
+        1, 3, 7, 1, 7, 5}; // x = 1
+    return new PolyhedronGravity(vertices, triangles);
+  }
+
+  @Test
+  public void testSolidAngle() {
+    PolyhedronGravity cube = cube();
+    assertEquals(18, cube.getNumberOfEdges());
+    assertEquals(4 * Math.PI, cube.getSolidAngle(0.1, -0.2, 0.3), 1e-12);
+    assertEquals(0, cube.getSolidAngle(3, 2, 1), 1e-12);
+  }
+
+  @Test
+  public void testFarField() {
+    // a cube has no quadrupole moment, so the potential is -M/r to order r^-5
+    PolyhedronGravity cube = cube();
+    double[] acc = new double[3];
+    double r = 20;
+    double potential = cube.evaluate(0, 0, r, acc);
+    assertEquals(-8 / r, potential, 1e-6);
+    assertEquals(0, acc[0], 1e-12);
+    assertEquals(0, acc[1], 1e-12);
+    assertEquals(-8 / (r * r), acc[2], 1e-6);
+  }
+
+  @Test
+  public void testGradient() {
+    PolyhedronGravity cube = cube();
+    double[] acc = new double[3];
+    double[] tmp = new double[3];
+    double h = 1e-5;
+    for (double[] p : new double[][] {{0.3, -0.2, 0.5}, {1.5, 0.7, -0.4}, {1.2, 0.2, 0.3}}) {
+      cube.evaluate(p[0], p[1], p[2], acc);
+      for (int i = 0; i < 3; i++) {
+        double[] plus = p.clone();
+        double[] minus = p.clone();
+        plus[i] += h;
+        minus[i] -= h;
+        double dU = cube.evaluate(plus[0], plus[1], plus[2], tmp)
+            - cube.evaluate(minus[0], minus[1], minus[2], tmp);
+        assertEquals(-dU / (2 * h), acc[i], 1e-6);
+      }
+    }
+
+    // acceleration is continuous across the surface
+    double[] outside = new double[3];
+    cube.evaluate(1, 0.2, 0.3, acc);
+    cube.evaluate(1 + 1e-9, 0.2, 0.3, outside);
+    for (int i = 0; i < 3; i++)
+      assertEquals(outside[i], acc[i], 1e-6);
+
+    // batch evaluation matches single point evaluation
+    double[] points = {0.3, -0.2, 0.5, 1.5, 0.7, -0.4};
+    double[] potential = new double[2];
+    double[] batchAcc = new double[6];
+    cube.evaluate(points, potential, batchAcc);
+    assertEquals(cube.evaluate(1.5, 0.7, -0.4, acc), potential[1], 0);
+    assertEquals(acc[2], batchAcc[5], 0);
+  }
+
+  @Test
+  public void testSliverFacets() {
+    // the poles of this sphere are split into vertices about 1e-16 apart, so the facets touching
+    // them are slivers with edges that are nearly parallel
+    OBJCodec.Mesh sphere = TestFixtures.latLonSphere(20, 40);
+    double[] vertices = sphere.getVertices();
+    int[] triangles = sphere.getFaceVertices();
+    double volume = 0;
+    for (int i = 0; i < triangles.length; i += 3) {
+      Vector3D[] v = new Vector3D[3];
+      for (int j = 0; j < 3; j++) {
+        int k = 3 * triangles[i + j];
+        v[j] = new Vector3D(vertices[k], vertices[k + 1], vertices[k + 2]);
+      }
+      volume += v[0].dotProduct(v[1].crossProduct(v[2])) / 6;
+    }
+
+    PolyhedronGravity polyhedron = new PolyhedronGravity(vertices, triangles);
+    double[] acc = new double[3];
+    for (double[] p : new double[][] {{0, 0, 30}, {0.5, 0.3, -30}, {25, 0, 0}}) {
+      Vector3D r = new Vector3D(p);
+      double potential = polyhedron.evaluate(p[0], p[1], p[2], acc);
+      assertEquals(-volume / r.getNorm(), potential, 1e-5 * volume / r.getNorm());
+      Vector3D expected = r.scalarMultiply(-volume / Math.pow(r.getNorm(), 3));
+      for (int i = 0; i < 3; i++)
+        assertEquals(expected.toArray()[i], acc[i], 1e-5 * expected.getNorm());
+    }
+  }
+
+}
@@ -22,8 +22,11 @@
  */
 package terrasaur.utils.lidar;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import java.io.File;
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.RotationConvention;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -69,6 +72,23 @@ public class LidarTransformationTest {
     assertTrue(Vector3D.angle(transform.getTranslation(), testTransform.getTranslation()) < 1e-5);
   }
 
+  @Test
+  public void testJSONRoundTrip() {
+    Vector3D translation = new Vector3D(0.25, -1.5, 3e-7);
+    Rotation rotation =
+        new Rotation(new Vector3D(1, 2, -3), 0.1, RotationConvention.VECTOR_OPERATOR);
+    Vector3D center = new Vector3D(-2.5, 0.125, 10);
+    LidarTransformation transform =
+        LidarTransformation.fromComponents(translation, rotation, center);
+
+    LidarTransformation copy = LidarTransformation.fromJSON(transform.toJSON());
+    assertEquals(0, copy.getTranslation().distance(translation), 0);
+    assertEquals(0, Rotation.distance(copy.getRotation(), rotation), 1e-15);
+    assertEquals(0, copy.getCenterOfRotation().distance(center), 0);
 
+    Vector3D point = new Vector3D(1, 2, 3);
+    assertEquals(0,
+        copy.transformPoint(point).distance(transform.transformPoint(point)), 1e-14);
+  }
 
 }
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.lidar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.apache.commons.math3.geometry.euclidean.threed.Rotation;
+import org.apache.commons.math3.geometry.euclidean.threed.RotationConvention;
+import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import terrasaur.smallBodyModel.SmallBodyModel;
+import terrasaur.utils.OBJCodec;
+import terrasaur.utils.PolyDataUtil;
+import terrasaur.utils.TestFixtures;
+
+public class PointCloudRegistrationTest {
+
+  /** misalignment applied to the points */
+  private static final Rotation ROTATION =
+      new Rotation(new Vector3D(0.3, -0.5, 0.8), Math.toRadians(3),
+          RotationConvention.VECTOR_OPERATOR);
+  private static final Vector3D TRANSLATION = new Vector3D(0.02, -0.01, 0.015);
+
+  /** reference model, which may be shared since it uses the BVH query engine */
+  private static SmallBodyModel reference;
+
+  /** lumpy body with no rotational symmetry */
+  private static double[] vertices;
+  private static int[] triangles;
+
+  /** facet centers on one side of the body, all of which lie on the reference */
+  private static double[] points;
+
+  @BeforeClass
+  public static void setup() {
+    OBJCodec.Mesh body = TestFixtures.latLonSphere(60, 120,
+        (lat, lon) -> 1 + 0.2 * Math.cos(lat) * Math.cos(lat) * Math.sin(2 * lon + 0.3)
+            + 0.1 * Math.sin(3 * lat) * Math.cos(lon) + 0.05 * Math.cos(5 * lon));
+    vertices = body.getVertices();
+    triangles = body.getFaceVertices();
+    for (int i = 0; i < vertices.length; i += 3) {
+      vertices[i] *= 1.3;
+      vertices[i + 2] *= 0.8;
+    }
+
+    double[] centers = new double[triangles.length];
+    int numPoints = 0;
+    for (int i = 0; i < triangles.length / 3; i++) {
+      double[] center = new double[3];
+      for (int j = 0; j < 3; j++)
+        for (int k = 0; k < 3; k++)
+          center[k] += vertices[3 * triangles[3 * i + j] + k] / 3;
+      if (center[0] < 0.2 || center[1] < -0.5)
+        continue;
+      System.arraycopy(center, 0, centers, 3 * numPoints++, 3);
+    }
+    points = new double[3 * numPoints];
+    System.arraycopy(centers, 0, points, 0, points.length);
+
+    TestFixtures.loadVtkLibraries();
+    reference = new SmallBodyModel(PolyDataUtil.fromOBJMesh(body), SmallBodyModel.QueryEngine.BVH);
+  }
+
+  private static PointCloudRegistration newRegistration() {
+    return new PointCloudRegistration(reference);
+  }
+
+  /**
+   * @param rotation rotation about center
+   * @param center center of rotation
+   * @param translation translation applied after rotation
+   * @return {@link #points} moved off the reference
+   */
+  private static double[] misalign(Rotation rotation, Vector3D center, Vector3D translation) {
+    double[] moved = new double[points.length];
+    for (int i = 0; i < points.length / 3; i++) {
+      Vector3D p = new Vector3D(points[3 * i], points[3 * i + 1], points[3 * i + 2]);
+      Vector3D q = rotation.applyTo(p.subtract(center)).add(center).add(translation);
+      moved[3 * i] = q.getX();
+      moved[3 * i + 1] = q.getY();
+      moved[3 * i + 2] = q.getZ();
+    }
+    return moved;
+  }
+
+  /** @return evenly spaced subset of the points, as chosen by the registration */
+  private static double[] controlPoints(double[] points, int numControl) {
+    int numPoints = points.length / 3;
+    double[] control = new double[3 * numControl];
+    for (int i = 0; i < numControl; i++)
+      System.arraycopy(points, 3 * (int) ((long) i * numPoints / numControl), control, 3 * i, 3);
+    return control;
+  }
+
+  /** @return centroid of the points */
+  private static Vector3D centroid(double[] points) {
+    double[] sum = new double[3];
+    int n = points.length / 3;
+    for (int i = 0; i < n; i++)
+      for (int j = 0; j < 3; j++)
+        sum[j] += points[3 * i + j];
+    return new Vector3D(sum[0] / n, sum[1] / n, sum[2] / n);
+  }
+
+  /**
+   * @return largest distance between a misaligned point after transform is applied and its
+   *         original position
+   */
+  private static double maxError(LidarTransformation transform, double[] moved) {
+    double maxError = 0;
+    for (int i = 0; i < points.length / 3; i++) {
+      Vector3D p = new Vector3D(points[3 * i], points[3 * i + 1], points[3 * i + 2]);
+      Vector3D q = new Vector3D(moved[3 * i], moved[3 * i + 1], moved[3 * i + 2]);
+      maxError = Math.max(maxError, transform.transformPoint(q).distance(p));
+    }
+    return maxError;
+  }
+
+  @Test
+  public void testPointToPlane() {
+    PointCloudRegistration icp = newRegistration();
+    double[] moved = misalign(ROTATION, Vector3D.ZERO, TRANSLATION);
+    LidarTransformation transform = icp.register(moved, true, true, 0);
+    assertEquals(0, maxError(transform, moved), 1e-9);
+  }
+
+  @Test
+  public void testPointToPoint() {
+    PointCloudRegistration icp = newRegistration();
+    icp.setMetric(PointCloudRegistration.Metric.POINT_TO_POINT);
+
+    // converges linearly, unlike point to plane
+    icp.setMaxIterations(500);
+    double[] moved = misalign(ROTATION, Vector3D.ZERO, TRANSLATION);
+    LidarTransformation transform = icp.register(moved, true, true, 1000);
+    assertEquals(0, maxError(transform, moved), 1e-6);
+  }
+
+  @Test
+  public void testTranslationOnly() {
+    for (PointCloudRegistration.Metric metric : PointCloudRegistration.Metric.values()) {
+      PointCloudRegistration icp = newRegistration();
+      icp.setMetric(metric);
+      icp.setMaxIterations(500);
+      double[] moved = misalign(Rotation.IDENTITY, Vector3D.ZERO, TRANSLATION);
+      LidarTransformation transform = icp.register(moved, true, false, 1000);
+      assertEquals(metric.name(), 0, Rotation.distance(Rotation.IDENTITY, transform.getRotation()),
+          0);
+      assertEquals(metric.name(), 0,
+          transform.getTranslation().add(TRANSLATION).getNorm(), 1e-6);
+    }
+  }
+
+  @Test
+  public void testRotationOnly() {
+    for (PointCloudRegistration.Metric metric : PointCloudRegistration.Metric.values()) {
+      PointCloudRegistration icp = newRegistration();
+      icp.setMetric(metric);
+      icp.setMaxIterations(500);
+
+      // rotation is about the centroid of the control points
+      Vector3D center = centroid(controlPoints(points, 1000));
+      double[] moved = misalign(ROTATION, center, Vector3D.ZERO);
+      LidarTransformation transform = icp.register(moved, false, true, 1000);
+      assertEquals(metric.name(), 0, transform.getTranslation().getNorm(), 0);
+      assertEquals(metric.name(), 0, Rotation.distance(ROTATION.revert(), transform.getRotation()),
+          1e-6);
+    }
+  }
+
+  @Test
+  public void testControlPoints() {
+    PointCloudRegistration icp = newRegistration();
+    double[] moved = misalign(ROTATION, Vector3D.ZERO, TRANSLATION);
+    int numPoints = moved.length / 3;
+    int numControl = 200;
+    assertTrue(numPoints > 10 * numControl);
+
+    // the transform from a subset of the points still aligns all of them
+    LidarTransformation transform = icp.register(moved, true, true, numControl);
+    assertEquals(0, maxError(transform, moved), 1e-9);
+
+    // center of rotation is the centroid of the evenly spaced subset
+    Vector3D center = centroid(controlPoints(moved, numControl));
+    assertEquals(0, transform.getCenterOfRotation().distance(center), 1e-12);
+    assertTrue(transform.getCenterOfRotation().distance(centroid(moved)) > 1e-6);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRequiresBVH() {
+    new PointCloudRegistration(new SmallBodyModel(
+        PolyDataUtil.fromOBJMesh(OBJCodec.Mesh.fromTriangles(vertices, triangles)),
+        SmallBodyModel.QueryEngine.VTK));
+  }
+}
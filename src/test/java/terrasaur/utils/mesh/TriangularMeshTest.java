@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.mesh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import picante.math.vectorspace.UnwritableVectorIJK;
+import picante.math.vectorspace.VectorIJK;
+
+public class TriangularMeshTest {
+
+  /** n x n grid of squares on a gently curved surface, each split into two facets */
+  private static TriangularMesh grid(int n) {
+    TriangularMesh.Builder builder = new TriangularMesh.Builder();
+    for (int i = 0; i <= n; i++)
+      for (int j = 0; j <= n; j++)
+        builder.addVertex(i, j, 0.01 * (i * i + j * j));
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        int v00 = i * (n + 1) + j;
+        int v10 = v00 + n + 1;
+        builder.addFacet(v00, v10, v00 + 1);
+        builder.addFacet(v10, v10 + 1, v00 + 1);
+      }
+    }
+    return builder.build();
+  }
+
+  /** add a sphere made by subdividing an octahedron */
+  private static void addSphere(TriangularMesh.Builder builder, int offset, double radius,
+      double[] center, int n) {
+    int[][] corners = {{0, 2, 4}, {2, 1, 4}, {1, 3, 4}, {3, 0, 4}, {2, 0, 5}, {1, 2, 5}, {3, 1, 5},
+        {0, 3, 5}};
+    double[][] axes = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+    int index = offset;
+    for (int[] face : corners) {
+      double[] a = axes[face[0]];
+      double[] b = axes[face[1]];
+      double[] c = axes[face[2]];
+      int[][] grid = new int[n + 1][];
+      for (int i = 0; i <= n; i++) {
+        grid[i] = new int[n + 1 - i];
+        for (int j = 0; j <= n - i; j++) {
+          double wa = (double) (n - i - j) / n;
+          double wb = (double) i / n;
+          double wc = (double) j / n;
+          double[] p = new double[3];
+          for (int k = 0; k < 3; k++)
+            p[k] = wa * a[k] + wb * b[k] + wc * c[k];
+          double norm = Math.sqrt(p[0] * p[0] + p[1] * p[1] + p[2] * p[2]);
+          builder.addVertex(center[0] + radius * p[0] / norm, center[1] + radius * p[1] / norm,
+              center[2] + radius * p[2] / norm);
+          grid[i][j] = index++;
+        }
+      }
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n - i; j++) {
+          builder.addFacet(grid[i][j], grid[i + 1][j], grid[i][j + 1]);
+          if (j < n - i - 1)
+            builder.addFacet(grid[i + 1][j], grid[i + 1][j + 1], grid[i][j + 1]);
+        }
+      }
+    }
+  }
+
+  private static int sphereVertices(int n) {
+    return 8 * (n + 1) * (n + 2) / 2;
+  }
+
+  private static void assertSameCoordinates(UnwritableVectorIJK expected,
+      UnwritableVectorIJK actual) {
+    assertEquals(expected.getI(), actual.getI(), 1e-12);
+    assertEquals(expected.getJ(), actual.getJ(), 1e-12);
+    assertEquals(expected.getK(), actual.getK(), 1e-12);
+  }
+
+  @Test
+  public void testTransforms() {
+    TriangularMesh mesh = grid(20);
+    UnwritableVectorIJK center = mesh.getCenter();
+
+    TriangularMesh translated = mesh.translate(new UnwritableVectorIJK(1, -2, 3));
+    TriangularMesh scaled = mesh.scale(2);
+    assertEquals(mesh.getNumberOfFacets(), translated.getNumberOfFacets());
+    for (int i = 0; i < mesh.getNumberOfVertices(); i++) {
+      UnwritableVectorIJK v = mesh.getVertexList().get(i);
+      assertSameCoordinates(new UnwritableVectorIJK(v.getI() + 1, v.getJ() - 2, v.getK() + 3),
+          translated.getVertexList().get(i));
+      assertSameCoordinates(
+          new UnwritableVectorIJK(2 * v.getI() - center.getI(), 2 * v.getJ() - center.getJ(),
+              2 * v.getK() - center.getK()),
+          scaled.getVertexList().get(i));
+    }
+    for (int i = 0; i < mesh.getNumberOfFacets(); i++) {
+      assertEquals(mesh.getFacetList().get(i).getArea() * 4,
+          scaled.getFacetList().get(i).getArea(), 1e-9);
+    }
+  }
+
+  @Test
+  public void testSubset() {
+    TriangularMesh mesh = grid(20);
+    List<TriangularFacet> facets = new ArrayList<>();
+    for (int i = 0; i < mesh.getNumberOfFacets(); i += 7)
+      facets.add(mesh.getFacetList().get(i));
+
+    TriangularMesh subset = mesh.subset(facets);
+    assertEquals(facets.size(), subset.getNumberOfFacets());
+    Set<UnwritableVectorIJK> vertices = new HashSet<>();
+    for (int i = 0; i < facets.size(); i++) {
+      TriangularFacet expected = facets.get(i);
+      TriangularFacet actual = subset.getFacetList().get(i);
+      assertSameCoordinates(expected.getVertex1(), actual.getVertex1());
+      assertSameCoordinates(expected.getVertex2(), actual.getVertex2());
+      assertSameCoordinates(expected.getVertex3(), actual.getVertex3());
+      vertices.addAll(expected.getVertices());
+    }
+    assertEquals(vertices.size(), subset.getNumberOfVertices());
+  }
+
+  @Test
+  public void testFacetNeighbors() {
+    TriangularMesh mesh = grid(10);
+    List<TriangularFacet> facetList = mesh.getFacetList();
+    for (TriangularFacet tf : facetList) {
+      Set<TriangularFacet> expected = new HashSet<>();
+      for (TriangularFacet other : facetList) {
+        for (UnwritableVectorIJK v : other.getVertices())
+          if (tf.getVertices().contains(v))
+            expected.add(other);
+      }
+      Set<TriangularFacet> found = new HashSet<>(mesh.getFacetNeighbors(tf));
+      assertEquals(expected, found);
+    }
+
+    TriangularFacet tf = facetList.get(facetList.size() / 2);
+    Set<TriangularFacet> nearby = mesh.getFacetsWithinRadius(tf, 2.5);
+    assertTrue(nearby.contains(tf));
+    for (TriangularFacet f : nearby)
+      assertTrue(f.getCenter().getDistance(tf.getCenter()) < 2.5 || f == tf);
+    assertEquals(mesh.getFacetIndexMap().get(tf).intValue(), facetList.size() / 2);
+  }
+
+  @Test
+  public void testNearestIntersection() {
+    TriangularMesh.Builder builder = new TriangularMesh.Builder();
+    addSphere(builder, 0, 1, new double[] {0, 0, 0}, 16);
+    TriangularMesh mesh = builder.build();
+
+    Random r = new Random(0);
+    for (int i = 0; i < 200; i++) {
+      UnwritableVectorIJK origin =
+          new UnwritableVectorIJK(r.nextGaussian(), r.nextGaussian(), r.nextGaussian()).unitize();
+      origin = new VectorIJK(origin).scale(3);
+      UnwritableVectorIJK target = new UnwritableVectorIJK(0.3 * r.nextGaussian(),
+          0.3 * r.nextGaussian(), 0.3 * r.nextGaussian());
+      UnwritableVectorIJK direction = VectorIJK.subtract(target, origin);
+
+      // on a convex surface the nearest facet crossed by the line is the one hit first
+      TriangularFacet expected = null;
+      for (TriangularFacet f : mesh.getFacetList()) {
+        if (f.intersects(origin, direction) && (expected == null
+            || f.getCenter().getDistance(origin) < expected.getCenter().getDistance(origin)))
+          expected = f;
+      }
+      int found = mesh.getNearestIntersection(origin, direction);
+      assertEquals(mesh.getFacetIndexMap().get(expected).intValue(), found);
+      assertTrue(mesh.intersects(origin, direction));
+      assertEquals(-1, mesh.getNearestIntersection(origin, new VectorIJK(origin)));
+
+      // intersects is a line test, so the mesh behind origin counts
+      assertTrue(mesh.intersects(origin, new VectorIJK(origin)));
+    }
+  }
+
+  @Test
+  public void testShadow() {
+    // a small sphere between the Sun and a large sphere
+    TriangularMesh.Builder builder = new TriangularMesh.Builder();
+    addSphere(builder, 0, 1, new double[] {0, 0, 0}, 16);
+    addSphere(builder, sphereVertices(16), 0.3, new double[] {2, 0, 0}, 4);
+    TriangularMesh mesh = builder.build();
+    UnwritableVectorIJK sunPos = new UnwritableVectorIJK(1e6, 0, 0);
+
+    int numShadowed = 0;
+    int numFacing = 0;
+    for (TriangularFacet f : mesh.getFacetList()) {
+      VectorIJK lookDir = VectorIJK.subtract(f.getCenter(), sunPos);
+      double expected = 1;
+      if (f.getNormal().getDot(lookDir) < 0) {
+        numFacing++;
+        TriangularFacet first = null;
+        for (TriangularFacet g : mesh.getFacetList()) {
+          if (g.intersects(sunPos, lookDir) && (first == null
+              || g.getCenter().getDistance(sunPos) < first.getCenter().getDistance(sunPos)))
+            first = g;
+        }
+        if (first == f)
+          expected = 0;
+        else
+          numShadowed++;
+      }
+      assertEquals(expected, mesh.isInShadow(f, sunPos), 0);
+    }
+    assertTrue(numShadowed > 0);
+    assertTrue(numShadowed < numFacing);
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.octree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import org.junit.Test;
+
+public class LinearOctreeTest {
+
+  /** n spheres with random centers and radii, as center and radius arrays */
+  private static double[][] randomSpheres(int n, Random r) {
+    double[] centers = new double[3 * n];
+    double[] radii = new double[n];
+    for (int i = 0; i < n; i++) {
+      // clustered so that some regions are much denser than others
+      double scale = i % 4 == 0 ? 10 : 0.5;
+      for (int j = 0; j < 3; j++)
+        centers[3 * i + j] = scale * r.nextGaussian();
+      radii[i] = 0.01 + 0.05 * r.nextDouble();
+    }
+    return new double[][] {centers, radii};
+  }
+
+  private static double[] bounds(double[] centers, double[] radii) {
+    double[] bounds = new double[6 * radii.length];
+    for (int i = 0; i < radii.length; i++) {
+      for (int j = 0; j < 3; j++) {
+        bounds[6 * i + j] = centers[3 * i + j] - radii[i];
+        bounds[6 * i + j + 3] = centers[3 * i + j] + radii[i];
+      }
+    }
+    return bounds;
+  }
+
+  /** distance along the ray to the first intersection with sphere i, or NaN */
+  private static double intersectSphere(double[] centers, double[] radii, int i, double[] origin,
+      double[] direction) {
+    double[] oc = new double[3];
+    for (int j = 0; j < 3; j++)
+      oc[j] = origin[j] - centers[3 * i + j];
+    double a = direction[0] * direction[0] + direction[1] * direction[1]
+        + direction[2] * direction[2];
+    double b = 2 * (oc[0] * direction[0] + oc[1] * direction[1] + oc[2] * direction[2]);
+    double c = oc[0] * oc[0] + oc[1] * oc[1] + oc[2] * oc[2] - radii[i] * radii[i];
+    double disc = b * b - 4 * a * c;
+    if (disc < 0)
+      return Double.NaN;
+    return (-b - Math.sqrt(disc)) / (2 * a);
+  }
+
+  @Test
+  public void testOccupancy() {
+    double[][] spheres = randomSpheres(20000, new Random(0));
+    LinearOctree octree =
+        new LinearOctree(bounds(spheres[0], spheres[1]), LinearOctree.MAX_LEVEL, 8);
+    LinearOctree.OccupancyStatistics stats = octree.getOccupancyStatistics();
+
+    assertTrue(stats.getMaxItemsPerLeaf() <= 8);
+    assertTrue(stats.getMaxDepth() > 10);
+    assertEquals(20000, Math.round(stats.getMeanItemsPerLeaf() * stats.getNumberOfLeaves()));
+
+    int total = 0;
+    for (int n : stats.getNodesPerLevel())
+      total += n;
+    assertEquals(octree.getNumberOfNodes(), total);
+
+    for (int node = 0; node < octree.getNumberOfNodes(); node++)
+      assertEquals(node, octree.findNode(octree.getNodeKey(node)));
+    assertEquals(-1, octree.findNode(0));
+  }
+
+  @Test
+  public void testNearest() {
+    Random r = new Random(1);
+    double[][] spheres = randomSpheres(5000, r);
+    double[] centers = spheres[0];
+    double[] radii = spheres[1];
+    LinearOctree octree = new LinearOctree(bounds(centers, radii), LinearOctree.MAX_LEVEL, 4);
+    LinearOctree.RayIntersector intersector =
+        (i, origin, direction) -> intersectSphere(centers, radii, i, origin, direction);
+
+    for (int k = 0; k < 200; k++) {
+      double[] origin = {20 * r.nextGaussian(), 20 * r.nextGaussian(), 20 * r.nextGaussian()};
+      int target = r.nextInt(radii.length);
+      double[] direction = new double[3];
+      for (int j = 0; j < 3; j++)
+        direction[j] = centers[3 * target + j] - origin[j];
+
+      int expected = -1;
+      double best = Double.MAX_VALUE;
+      for (int i = 0; i < radii.length; i++) {
+        double t = intersectSphere(centers, radii, i, origin, direction);
+        if (t >= 0 && t < best) {
+          best = t;
+          expected = i;
+        }
+      }
+      assertEquals(expected,
+          octree.nearest(origin, direction, 0, Double.MAX_VALUE, intersector));
+      assertTrue(octree.any(origin, direction, 0, Double.MAX_VALUE, intersector));
+      assertEquals(best < 0.5, octree.any(origin, direction, 0, 0.5, intersector));
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ * Copyright © 2025 Johns Hopkins University Applied Physics Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package terrasaur.utils.tessellation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+import picante.math.vectorspace.UnwritableVectorIJK;
+import picante.math.vectorspace.VectorIJK;
+
+public class FibonacciSphereTest {
+
+  private static final int NUM_TILES = 2000;
+
+  /** @return a random point, not necessarily a unit vector */
+  private static VectorIJK randomPoint(Random r) {
+    double scale = 0.1 + 10 * r.nextDouble();
+    return new VectorIJK(scale * r.nextGaussian(), scale * r.nextGaussian(),
+        scale * r.nextGaussian());
+  }
+
+  /** @return tiles sorted by distance from point, found by a linear scan */
+  private static NavigableMap<Double, Integer> linearScan(FibonacciSphere fs,
+      UnwritableVectorIJK point) {
+    NavigableMap<Double, Integer> distanceMap = new TreeMap<>();
+    for (int i = 0; i < fs.getNumTiles(); i++)
+      distanceMap.put(fs.getTileCenterIJK(i).getSeparation(point), i);
+    return distanceMap;
+  }
+
+  @Test
+  public void testClosestNeighborDistance() {
+    FibonacciSphere fs = new FibonacciSphere(NUM_TILES);
+    for (int i = 0; i < NUM_TILES; i++) {
+      UnwritableVectorIJK center = fs.getTileCenterIJK(i);
+      double expected = Double.MAX_VALUE;
+      for (int j = 0; j < NUM_TILES; j++) {
+        double dist = fs.getTileCenterIJK(j).getSeparation(center);
+        if (dist > 0 && dist < expected)
+          expected = dist;
+      }
+      assertEquals(expected, fs.getDist(i), 0);
+    }
+    assertEquals(NUM_TILES, fs.getDistanceStats().getN());
+  }
+
+  @Test
+  public void testNearestTiles() {
+    FibonacciSphere fs = new FibonacciSphere(NUM_TILES);
+    Random r = new Random(0);
+    for (int i = 0; i < 500; i++) {
+      VectorIJK point = randomPoint(r);
+      NavigableMap<Double, Integer> expected = linearScan(fs, point);
+      assertEquals(expected, fs.getDistanceMap(point));
+
+      int k = 1 + r.nextInt(30);
+      NavigableMap<Double, Integer> nearest = fs.getNearestTiles(point, k);
+      assertEquals(expected.headMap(expected.keySet().toArray(new Double[0])[k - 1], true),
+          nearest);
+    }
+  }
+
+  @Test
+  public void testDistanceMapRadius() {
+    FibonacciSphere fs = new FibonacciSphere(NUM_TILES);
+    Random r = new Random(0);
+    for (int i = 0; i < 500; i++) {
+      VectorIJK point = randomPoint(r);
+      NavigableMap<Double, Integer> expected = linearScan(fs, point);
+
+      double maxDistance;
+      switch (i % 3) {
+        case 0:
+          // exactly the distance to a tile, which must be included
+          maxDistance = expected.keySet().toArray(new Double[0])[r.nextInt(NUM_TILES)];
+          break;
+        case 1:
+          // the radius used by LocalModelCollection.getFilenames
+          maxDistance = Math.PI / 4 + 0.02 * r.nextDouble();
+          break;
+        default:
+          maxDistance = 3.5 * r.nextDouble();
+      }
+      assertEquals(expected.headMap(maxDistance, true), fs.getDistanceMap(point, maxDistance));
+    }
+  }
+
+  /**
+   * Local model lookup as done by LocalModelCollection.getFilenames: visit tiles in order of
+   * distance and keep the models within PI/4 of point.
+   */
+  private static List<Integer> localModels(Map<Long, List<Integer>> tileModels,
+      List<UnwritableVectorIJK> centers, UnwritableVectorIJK point,
+      NavigableMap<Double, Integer> distanceMap) {
+    List<Integer> models = new ArrayList<>();
+    for (int tile : distanceMap.values()) {
+      NavigableMap<Double, Integer> localDistanceMap = new TreeMap<>();
+      for (int model : tileModels.getOrDefault((long) tile, new ArrayList<>()))
+        localDistanceMap.put(centers.get(model).getSeparation(point), model);
+      models.addAll(localDistanceMap.headMap(Math.PI / 4, true).values());
+    }
+    return models;
+  }
+
+  @Test
+  public void testLocalModelLookup() {
+    FibonacciSphere fs = new FibonacciSphere(200);
+    Random r = new Random(0);
+
+    List<UnwritableVectorIJK> centers = new ArrayList<>();
+    Map<Long, List<Integer>> tileModels = new HashMap<>();
+    double maxTileOffset = 0;
+    for (int i = 0; i < 3000; i++) {
+      UnwritableVectorIJK center = randomPoint(r).createUnitized();
+      long tile = fs.getTileIndex(center);
+      maxTileOffset = Math.max(maxTileOffset, fs.getTileCenterIJK(tile).getSeparation(center));
+      centers.add(center);
+      tileModels.computeIfAbsent(tile, t -> new ArrayList<>()).add(i);
+    }
+
+    for (int i = 0; i < 200; i++) {
+      VectorIJK point = randomPoint(r);
+      List<Integer> expected = localModels(tileModels, centers, point, linearScan(fs, point));
+      assertTrue(expected.size() > 0);
+      assertEquals(expected, localModels(tileModels, centers, point,
+          fs.getDistanceMap(point, Math.PI / 4 + maxTileOffset)));
+    }
+  }
+}